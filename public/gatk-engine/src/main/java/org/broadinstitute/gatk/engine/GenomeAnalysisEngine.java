@@ -453,11 +453,15 @@ public class GenomeAnalysisEngine {
         if ( argCollection.numberOfDataThreads < 1 ) throw new UserException.BadArgumentValue("num_threads", "cannot be less than 1, but saw " + argCollection.numberOfDataThreads);
         if ( argCollection.numberOfCPUThreadsPerDataThread < 1 ) throw new UserException.BadArgumentValue("num_cpu_threads", "cannot be less than 1, but saw " + argCollection.numberOfCPUThreadsPerDataThread);
         if ( argCollection.numberOfIOThreads < 0 ) throw new UserException.BadArgumentValue("num_io_threads", "cannot be less than 0, but saw " + argCollection.numberOfIOThreads);
+        if ( argCollection.numberOfReadPreparationThreads < 0 ) throw new UserException.BadArgumentValue("num_read_preparation_threads", "cannot be less than 0, but saw " + argCollection.numberOfReadPreparationThreads);
 
         this.threadAllocation = new ThreadAllocation(argCollection.numberOfDataThreads,
                 argCollection.numberOfCPUThreadsPerDataThread,
                 argCollection.numberOfIOThreads,
-                argCollection.monitorThreadEfficiency);
+                argCollection.numberOfReadPreparationThreads,
+                argCollection.monitorThreadEfficiency,
+                argCollection.nanoSchedulerEngine,
+                argCollection.nanoSchedulerMemoryBudgetMB * 1024L * 1024L);
     }
 
     public int getTotalNumberOfThreads() {
@@ -622,6 +626,29 @@ public class GenomeAnalysisEngine {
         // TODO: add a check for ActiveRegion walkers to prevent users from passing an entire contig/chromosome
     }
 
+    /**
+     * The number of shards per data thread laid out by the read volume shard balancer, enough for the
+     * threads to even out the errors of the estimate between them
+     */
+    private static final int READ_VOLUME_SHARDS_PER_THREAD = 16;
+
+    /**
+     * Create a balancer for shards of equal estimated volume of reads over intervals
+     *
+     * @param readsDataSource the indexed reads
+     * @param intervals the intervals to process, or null for the whole genome
+     * @return the shard balancer
+     */
+    private ShardBalancer createReadVolumeShardBalancer(final SAMDataSource readsDataSource, final GenomeLocSortedSet intervals) {
+        final ReadVolumeEstimator estimator = new ReadVolumeEstimator(readsDataSource);
+        final GenomeLocSortedSet loci = intervals != null ? intervals :
+                GenomeLocSortedSet.createSetFromSequenceDictionary(readsDataSource.getHeader().getSequenceDictionary());
+        final long totalCost = estimator.estimateCost(loci);
+        final long targetCost = Math.max(1L, totalCost / ((long)argCollection.numberOfDataThreads * READ_VOLUME_SHARDS_PER_THREAD));
+        logger.info(String.format("Balancing shards by read volume: %d estimated in total, %d per shard", totalCost, targetCost));
+        return new ReadVolumeShardBalancer(estimator, targetCost);
+    }
+
     /**
      * Get the sharding strategy given a driving data source.
      *
@@ -645,10 +672,12 @@ public class GenomeAnalysisEngine {
             if(walker instanceof LocusWalker) {
                 if (readsDataSource.getSortOrder() != SAMFileHeader.SortOrder.coordinate)
                     throw new UserException.MissortedBAM(SAMFileHeader.SortOrder.coordinate, "Locus walkers can only traverse coordinate-sorted data.  Please resort your input BAM file(s) or set the Sort Order tag in the header appropriately.");
+                final ShardBalancer balancer = argCollection.readVolumeSharding && readsDataSource.hasIndex() ?
+                        createReadVolumeShardBalancer(readsDataSource, intervals) : new LocusShardBalancer();
                 if(intervals == null)
-                    return readsDataSource.createShardIteratorOverMappedReads(new LocusShardBalancer());
+                    return readsDataSource.createShardIteratorOverMappedReads(balancer);
                 else
-                    return readsDataSource.createShardIteratorOverIntervals(intervals,new LocusShardBalancer());
+                    return readsDataSource.createShardIteratorOverIntervals(intervals,balancer);
             } 
             else if(walker instanceof ActiveRegionWalker) {
                 if (readsDataSource.getSortOrder() != SAMFileHeader.SortOrder.coordinate)
@@ -942,7 +971,8 @@ public class GenomeAnalysisEngine {
                 removeProgramRecords,
                 keepReadsInLIBS,
                 sampleRenameMap,
-                argCollection.intervalArguments.intervalMerging);
+                argCollection.intervalArguments.intervalMerging,
+                argCollection.bamIndexCacheDirectory);
     }
 
     /**
@@ -1014,7 +1044,7 @@ public class GenomeAnalysisEngine {
      * @param refFile Handle to a reference sequence file.  Non-null.
      */
     public void setReferenceDataSource(File refFile) {
-        this.referenceDataSource = new ReferenceDataSource(refFile);
+        this.referenceDataSource = new ReferenceDataSource(refFile, argCollection.referenceAccessMode, argCollection.preTouchReference);
         genomeLocParser = new GenomeLocParser(referenceDataSource.getReference());
     }
 
@@ -1034,9 +1064,11 @@ public class GenomeAnalysisEngine {
                                                                             final GenomeLocParser genomeLocParser,
                                                                             final ValidationExclusion.TYPE validationExclusionType,
                                                                             final Map<String, String> sampleRenameMap) {
+        // with more than one CPU thread per data thread, map calls may decode VCF genotypes on several threads at once
         final RMDTrackBuilder builder = new RMDTrackBuilder(sequenceDictionary,genomeLocParser, validationExclusionType,
                                                             getArguments().disableAutoIndexCreationAndLockingWhenReadingRods,
-                                                            sampleRenameMap);
+                                                            sampleRenameMap,
+                                                            threadAllocation != null && threadAllocation.getNumCPUThreadsPerDataThread() > 1);
 
         final List<ReferenceOrderedDataSource> dataSources = new ArrayList<ReferenceOrderedDataSource>();
         for (RMDTriplet fileDescriptor : referenceMetaDataFiles)
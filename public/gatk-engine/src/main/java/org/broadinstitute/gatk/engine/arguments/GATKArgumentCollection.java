@@ -34,6 +34,8 @@ import org.broadinstitute.gatk.utils.downsampling.DownsamplingMethod;
 import org.broadinstitute.gatk.engine.samples.PedigreeValidationType;
 import org.broadinstitute.gatk.utils.QualityUtils;
 import org.broadinstitute.gatk.utils.baq.BAQ;
+import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
 import org.broadinstitute.gatk.utils.variant.GATKVCFIndexType;
 import org.broadinstitute.gatk.engine.GATKVCFUtils;
 
@@ -77,6 +79,16 @@ public class GATKArgumentCollection {
     @Argument(fullName = "read_buffer_size", shortName = "rbs", doc="Number of reads per SAM file to buffer in memory", required = false, minValue = 0)
     public Integer readBufferSize = null;
 
+    /**
+     * Directory of a persistent cache of parsed BAM indices.  The first run to use a BAM file stores its parsed index
+     * in this directory, and later runs (such as the other jobs of a scatter-gather pipeline over the same BAM files)
+     * memory-map the cached index rather than reading and parsing the .bai file again.  Cached indices are rebuilt
+     * automatically when the BAM file or its index change.
+     */
+    @Advanced
+    @Argument(fullName = "bam_index_cache", shortName = "bamIndexCache", doc="Directory of a persistent cache of parsed BAM indices, shared between runs", required = false)
+    public File bamIndexCacheDirectory = null;
+
     // --------------------------------------------------------------------------------------------------------------
     //
     // General features
@@ -110,6 +122,25 @@ public class GATKArgumentCollection {
      */
     @Input(fullName = "reference_sequence", shortName = "R", doc = "Reference sequence file", required = false)
     public File referenceFile = null;
+
+    /**
+     * By default each thread keeps a small cache of the reference around its most recent query and re-reads from disk
+     * on a miss.  With MEMORY_MAPPED, the whole reference is memory mapped once and shared read-only by all threads,
+     * which avoids thrashing and duplicated caches when many -nct threads work on different parts of the genome.
+     * PACKED goes further, packing the reference at 2 bits per base into a .packed file next to the FASTA the first time
+     * it is used (which needs write access to that directory), and memory mapping that instead.
+     */
+    @Advanced
+    @Argument(fullName = "reference_access_mode", shortName = "refAccess", doc = "How bases are fetched from the reference", required = false)
+    public CachingIndexedFastaSequenceFile.AccessMode referenceAccessMode = CachingIndexedFastaSequenceFile.AccessMode.CACHED;
+
+    /**
+     * With -refAccess MEMORY_MAPPED, read every page of the reference at startup so that later queries never wait on disk.
+     */
+    @Advanced
+    @Argument(fullName = "pretouch_reference", shortName = "pretouchRef", doc = "Page the whole memory mapped reference into memory at startup", required = false)
+    public boolean preTouchReference = false;
+
     /**
      * If this flag is enabled, the random numbers generated will be different in every run, causing GATK to behave non-deterministically.
      */
@@ -281,6 +312,16 @@ public class GATKArgumentCollection {
     @Argument(fullName = "performanceLog", shortName="PF", doc="Write GATK runtime performance log to this file", required = false)
     public File performanceLog = null;
 
+    /**
+     * The file name for the GATK telemetry log, or null if you don't want it.  Every 10 seconds a line of JSON is
+     * written to it with the throughput of each stage of the traversal (records, loci and active regions processed
+     * per second), the depths of the NanoScheduler queues, the BGZF decompression rate (with -nit) and the time spent
+     * in garbage collection, so that the bottleneck of a run can be identified.  The same metrics are always
+     * available over JMX from the TraversalTelemetry MBean.
+     */
+    @Argument(fullName = "telemetryLog", shortName="telemetryLog", doc="Write per-stage throughput metrics as JSON lines to this file", required = false)
+    public File telemetryLog = null;
+
     // --------------------------------------------------------------------------------------------------------------
     //
     // BQSR arguments
@@ -491,6 +532,51 @@ public class GATKArgumentCollection {
     @Hidden
     public int numberOfIOThreads = 0;
 
+    /**
+     * Applies the on-input read transformers (e.g. on-the-fly base recalibration with -BQSR, or BAQ) to batches of
+     * reads on a separate pool of threads, ahead of the traversal.  Reads are still handed to the walker in their
+     * original order.  Has no effect when no read transformer is active.
+     */
+    @Advanced
+    @Argument(fullName="num_read_preparation_threads", shortName = "nrpt", doc="Number of threads to allocate to applying read transformers ahead of the traversal", required = false, minValue = 0)
+    public int numberOfReadPreparationThreads = 0;
+
+    /**
+     * Selects how the CPU threads (-nct) share the map / reduce work within each data thread.  MASTER_THREAD is the
+     * traditional scheduler.  WORK_STEALING lets idle threads steal pending map jobs, reduces incrementally in whichever
+     * thread finishes the next job in line, and bounds the memory held by pending jobs with -nctMemoryBudget, which
+     * helps when -nct is large or when a few inputs (e.g. active regions) are very big.
+     */
+    @Advanced
+    @Argument(fullName = "nct_engine", shortName = "nctEngine", doc = "Scheduling engine used by the CPU threads of each data thread", required = false)
+    public NanoScheduler.Engine nanoSchedulerEngine = NanoScheduler.Engine.MASTER_THREAD;
+
+    /**
+     * The approximate amount of memory, in megabytes, that pending map jobs may use when running with -nctEngine WORK_STEALING.
+     * When the budget is exhausted the engine stops reading new input until earlier jobs have been reduced.
+     */
+    @Advanced
+    @Argument(fullName = "nct_memory_budget", shortName = "nctMemoryBudget", doc = "Memory budget in MB for pending work of the WORK_STEALING CPU thread engine", required = false, minValue = 1)
+    public int nanoSchedulerMemoryBudgetMB = (int)(NanoScheduler.DEFAULT_MEMORY_BUDGET / (1024 * 1024));
+
+    /**
+     * The approximate amount of memory, in megabytes, that the reads carried between active regions may use in each
+     * active region traversal.  By default only the walker's limits on the number of reads apply.  Reads over the
+     * budget are downsampled away, unless -arSpillReads is given.
+     */
+    @Advanced
+    @Argument(fullName = "active_region_read_memory_budget", shortName = "arReadMemoryBudget", doc = "Memory budget in MB for the reads held by active region traversals", required = false, minValue = 1)
+    public Integer activeRegionReadMemoryBudgetMB = null;
+
+    /**
+     * When the reads carried between active regions exceed their limits, write the overflowing reads to a temporary
+     * file (in java.io.tmpdir) and stream them back when they are needed, rather than downsampling them.  This keeps
+     * every read in pathological regions such as centromeres at the cost of extra disk I/O.
+     */
+    @Advanced
+    @Argument(fullName = "active_region_spill_reads", shortName = "arSpillReads", doc = "Spill reads over the active region read limits to disk instead of downsampling them", required = false)
+    public boolean spillActiveRegionReads = false;
+
     /**
      * Enable GATK to monitor its own threading efficiency, at an itsy-bitsy tiny
      * cost (< 0.1%) in runtime because of turning on the JavaBean.  This is largely for
@@ -499,6 +585,37 @@ public class GATKArgumentCollection {
     @Argument(fullName = "monitorThreadEfficiency", shortName = "mte", doc = "Enable threading efficiency monitoring", required = false)
     public Boolean monitorThreadEfficiency = false;
 
+    /**
+     * With -nt, each data thread normally writes its share of every output to a temporary file, which is later
+     * read back and copied into the real output.  This option keeps that per-thread output in memory instead and
+     * merges it into the real output, in order, as soon as all the preceding output has been merged, avoiding the
+     * extra disk I/O at the cost of memory.
+     */
+    @Advanced
+    @Argument(fullName = "in_memory_output_merge", shortName = "inMemoryMerge", doc = "With -nt, hold each thread's output in memory rather than in temporary files until it is merged", required = false)
+    public boolean inMemoryOutputMerge = false;
+
+    /**
+     * With -nt, split locus shards whose estimated size in the BAM index is much larger than that of the other shards
+     * into smaller shards before handing them to the data threads, so that a few dense regions of the genome don't
+     * leave most of the threads idle at the end of the run.  Only applies to locus walkers over indexed BAM files.
+     * Downsampling starts afresh in every shard, so downsampled results may differ from those of a run without this option.
+     */
+    @Advanced
+    @Argument(fullName = "adaptive_sharding", shortName = "adaptiveSharding", doc = "With -nt, split oversized locus shards so that idle data threads can pick up their pieces", required = false)
+    public boolean adaptiveSharding = false;
+
+    /**
+     * Lay out locus shards so that each covers about the same estimated volume of reads, as estimated from the BAM
+     * indices, rather than about the same genomic span.  Sparse regions of the genome are batched into larger shards
+     * and dense regions are cut into smaller ones, so that with -nt every data thread gets about the same amount of
+     * work.  Only applies to locus walkers over indexed BAM files.  Downsampling starts afresh in every shard, so
+     * downsampled results may differ from those of a run without this option.
+     */
+    @Advanced
+    @Argument(fullName = "read_volume_sharding", shortName = "readVolumeSharding", doc = "Balance locus shards by the volume of reads estimated from the BAM indices rather than by genomic span", required = false)
+    public boolean readVolumeSharding = false;
+
     @Argument(fullName = "num_bam_file_handles", shortName = "bfh", doc="When using IO threads, total number of BAM file handles to keep open simultaneously", required=false, minValue = 1)
     @Hidden
     public Integer numberOfBAMFileHandles = null;
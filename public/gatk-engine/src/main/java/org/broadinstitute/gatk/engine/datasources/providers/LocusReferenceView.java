@@ -171,8 +171,10 @@ public class LocusReferenceView extends ReferenceView {
         return l;
     }
 
-    public class Provider implements ReferenceContext.ReferenceContextRefProvider {
+    public class Provider implements ReferenceContext.ReferenceContextBaseProvider {
         int refStart, len;
+        // the sequence current when the context was created, as the view may move on before the bases are read
+        private final ReferenceSequence sequence = referenceSequence;
 
         public Provider( int refStart, int len ) {
             this.refStart = refStart;
@@ -182,9 +184,13 @@ public class LocusReferenceView extends ReferenceView {
         public byte[] getBases() {
             //System.out.printf("Getting bases for location%n");
             byte[] bases = new byte[len];
-            System.arraycopy(referenceSequence.getBases(), refStart, bases, 0, len);
+            System.arraycopy(sequence.getBases(), refStart, bases, 0, len);
             return bases;
         }
+
+        public byte getBase( int offset ) {
+            return sequence.getBases()[refStart + offset];
+        }
     }
 
     /**
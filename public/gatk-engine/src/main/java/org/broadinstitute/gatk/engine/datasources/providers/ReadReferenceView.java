@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.engine.datasources.providers;
 import htsjdk.samtools.SAMRecord;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
 import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.fasta.PackedReferenceStore;
 /*
  * Copyright (c) 2009 The Broad Institute
  *
@@ -73,7 +74,7 @@ public class ReadReferenceView extends ReferenceView {
     }
 
     protected ReferenceContext.ReferenceContextRefProvider getReferenceBasesProvider( GenomeLoc genomeLoc ) {
-        return new Provider(genomeLoc);
+        return packedStore != null ? new PackedProvider(genomeLoc, packedStore) : new Provider(genomeLoc);
     }
 
     public class Provider implements ReferenceContext.ReferenceContextRefProvider {
@@ -88,6 +89,24 @@ public class ReadReferenceView extends ReferenceView {
         }
     }
 
+    /**
+     * Provider that can look up single bases directly in the packed reference, without fetching the whole span
+     */
+    public class PackedProvider extends Provider implements ReferenceContext.ReferenceContextBaseProvider {
+        final PackedReferenceStore store;
+
+        public PackedProvider( GenomeLoc loc, PackedReferenceStore store ) {
+            super(loc);
+            this.store = store;
+        }
+
+        public byte getBase( int offset ) {
+            final long position = loc.getStart() + offset;
+            // past the end of the contig getReferenceBases() pads with Xs, so we do too
+            return position > store.getContigLength(loc.getContigIndex()) ? (byte)'X' : store.getBase(loc.getContigIndex(), position);
+        }
+    }
+
     /**
      * Return a reference context appropriate for the span of read
      *
@@ -32,6 +32,8 @@ import htsjdk.samtools.SAMSequenceRecord;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.gatk.utils.fasta.PackedReferenceStore;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -63,6 +65,12 @@ public class ReferenceView implements View {
      */
     protected IndexedFastaSequenceFile reference = null;
 
+    /**
+     * The packed copy of the reference, if the reference is being read in PACKED mode, otherwise null.
+     * Contig indices in the store are those of the reference's sequence dictionary.
+     */
+    protected PackedReferenceStore packedStore = null;
+
     /**
      * Create a new ReferenceView.
      * @param provider
@@ -70,6 +78,8 @@ public class ReferenceView implements View {
     public ReferenceView( ShardDataProvider provider ) {
         this.genomeLocParser = provider.getGenomeLocParser();
         this.reference = provider.getReference();
+        if ( reference instanceof CachingIndexedFastaSequenceFile )
+            this.packedStore = ((CachingIndexedFastaSequenceFile)reference).getPackedStore();
     }
 
     /**
@@ -83,6 +93,7 @@ public class ReferenceView implements View {
      */
     public void close() {
         reference = null;
+        packedStore = null;
     }
 
     /**
@@ -31,6 +31,7 @@ import htsjdk.samtools.GATKChunk;
 import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
 import org.broadinstitute.gatk.utils.sam.SAMReaderID;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -70,6 +71,14 @@ class BAMAccessPlan {
         return inputStream;
     }
 
+    /**
+     * Gets the chunks of the file covered by this access plan.
+     * @return The chunks to be read, in file order.
+     */
+    public List<GATKChunk> getChunks() {
+        return Collections.unmodifiableList(positions);
+    }
+
     /**
      * Retrieves the next block address to be read.
      * @return Next block address to be read.
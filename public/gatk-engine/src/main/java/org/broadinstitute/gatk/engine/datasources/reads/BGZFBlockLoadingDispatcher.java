@@ -25,62 +25,339 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Preloads BGZF blocks in preparation for unzipping and data processing.
- * TODO: Right now, the block loader has all threads blocked waiting for a work request.  Ultimately this should
- * TODO: be replaced with a central thread management strategy.
+ *
+ * Each BlockInputStream owns a BlockLoader which reads ahead a bounded number of compressed blocks along its
+ * access plan.  Block loaders waiting for an I/O thread are queued in a bounded ring; compressed blocks are
+ * decompressed on a dedicated pool of inflater threads into pooled buffers and handed back to the reader
+ * without any lock on the read path.
  */
 public class BGZFBlockLoadingDispatcher {
+    /**
+     * Default number of compressed blocks each reader may have in flight ahead of its current position.
+     */
+    public static final int DEFAULT_READAHEAD_BLOCKS = 8;
+
+    /**
+     * Maximum size of a BGZF block, plus room to peek at a trailing empty block.
+     */
+    static final int MAX_BLOCK_SIZE = 64*1024 + BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+
+    /**
+     * Maximum size of the uncompressed contents of a BGZF block.
+     */
+    static final int MAX_UNCOMPRESSED_BLOCK_SIZE = 64*1024;
+
+    /**
+     * Maximum number of block loaders that can be waiting for an I/O thread.  When the ring is full, the
+     * reader performs its own I/O rather than blocking.
+     */
+    private static final int MAX_PENDING_LOADS = 1024;
+
     /**
      * The file handle cache, used when allocating blocks from the dispatcher.
      */
     private final FileHandleCache fileHandleCache;
 
-    private final ExecutorService threadPool;
+    /**
+     * Threads performing disk reads of compressed blocks.
+     */
+    private final ThreadPoolExecutor ioThreadPool;
+
+    /**
+     * Threads inflating compressed blocks.
+     */
+    private final ExecutorService inflaterThreadPool;
+
+    /**
+     * The inflater used by each thread in the inflater pool, reset between blocks.
+     */
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * Heap staging area for compressed data, since Inflater cannot consume direct buffers.
+     */
+    private final ThreadLocal<byte[]> compressedStaging = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[MAX_BLOCK_SIZE];
+        }
+    };
 
-    private final Queue<BAMAccessPlan> inputQueue;
+    /**
+     * Direct buffers into which compressed blocks are read from disk.
+     */
+    private final ByteBufferPool compressedBlockPool;
+
+    /**
+     * Buffers holding decompressed blocks until the reader has consumed them.
+     */
+    private final ByteBufferPool decompressedBlockPool;
+
+    /**
+     * Number of compressed blocks each reader may read ahead.
+     */
+    private final int readaheadBlocks;
+
+    private final long startTime = System.nanoTime();
+    private final AtomicLong numBlocksDecompressed = new AtomicLong(0);
+    private final AtomicLong numBytesDecompressed = new AtomicLong(0);
+    private final AtomicLong decompressionNanos = new AtomicLong(0);
+    private final AtomicLong readerStallNanos = new AtomicLong(0);
+    private final AtomicLong numReaderStalls = new AtomicLong(0);
+    private final AtomicInteger numPrefetchedBlocks = new AtomicInteger(0);
 
     public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles) {
-        threadPool = Executors.newFixedThreadPool(numThreads);
+        this(numThreads, numFileHandles, numThreads, DEFAULT_READAHEAD_BLOCKS);
+    }
+
+    /**
+     * Create a new block loading dispatcher.
+     * @param numThreads number of threads performing disk I/O.
+     * @param numFileHandles number of file handles to keep open.
+     * @param numInflaterThreads number of threads decompressing blocks.
+     * @param readaheadBlocks number of compressed blocks each reader may have in flight.
+     */
+    public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles, final int numInflaterThreads, final int readaheadBlocks) {
+        if(numThreads < 1 || numInflaterThreads < 1)
+            throw new IllegalArgumentException("The block loading dispatcher needs at least one I/O and one inflater thread");
+        if(readaheadBlocks < 1)
+            throw new IllegalArgumentException("readaheadBlocks must be at least 1 but got " + readaheadBlocks);
+
+        this.readaheadBlocks = readaheadBlocks;
         fileHandleCache = new FileHandleCache(numFileHandles);
-        inputQueue = new LinkedList<BAMAccessPlan>();
+        ioThreadPool = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_LOADS),
+                daemonThreadFactory("BGZF-io-thread-%d"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        inflaterThreadPool = Executors.newFixedThreadPool(numInflaterThreads, daemonThreadFactory("BGZF-inflater-thread-%d"));
 
-        threadPool.execute(new BlockLoader(this,fileHandleCache,true));
+        final int maxPooledBuffers = 2 * readaheadBlocks * Math.max(numThreads, numInflaterThreads);
+        compressedBlockPool = new ByteBufferPool(MAX_BLOCK_SIZE, true, maxPooledBuffers);
+        decompressedBlockPool = new ByteBufferPool(MAX_UNCOMPRESSED_BLOCK_SIZE, false, maxPooledBuffers);
+    }
+
+    static ThreadFactory daemonThreadFactory(final String format) {
+        final ThreadFactory namedThreadFactory = new NamedThreadFactory(format);
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = namedThreadFactory.newThread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    FileHandleCache getFileHandleCache() {
+        return fileHandleCache;
+    }
+
+    int getReadaheadBlocks() {
+        return readaheadBlocks;
     }
 
     /**
-     * Initiates a request for a new block load.
-      * @param readerPosition Position at which to load.
+     * Queues the given block loader for execution on an I/O thread.
+     * @param blockLoader The loader to run.
      */
-    void queueBlockLoad(final BAMAccessPlan readerPosition) {
-        synchronized(inputQueue) {
-            inputQueue.add(readerPosition);
-            inputQueue.notify();
-        }
+    void queueBlockLoad(final BlockLoader blockLoader) {
+        ioThreadPool.execute(blockLoader);
+    }
+
+    /**
+     * Gets a direct buffer into which to read a compressed block.
+     * @return An empty buffer large enough to hold any BGZF block.
+     */
+    ByteBuffer acquireCompressedBlock() {
+        return compressedBlockPool.acquire();
+    }
+
+    void releaseCompressedBlock(final ByteBuffer block) {
+        compressedBlockPool.release(block);
+    }
+
+    void releaseDecompressedBlock(final ByteBuffer block) {
+        decompressedBlockPool.release(block);
     }
 
     /**
-     * Claims the next work request from the queue.
-     * @return The next work request, or null if none is available.
+     * Asynchronously decompresses the given block on the inflater pool.  The compressed block is returned
+     * to its pool once decompression is complete.
+     * @param bgzfBlock A complete BGZF block, prepared for reading.
+     * @return the decompressed contents of the block, prepared for reading.
      */
-    BAMAccessPlan claimNextWorkRequest() {
-        synchronized(inputQueue) {
-            while(inputQueue.isEmpty()) {
+    Future<ByteBuffer> decompress(final ByteBuffer bgzfBlock) {
+        return inflaterThreadPool.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() throws DataFormatException {
                 try {
-                    inputQueue.wait();
+                    return decompressBGZFBlock(bgzfBlock);
                 }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupt occurred waiting for next block reader work item");
+                finally {
+                    releaseCompressedBlock(bgzfBlock);
                 }
             }
-            return inputQueue.poll();
+        });
+    }
+
+    private ByteBuffer decompressBGZFBlock(final ByteBuffer bgzfBlock) throws DataFormatException {
+        final long startNanos = System.nanoTime();
+        final int compressedBufferSize = bgzfBlock.remaining();
+
+        // Determine the uncompressed buffer size
+        bgzfBlock.position(bgzfBlock.limit()-4);
+        final int uncompressedBufferSize = bgzfBlock.getInt();
+        final ByteBuffer uncompressedContent = decompressedBlockPool.acquire();
+        boolean decompressed = false;
+        try {
+            if(uncompressedBufferSize > uncompressedContent.capacity())
+                throw new ReviewedGATKException("Error decompressing block: uncompressed size " + uncompressedBufferSize + " is larger than the BGZF maximum");
+
+            // Bound the CDATA section of the buffer and stage it in a heap array for the inflater.
+            bgzfBlock.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+            bgzfBlock.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+            final byte[] compressedContent = compressedStaging.get();
+            final int compressedContentSize = bgzfBlock.remaining();
+            bgzfBlock.get(compressedContent,0,compressedContentSize);
+
+            // Decompress the buffer.
+            final Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(compressedContent,0,compressedContentSize);
+            final int bytesUncompressed = inflater.inflate(uncompressedContent.array(),0,uncompressedBufferSize);
+            if(bytesUncompressed != uncompressedBufferSize)
+                throw new ReviewedGATKException("Error decompressing block");
+
+            uncompressedContent.limit(uncompressedBufferSize);
+            decompressed = true;
+        }
+        finally {
+            // nobody else will see the buffer if we failed, so hand it straight back to the pool
+            if(!decompressed)
+                releaseDecompressedBlock(uncompressedContent);
         }
+
+        numBlocksDecompressed.incrementAndGet();
+        numBytesDecompressed.addAndGet(uncompressedBufferSize);
+        decompressionNanos.addAndGet(System.nanoTime()-startNanos);
+
+        return uncompressedContent;
+    }
+
+    /**
+     * Gets the number of buffers ever allocated to hold decompressed blocks.
+     * @return Number of decompressed block buffers allocated so far.
+     */
+    int getNumAllocatedDecompressedBlocks() {
+        return decompressedBlockPool.getNumAllocatedBuffers();
+    }
+
+    void recordPrefetchedBlock() {
+        numPrefetchedBlocks.incrementAndGet();
+    }
+
+    void recordConsumedBlock() {
+        numPrefetchedBlocks.decrementAndGet();
+    }
+
+    void recordReaderStall(final long nanos) {
+        numReaderStalls.incrementAndGet();
+        readerStallNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Gets the number of block loaders waiting for an I/O thread.
+     * @return Current depth of the pending load queue.
+     */
+    public int getQueueDepth() {
+        return ioThreadPool.getQueue().size();
+    }
+
+    /**
+     * Gets the number of blocks read from disk but not yet consumed by a reader, across all readers.
+     * @return Number of blocks currently read ahead.
+     */
+    public int getNumPrefetchedBlocks() {
+        return numPrefetchedBlocks.get();
+    }
+
+    /**
+     * Gets the total number of bytes produced by the inflater pool.
+     * @return Decompressed data volume, in megabytes.
+     */
+    public double getDecompressedMB() {
+        return numBytesDecompressed.get() / (1024.0 * 1024.0);
+    }
+
+    /**
+     * Gets the decompression throughput of a single inflater thread, useful for sizing the inflater pool.
+     * @return Megabytes decompressed per second of inflater thread time.
+     */
+    public double getDecompressionMBPerThreadSecond() {
+        final long nanos = decompressionNanos.get();
+        return nanos == 0 ? 0.0 : getDecompressedMB() / (nanos / 1e9);
+    }
+
+    /**
+     * Gets the decompression throughput of the dispatcher as a whole since it was created.
+     * @return Megabytes decompressed per second of wall-clock time.
+     */
+    public double getDecompressedMBPerSecond() {
+        final long nanos = System.nanoTime() - startTime;
+        return nanos == 0 ? 0.0 : getDecompressedMB() / (nanos / 1e9);
+    }
+
+    /**
+     * Gets the total time readers spent waiting for blocks to be loaded.
+     * @return Total reader stall time in milliseconds.
+     */
+    public long getReaderStallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readerStallNanos.get());
+    }
+
+    /**
+     * Gets the number of times a reader had to wait for a block to be loaded.
+     * @return Number of reader stalls.
+     */
+    public long getNumReaderStalls() {
+        return numReaderStalls.get();
+    }
+
+    /**
+     * Gets a one-line summary of the dispatcher's counters.
+     * @return Human-readable summary for logging.
+     */
+    public String getStatisticsSummary() {
+        return String.format("BGZF block loading: %d blocks, %.1f MB decompressed (%.1f MB/s overall, %.1f MB/s per inflater thread); " +
+                        "%d reader stalls totalling %d ms; queue depth %d; %d blocks read ahead; %d compressed / %d decompressed buffers allocated",
+                numBlocksDecompressed.get(), getDecompressedMB(), getDecompressedMBPerSecond(), getDecompressionMBPerThreadSecond(),
+                getNumReaderStalls(), getReaderStallTimeMillis(), getQueueDepth(), getNumPrefetchedBlocks(),
+                compressedBlockPool.getNumAllocatedBuffers(), decompressedBlockPool.getNumAllocatedBuffers());
+    }
+
+    /**
+     * Stops the I/O and inflater threads.  Blocks already queued are abandoned.
+     */
+    public void shutdown() {
+        ioThreadPool.shutdownNow();
+        inflaterThreadPool.shutdownNow();
     }
 }
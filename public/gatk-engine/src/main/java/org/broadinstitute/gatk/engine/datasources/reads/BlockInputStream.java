@@ -41,12 +41,15 @@ import java.util.List;
 
 /**
  * Presents decompressed blocks to the SAMFileReader.
+ *
+ * All buffer state is owned by the reader thread; blocks arrive from the BlockLoader already decompressed,
+ * so reads that can be satisfied from the buffer never synchronize.
  */
 public class BlockInputStream extends InputStream {
     /**
-     * Mechanism for triggering block loads.
+     * Reads and decompresses blocks ahead of this stream.
      */
-    private final BGZFBlockLoadingDispatcher dispatcher;
+    private final BlockLoader blockLoader;
 
     /**
      * The reader whose data is supplied by this input stream.
@@ -61,7 +64,7 @@ public class BlockInputStream extends InputStream {
     /**
      * The latest error reported by an asynchronous block load.
      */
-    private Throwable error;
+    private volatile Throwable error;
 
     /**
      * Current accessPlan.
@@ -83,11 +86,6 @@ public class BlockInputStream extends InputStream {
      */
     private LinkedList<Long> blockPositions = new LinkedList<Long>();
 
-    /**
-     * Provides a lock to wait for more data to arrive.
-     */
-    private final Object lock = new Object();
-
     /**
      * An input stream to use when comparing data back to what it should look like.
      */
@@ -110,7 +108,6 @@ public class BlockInputStream extends InputStream {
         // [position,limit), while extra capacity exists in the range [limit,capacity)
         buffer.limit(0);
 
-        this.dispatcher = dispatcher;
         // TODO: Kill the region when all we want to do is start at the beginning of the stream and run to the end of the stream.
         this.accessPlan = new BAMAccessPlan(reader,this,new GATKBAMFileSpan(new GATKChunk(0,Long.MAX_VALUE)));
 
@@ -134,6 +131,13 @@ public class BlockInputStream extends InputStream {
         catch(IOException ex) {
             throw new ReviewedGATKException("Unable to validate against Picard input stream",ex);
         }
+
+        this.blockLoader = new BlockLoader(dispatcher,this);
+        blockLoader.seek(accessPlan,accessPlan.getBlockAddress());
+    }
+
+    SAMReaderID getReader() {
+        return reader;
     }
 
     public long length() {
@@ -141,14 +145,11 @@ public class BlockInputStream extends InputStream {
     }
 
     public long getFilePointer() {
-        long filePointer;
-        synchronized(lock) {
-            // Find the current block within the input stream.
-            int blockIndex;
-            for(blockIndex = 0; blockIndex+1 < blockOffsets.size() && buffer.position() > blockOffsets.get(blockIndex+1); blockIndex++)
-                ;
-            filePointer = blockPositions.get(blockIndex) + (buffer.position()-blockOffsets.get(blockIndex));
-        }
+        // Find the current block within the input stream.
+        int blockIndex;
+        for(blockIndex = 0; blockIndex+1 < blockOffsets.size() && buffer.position() > blockOffsets.get(blockIndex+1); blockIndex++)
+            ;
+        final long filePointer = blockPositions.get(blockIndex) + (buffer.position()-blockOffsets.get(blockIndex));
 
 //        if(validatingInputStream != null && filePointer != validatingInputStream.getFilePointer())
 //            throw new ReviewedGATKException(String.format("Position of input stream is invalid; expected (block address, block offset) = (%d,%d), got (%d,%d)",
@@ -161,7 +162,7 @@ public class BlockInputStream extends InputStream {
     private void clearBuffers() {
         this.accessPlan.reset();
 
-        // Buffer semantics say that outside of a lock, buffer should always be prepared for reading.
+        // Buffer semantics say that between reads, buffer should always be prepared for reading.
         // Indicate no data to be read.
         buffer.clear();
         buffer.limit(0);
@@ -174,10 +175,8 @@ public class BlockInputStream extends InputStream {
     }
 
     public boolean eof() {
-        synchronized(lock) {
-            // TODO: Handle multiple empty BGZF blocks at end of the file.
-            return accessPlan != null && (accessPlan.getBlockAddress() < 0 || accessPlan.getBlockAddress() >= length);
-        }
+        // TODO: Handle multiple empty BGZF blocks at end of the file.
+        return accessPlan != null && (accessPlan.getBlockAddress() < 0 || accessPlan.getBlockAddress() >= length);
     }
 
     /**
@@ -194,6 +193,7 @@ public class BlockInputStream extends InputStream {
         // Pull the iterator past any oddball chunks at the beginning of the shard (chunkEnd < chunkStart, empty chunks, etc).
         // TODO: Don't pass these empty chunks in.
         accessPlan.advancePosition(makeFilePointer(accessPlan.getBlockAddress(),0));
+        blockLoader.seek(accessPlan,accessPlan.getBlockAddress());
 
         if(accessPlan.getBlockAddress() >= 0) {
             waitForBufferFill();
@@ -247,93 +247,88 @@ public class BlockInputStream extends InputStream {
 
     /**
      * Push contents of incomingBuffer into the end of this buffer.
-     * MUST be called from a thread that is NOT the reader thread.
+     * Must be called from the reader thread, and only once the buffer has been drained.
      * @param incomingBuffer The data being pushed into this input stream.
      * @param accessPlan target access plan for the data.
      * @param filePosition the current position of the file pointer
      */
-    public void copyIntoBuffer(final ByteBuffer incomingBuffer, final BAMAccessPlan accessPlan, final long filePosition) {
-        synchronized(lock) {
-            try {
-                if(validatingInputStream != null) {
-                    byte[] validBytes = new byte[incomingBuffer.remaining()];
-
-                    byte[] currentBytes = new byte[incomingBuffer.remaining()];
-                    int pos = incomingBuffer.position();
-                    int lim = incomingBuffer.limit();
-                    incomingBuffer.get(currentBytes);
-
-                    incomingBuffer.limit(lim);
-                    incomingBuffer.position(pos);
+    private void copyIntoBuffer(final ByteBuffer incomingBuffer, final BAMAccessPlan accessPlan, final long filePosition) {
+        if(validatingInputStream != null) {
+            byte[] validBytes = new byte[incomingBuffer.remaining()];
 
-                    long currentFilePointer = validatingInputStream.getFilePointer();
-                    validatingInputStream.seek(makeFilePointer(accessPlan.getBlockAddress(), 0));
-                    validatingInputStream.read(validBytes);
-                    validatingInputStream.seek(currentFilePointer);
+            byte[] currentBytes = new byte[incomingBuffer.remaining()];
+            int pos = incomingBuffer.position();
+            int lim = incomingBuffer.limit();
+            incomingBuffer.get(currentBytes);
 
-                    if(!Arrays.equals(validBytes,currentBytes))
-                        throw new ReviewedGATKException(String.format("Bytes being inserted into BlockInputStream %s are incorrect",this));
-                }
+            incomingBuffer.limit(lim);
+            incomingBuffer.position(pos);
 
-                compactBuffer();
-                // Open up the buffer for more reading.
-                buffer.limit(buffer.capacity());
+            try {
+                long currentFilePointer = validatingInputStream.getFilePointer();
+                validatingInputStream.seek(makeFilePointer(accessPlan.getBlockAddress(), 0));
+                validatingInputStream.read(validBytes);
+                validatingInputStream.seek(currentFilePointer);
+            }
+            catch(IOException ex) {
+                throw new ReviewedGATKException("Unable to validate against Picard input stream",ex);
+            }
 
-                // Get the spans overlapping this particular block...
-                List<GATKChunk> spansOverlapping = accessPlan.getSpansOverlappingBlock(accessPlan.getBlockAddress(),filePosition);
+            if(!Arrays.equals(validBytes,currentBytes))
+                throw new ReviewedGATKException(String.format("Bytes being inserted into BlockInputStream %s are incorrect",this));
+        }
 
-                // ...and advance the block
-                this.accessPlan = accessPlan;
-                accessPlan.advancePosition(makeFilePointer(filePosition, 0));
+        compactBuffer();
+        // Open up the buffer for more reading.
+        buffer.limit(buffer.capacity());
 
-                if(buffer.remaining() < incomingBuffer.remaining())
-                    lock.wait();
+        // Get the spans overlapping this particular block...
+        List<GATKChunk> spansOverlapping = accessPlan.getSpansOverlappingBlock(accessPlan.getBlockAddress(),filePosition);
 
-                final int bytesInIncomingBuffer = incomingBuffer.limit();
+        // ...and advance the block
+        this.accessPlan = accessPlan;
+        accessPlan.advancePosition(makeFilePointer(filePosition, 0));
 
-                for(GATKChunk spanOverlapping: spansOverlapping) {
-                    // Clear out the endcap tracking state and add in the starting position for this transfer.
-                    blockOffsets.removeLast();
-                    blockOffsets.add(buffer.position());
-                    blockPositions.removeLast();
-                    blockPositions.add(spanOverlapping.getChunkStart());
+        if(buffer.remaining() < incomingBuffer.remaining())
+            throw new ReviewedGATKException(String.format("BUG: BlockInputStream %s has no room for the next block",this));
 
-                    // Stream the buffer into the data stream.
-                    incomingBuffer.limit((spanOverlapping.getBlockEnd() > spanOverlapping.getBlockStart()) ? bytesInIncomingBuffer : spanOverlapping.getBlockOffsetEnd());
-                    incomingBuffer.position(spanOverlapping.getBlockOffsetStart());
-                    buffer.put(incomingBuffer);
+        final int bytesInIncomingBuffer = incomingBuffer.limit();
 
-                    // Add the endcap for this transfer.
-                    blockOffsets.add(buffer.position());
-                    blockPositions.add(spanOverlapping.getChunkEnd());
-                }
+        for(GATKChunk spanOverlapping: spansOverlapping) {
+            // Clear out the endcap tracking state and add in the starting position for this transfer.
+            blockOffsets.removeLast();
+            blockOffsets.add(buffer.position());
+            blockPositions.removeLast();
+            blockPositions.add(spanOverlapping.getChunkStart());
 
-                // Set up the buffer for reading.
-                buffer.flip();
+            // Stream the buffer into the data stream.
+            incomingBuffer.limit((spanOverlapping.getBlockEnd() > spanOverlapping.getBlockStart()) ? bytesInIncomingBuffer : spanOverlapping.getBlockOffsetEnd());
+            incomingBuffer.position(spanOverlapping.getBlockOffsetStart());
+            buffer.put(incomingBuffer);
 
-                lock.notify();
-            }
-            catch(Exception ex) {
-                reportException(ex);
-                lock.notify();
-            }
+            // Add the endcap for this transfer.
+            blockOffsets.add(buffer.position());
+            blockPositions.add(spanOverlapping.getChunkEnd());
         }
+
+        // Set up the buffer for reading.
+        buffer.flip();
     }
 
+    /**
+     * Records an error encountered while loading blocks for this stream, to be rethrown on the reader thread.
+     * @param t The error.
+     */
     void reportException(Throwable t) {
-        synchronized(lock) {
-            this.error = t;
-            lock.notify();
-        }
+        this.error = t;
     }
 
-    private void checkForErrors() {
-        synchronized(lock) {
-            if(error != null) {
-                ReviewedGATKException toThrow = new ReviewedGATKException(String.format("Thread %s, BlockInputStream %s: Unable to retrieve BAM data from disk",Thread.currentThread().getId(),this),error);
-                toThrow.setStackTrace(error.getStackTrace());
-                throw toThrow;
-            }
+    void checkForErrors() {
+        final Throwable error = this.error;
+        if(error != null) {
+            ReviewedGATKException toThrow = new ReviewedGATKException(String.format("Thread %s, BlockInputStream %s: Unable to retrieve BAM data from disk",Thread.currentThread().getId(),this),error);
+            toThrow.setStackTrace(error.getStackTrace());
+            throw toThrow;
         }
     }
 
@@ -361,30 +356,24 @@ public class BlockInputStream extends InputStream {
     @Override
     public int read(byte[] bytes, final int offset, final int length) {
         int remaining = length;
-        synchronized(lock) {
-            while(remaining > 0) {
-                // Check for error conditions during last read.
-                checkForErrors();
+        while(remaining > 0) {
+            // Check for error conditions during last read.
+            checkForErrors();
 
-                // If completely out of space, queue up another buffer fill.
-                waitForBufferFill();
+            // If completely out of space, queue up another buffer fill.
+            waitForBufferFill();
 
-                // Couldn't manage to load any data at all; abort and return what's available.
-                if(buffer.remaining() == 0)
-                    break;
+            // Couldn't manage to load any data at all; abort and return what's available.
+            if(buffer.remaining() == 0)
+                break;
 
-                int numBytesToCopy = Math.min(buffer.remaining(),remaining);
-                buffer.get(bytes,length-remaining+offset,numBytesToCopy);
-                remaining -= numBytesToCopy;
+            int numBytesToCopy = Math.min(buffer.remaining(),remaining);
+            buffer.get(bytes,length-remaining+offset,numBytesToCopy);
+            remaining -= numBytesToCopy;
 
-                //if(remaining > 0)
-                //    System.out.printf("Thread %s: read the first %d bytes of a %d byte request%n",Thread.currentThread().getId(),length-remaining,length);
-                // TODO: Assert that we don't copy across a block boundary
-            }
-
-            // Notify any waiting threads that some of the contents of the buffer were removed.
-            if(length-remaining > 0)
-                lock.notify();
+            //if(remaining > 0)
+            //    System.out.printf("Thread %s: read the first %d bytes of a %d byte request%n",Thread.currentThread().getId(),length-remaining,length);
+            // TODO: Assert that we don't copy across a block boundary
         }
 
 //        if(validatingInputStream != null) {
@@ -410,6 +399,7 @@ public class BlockInputStream extends InputStream {
     }
 
     public void close() {
+        blockLoader.close();
         if(validatingInputStream != null) {
             try {
                 validatingInputStream.close();
@@ -425,16 +415,13 @@ public class BlockInputStream extends InputStream {
     }
 
     private void waitForBufferFill() {
-        synchronized(lock) {
-            if(buffer.remaining() == 0 && !eof()) {
-                //System.out.printf("Thread %s is waiting for a buffer fill from position %d to buffer %s%n",Thread.currentThread().getId(),position.getBlockAddress(),this);
-                dispatcher.queueBlockLoad(accessPlan);
-                try {
-                    lock.wait();
-                }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupt occurred waiting for buffer to fill",ex);
-                }
+        if(buffer.remaining() == 0 && !eof()) {
+            final BlockLoader.PrefetchedBlock block = blockLoader.take(accessPlan.getBlockAddress());
+            try {
+                copyIntoBuffer(block.getDecompressedBlock(),accessPlan,block.getNextBlockAddress());
+            }
+            finally {
+                block.release();
             }
         }
     }
@@ -25,81 +25,220 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
+import htsjdk.samtools.GATKChunk;
 import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * An engine for loading blocks.
+ * An engine for loading blocks on behalf of a single BlockInputStream.
+ *
+ * The loader runs on the dispatcher's I/O threads, reading compressed blocks sequentially along the
+ * current access plan until the reader's readahead allowance is used up, and hands each block to the
+ * inflater pool.  Blocks are delivered to the reader in file order through a lock-free queue; the reader
+ * returns one unit of readahead allowance for every block it takes.  Seeking bumps a generation counter
+ * so that blocks read for a previous access plan are discarded.
  */
 class BlockLoader implements Runnable {
     /**
-     * Coordinates the input queue.
+     * How often a stalled reader should wake up and check for errors, in milliseconds.
      */
-    private BGZFBlockLoadingDispatcher dispatcher;
+    private static final long ERROR_CHECK_INTERVAL_MILLISECONDS = 100;
 
     /**
-     * A cache from which to retrieve open file handles.
+     * Coordinates the I/O and inflater pools.
      */
-    private final FileHandleCache fileHandleCache;
+    private final BGZFBlockLoadingDispatcher dispatcher;
 
     /**
-     * Whether asynchronous decompression should happen.
+     * The input stream being fed by this loader.
      */
-    private final boolean decompress;
+    private final BlockInputStream inputStream;
 
     /**
-     * An direct input buffer for incoming data from disk.
+     * Blocks read ahead of the reader, in the order in which they appear in the access plan.
      */
-    private final ByteBuffer inputBuffer;
+    private final LinkedTransferQueue<PrefetchedBlock> prefetchedBlocks = new LinkedTransferQueue<PrefetchedBlock>();
 
-    public BlockLoader(final BGZFBlockLoadingDispatcher dispatcher, final FileHandleCache fileHandleCache, final boolean decompress) {
+    /**
+     * Number of additional blocks that may be read ahead before the reader catches up.
+     */
+    private final AtomicInteger readaheadAllowance;
+
+    /**
+     * Whether this loader is currently running on, or queued for, an I/O thread.
+     */
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * The position of the next block to read ahead.
+     */
+    private final AtomicReference<Cursor> cursor = new AtomicReference<Cursor>(new Cursor(0,-1,Collections.<GATKChunk>emptyList(),0));
+
+    BlockLoader(final BGZFBlockLoadingDispatcher dispatcher, final BlockInputStream inputStream) {
         this.dispatcher = dispatcher;
-        this.fileHandleCache = fileHandleCache;
-        this.decompress = decompress;
+        this.inputStream = inputStream;
+        this.readaheadAllowance = new AtomicInteger(dispatcher.getReadaheadBlocks());
+    }
 
-        this.inputBuffer = ByteBuffer.allocateDirect(64*1024 + BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length);
-        inputBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Discards any blocks read ahead so far and restarts readahead at the given block of the given access plan.
+     * Must be called from the reader thread.
+     * @param accessPlan The access plan along which to read ahead.
+     * @param blockAddress The first block to read, or -1 to stop reading ahead.
+     */
+    void seek(final BAMAccessPlan accessPlan, final long blockAddress) {
+        final Cursor current = cursor.get();
+        cursor.set(new Cursor(current.generation+1,blockAddress,accessPlan.getChunks(),0));
+
+        PrefetchedBlock block;
+        while((block = prefetchedBlocks.poll()) != null)
+            consume(block,false);
+
+        scheduleIfNecessary();
     }
 
-    public void run() {
+    /**
+     * Retrieves the block at the given address, waiting for it to be loaded if necessary.
+     * Must be called from the reader thread.  The caller must release the block once its contents have been consumed.
+     * @param blockAddress The address of the block required by the reader.
+     * @return The block at the given address.
+     */
+    PrefetchedBlock take(final long blockAddress) {
         for(;;) {
-            BAMAccessPlan accessPlan = null;
-            try {
-                accessPlan = dispatcher.claimNextWorkRequest();
-                FileInputStream inputStream = fileHandleCache.claimFileInputStream(accessPlan.getReader());
+            PrefetchedBlock block = prefetchedBlocks.poll();
+            if(block == null) {
+                // No more blocks are coming; readahead must have diverged from what the reader needs.
+                if(!running.get() && prefetchedBlocks.isEmpty())
+                    restart(blockAddress);
+
+                final long startNanos = System.nanoTime();
+                try {
+                    block = prefetchedBlocks.poll(ERROR_CHECK_INTERVAL_MILLISECONDS,TimeUnit.MILLISECONDS);
+                }
+                catch(InterruptedException ex) {
+                    throw new ReviewedGATKException("Interrupt occurred waiting for buffer to fill",ex);
+                }
+                dispatcher.recordReaderStall(System.nanoTime()-startNanos);
+
+                inputStream.checkForErrors();
+                if(block == null)
+                    continue;
+            }
 
-                //long blockAddress = readerPosition.getBlockAddress();
-                //System.out.printf("Thread %s: BlockLoader: copying bytes from %s at position %d into %s%n",Thread.currentThread().getId(),inputStream,blockAddress,readerPosition.getInputStream());
+            final long generation = cursor.get().generation;
+            if(block.generation == generation && block.blockAddress == blockAddress) {
+                consume(block,true);
+                return block;
+            }
 
-                ByteBuffer compressedBlock = readBGZFBlock(inputStream,accessPlan.getBlockAddress());
-                long nextBlockAddress = position(inputStream);
-                fileHandleCache.releaseFileInputStream(accessPlan.getReader(),inputStream);
+            consume(block,false);
+            if(block.generation == generation)
+                restart(blockAddress);
+        }
+    }
 
-                ByteBuffer block = decompress ? decompressBGZFBlock(compressedBlock) : compressedBlock;
-                int bytesCopied = block.remaining();
+    /**
+     * Stops reading ahead and discards any blocks already loaded.
+     */
+    void close() {
+        final Cursor current = cursor.get();
+        cursor.set(new Cursor(current.generation+1,-1,Collections.<GATKChunk>emptyList(),0));
+        PrefetchedBlock block;
+        while((block = prefetchedBlocks.poll()) != null)
+            consume(block,false);
+    }
 
-                BlockInputStream bamInputStream = accessPlan.getInputStream();
-                bamInputStream.copyIntoBuffer(block,accessPlan,nextBlockAddress);
+    private void restart(final long blockAddress) {
+        final Cursor current = cursor.get();
+        cursor.set(new Cursor(current.generation+1,blockAddress,current.chunks,0));
+        scheduleIfNecessary();
+    }
 
-                //System.out.printf("Thread %s: BlockLoader: copied %d bytes from %s at position %d into %s%n",Thread.currentThread().getId(),bytesCopied,inputStream,blockAddress,readerPosition.getInputStream());
-            }
-            catch(Throwable error) {
-                if(accessPlan != null && accessPlan.getInputStream() != null)
-                    accessPlan.getInputStream().reportException(error);
+    /**
+     * Marks the given block as taken off the readahead queue, releasing its resources if it won't be used.
+     */
+    private void consume(final PrefetchedBlock block, final boolean willBeUsed) {
+        dispatcher.recordConsumedBlock();
+        readaheadAllowance.incrementAndGet();
+        if(!willBeUsed)
+            block.discard();
+        scheduleIfNecessary();
+    }
+
+    private void scheduleIfNecessary() {
+        if(hasWork() && running.compareAndSet(false,true))
+            dispatcher.queueBlockLoad(this);
+    }
+
+    private boolean hasWork() {
+        return cursor.get().blockAddress >= 0 && readaheadAllowance.get() > 0;
+    }
+
+    public void run() {
+        FileInputStream fileInputStream = null;
+        try {
+            for(;;) {
+                final Cursor current = cursor.get();
+                if(current.blockAddress < 0 || readaheadAllowance.get() <= 0) {
+                    if(fileInputStream != null) {
+                        dispatcher.getFileHandleCache().releaseFileInputStream(inputStream.getReader(),fileInputStream);
+                        fileInputStream = null;
+                    }
+                    running.set(false);
+                    // The reader may have returned allowance or seeked after the check above.
+                    if(hasWork() && running.compareAndSet(false,true))
+                        continue;
+                    return;
+                }
+
+                if(fileInputStream == null)
+                    fileInputStream = dispatcher.getFileHandleCache().claimFileInputStream(inputStream.getReader());
+
+                final ByteBuffer compressedBlock = dispatcher.acquireCompressedBlock();
+                final long nextBlockAddress;
+                try {
+                    readBGZFBlock(fileInputStream,current.blockAddress,compressedBlock);
+                    nextBlockAddress = position(fileInputStream);
+                }
+                catch(IOException ex) {
+                    dispatcher.releaseCompressedBlock(compressedBlock);
+                    throw ex;
+                }
+
+                // If the reader seeked while this block was being read, throw the block away.
+                if(!cursor.compareAndSet(current,current.advance(nextBlockAddress,inputStream.length()))) {
+                    dispatcher.releaseCompressedBlock(compressedBlock);
+                    continue;
+                }
+
+                readaheadAllowance.decrementAndGet();
+                dispatcher.recordPrefetchedBlock();
+                prefetchedBlocks.offer(new PrefetchedBlock(current.generation,current.blockAddress,nextBlockAddress,dispatcher.decompress(compressedBlock)));
             }
         }
-
+        catch(Throwable error) {
+            if(fileInputStream != null)
+                dispatcher.getFileHandleCache().releaseFileInputStream(inputStream.getReader(),fileInputStream);
+            running.set(false);
+            inputStream.reportException(error);
+        }
     }
 
-    private ByteBuffer readBGZFBlock(final FileInputStream inputStream, final long blockAddress) throws IOException {
+    private void readBGZFBlock(final FileInputStream inputStream, final long blockAddress, final ByteBuffer inputBuffer) throws IOException {
         FileChannel channel = inputStream.getChannel();
 
         // Read the block header
@@ -135,42 +274,16 @@ class BlockLoader implements Runnable {
             // Adjust buffer limits and finish reading the block.  Also read the next header, just in case there's a 0-byte block.
             inputBuffer.limit(bufferSize);
             inputBuffer.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-            channel.read(inputBuffer);
+            while(inputBuffer.hasRemaining() && channel.read(inputBuffer) > 0)
+                ;
 
             // Check the uncompressed length.  If 0 and not at EOF, we'll want to check the next block.
             uncompressedDataSize = inputBuffer.getInt(inputBuffer.limit()-4);
-            //System.out.printf("Uncompressed block size of the current block (at position %d) is %d%n",channel.position()-inputBuffer.limit(),uncompressedDataSize);
         }
         while(uncompressedDataSize == 0 && channel.position() < channel.size());
 
         // Prepare the buffer for reading.
         inputBuffer.flip();
-
-        return inputBuffer;
-    }
-
-    private ByteBuffer decompressBGZFBlock(final ByteBuffer bgzfBlock) throws DataFormatException {
-        final int compressedBufferSize = bgzfBlock.remaining();
-
-        // Determine the uncompressed buffer size (
-        bgzfBlock.position(bgzfBlock.limit()-4);
-        int uncompressedBufferSize = bgzfBlock.getInt();
-        byte[] uncompressedContent = new byte[uncompressedBufferSize];
-
-        // Bound the CDATA section of the buffer.
-        bgzfBlock.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
-        bgzfBlock.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-        byte[] compressedContent = new byte[bgzfBlock.remaining()];
-        ByteBuffer.wrap(compressedContent).put(bgzfBlock);
-
-        // Decompress the buffer.
-        final Inflater inflater = new Inflater(true);
-        inflater.setInput(compressedContent);
-        int bytesUncompressed = inflater.inflate(uncompressedContent);
-        if(bytesUncompressed != uncompressedBufferSize)
-            throw new ReviewedGATKException("Error decompressing block");
-
-        return ByteBuffer.wrap(uncompressedContent);
     }
 
     private long position(final FileInputStream inputStream) throws IOException {
@@ -186,4 +299,114 @@ class BlockLoader implements Runnable {
         // value into an int buffer to transfer the bitwise contents into an int.
         return buffer.getShort(position) & 0xFFFF;
     }
+
+    /**
+     * The next block to read ahead, along with the access plan chunks used to find the block after it.
+     * Immutable, so that seeks by the reader and progress by the loader can be reconciled with a single CAS.
+     */
+    private static class Cursor {
+        final long generation;
+        final long blockAddress;
+        final List<GATKChunk> chunks;
+        final int chunkIndex;
+
+        Cursor(final long generation, final long blockAddress, final List<GATKChunk> chunks, final int chunkIndex) {
+            this.generation = generation;
+            this.blockAddress = blockAddress;
+            this.chunks = chunks;
+            this.chunkIndex = chunkIndex;
+        }
+
+        /**
+         * Finds the next block to read, mirroring BAMAccessPlan.advancePosition().
+         * @param filePosition The position in the file just after the block just read.
+         * @param fileLength Length of the file.
+         * @return A cursor pointing to the next block to read, or to -1 if the access plan is exhausted.
+         */
+        Cursor advance(final long filePosition, final long fileLength) {
+            final long filePointer = BlockInputStream.makeFilePointer(filePosition,0);
+            int index = chunkIndex;
+            while(index < chunks.size() && filePointer >= chunks.get(index).getChunkEnd())
+                index++;
+
+            long nextBlockAddress;
+            if(index >= chunks.size())
+                nextBlockAddress = -1;
+            else if(filePointer < chunks.get(index).getChunkStart())
+                nextBlockAddress = chunks.get(index).getBlockStart();
+            else
+                nextBlockAddress = filePosition;
+
+            if(nextBlockAddress >= fileLength)
+                nextBlockAddress = -1;
+
+            return new Cursor(generation,nextBlockAddress,chunks,index);
+        }
+    }
+
+    /**
+     * A block read ahead of the reader, possibly still being decompressed.
+     */
+    class PrefetchedBlock {
+        private final long generation;
+        private final long blockAddress;
+        private final long nextBlockAddress;
+        private final Future<ByteBuffer> decompressedBlock;
+
+        private PrefetchedBlock(final long generation, final long blockAddress, final long nextBlockAddress, final Future<ByteBuffer> decompressedBlock) {
+            this.generation = generation;
+            this.blockAddress = blockAddress;
+            this.nextBlockAddress = nextBlockAddress;
+            this.decompressedBlock = decompressedBlock;
+        }
+
+        /**
+         * Gets the position in the file immediately following this block.
+         * @return Address of the next block in the file.
+         */
+        long getNextBlockAddress() {
+            return nextBlockAddress;
+        }
+
+        /**
+         * Gets the decompressed contents of this block, waiting for decompression to complete if necessary.
+         * @return Decompressed contents, prepared for reading.
+         */
+        ByteBuffer getDecompressedBlock() {
+            try {
+                if(decompressedBlock.isDone())
+                    return decompressedBlock.get();
+                final long startNanos = System.nanoTime();
+                final ByteBuffer block = decompressedBlock.get();
+                dispatcher.recordReaderStall(System.nanoTime()-startNanos);
+                return block;
+            }
+            catch(InterruptedException ex) {
+                throw new ReviewedGATKException("Interrupt occurred waiting for block decompression",ex);
+            }
+            catch(ExecutionException ex) {
+                throw new ReviewedGATKException("Unable to decompress BGZF block at position " + blockAddress,ex.getCause());
+            }
+        }
+
+        /**
+         * Returns the decompressed contents of this block to the pool.  Must only be called after getDecompressedBlock().
+         */
+        void release() {
+            try {
+                dispatcher.releaseDecompressedBlock(decompressedBlock.get());
+            }
+            catch(InterruptedException | ExecutionException ex) {
+                // Nothing to release.
+            }
+        }
+
+        /**
+         * Abandons this block.  If decompression is still in flight, the buffer is left to the garbage collector.
+         */
+        private void discard() {
+            if(decompressedBlock.isDone() && !decompressedBlock.isCancelled())
+                release();
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of fixed-capacity byte buffers, shared between the threads of the BGZF block loading pipeline
+ * so that blocks are not reallocated for every read.
+ */
+class ByteBufferPool {
+    /**
+     * Capacity of every buffer handed out by this pool.
+     */
+    private final int bufferCapacity;
+
+    /**
+     * Whether buffers should be allocated outside the Java heap.
+     */
+    private final boolean direct;
+
+    /**
+     * Maximum number of idle buffers to keep around.  Buffers released beyond this point are left to the GC.
+     */
+    private final int maxPooledBuffers;
+
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicInteger numPooledBuffers = new AtomicInteger(0);
+
+    /**
+     * Total number of buffers ever allocated by this pool.
+     */
+    private final AtomicInteger numAllocatedBuffers = new AtomicInteger(0);
+
+    /**
+     * Create a new buffer pool.
+     * @param bufferCapacity capacity of each buffer in the pool.
+     * @param direct whether to allocate direct (off-heap) buffers.
+     * @param maxPooledBuffers maximum number of idle buffers retained by the pool.
+     */
+    public ByteBufferPool(final int bufferCapacity, final boolean direct, final int maxPooledBuffers) {
+        this.bufferCapacity = bufferCapacity;
+        this.direct = direct;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Retrieves a cleared, little-endian buffer from the pool, allocating a new one if the pool is empty.
+     * @return A buffer with at least bufferCapacity bytes of space.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if(buffer != null)
+            numPooledBuffers.decrementAndGet();
+        else {
+            buffer = direct ? ByteBuffer.allocateDirect(bufferCapacity) : ByteBuffer.allocate(bufferCapacity);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            numAllocatedBuffers.incrementAndGet();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns the given buffer to the pool.  The caller must not touch the buffer after releasing it.
+     * @param buffer buffer previously obtained from acquire().
+     */
+    public void release(final ByteBuffer buffer) {
+        if(buffer == null || buffer.capacity() != bufferCapacity || buffer.isDirect() != direct)
+            return;
+        if(numPooledBuffers.incrementAndGet() <= maxPooledBuffers)
+            pool.offer(buffer);
+        else
+            numPooledBuffers.decrementAndGet();
+    }
+
+    /**
+     * Gets the total number of buffers this pool has ever allocated.
+     * @return Number of allocations performed.
+     */
+    public int getNumAllocatedBuffers() {
+        return numAllocatedBuffers.get();
+    }
+}
@@ -120,6 +120,36 @@ public class GATKBAMIndex {
         closeIndexFile();
     }
 
+    /**
+     * For subclasses that read the index data from elsewhere than file, by overriding readReferenceSequence()
+     * and getStartOfLastLinearBin().
+     * @param file The BAM index file that the index data was created from.
+     * @param sequenceDictionary The sequences of the BAM file.
+     * @param sequenceCount The number of sequences stored in the index.
+     */
+    protected GATKBAMIndex(final File file, final SAMSequenceDictionary sequenceDictionary, final int sequenceCount) {
+        mFile = file;
+        this.sequenceDictionary = sequenceDictionary;
+        this.sequenceCount = sequenceCount;
+        this.sequenceStartCache = null;
+    }
+
+    /**
+     * Gets the number of sequences stored in this index.
+     * @return Number of sequences in this index.
+     */
+    public int getNumberOfSequences() {
+        return sequenceCount;
+    }
+
+    /**
+     * Gets the BAM index file backing this index.
+     * @return The BAM index file.
+     */
+    public File getIndexFile() {
+        return mFile;
+    }
+
     public GATKBAMIndexData readReferenceSequence(final int referenceSequence) {
         openIndexFile();
 
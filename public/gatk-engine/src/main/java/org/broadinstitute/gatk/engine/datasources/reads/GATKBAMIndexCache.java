@@ -0,0 +1,298 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A persistent cache of parsed BAM indices, shared by all the GATK runs pointed at the same directory.
+ *
+ * The first run to use the index of a BAM file parses the index once and stores it in the cache
+ * directory, in a form that later runs memory-map and query in place (see MappedGATKBAMIndex),
+ * rather than reading and parsing the .bai file again.  Cache entries are keyed by the path, size and
+ * modification time of the BAM file and of its index, and are rebuilt when any of these changes.
+ * Entries are written to a temporary file and then renamed, so concurrent runs never see partial entries.
+ */
+public class GATKBAMIndexCache {
+    private static final Logger logger = Logger.getLogger(GATKBAMIndexCache.class);
+
+    /**
+     * Cache file magic number.
+     */
+    private static final byte[] CACHE_MAGIC = "GBIC".getBytes();
+
+    /**
+     * Version of the cache file format; cache files of other versions are rebuilt.
+     */
+    private static final int CACHE_VERSION = 1;
+
+    private static final String CACHE_FILE_EXTENSION = ".gbic";
+
+    private static final Charset PATH_CHARSET = Charset.forName("UTF-8");
+
+    private final File directory;
+
+    /** How many indices were found in the cache, and how many had to be (re)built? */
+    private int nHits = 0;
+    private int nMisses = 0;
+
+    /**
+     * Create a cache of BAM indices in directory, creating the directory if needed
+     * @param directory the cache directory
+     */
+    public GATKBAMIndexCache(final File directory) {
+        if ( directory == null ) throw new IllegalArgumentException("directory cannot be null");
+        if ( ! directory.isDirectory() && ! directory.mkdirs() && ! directory.isDirectory() )
+            throw new UserException.CouldNotCreateOutputFile(directory, "Unable to create the BAM index cache directory");
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory holding the cached indices
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the index of a BAM file from the cache, adding it to the cache first if it isn't there yet.
+     *
+     * If the index can't be stored in the cache (the directory is read-only, the disk is full, ...)
+     * the index is read from indexFile as usual.
+     *
+     * @param bamFile the BAM file
+     * @param indexFile the index of bamFile
+     * @param sequenceDictionary the sequences of bamFile
+     * @return the index of bamFile
+     */
+    public synchronized GATKBAMIndex getIndex(final File bamFile, final File indexFile, final SAMSequenceDictionary sequenceDictionary) {
+        final File cacheFile = getCacheFile(bamFile);
+        final byte[] key = createKey(bamFile, indexFile);
+
+        GATKBAMIndex index = readCacheFile(cacheFile, key, indexFile, sequenceDictionary);
+        if ( index != null ) {
+            nHits++;
+            return index;
+        }
+
+        nMisses++;
+        final GATKBAMIndex parsedIndex = new GATKBAMIndex(indexFile, sequenceDictionary);
+        try {
+            writeCacheFile(cacheFile, key, parsedIndex);
+            index = readCacheFile(cacheFile, key, indexFile, sequenceDictionary);
+        }
+        catch ( IOException e ) {
+            logger.warn(String.format("Unable to add the index of %s to the BAM index cache %s (%s); reading the index from %s",
+                    bamFile, directory, e.getMessage(), indexFile));
+        }
+        return index != null ? index : parsedIndex;
+    }
+
+    /**
+     * @return the number of indices found in the cache so far
+     */
+    public synchronized int getNumberOfHits() {
+        return nHits;
+    }
+
+    /**
+     * @return the number of indices that had to be added to the cache so far
+     */
+    public synchronized int getNumberOfMisses() {
+        return nMisses;
+    }
+
+    /**
+     * Get the file caching the index of bamFile.  The name combines the name of the BAM file, for
+     * people browsing the cache, with a hash of its full path, so BAM files with the same name in
+     * different directories don't evict each other.
+     *
+     * @param bamFile the BAM file
+     * @return the cache file for bamFile
+     */
+    protected File getCacheFile(final File bamFile) {
+        final String path = getCanonicalPath(bamFile);
+        return new File(directory, String.format("%s.%08x%s", bamFile.getName(), path.hashCode(), CACHE_FILE_EXTENSION));
+    }
+
+    /**
+     * The key identifying the version of the BAM file and index a cache file was built from
+     */
+    private static byte[] createKey(final File bamFile, final File indexFile) {
+        final byte[] path = getCanonicalPath(bamFile).getBytes(PATH_CHARSET);
+        final ByteBuffer key = ByteBuffer.allocate(Integer.SIZE / 8 + path.length + 4 * Long.SIZE / 8);
+        key.putInt(path.length);
+        key.put(path);
+        key.putLong(bamFile.length());
+        key.putLong(bamFile.lastModified());
+        key.putLong(indexFile.length());
+        key.putLong(indexFile.lastModified());
+        return key.array();
+    }
+
+    private static String getCanonicalPath(final File file) {
+        try {
+            return file.getCanonicalPath();
+        }
+        catch ( IOException e ) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Writes the cache file for index.  The layout is the magic number, the version, the key, the value of
+     * getStartOfLastLinearBin(), the number of reference sequences and the position of each reference sequence's
+     * data in the file, followed by the data of each reference sequence as written by MappedGATKBAMIndex.serialize().
+     */
+    private void writeCacheFile(final File cacheFile, final byte[] key, final GATKBAMIndex index) throws IOException {
+        final int sequenceCount = index.getNumberOfSequences();
+        final long[] sequenceOffsets = new long[sequenceCount];
+
+        final File tempFile = File.createTempFile(cacheFile.getName() + ".", ".tmp", directory);
+        try {
+            final RandomAccessFile output = new RandomAccessFile(tempFile, "rw");
+            try {
+                final FileChannel channel = output.getChannel();
+
+                final ByteBuffer header = ByteBuffer.allocate(getHeaderSize(key, sequenceCount));
+                header.put(CACHE_MAGIC);
+                header.putInt(CACHE_VERSION);
+                header.put(key);
+                header.putLong(index.getStartOfLastLinearBin());
+                header.putInt(sequenceCount);
+                final int sequenceOffsetsPosition = header.position();
+
+                channel.position(header.capacity());
+                for ( int i = 0; i < sequenceCount; i++ ) {
+                    final GATKBAMIndexData data = index.readReferenceSequence(i);
+                    final ByteBuffer buffer = ByteBuffer.allocate(MappedGATKBAMIndex.getSerializedSize(data));
+                    MappedGATKBAMIndex.serialize(data, buffer);
+                    buffer.flip();
+
+                    sequenceOffsets[i] = channel.position();
+                    writeFully(channel, buffer);
+                }
+
+                if ( channel.size() > Integer.MAX_VALUE )
+                    throw new IOException("the parsed index is too large to be cached");
+
+                header.position(sequenceOffsetsPosition);
+                for ( final long sequenceOffset : sequenceOffsets )
+                    header.putLong(sequenceOffset);
+                header.flip();
+                channel.position(0);
+                writeFully(channel, header);
+            }
+            finally {
+                output.close();
+            }
+
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            if ( tempFile.exists() && ! tempFile.delete() )
+                logger.warn("Unable to delete temporary file " + tempFile);
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while ( buffer.hasRemaining() )
+            channel.write(buffer);
+    }
+
+    private static int getHeaderSize(final byte[] key, final int sequenceCount) {
+        return CACHE_MAGIC.length + Integer.SIZE / 8 + key.length + Long.SIZE / 8 + Integer.SIZE / 8 + sequenceCount * Long.SIZE / 8;
+    }
+
+    /**
+     * Maps cacheFile, if it exists and was built from the BAM file and index identified by key
+     * @return the mapped index, or null if cacheFile doesn't exist or is out of date
+     */
+    private GATKBAMIndex readCacheFile(final File cacheFile, final byte[] key, final File indexFile, final SAMSequenceDictionary sequenceDictionary) {
+        if ( ! cacheFile.exists() )
+            return null;
+
+        try {
+            final ByteBuffer buffer;
+            final RandomAccessFile input = new RandomAccessFile(cacheFile, "r");
+            try {
+                final FileChannel channel = input.getChannel();
+                if ( channel.size() > Integer.MAX_VALUE )
+                    return null;
+                // the mapping stays valid after the file is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally {
+                input.close();
+            }
+
+            if ( buffer.remaining() < CACHE_MAGIC.length + Integer.SIZE / 8 + key.length )
+                return null;
+            final byte[] magic = new byte[CACHE_MAGIC.length];
+            buffer.get(magic);
+            final int version = buffer.getInt();
+            final byte[] cachedKey = new byte[key.length];
+            buffer.get(cachedKey);
+            if ( ! Arrays.equals(magic, CACHE_MAGIC) || version != CACHE_VERSION || ! Arrays.equals(cachedKey, key) ) {
+                logger.debug("BAM index cache file " + cacheFile + " is out of date");
+                return null;
+            }
+
+            final long startOfLastLinearBin = buffer.getLong();
+            final long[] sequenceOffsets = new long[buffer.getInt()];
+            for ( int i = 0; i < sequenceOffsets.length; i++ ) {
+                sequenceOffsets[i] = buffer.getLong();
+                if ( sequenceOffsets[i] < buffer.position() || sequenceOffsets[i] >= buffer.capacity() ) {
+                    logger.warn("Truncated BAM index cache file " + cacheFile + "; rebuilding it");
+                    return null;
+                }
+            }
+
+            return new MappedGATKBAMIndex(indexFile, sequenceDictionary, buffer, sequenceOffsets, startOfLastLinearBin);
+        }
+        catch ( IOException e ) {
+            logger.warn(String.format("Unable to read BAM index cache file %s (%s); rebuilding it", cacheFile, e.getMessage()));
+            return null;
+        }
+        catch ( BufferUnderflowException e ) {
+            logger.warn("Truncated BAM index cache file " + cacheFile + "; rebuilding it");
+            return null;
+        }
+    }
+}
@@ -47,6 +47,13 @@ public class GATKBAMIndexData {
         this.linearIndex = linearIndex;
     }
 
+    /**
+     * For subclasses that look up bins and linear index entries themselves, by overriding getBin() and getMinimumOffset().
+     */
+    protected GATKBAMIndexData(final GATKBAMIndex index, final int referenceSequence) {
+        this(index, referenceSequence, Collections.<GATKBin>emptyList(), null);
+    }
+
     public int getReferenceSequence() {
         return referenceSequence;
     }
@@ -67,16 +74,18 @@ public class GATKBAMIndexData {
 
         // Add the specified bin to the tree if it exists.
         List<GATKBin> binTree = new ArrayList<GATKBin>();
-        if(gatkBin.getBinNumber() < bins.size() && bins.get(gatkBin.getBinNumber()) != null)
-            binTree.add(bins.get(gatkBin.getBinNumber()));
+        final GATKBin indexBin = getBin(gatkBin.getBinNumber());
+        if(indexBin != null)
+            binTree.add(indexBin);
 
         int currentBinLevel = binLevel;
         while(--currentBinLevel >= 0) {
             final int binStart = index.getFirstBinInLevel(currentBinLevel);
             final int binWidth = index.getMaxAddressibleGenomicLocation()/index.getLevelSize(currentBinLevel);
             final int binNumber = firstLocusInBin/binWidth + binStart;
-            if(binNumber < bins.size() && bins.get(binNumber) != null)
-                binTree.add(bins.get(binNumber));
+            final GATKBin coveringBin = getBin(binNumber);
+            if(coveringBin != null)
+                binTree.add(coveringBin);
         }
 
         List<GATKChunk> chunkList = new ArrayList<GATKChunk>();
@@ -86,10 +95,44 @@ public class GATKBAMIndexData {
         }
 
         final int start = index.getFirstLocusInBin(bin);
-        chunkList = optimizeChunkList(chunkList,linearIndex.getMinimumOffset(start));
+        chunkList = optimizeChunkList(chunkList,getMinimumOffset(start));
         return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
     }
 
+    /**
+     * Gets the given bin of this reference sequence.
+     * @param binNumber The number of the bin.
+     * @return The bin, or null if the index has no such bin.
+     */
+    protected GATKBin getBin(final int binNumber) {
+        return binNumber < bins.size() ? bins.get(binNumber) : null;
+    }
+
+    /**
+     * Gets the smallest file offset of the reads starting at or after the given locus, according to the linear index.
+     * @param start The locus.  1-based.
+     * @return The file offset from which to read, or 0 if the linear index doesn't cover the locus.
+     */
+    protected long getMinimumOffset(final int start) {
+        return linearIndex.getMinimumOffset(start);
+    }
+
+    /**
+     * Gets all the bins of this reference sequence.
+     * @return The bins, indexed by bin number; null where the index has no bin.
+     */
+    List<GATKBin> getBins() {
+        return bins;
+    }
+
+    /**
+     * Gets the linear index of this reference sequence.
+     * @return The linear index.
+     */
+    LinearIndex getLinearIndex() {
+        return linearIndex;
+    }
+
     private List<GATKChunk> optimizeChunkList(final List<GATKChunk> chunks, final long minimumOffset) {
         GATKChunk lastChunk = null;
         Collections.sort(chunks);
@@ -0,0 +1,233 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.SAMFileSpan;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits locus shards that are too expensive into smaller locus shards covering the same loci.
+ *
+ * The cost of a shard is estimated by the size of its file spans, which come from the bins of the
+ * BAM index overlapping the shard's intervals.  A shard is split by bisecting the territory of its
+ * intervals and looking up the file spans of each half in the index again, so each piece only
+ * reads the part of the BAM files it needs.  The index can't tell apart the loci within one of its
+ * 16kb linear windows, though, so the cost of a shard is shared between its pieces in proportion
+ * to their territory.  Reads spanning a split point are read by both pieces, but as every piece
+ * covers distinct loci each locus is still traversed exactly once.
+ */
+public class LocusShardSplitter {
+    /**
+     * Pieces never cover fewer loci than this, so that the overhead of a shard (seeking into
+     * the BAM files and decoding the reads overlapping its start) stays small compared to its work
+     */
+    public static final int MIN_PIECE_SIZE = 1024;
+
+    private final SAMDataSource dataSource;
+    private final GenomeLocParser parser;
+
+    /**
+     * Create a splitter for shards of dataSource
+     * @param dataSource the indexed reads the shards were created from
+     * @param parser the parser for the shard intervals
+     */
+    public LocusShardSplitter(final SAMDataSource dataSource, final GenomeLocParser parser) {
+        if ( dataSource == null ) throw new IllegalArgumentException("dataSource cannot be null");
+        if ( parser == null ) throw new IllegalArgumentException("parser cannot be null");
+        this.dataSource = dataSource;
+        this.parser = parser;
+    }
+
+    /**
+     * Estimate the cost of traversing shard as the total size of its BAM file spans
+     *
+     * @param shard a shard
+     * @return the estimated size of the data for shard, or 0 if it has no (BAM) file spans
+     */
+    public static long estimateCost(final Shard shard) {
+        if ( shard.getFileSpans() == null )
+            return 0;
+
+        long cost = 0;
+        for ( final SAMFileSpan fileSpan : shard.getFileSpans().values() ) {
+            if ( fileSpan instanceof GATKBAMFileSpan ) {
+                for ( final GATKChunk chunk : ((GATKBAMFileSpan)fileSpan).getGATKChunks() )
+                    cost += estimateSize(chunk);
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Estimate the size of the data in chunk
+     *
+     * The estimated size of a chunk that ends early in the BGZF block after the one it starts in can be negative, so
+     * such chunks are counted as empty.
+     *
+     * @param chunk a chunk of a BAM file
+     * @return the estimated size of chunk, never negative
+     */
+    static long estimateSize(final GATKChunk chunk) {
+        return Math.max(chunk.size(), 0);
+    }
+
+    /**
+     * Can shard be split by this splitter?
+     * @param shard a shard
+     * @return true if shard is a mapped locus shard over BAM file spans on a single contig that covers at least two minimal pieces
+     */
+    public boolean canSplit(final Shard shard) {
+        return shard instanceof LocusShard
+                && ! shard.isUnmapped()
+                && estimateCost(shard) > 0
+                && isOnSingleContig(shard.getGenomeLocs())
+                && getTerritory(shard.getGenomeLocs()) >= 2 * MIN_PIECE_SIZE;
+    }
+
+    /**
+     * Estimate the share of the cost of a shard that falls on one of its pieces
+     * @param piece a piece of shard
+     * @param shard the shard that was split
+     * @return the cost of shard, in proportion to the territory of piece
+     */
+    public static long estimateCost(final Shard piece, final Shard shard) {
+        final long shardCost = Math.min(estimateCost(shard), estimateCost(piece));
+        return (long)(shardCost * ((double)getTerritory(piece.getGenomeLocs()) / getTerritory(shard.getGenomeLocs())));
+    }
+
+    /**
+     * Splits shard, recursively, until every piece has an estimated cost of at most maxCost or is too small to split
+     *
+     * @param shard the shard to split
+     * @param maxCost the maximum estimated cost of a piece
+     * @return the pieces of shard, in genomic order; just shard itself if it didn't need splitting
+     */
+    public List<Shard> split(final Shard shard, final long maxCost) {
+        if ( shard == null ) throw new IllegalArgumentException("shard cannot be null");
+        if ( maxCost < 0 ) throw new IllegalArgumentException("maxCost must be >= 0 but got " + maxCost);
+
+        if ( estimateCost(shard) <= maxCost || ! canSplit(shard) )
+            return Collections.singletonList(shard);
+
+        final List<Shard> pieces = new ArrayList<Shard>();
+        split(shard, shard, maxCost, pieces);
+        return pieces;
+    }
+
+    /**
+     * Bisects piece of shard until the share of the cost of shard of each piece is at most maxCost
+     * @param piece the piece to split
+     * @param shard the shard being split
+     * @param maxCost the maximum estimated cost of a piece
+     * @param pieces the list to add the final pieces to, in order
+     */
+    private void split(final Shard piece, final Shard shard, final long maxCost, final List<Shard> pieces) {
+        if ( estimateCost(piece, shard) <= maxCost || ! canSplit(piece) ) {
+            pieces.add(piece);
+        } else {
+            for ( final List<GenomeLoc> half : bisect(piece.getGenomeLocs()) )
+                split(createShard(half), shard, maxCost, pieces);
+        }
+    }
+
+    /**
+     * Create a locus shard over intervals, with the file spans of the BAM index bins overlapping them
+     * @param intervals the sorted intervals of the shard
+     * @return a new locus shard
+     */
+    Shard createShard(final List<GenomeLoc> intervals) {
+        final BAMScheduler scheduler = BAMScheduler.createOverIntervals(dataSource, dataSource.getIntervalMergingRule(), new GenomeLocSortedSet(parser, intervals));
+        final List<FilePointer> filePointers = new ArrayList<FilePointer>();
+        try {
+            while ( scheduler.hasNext() )
+                filePointers.add(scheduler.next());
+        } finally {
+            scheduler.close();
+        }
+
+        final FilePointer union = FilePointer.union(filePointers, parser);
+        return new LocusShard(parser, dataSource, intervals, union.getFileSpans());
+    }
+
+    /**
+     * Split intervals into two lists covering the same loci, each with (about) half of the total territory
+     * @param intervals sorted intervals covering at least 2 * MIN_PIECE_SIZE loci
+     * @return the two halves, in order
+     */
+    protected List<List<GenomeLoc>> bisect(final List<GenomeLoc> intervals) {
+        final List<GenomeLoc> left = new ArrayList<GenomeLoc>();
+        final List<GenomeLoc> right = new ArrayList<GenomeLoc>();
+
+        long remaining = getTerritory(intervals) / 2;
+        for ( final GenomeLoc interval : intervals ) {
+            if ( remaining <= 0 ) {
+                right.add(interval);
+            } else if ( interval.size() <= remaining ) {
+                left.add(interval);
+                remaining -= interval.size();
+            } else {
+                final int splitPoint = interval.getStart() + (int)remaining;
+                left.add(parser.createGenomeLoc(interval.getContig(), interval.getContigIndex(), interval.getStart(), splitPoint - 1));
+                right.add(parser.createGenomeLoc(interval.getContig(), interval.getContigIndex(), splitPoint, interval.getStop()));
+                remaining = 0;
+            }
+        }
+
+        final List<List<GenomeLoc>> halves = new ArrayList<List<GenomeLoc>>(2);
+        halves.add(left);
+        halves.add(right);
+        return halves;
+    }
+
+    /**
+     * @return true if intervals are all on the same contig, as required to look up their file spans together
+     */
+    private static boolean isOnSingleContig(final List<GenomeLoc> intervals) {
+        for ( final GenomeLoc interval : intervals ) {
+            if ( interval.getContigIndex() != intervals.get(0).getContigIndex() )
+                return false;
+        }
+        return ! intervals.isEmpty();
+    }
+
+    /**
+     * @return the total number of loci covered by intervals
+     */
+    private static long getTerritory(final List<GenomeLoc> intervals) {
+        long territory = 0;
+        for ( final GenomeLoc interval : intervals )
+            territory += interval.size();
+        return territory;
+    }
+}
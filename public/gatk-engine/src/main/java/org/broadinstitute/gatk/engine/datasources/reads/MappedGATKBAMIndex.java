@@ -0,0 +1,202 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBin;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.LinearIndex;
+import htsjdk.samtools.SAMSequenceDictionary;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * A BAM index backed by a (memory-mapped) file of the GATKBAMIndexCache.  Bins and linear index entries
+ * are looked up directly in the buffer when queried, so nothing is parsed up front, and the data of a
+ * reference sequence is only touched when that reference sequence is queried.
+ *
+ * The data of each reference sequence in the buffer is laid out as:
+ * <pre>
+ *     int nBins
+ *     nBins x (int binNumber, int nChunks, int chunksOffset), sorted by binNumber
+ *     int nLinearIndexEntries
+ *     nLinearIndexEntries x long linearIndexEntry
+ *     chunks, each as (long chunkStart, long chunkEnd), at chunksOffset from the start of the reference sequence
+ * </pre>
+ * Unlike GATKBAMIndex, this class is thread-safe, as it only ever reads the buffer at absolute positions.
+ */
+class MappedGATKBAMIndex extends GATKBAMIndex {
+    private static final int BIN_ENTRY_SIZE_IN_BYTES = 3 * Integer.SIZE / 8;
+    private static final int INT_SIZE_IN_BYTES = Integer.SIZE / 8;
+    private static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;
+
+    private final ByteBuffer buffer;
+    private final long[] sequenceOffsets;
+    private final long startOfLastLinearBin;
+
+    /**
+     * @param file The BAM index file the cached data was created from.
+     * @param sequenceDictionary The sequences of the BAM file.
+     * @param buffer The cached index data.
+     * @param sequenceOffsets The position in buffer of the data of each reference sequence.
+     * @param startOfLastLinearBin The value of getStartOfLastLinearBin() for the index.
+     */
+    MappedGATKBAMIndex(final File file, final SAMSequenceDictionary sequenceDictionary, final ByteBuffer buffer,
+                       final long[] sequenceOffsets, final long startOfLastLinearBin) {
+        super(file, sequenceDictionary, sequenceOffsets.length);
+        this.buffer = buffer;
+        this.sequenceOffsets = sequenceOffsets;
+        this.startOfLastLinearBin = startOfLastLinearBin;
+    }
+
+    @Override
+    public GATKBAMIndexData readReferenceSequence(final int referenceSequence) {
+        if (referenceSequence >= sequenceOffsets.length)
+            throw new ReviewedGATKException("Invalid sequence number " + referenceSequence + " in index file " + getIndexFile());
+        return new MappedGATKBAMIndexData(this, referenceSequence, (int)sequenceOffsets[referenceSequence]);
+    }
+
+    @Override
+    public long getStartOfLastLinearBin() {
+        return startOfLastLinearBin;
+    }
+
+    /**
+     * Writes the data of a reference sequence in the layout described above.
+     * @param data The index data of the reference sequence.
+     * @param out The buffer to write to, big enough to hold getSerializedSize(data) bytes.
+     */
+    static void serialize(final GATKBAMIndexData data, final ByteBuffer out) {
+        final int start = out.position();
+
+        int nBins = 0;
+        int nChunks = 0;
+        for (final GATKBin bin : data.getBins()) {
+            if (bin != null) {
+                nBins++;
+                nChunks += bin.getChunkList().length;
+            }
+        }
+        final long[] linearIndexEntries = data.getLinearIndex().getIndexEntries();
+
+        int chunksOffset = INT_SIZE_IN_BYTES + nBins * BIN_ENTRY_SIZE_IN_BYTES + INT_SIZE_IN_BYTES + linearIndexEntries.length * LONG_SIZE_IN_BYTES;
+        out.putInt(nBins);
+        for (final GATKBin bin : data.getBins()) {
+            if (bin != null) {
+                out.putInt(bin.getBinNumber());
+                out.putInt(bin.getChunkList().length);
+                out.putInt(chunksOffset);
+                chunksOffset += bin.getChunkList().length * 2 * LONG_SIZE_IN_BYTES;
+            }
+        }
+        out.putInt(linearIndexEntries.length);
+        for (final long entry : linearIndexEntries)
+            out.putLong(entry);
+        for (final GATKBin bin : data.getBins()) {
+            if (bin != null) {
+                for (final GATKChunk chunk : bin.getChunkList()) {
+                    out.putLong(chunk.getChunkStart());
+                    out.putLong(chunk.getChunkEnd());
+                }
+            }
+        }
+
+        if (out.position() - start != getSerializedSize(data))
+            throw new ReviewedGATKException("Wrote " + (out.position() - start) + " bytes of index data for sequence " + data.getReferenceSequence() + " but expected " + getSerializedSize(data));
+    }
+
+    /**
+     * Gets the number of bytes serialize() writes for data.
+     * @param data The index data of a reference sequence.
+     * @return The size of data in the layout described above.
+     */
+    static int getSerializedSize(final GATKBAMIndexData data) {
+        int size = 2 * INT_SIZE_IN_BYTES + data.getLinearIndex().getIndexEntries().length * LONG_SIZE_IN_BYTES;
+        for (final GATKBin bin : data.getBins()) {
+            if (bin != null)
+                size += BIN_ENTRY_SIZE_IN_BYTES + bin.getChunkList().length * 2 * LONG_SIZE_IN_BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * The index data of one reference sequence, read from the buffer as it's queried.
+     */
+    private class MappedGATKBAMIndexData extends GATKBAMIndexData {
+        private final int offset;
+        private final int nBins;
+        private final int linearIndexOffset;
+        private final int nLinearIndexEntries;
+
+        public MappedGATKBAMIndexData(final GATKBAMIndex index, final int referenceSequence, final int offset) {
+            super(index, referenceSequence);
+            this.offset = offset;
+            this.nBins = buffer.getInt(offset);
+            this.linearIndexOffset = offset + INT_SIZE_IN_BYTES + nBins * BIN_ENTRY_SIZE_IN_BYTES;
+            this.nLinearIndexEntries = buffer.getInt(linearIndexOffset);
+        }
+
+        @Override
+        protected GATKBin getBin(final int binNumber) {
+            // binary search of the bin entries, which are sorted by bin number
+            int low = 0;
+            int high = nBins - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int entry = offset + INT_SIZE_IN_BYTES + middle * BIN_ENTRY_SIZE_IN_BYTES;
+                final int middleBinNumber = buffer.getInt(entry);
+                if (middleBinNumber < binNumber)
+                    low = middle + 1;
+                else if (middleBinNumber > binNumber)
+                    high = middle - 1;
+                else
+                    return readBin(binNumber, buffer.getInt(entry + INT_SIZE_IN_BYTES), offset + buffer.getInt(entry + 2 * INT_SIZE_IN_BYTES));
+            }
+            return null;
+        }
+
+        private GATKBin readBin(final int binNumber, final int nChunks, final int chunksOffset) {
+            final GATKChunk[] chunks = new GATKChunk[nChunks];
+            for (int i = 0; i < nChunks; i++) {
+                final int chunk = chunksOffset + i * 2 * LONG_SIZE_IN_BYTES;
+                chunks[i] = new GATKChunk(buffer.getLong(chunk), buffer.getLong(chunk + LONG_SIZE_IN_BYTES));
+            }
+            final GATKBin bin = new GATKBin(getReferenceSequence(), binNumber);
+            bin.setChunkList(chunks);
+            return bin;
+        }
+
+        @Override
+        protected long getMinimumOffset(final int start) {
+            // same as LinearIndex.getMinimumOffset()
+            final int linearIndexEntry = (start <= 0 ? 0 : start - 1) >> LinearIndex.BAM_LIDX_SHIFT;
+            if (linearIndexEntry >= nLinearIndexEntries)
+                return 0;
+            return buffer.getLong(linearIndexOffset + INT_SIZE_IN_BYTES + linearIndexEntry * LONG_SIZE_IN_BYTES);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBin;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.LinearIndex;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+
+import java.util.*;
+
+/**
+ * Estimates the volume of reads over genomic intervals from the BAM indices, without reading any reads.
+ *
+ * The volume of each 16kb window of the genome is estimated from the linear index of each BAM file, as
+ * the size of the part of the BAM file between the first read of the window and the first read of the
+ * next non-empty window, and summed over the BAM files.  Within a window, the volume is assumed to be
+ * spread uniformly.  The estimate is in the same units as GATKBAMFileSpan.size().
+ *
+ * The profile of a contig is only computed when an interval on the contig is first estimated.
+ */
+public class ReadVolumeEstimator {
+    /**
+     * The size of the windows of the BAM linear index, the resolution of the estimate
+     */
+    public static final int WINDOW_SIZE = 1 << LinearIndex.BAM_LIDX_SHIFT;
+
+    /**
+     * The first bin of the lowest level of the BAM index, whose bins each cover one window
+     */
+    static final int FIRST_WINDOW_BIN = GATKBAMIndex.getFirstBinInLevel(GATKBAMIndex.getNumIndexLevels() - 1);
+
+    private final List<GATKBAMIndex> indices = new ArrayList<GATKBAMIndex>();
+    private final List<SAMSequenceDictionary> indexSequences = new ArrayList<SAMSequenceDictionary>();
+
+    /** The estimated volume of each window of each contig estimated so far, summed over the indices */
+    private final Map<String, long[]> windowVolumes = new HashMap<String, long[]>();
+
+    /**
+     * Create an estimator over no BAM files; add them with addIndex()
+     */
+    public ReadVolumeEstimator() {
+    }
+
+    /**
+     * Create an estimator over the indexed BAM files of dataSource
+     * @param dataSource the BAM files
+     */
+    public ReadVolumeEstimator(final SAMDataSource dataSource) {
+        if ( dataSource == null ) throw new IllegalArgumentException("dataSource cannot be null");
+        for ( final SAMReaderID id : dataSource.getReaderIDs() ) {
+            if ( dataSource.hasIndex(id) )
+                addIndex(dataSource.getIndex(id), dataSource.getHeader(id).getSequenceDictionary());
+        }
+    }
+
+    /**
+     * Add the volume of reads of one BAM file to the estimates
+     * @param index the index of the BAM file
+     * @param sequenceDictionary the sequences of the BAM file, in the order of its index
+     */
+    public synchronized void addIndex(final GATKBAMIndex index, final SAMSequenceDictionary sequenceDictionary) {
+        if ( index == null ) throw new IllegalArgumentException("index cannot be null");
+        if ( sequenceDictionary == null ) throw new IllegalArgumentException("sequenceDictionary cannot be null");
+        indices.add(index);
+        indexSequences.add(sequenceDictionary);
+        windowVolumes.clear();
+    }
+
+    /**
+     * Estimate the volume of reads over loc
+     * @param loc a mapped interval
+     * @return the estimated volume of reads over loc, >= 0
+     */
+    public long estimateCost(final GenomeLoc loc) {
+        final long[] volumes = getWindowVolumes(loc.getContig());
+        double cost = 0;
+        for ( int window = getWindow(loc.getStart()); window <= getWindow(loc.getStop()); window++ )
+            cost += getVolumePerLocus(volumes, window) * getOverlap(loc, window);
+        return Math.round(cost);
+    }
+
+    /**
+     * Estimate the volume of reads over locs
+     * @param locs mapped intervals
+     * @return the estimated volume of reads over all of locs, >= 0
+     */
+    public long estimateCost(final Collection<GenomeLoc> locs) {
+        long cost = 0;
+        for ( final GenomeLoc loc : locs )
+            cost += estimateCost(loc);
+        return cost;
+    }
+
+    /**
+     * Splits locs into numParts parts of roughly equal estimated volume of reads, the way
+     * IntervalUtils.splitLocusIntervals() splits them into parts of equal size.  Intervals are cut
+     * where needed, and each part gets at least one locus.  If there are no reads over locs at all,
+     * the parts are of equal size instead.
+     *
+     * @param locs sorted, mapped intervals
+     * @param numParts the number of parts, at most the number of loci in locs
+     * @return numParts lists of intervals, covering the loci of locs, in order
+     */
+    public List<List<GenomeLoc>> splitByCost(final List<GenomeLoc> locs, final int numParts) {
+        if ( locs == null ) throw new IllegalArgumentException("locs cannot be null");
+        if ( numParts < 1 ) throw new IllegalArgumentException("numParts must be >= 1 but got " + numParts);
+
+        long territory = 0;
+        for ( final GenomeLoc loc : locs )
+            territory += loc.size();
+        if ( territory < numParts )
+            throw new UserException.BadArgumentValue("scatterParts", String.format("Cannot scatter %d loci into %d parts.", territory, numParts));
+
+        final long totalCost = estimateCost(locs);
+        final long[] partEnds = new long[numParts];
+        if ( totalCost == 0 ) {
+            for ( int part = 0; part < numParts; part++ )
+                partEnds[part] = territory * (part + 1) / numParts;
+        } else {
+            findCostBoundaries(locs, totalCost, partEnds);
+        }
+        partEnds[numParts - 1] = territory;
+
+        // every part gets at least one locus, and leaves at least one locus for each of the remaining parts
+        for ( int part = 0; part < numParts; part++ ) {
+            final long min = part == 0 ? 1 : partEnds[part - 1] + 1;
+            final long max = territory - (numParts - 1 - part);
+            partEnds[part] = Math.max(min, Math.min(max, partEnds[part]));
+        }
+
+        return cutAt(locs, partEnds);
+    }
+
+    /**
+     * Finds, for each part but the last, the number of loci from the start of locs by which the
+     * cumulative estimated cost of the loci reaches the share of the cost of the parts up to it
+     */
+    private void findCostBoundaries(final List<GenomeLoc> locs, final long totalCost, final long[] partEnds) {
+        final int numParts = partEnds.length;
+        int part = 0;
+        double cumulativeCost = 0;
+        long lociBefore = 0;
+
+        for ( final GenomeLoc loc : locs ) {
+            final long[] volumes = getWindowVolumes(loc.getContig());
+            for ( int window = getWindow(loc.getStart()); window <= getWindow(loc.getStop()) && part < numParts - 1; window++ ) {
+                final int segmentStart = Math.max(loc.getStart(), window * WINDOW_SIZE + 1);
+                final int segmentSize = getOverlap(loc, window);
+                final double volumePerLocus = getVolumePerLocus(volumes, window);
+                final double segmentCost = volumePerLocus * segmentSize;
+
+                double boundary = (double)totalCost * (part + 1) / numParts;
+                while ( part < numParts - 1 && boundary <= cumulativeCost + segmentCost ) {
+                    final long lociInSegment = volumePerLocus > 0 ? (long)Math.ceil((boundary - cumulativeCost) / volumePerLocus) : 0;
+                    partEnds[part] = lociBefore + (segmentStart - loc.getStart()) + Math.max(1, Math.min(segmentSize, lociInSegment));
+                    part++;
+                    boundary = (double)totalCost * (part + 1) / numParts;
+                }
+                cumulativeCost += segmentCost;
+            }
+            lociBefore += loc.size();
+        }
+
+        // rounding may leave the last boundaries unreached
+        for ( ; part < numParts - 1; part++ )
+            partEnds[part] = lociBefore;
+    }
+
+    /**
+     * Cuts locs into parts, part i ending after partEnds[i] loci from the start of locs
+     */
+    private static List<List<GenomeLoc>> cutAt(final List<GenomeLoc> locs, final long[] partEnds) {
+        final List<List<GenomeLoc>> parts = new ArrayList<List<GenomeLoc>>(partEnds.length);
+        final LinkedList<GenomeLoc> remaining = new LinkedList<GenomeLoc>(locs);
+        long lociBefore = 0;
+
+        for ( final long partEnd : partEnds ) {
+            final List<GenomeLoc> part = new ArrayList<GenomeLoc>();
+            while ( lociBefore < partEnd ) {
+                final GenomeLoc head = remaining.removeFirst();
+                if ( lociBefore + head.size() <= partEnd ) {
+                    part.add(head);
+                    lociBefore += head.size();
+                } else {
+                    final GenomeLoc[] halves = head.split(head.getStart() + (int)(partEnd - lociBefore));
+                    part.add(halves[0]);
+                    remaining.addFirst(halves[1]);
+                    lociBefore = partEnd;
+                }
+            }
+            parts.add(part);
+        }
+
+        return parts;
+    }
+
+    /**
+     * @return the 0-based window of the 1-based locus
+     */
+    private static int getWindow(final int locus) {
+        return (locus - 1) >> LinearIndex.BAM_LIDX_SHIFT;
+    }
+
+    /**
+     * @return the number of loci of loc in the window
+     */
+    private static int getOverlap(final GenomeLoc loc, final int window) {
+        final int windowStart = window * WINDOW_SIZE + 1;
+        final int windowStop = windowStart + WINDOW_SIZE - 1;
+        return Math.min(loc.getStop(), windowStop) - Math.max(loc.getStart(), windowStart) + 1;
+    }
+
+    private static double getVolumePerLocus(final long[] volumes, final int window) {
+        return window < volumes.length ? (double)volumes[window] / WINDOW_SIZE : 0.0;
+    }
+
+    /**
+     * Get the estimated volume of each window of contig, summed over the indices
+     */
+    private synchronized long[] getWindowVolumes(final String contig) {
+        long[] volumes = windowVolumes.get(contig);
+        if ( volumes == null ) {
+            volumes = new long[0];
+            for ( int i = 0; i < indices.size(); i++ ) {
+                final SAMSequenceRecord sequence = indexSequences.get(i).getSequence(contig);
+                if ( sequence == null || sequence.getSequenceIndex() >= indices.get(i).getNumberOfSequences() )
+                    continue;
+
+                final long[] indexVolumes = getWindowVolumes(indices.get(i).readReferenceSequence(sequence.getSequenceIndex()), getWindow(sequence.getSequenceLength()) + 1);
+                if ( indexVolumes.length > volumes.length )
+                    volumes = Arrays.copyOf(volumes, indexVolumes.length);
+                for ( int window = 0; window < indexVolumes.length; window++ )
+                    volumes[window] += indexVolumes[window];
+            }
+            windowVolumes.put(contig, volumes);
+        }
+        return volumes;
+    }
+
+    /**
+     * Estimate the volume of each window of one reference sequence of one BAM file from its linear index
+     * @param data the index data of the reference sequence
+     * @param nWindows the number of windows of the reference sequence
+     * @return the estimated volume of each window
+     */
+    static long[] getWindowVolumes(final GATKBAMIndexData data, final int nWindows) {
+        final long[] volumes = new long[nWindows];
+
+        // linear index entries are 0 for windows without reads
+        final long[] offsets = new long[nWindows];
+        for ( int window = 0; window < nWindows; window++ )
+            offsets[window] = data.getMinimumOffset(window * WINDOW_SIZE + 1);
+
+        // the offset of the first read of the next window with reads, or -1 past the last one
+        long nextOffset = -1;
+        for ( int window = nWindows - 1; window >= 0; window-- ) {
+            if ( offsets[window] == 0 )
+                continue;
+
+            if ( nextOffset < 0 ) {
+                // the last window with reads: nothing follows it in the linear index, so use the reads indexed in its own bin
+                final GATKBin bin = data.getBin(FIRST_WINDOW_BIN + window);
+                if ( bin != null ) {
+                    for ( final GATKChunk chunk : bin.getChunkList() )
+                        volumes[window] += LocusShardSplitter.estimateSize(chunk);
+                }
+                nextOffset = offsets[window];
+            } else if ( nextOffset > offsets[window] ) {
+                volumes[window] = LocusShardSplitter.estimateSize(new GATKChunk(offsets[window], nextOffset));
+                nextOffset = offsets[window];
+            }
+        }
+
+        return volumes;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import org.broadinstitute.gatk.utils.GenomeLoc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Balances file pointers into locus shards of roughly equal estimated volume of reads, rather than
+ * of roughly equal genomic span.
+ *
+ * Consecutive file pointers on the same contig are batched while their total estimated volume stays
+ * under the target cost, and file pointers estimated at more than twice the target cost are split
+ * into pieces of about the target cost.  Volumes are estimated from the BAM indices by a
+ * ReadVolumeEstimator.
+ */
+public class ReadVolumeShardBalancer extends ShardBalancer {
+    private final ReadVolumeEstimator estimator;
+    private final long targetCost;
+
+    /**
+     * Create a balancer for shards of about targetCost
+     * @param estimator the estimator of the volume of reads over the file pointers
+     * @param targetCost the estimated volume of reads of each shard, in the units of the estimator
+     */
+    public ReadVolumeShardBalancer(final ReadVolumeEstimator estimator, final long targetCost) {
+        if ( estimator == null ) throw new IllegalArgumentException("estimator cannot be null");
+        if ( targetCost < 1 ) throw new IllegalArgumentException("targetCost must be >= 1 but got " + targetCost);
+        this.estimator = estimator;
+        this.targetCost = targetCost;
+    }
+
+    /**
+     * Convert iterators of file pointers into balanced iterators of shards.
+     * @return An iterator over balanced shards.
+     */
+    public Iterator<Shard> iterator() {
+        return new Iterator<Shard>() {
+            private final LinkedList<Shard> pending = new LinkedList<Shard>();
+            private final LocusShardSplitter splitter = new LocusShardSplitter(readsDataSource, parser);
+
+            public boolean hasNext() {
+                return ! pending.isEmpty() || filePointers.hasNext();
+            }
+
+            public Shard next() {
+                if ( pending.isEmpty() ) {
+                    if ( ! filePointers.hasNext() )
+                        throw new NoSuchElementException("No more shards");
+                    balance(filePointers.next());
+                }
+                return pending.removeFirst();
+            }
+
+            /**
+             * Queue the shards for current and the file pointers batched with it
+             */
+            private void balance(final FilePointer current) {
+                if ( current.isRegionUnmapped ) {
+                    pending.add(createShard(current));
+                    return;
+                }
+
+                final long cost = estimator.estimateCost(current.getLocations());
+                if ( cost > 2 * targetCost ) {
+                    final int numParts = (int)Math.min(cost / targetCost, getTerritory(current.getLocations()));
+                    for ( final List<GenomeLoc> part : estimator.splitByCost(current.getLocations(), numParts) )
+                        pending.add(splitter.createShard(part));
+                    return;
+                }
+
+                final List<FilePointer> batch = new ArrayList<FilePointer>();
+                batch.add(current);
+                long batchCost = cost;
+                while ( filePointers.hasNext() && ! filePointers.peek().isRegionUnmapped &&
+                        filePointers.peek().getContigIndex() == current.getContigIndex() ) {
+                    final long nextCost = estimator.estimateCost(filePointers.peek().getLocations());
+                    if ( batchCost + nextCost > targetCost )
+                        break;
+                    batch.add(filePointers.next());
+                    batchCost += nextCost;
+                }
+
+                pending.add(createShard(batch.size() == 1 ? current : FilePointer.union(batch, parser)));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("Unable to remove from shard balancing iterator");
+            }
+        };
+    }
+
+    private Shard createShard(final FilePointer filePointer) {
+        return new LocusShard(parser, readsDataSource, filePointer.getLocations(), filePointer.fileSpans);
+    }
+
+    private static long getTerritory(final List<GenomeLoc> locs) {
+        long territory = 0;
+        for ( final GenomeLoc loc : locs )
+            territory += loc.size();
+        return territory;
+    }
+}
@@ -58,6 +58,8 @@ import org.broadinstitute.gatk.utils.sam.SAMReaderID;
 import java.io.File;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * User: aaron
@@ -155,6 +157,16 @@ public class SAMDataSource {
      */
     private final BGZFBlockLoadingDispatcher dispatcher;
 
+    /**
+     * Applies the read transformers to batches of reads ahead of the traversal, or null if they're applied inline.
+     */
+    private final ExecutorService readPreparationPool;
+
+    /**
+     * How many reads are transformed as a unit by the read preparation threads.
+     */
+    private static final int READ_PREPARATION_BATCH_SIZE = 256;
+
     /**
      * How are threads allocated.
      */
@@ -237,6 +249,49 @@ public class SAMDataSource {
                 IntervalMergingRule.ALL);
     }
 
+    /**
+     * See complete constructor.  Reads the BAM indices directly, without a persistent cache.
+     */
+    public SAMDataSource(
+            final File referenceFile,
+            Collection<SAMReaderID> samFiles,
+            ThreadAllocation threadAllocation,
+            Integer numFileHandles,
+            GenomeLocParser genomeLocParser,
+            boolean useOriginalBaseQualities,
+            ValidationStringency strictness,
+            Integer readBufferSize,
+            DownsamplingMethod downsamplingMethod,
+            ValidationExclusion exclusionList,
+            Collection<ReadFilter> supplementalFilters,
+            List<ReadTransformer> readTransformers,
+            boolean includeReadsWithDeletionAtLoci,
+            byte defaultBaseQualities,
+            boolean removeProgramRecords,
+            final boolean keepReadsInLIBS,
+            final Map<String, String> sampleRenameMap,
+            final IntervalMergingRule intervalMergingRule) {
+        this(   referenceFile,
+                samFiles,
+                threadAllocation,
+                numFileHandles,
+                genomeLocParser,
+                useOriginalBaseQualities,
+                strictness,
+                readBufferSize,
+                downsamplingMethod,
+                exclusionList,
+                supplementalFilters,
+                readTransformers,
+                includeReadsWithDeletionAtLoci,
+                defaultBaseQualities,
+                removeProgramRecords,
+                keepReadsInLIBS,
+                sampleRenameMap,
+                intervalMergingRule,
+                null);
+    }
+
     /**
      * Create a new SAM data source given the supplied read metadata.
      * @param referenceFile reference file.
@@ -255,6 +310,7 @@ public class SAMDataSource {
      * @param sampleRenameMap Map of BAM file to new sample ID used during on-the-fly runtime sample renaming.
      *                        Will be null if we're not doing sample renaming.
      * @param intervalMergingRule how are adjacent intervals merged by the sharder
+     * @param bamIndexCacheDirectory directory of the persistent cache of parsed BAM indices, or null to read the indices directly
      */
     public SAMDataSource(
             final File referenceFile,
@@ -274,7 +330,8 @@ public class SAMDataSource {
             boolean removeProgramRecords,
             final boolean keepReadsInLIBS,
             final Map<String, String> sampleRenameMap,
-            final IntervalMergingRule intervalMergingRule) {
+            final IntervalMergingRule intervalMergingRule,
+            final File bamIndexCacheDirectory) {
 
         this.referenceFile = referenceFile;
         this.readMetrics = new ReadMetrics();
@@ -292,6 +349,14 @@ public class SAMDataSource {
         else
             dispatcher = null;
 
+        if(this.threadAllocation.getNumReadPreparationThreads() > 0) {
+            logger.info("Preparing reads asynchronously; number of threads = " + this.threadAllocation.getNumReadPreparationThreads());
+            readPreparationPool = Executors.newFixedThreadPool(this.threadAllocation.getNumReadPreparationThreads(),
+                    BGZFBlockLoadingDispatcher.daemonThreadFactory("read-preparation-thread-%d"));
+        }
+        else
+            readPreparationPool = null;
+
         validationStringency = strictness;
         this.removeProgramRecords = removeProgramRecords;
         if(readBufferSize != null)
@@ -382,11 +447,17 @@ public class SAMDataSource {
                     getSequenceDictionary();
         }
 
+        final GATKBAMIndexCache bamIndexCache = bamIndexCacheDirectory != null ? new GATKBAMIndexCache(bamIndexCacheDirectory) : null;
         for(SAMReaderID id: readerIDs) {
             File indexFile = findIndexFile(id.getSamFile());
-            if(indexFile != null)
+            if(indexFile != null && bamIndexCache != null)
+                bamIndices.put(id,bamIndexCache.getIndex(id.getSamFile(), indexFile, samSequenceDictionary));
+            else if(indexFile != null)
                 bamIndices.put(id,new GATKBAMIndex(indexFile, samSequenceDictionary));
         }
+        if(bamIndexCache != null)
+            logger.info(String.format("BAM index cache %s: %d indices reused, %d parsed",
+                    bamIndexCache.getDirectory(), bamIndexCache.getNumberOfHits(), bamIndexCache.getNumberOfMisses()));
 
         resourcePool.releaseReaders(readers);
     }
@@ -409,6 +480,27 @@ public class SAMDataSource {
             SamReader reader = readers.getReader(readerID);
             CloserUtil.close(reader);
         }
+
+        if(dispatcher != null)
+            dispatcher.shutdown();
+        if(readPreparationPool != null)
+            readPreparationPool.shutdownNow();
+    }
+
+    /**
+     * Logs the throughput, queue depth and stall counters of the asynchronous block loader, if asynchronous I/O is enabled.
+     */
+    public void printBlockLoadingStatistics() {
+        if(dispatcher != null)
+            logger.info(dispatcher.getStatisticsSummary());
+    }
+
+    /**
+     * Gets the asynchronous block loader, for monitoring its throughput.
+     * @return The block loading dispatcher, or null if asynchronous I/O is not enabled.
+     */
+    public BGZFBlockLoadingDispatcher getBlockLoadingDispatcher() {
+        return dispatcher;
     }
 
     /**
@@ -452,6 +544,14 @@ public class SAMDataSource {
         return resourcePool.getReaderID(read.getFileSource().getReader());
     }
 
+    /**
+     * Gets the rule used to merge adjacent intervals when sharding over them.
+     * @return the interval merging rule.
+     */
+    public IntervalMergingRule getIntervalMergingRule() {
+        return intervalMergingRule;
+    }
+
     /**
      * Gets the merged header from the SAM file.
      * @return The merged header.
@@ -762,8 +862,20 @@ public class SAMDataSource {
 
         // Read transformers: these are applied last, so that we don't bother transforming reads that get discarded
         // by the read filters or downsampler.
+        final List<ReadTransformer> onInputTransformers = new ArrayList<ReadTransformer>();
         for ( final ReadTransformer readTransformer : readTransformers ) {
             if ( readTransformer.enabled() && readTransformer.getApplicationTime() == ReadTransformer.ApplicationTime.ON_INPUT )
+                onInputTransformers.add(readTransformer);
+        }
+
+        // The formatting, filtering and downsampling above stay on this thread, since the downsamplers need to see the
+        // filtered reads in order.  The transformers (BQSR, BAQ) only look at one read at a time, so they can be run
+        // on the read preparation threads, if we have any.
+        if ( readPreparationPool != null && ! onInputTransformers.isEmpty() ) {
+            wrappedIterator = new ParallelReadTransformingIterator(wrappedIterator, onInputTransformers, readPreparationPool,
+                    READ_PREPARATION_BATCH_SIZE, 2 * threadAllocation.getNumReadPreparationThreads());
+        } else {
+            for ( final ReadTransformer readTransformer : onInputTransformers )
                 wrappedIterator = new ReadTransformingIterator(wrappedIterator, readTransformer);
         }
 
@@ -56,7 +56,17 @@ public class ReferenceDataSource {
      * @param fastaFile Fasta file to be used as reference
      */
     public ReferenceDataSource(File fastaFile) {
-        reference = CachingIndexedFastaSequenceFile.checkAndCreate(fastaFile);
+        this(fastaFile, CachingIndexedFastaSequenceFile.AccessMode.CACHED, false);
+    }
+
+    /**
+     * Create reference data source from fasta file
+     * @param fastaFile Fasta file to be used as reference
+     * @param accessMode how bases are fetched from the fasta file
+     * @param preTouch if true and accessMode is MEMORY_MAPPED, page the whole fasta into memory now
+     */
+    public ReferenceDataSource(final File fastaFile, final CachingIndexedFastaSequenceFile.AccessMode accessMode, final boolean preTouch) {
+        reference = CachingIndexedFastaSequenceFile.checkAndCreate(fastaFile, accessMode, preTouch);
     }
 
     /**
@@ -28,12 +28,14 @@ package org.broadinstitute.gatk.engine.executive;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.tribble.TribbleException;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.datasources.reads.LocusShardSplitter;
 import org.broadinstitute.gatk.engine.datasources.reads.SAMDataSource;
 import org.broadinstitute.gatk.engine.datasources.reads.Shard;
 import org.broadinstitute.gatk.engine.datasources.rmd.ReferenceOrderedDataSource;
 import org.broadinstitute.gatk.engine.io.OutputTracker;
 import org.broadinstitute.gatk.engine.io.ThreadGroupOutputTracker;
 import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.gatk.engine.walkers.LocusWalker;
 import org.broadinstitute.gatk.engine.walkers.TreeReducible;
 import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.MultiThreadedErrorTracker;
@@ -44,6 +46,8 @@ import org.broadinstitute.gatk.utils.threading.ThreadPoolMonitor;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Queue;
 import java.util.concurrent.*;
 
@@ -58,13 +62,25 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      */
     private static final int MAX_OUTSTANDING_OUTPUT_MERGES = 50;
 
+    /**
+     * With adaptive sharding, how many shards per data thread are read ahead of the traversals,
+     * to estimate the typical shard cost and to find the oversized shards in time to split them.
+     */
+    private static final int PENDING_SHARDS_PER_THREAD = 2;
+
+    /**
+     * With adaptive sharding, shards estimated to cost more than this many times the average
+     * cost of the shards seen so far are split.
+     */
+    private static final int SPLIT_COST_RATIO = 4;
+
     /** Manage currently running threads. */
     private ExecutorService threadPool;
 
     /**
      * A thread local output tracker for managing output per-thread.
      */
-    private ThreadGroupOutputTracker outputTracker = new ThreadGroupOutputTracker();
+    private final ThreadGroupOutputTracker outputTracker;
 
     private final Queue<TreeReduceTask> reduceTasks = new LinkedList<TreeReduceTask>();
 
@@ -78,6 +94,34 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      */
     private Iterator<Shard> traversalTasks;
 
+    /**
+     * With adaptive sharding, splits oversized locus shards; null otherwise.
+     */
+    private final LocusShardSplitter shardSplitter;
+
+    /**
+     * With adaptive sharding, the shards read from traversalTasks (or split from them) but not yet
+     * traversed, in order.
+     */
+    private final LinkedList<PendingShard> pendingShards = new LinkedList<PendingShard>();
+
+    /** The number of data threads traversing shards */
+    private final int nDataThreads;
+
+    /** How many shards have been read from traversalTasks, and what is their total estimated cost? */
+    private long nShardsSeen = 0;
+    private long totalCostSeen = 0;
+
+    /** The total estimated cost of pendingShards */
+    private long pendingCost = 0;
+
+    /** How many shards have been split? */
+    private int totalSplitShards = 0;
+
+    /** How are the traversal times and estimated sizes of the shards distributed? */
+    private final ShardCostHistogram shardTraverseTimes = new ShardCostHistogram();
+    private final ShardCostHistogram shardEstimatedSizes = new ShardCostHistogram();
+
     /**
      * Keep a queue of shard traversals, and constantly monitor it to see what output
      * merge tasks remain.
@@ -122,6 +166,16 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         }
 
         this.threadPool = Executors.newFixedThreadPool(nThreadsToUse, new UniqueThreadGroupThreadFactory());
+        this.outputTracker = new ThreadGroupOutputTracker(engine.getArguments().inMemoryOutputMerge);
+        this.nDataThreads = nThreadsToUse;
+
+        // Only locus traversals can be cut anywhere: active region and read traversals depend on their shard boundaries
+        if ( engine.getArguments().adaptiveSharding && walker instanceof LocusWalker && reads != null && ! reads.isEmpty() ) {
+            logger.info("Splitting oversized locus shards across the data threads");
+            this.shardSplitter = new LocusShardSplitter(reads, engine.getGenomeLocParser());
+        } else {
+            this.shardSplitter = null;
+        }
     }
 
     /**
@@ -154,8 +208,9 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             // Check for errors during execution.
             errorTracker.throwErrorIfPending();
 
-            // Too many files sitting around taking up space?  Merge them.
-            if (isMergeLimitExceeded())
+            // Too many files sitting around taking up space?  Merge them.  Output held in memory is
+            // merged as soon as everything before it is done, to free the memory as early as possible.
+            if (outputTracker.isMergingInMemory() || isMergeLimitExceeded())
                 mergeExistingOutput(false);
 
             // Wait for the next slot in the queue to become free.
@@ -243,7 +298,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      * @return true if a shard traversal is waiting; false otherwise.
      */
     protected boolean isShardTraversePending() {
-        return traversalTasks.hasNext();
+        return ! pendingShards.isEmpty() || traversalTasks.hasNext();
     }
 
     /**
@@ -253,9 +308,11 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      * @return true if a tree reduce is ready; false otherwise.
      */
     protected boolean isTreeReduceReady() {
-        if (reduceTasks.size() == 0)
-            return false;
-        return reduceTasks.peek().isReadyForReduce();
+        for (final TreeReduceTask reducer : reduceTasks) {
+            if (reducer.isReadyForReduce())
+                return true;
+        }
+        return false;
     }
 
     /**
@@ -343,10 +400,11 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      * @param reduceTree Tree of reduces to which to add this shard traverse.
      */
     protected void queueNextShardTraverse( Walker walker, ReduceTree reduceTree ) {
-        if (!traversalTasks.hasNext())
+        if (!isShardTraversePending())
             throw new IllegalStateException("Cannot traverse; no pending traversals exist.");
 
-        final Shard shard = traversalTasks.next();
+        final Shard shard = nextShard();
+        shardEstimatedSizes.add(LocusShardSplitter.estimateCost(shard));
 
         // todo -- add ownership claim here
 
@@ -366,6 +424,69 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             reduceTree.complete();
     }
 
+    /**
+     * Get the next shard to traverse.  With adaptive sharding, the next shard is split first
+     * if it is much more expensive than the average shard, or than a fair share of the remaining
+     * work once all the shards have been seen.
+     *
+     * @return the next shard to traverse
+     */
+    private Shard nextShard() {
+        if ( shardSplitter == null )
+            return traversalTasks.next();
+
+        while ( pendingShards.size() < PENDING_SHARDS_PER_THREAD * nDataThreads && traversalTasks.hasNext() ) {
+            final Shard shard = traversalTasks.next();
+            final long cost = LocusShardSplitter.estimateCost(shard);
+            nShardsSeen++;
+            totalCostSeen += cost;
+            pendingCost += cost;
+            pendingShards.add(new PendingShard(shard, cost));
+        }
+
+        final PendingShard next = pendingShards.removeFirst();
+        pendingCost -= next.cost;
+
+        long maxCost = SPLIT_COST_RATIO * (totalCostSeen / nShardsSeen);
+        if ( ! traversalTasks.hasNext() )
+            // the tail of the traversal: make sure no thread is stuck with much more than its share of the remaining work
+            maxCost = Math.min(maxCost, (pendingCost + next.cost) / nDataThreads);
+
+        if ( next.cost <= maxCost || ! shardSplitter.canSplit(next.shard) )
+            return next.shard;
+
+        final List<Shard> pieces = shardSplitter.split(next.shard, maxCost);
+        if ( pieces.size() == 1 )
+            return pieces.get(0);
+
+        totalSplitShards++;
+        if ( logger.isDebugEnabled() )
+            logger.debug(String.format("Split shard %s with estimated size %d into %d pieces", next.shard.getGenomeLocs(), next.cost, pieces.size()));
+
+        // the remaining pieces go back in front of the other pending shards, in order, for the next idle threads
+        final ListIterator<Shard> remainingPieces = pieces.listIterator(pieces.size());
+        while ( remainingPieces.hasPrevious() ) {
+            final Shard piece = remainingPieces.previous();
+            if ( remainingPieces.hasPrevious() ) {
+                final long pieceCost = LocusShardSplitter.estimateCost(piece, next.shard);
+                pendingCost += pieceCost;
+                pendingShards.addFirst(new PendingShard(piece, pieceCost));
+            }
+        }
+        return pieces.get(0);
+    }
+
+    /** A shard waiting to be traversed, with its estimated cost */
+    private static class PendingShard {
+        final Shard shard;
+        final long cost;
+
+        private PendingShard(final Shard shard, final long cost) {
+            this.shard = shard;
+            this.cost = cost;
+        }
+    }
+
     private synchronized void printOutputMergeTasks() {
         printOutputMergeTasks(outputMergeTasks);
     }
@@ -376,11 +497,24 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             logger.info(String.format("\t%s: complete? %b", traverser.getIntervalsString(), traverser.isComplete()));
     }
 
-    /** Pulls the next reduce from the queue and runs it. */
+    /**
+     * Pulls the first reduce that's ready from the queue and runs it, or the next reduce
+     * if none is ready yet.  Each reduce combines two fixed inputs, so running reduces
+     * out of order doesn't change the result.
+     */
     protected void queueNextTreeReduce( Walker walker ) {
         if (reduceTasks.size() == 0)
             throw new IllegalStateException("Cannot reduce; no pending reduces exist.");
-        final TreeReduceTask reducer = reduceTasks.remove();
+        TreeReduceTask reducer = null;
+        for (final Iterator<TreeReduceTask> it = reduceTasks.iterator(); it.hasNext() && reducer == null; ) {
+            final TreeReduceTask candidate = it.next();
+            if (candidate.isReadyForReduce()) {
+                reducer = candidate;
+                it.remove();
+            }
+        }
+        if (reducer == null)
+            reducer = reduceTasks.remove();
         reducer.setWalker((TreeReducible) walker);
 
         threadPool.submit(reducer);
@@ -439,6 +573,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     synchronized void reportShardTraverseTime( long shardTraversalTime ) {
         totalShardTraverseTime += shardTraversalTime;
         totalCompletedTraversals++;
+        shardTraverseTimes.add(shardTraversalTime);
     }
 
     /**
@@ -492,4 +627,19 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     public long getTotalOutputMergeTimeMillis() {
         return totalOutputMergeTime;
     }
+
+    /** {@inheritDoc} */
+    public long[] getShardTraverseTimeHistogram() {
+        return shardTraverseTimes.getCounts();
+    }
+
+    /** {@inheritDoc} */
+    public long[] getShardEstimatedSizeHistogram() {
+        return shardEstimatedSizes.getCounts();
+    }
+
+    /** {@inheritDoc} */
+    public int getNumberOfSplitShards() {
+        return totalSplitShards;
+    }
 }
@@ -82,5 +82,22 @@ public interface HierarchicalMicroSchedulerMBean {
      * @return Average time spent running tree reduces; 0 if none have been run.
      */
     public long getAvgTreeReduceTimeMillis();
-}
 
+    /**
+     * How are the times spent traversing shards distributed?
+     * @return The number of shards whose traversal took 0 ms in bucket 0, and [2^(i-1), 2^i) ms in bucket i.
+     */
+    public long[] getShardTraverseTimeHistogram();
+
+    /**
+     * How are the estimated sizes of the traversed shards distributed?
+     * @return The number of shards with an estimated size of 0 bytes in bucket 0, and [2^(i-1), 2^i) bytes in bucket i.
+     */
+    public long[] getShardEstimatedSizeHistogram();
+
+    /**
+     * How many shards have been split into smaller shards with -adaptiveSharding?
+     * @return Total number of shards split; 0 if none have been split.
+     */
+    public int getNumberOfSplitShards();
+}
@@ -112,6 +112,12 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     private final MBeanServer mBeanServer;
     private final ObjectName mBeanName;
 
+    /**
+     * Samples the throughput of each stage of the traversal, for the telemetry log and JMX
+     */
+    private final TraversalTelemetry telemetry;
+    private final ObjectName telemetryMBeanName;
+
     /**
      * Threading efficiency monitor for tracking the resource utilization of the GATK
      *
@@ -210,6 +216,10 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         for ( final TraversalEngine traversalEngine : allCreatedTraversalEngines )
             traversalEngine.initialize(engine, walker, engine.getProgressMeter());
 
+        telemetry = new TraversalTelemetry(engine.getProgressMeter(), allCreatedTraversalEngines, reads,
+                engine.getArguments() == null ? null : engine.getArguments().telemetryLog,
+                TraversalTelemetry.DEFAULT_SAMPLING_PERIOD_MILLISECONDS);
+
         // JMX does not allow multiple instances with the same ObjectName to be registered with the same platform MXBean.
         // To get around this limitation and since we have no job identifier at this point, register a simple counter that
         // will count the number of instances of this object that have been created in this JVM.
@@ -218,6 +228,8 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         try {
             mBeanName = new ObjectName("org.broadinstitute.gatk.engine.executive:type=MicroScheduler,instanceNumber="+thisInstance);
             mBeanServer.registerMBean(this, mBeanName);
+            telemetryMBeanName = new ObjectName("org.broadinstitute.gatk.engine.executive:type=TraversalTelemetry,instanceNumber="+thisInstance);
+            mBeanServer.registerMBean(telemetry, telemetryMBeanName);
         }
         catch (JMException ex) {
             throw new ReviewedGATKException("Unable to register microscheduler with JMX", ex);
@@ -232,15 +244,18 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     @Ensures("result != null")
     private TraversalEngine createTraversalEngine(final Walker walker, final ThreadAllocation threadAllocation) {
         if (walker instanceof ReadWalker) {
-            return new TraverseReadsNano(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseReadsNano(threadAllocation.getNumCPUThreadsPerDataThread(),
+                    threadAllocation.getNanoSchedulerEngine(), threadAllocation.getNanoSchedulerMemoryBudget());
         } else if (walker instanceof LocusWalker) {
-            return new TraverseLociNano(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseLociNano(threadAllocation.getNumCPUThreadsPerDataThread(),
+                    threadAllocation.getNanoSchedulerEngine(), threadAllocation.getNanoSchedulerMemoryBudget());
         } else if (walker instanceof DuplicateWalker) {
             return new TraverseDuplicates();
         } else if (walker instanceof ReadPairWalker) {
             return new TraverseReadPairs();
         } else if (walker instanceof ActiveRegionWalker) {
-            return new TraverseActiveRegions(threadAllocation.getNumCPUThreadsPerDataThread());
+            return new TraverseActiveRegions(threadAllocation.getNumCPUThreadsPerDataThread(),
+                    threadAllocation.getNanoSchedulerEngine(), threadAllocation.getNanoSchedulerMemoryBudget());
         } else {
             throw new UnsupportedOperationException("Unable to determine traversal type, the walker is an unknown type.");
         }
@@ -300,10 +315,11 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
      *
      * Must be called when the implementation of execute actually starts up
      *
-     * Currently only starts the progress meter timer running, but other start up activities could be incorporated
+     * Starts the progress meter timer and the telemetry sampling running, but other start up activities could be incorporated
      */
     protected void startingExecution() {
         engine.getProgressMeter().start();
+        telemetry.start();
     }
 
     /**
@@ -326,7 +342,9 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
      */
     protected void executionIsDone() {
         engine.getProgressMeter().notifyDone(engine.getCumulativeMetrics().getNumIterations());
+        telemetry.done();
         printReadFilteringStats();
+        if ( reads != null ) reads.printBlockLoadingStatistics();
         shutdownTraversalEngines();
 
         // Print out the threading efficiency of this HMS, if state monitoring is enabled
@@ -401,6 +419,7 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     protected void cleanup() {
         try {
             mBeanServer.unregisterMBean(mBeanName);
+            mBeanServer.unregisterMBean(telemetryMBeanName);
         }
         catch (JMException ex) {
             throw new ReviewedGATKException("Unable to unregister microscheduler with JMX", ex);
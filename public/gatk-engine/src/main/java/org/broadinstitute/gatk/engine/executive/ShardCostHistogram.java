@@ -0,0 +1,74 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.executive;
+
+/**
+ * A histogram of non-negative costs (times, sizes) with power-of-two buckets.
+ *
+ * Bucket 0 counts the costs of 0, and bucket i > 0 counts the costs in [2^(i-1), 2^i).
+ * Safe to update from multiple threads.
+ */
+class ShardCostHistogram {
+    /** One bucket for 0 plus one bucket per bit of a positive long */
+    public static final int NUM_BUCKETS = Long.SIZE;
+
+    private final long[] counts = new long[NUM_BUCKETS];
+
+    /**
+     * Count one more occurrence of cost
+     * @param cost a cost >= 0
+     */
+    public synchronized void add(final long cost) {
+        if ( cost < 0 ) throw new IllegalArgumentException("cost must be >= 0 but got " + cost);
+        counts[getBucket(cost)]++;
+    }
+
+    /**
+     * Get the bucket counting cost
+     * @param cost a cost >= 0
+     * @return the index of the bucket for cost
+     */
+    static int getBucket(final long cost) {
+        return Long.SIZE - Long.numberOfLeadingZeros(cost);
+    }
+
+    /**
+     * @return a copy of the counts of each bucket
+     */
+    public synchronized long[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * @return the total number of costs counted
+     */
+    public synchronized long getTotalCount() {
+        long total = 0;
+        for ( final long count : counts )
+            total += count;
+        return total;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.executive;
+
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.engine.datasources.reads.BGZFBlockLoadingDispatcher;
+import org.broadinstitute.gatk.engine.datasources.reads.SAMDataSource;
+import org.broadinstitute.gatk.engine.traversals.TraversalEngine;
+import org.broadinstitute.gatk.engine.traversals.TraverseActiveRegions;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
+import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples the throughput of each stage of a traversal -- records, loci and active regions
+ * processed, the depths of the NanoScheduler queues, BGZF decompression and garbage collection -- so
+ * that the bottleneck of a run can be identified.
+ *
+ * The latest rates are available over JMX, and each sample can also be written as a line of JSON to a
+ * telemetry log.  Sampling only reads counters the stages maintain anyway, so it doesn't slow them down.
+ */
+public class TraversalTelemetry implements TraversalTelemetryMBean {
+    protected static final Logger logger = Logger.getLogger(TraversalTelemetry.class);
+
+    /**
+     * How often do we sample, by default?
+     */
+    public static final long DEFAULT_SAMPLING_PERIOD_MILLISECONDS = 10 * 1000;
+
+    private final ProgressMeter progressMeter;
+    private final Collection<TraversalEngine> traversalEngines;
+    private final SAMDataSource reads;
+    private final long samplingPeriodMilliseconds;
+
+    /**
+     * A potentially null file where we print a line of JSON for every sample
+     */
+    private final PrintStream telemetryLog;
+
+    private final long startTime = System.nanoTime();
+    private final Thread samplingThread;
+    private volatile boolean done = false;
+
+    /**
+     * The last two samples, from which we compute the current rates
+     */
+    private volatile Sample previousSample;
+    private volatile Sample lastSample;
+
+    /**
+     * Create a new telemetry sampler.  Sampling doesn't begin until start() is called
+     *
+     * @param progressMeter the progress meter of the traversal
+     * @param traversalEngines the traversal engines doing the traversal
+     * @param reads the reads being traversed, or null if there are none
+     * @param telemetryLogFile an optional file where a line of JSON will be written for each sample
+     * @param samplingPeriodMilliseconds how often to sample
+     */
+    public TraversalTelemetry(final ProgressMeter progressMeter,
+                              final Collection<TraversalEngine> traversalEngines,
+                              final SAMDataSource reads,
+                              final File telemetryLogFile,
+                              final long samplingPeriodMilliseconds) {
+        if ( progressMeter == null ) throw new IllegalArgumentException("progressMeter cannot be null");
+        if ( traversalEngines == null ) throw new IllegalArgumentException("traversalEngines cannot be null");
+        if ( samplingPeriodMilliseconds <= 0 ) throw new IllegalArgumentException("samplingPeriodMilliseconds must be greater than 0 but got " + samplingPeriodMilliseconds);
+
+        this.progressMeter = progressMeter;
+        this.traversalEngines = traversalEngines;
+        this.reads = reads;
+        this.samplingPeriodMilliseconds = samplingPeriodMilliseconds;
+
+        if ( telemetryLogFile != null ) {
+            try {
+                this.telemetryLog = new PrintStream(new FileOutputStream(telemetryLogFile));
+            } catch (FileNotFoundException e) {
+                throw new UserException.CouldNotCreateOutputFile(telemetryLogFile, e);
+            }
+        } else {
+            telemetryLog = null;
+        }
+
+        previousSample = lastSample = takeSample();
+
+        samplingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while ( ! done ) {
+                    try {
+                        Thread.sleep(TraversalTelemetry.this.samplingPeriodMilliseconds);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    sampleIfNotDone();
+                }
+            }
+        }, "TraversalTelemetry");
+        samplingThread.setDaemon(true);
+    }
+
+    /**
+     * Start sampling periodically
+     */
+    public void start() {
+        samplingThread.start();
+    }
+
+    /**
+     * Stop sampling, after taking a last sample, and close the telemetry log
+     */
+    public synchronized void done() {
+        if ( done )
+            return;
+        done = true;
+        samplingThread.interrupt();
+        sample();
+        if ( telemetryLog != null )
+            telemetryLog.close();
+    }
+
+    /**
+     * Take a periodic sample, unless we've been told we're done since the sampling thread last woke up
+     */
+    private synchronized void sampleIfNotDone() {
+        if ( ! done )
+            sample();
+    }
+
+    /**
+     * Take a sample, making it the current one, and log it
+     */
+    protected synchronized void sample() {
+        final Sample sample = takeSample();
+        previousSample = lastSample;
+        lastSample = sample;
+        if ( telemetryLog != null ) {
+            telemetryLog.println(toJSON(previousSample, sample));
+            telemetryLog.flush();
+        }
+    }
+
+    /**
+     * Take a sample of all of the counters, right now
+     */
+    protected Sample takeSample() {
+        long activeRegions = 0;
+        for ( final TraversalEngine engine : traversalEngines ) {
+            if ( engine instanceof TraverseActiveRegions )
+                activeRegions += ((TraverseActiveRegions)engine).getNumActiveRegionsProcessed();
+        }
+
+        long gcMillis = 0;
+        for ( final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans() )
+            gcMillis += Math.max(collector.getCollectionTime(), 0);
+
+        final BGZFBlockLoadingDispatcher dispatcher = reads == null ? null : reads.getBlockLoadingDispatcher();
+
+        return new Sample(System.nanoTime(),
+                progressMeter.getNumRecordsProcessed(),
+                progressMeter.getBpProcessed(),
+                activeRegions,
+                NanoScheduler.getNumPendingMaps(),
+                NanoScheduler.getNumPendingReduces(),
+                dispatcher == null ? -1 : dispatcher.getDecompressedMB(),
+                gcMillis);
+    }
+
+    /**
+     * Format a sample and the rates since the previous one as a single line of JSON
+     */
+    protected String toJSON(final Sample previous, final Sample current) {
+        return String.format(Locale.US,
+                "{\"elapsedSeconds\":%.3f,\"units\":\"%s\",\"records\":%d,\"recordsPerSecond\":%.2f,\"loci\":%d,\"lociPerSecond\":%.2f," +
+                "\"activeRegions\":%d,\"activeRegionsPerSecond\":%.2f,\"nanoSchedulerPendingMaps\":%d,\"nanoSchedulerPendingReduces\":%d," +
+                "\"bgzfDecompressedMB\":%.2f,\"bgzfMBPerSecond\":%.2f,\"gcTimeMillis\":%d,\"gcMillisPerSecond\":%.2f}",
+                (current.time - startTime) / 1e9, progressMeter.getProcessingUnitName(),
+                current.records, rate(previous.records, current.records, previous, current),
+                current.loci, rate(previous.loci, current.loci, previous, current),
+                current.activeRegions, rate(previous.activeRegions, current.activeRegions, previous, current),
+                current.pendingMaps, current.pendingReduces,
+                current.bgzfMB, current.bgzfMB < 0 ? -1.0 : rate(previous.bgzfMB, current.bgzfMB, previous, current),
+                current.gcMillis, rate(previous.gcMillis, current.gcMillis, previous, current));
+    }
+
+    /**
+     * @return the rate per second at which a counter went from before in sample previous to after in sample current
+     */
+    private static double rate(final double before, final double after, final Sample previous, final Sample current) {
+        final long nanos = current.time - previous.time;
+        return nanos <= 0 ? 0.0 : (after - before) / (nanos / (double)TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public long getRecordsProcessed() {
+        return lastSample.records;
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        final Sample previous = previousSample, current = lastSample;
+        return rate(previous.records, current.records, previous, current);
+    }
+
+    @Override
+    public long getLociProcessed() {
+        return lastSample.loci;
+    }
+
+    @Override
+    public double getLociPerSecond() {
+        final Sample previous = previousSample, current = lastSample;
+        return rate(previous.loci, current.loci, previous, current);
+    }
+
+    @Override
+    public long getActiveRegionsProcessed() {
+        return lastSample.activeRegions;
+    }
+
+    @Override
+    public double getActiveRegionsPerSecond() {
+        final Sample previous = previousSample, current = lastSample;
+        return rate(previous.activeRegions, current.activeRegions, previous, current);
+    }
+
+    @Override
+    public long getNanoSchedulerPendingMaps() {
+        return lastSample.pendingMaps;
+    }
+
+    @Override
+    public long getNanoSchedulerPendingReduces() {
+        return lastSample.pendingReduces;
+    }
+
+    @Override
+    public double getBGZFDecompressedMB() {
+        return lastSample.bgzfMB;
+    }
+
+    @Override
+    public double getBGZFDecompressedMBPerSecond() {
+        final Sample previous = previousSample, current = lastSample;
+        return current.bgzfMB < 0 ? -1.0 : rate(previous.bgzfMB, current.bgzfMB, previous, current);
+    }
+
+    @Override
+    public long getGCTimeMillis() {
+        return lastSample.gcMillis;
+    }
+
+    @Override
+    public double getGCMillisPerSecond() {
+        final Sample previous = previousSample, current = lastSample;
+        return rate(previous.gcMillis, current.gcMillis, previous, current);
+    }
+
+    /**
+     * The values of all of the counters at one instant
+     */
+    protected static class Sample {
+        final long time;
+        final long records;
+        final long loci;
+        final long activeRegions;
+        final long pendingMaps;
+        final long pendingReduces;
+        final double bgzfMB;
+        final long gcMillis;
+
+        protected Sample(final long time, final long records, final long loci, final long activeRegions,
+                         final long pendingMaps, final long pendingReduces, final double bgzfMB, final long gcMillis) {
+            this.time = time;
+            this.records = records;
+            this.loci = loci;
+            this.activeRegions = activeRegions;
+            this.pendingMaps = pendingMaps;
+            this.pendingReduces = pendingReduces;
+            this.bgzfMB = bgzfMB;
+            this.gcMillis = gcMillis;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.executive;
+
+/**
+ * An interface for retrieving the throughput of each stage of a traversal, as sampled
+ * periodically by the TraversalTelemetry.  Rates are over the last sampling period.
+ */
+public interface TraversalTelemetryMBean {
+    /**
+     * How many records have been processed, in the units of the progress meter?
+     * @return Total number of records processed.
+     */
+    public long getRecordsProcessed();
+
+    /**
+     * How fast are records being processed?
+     * @return Records processed per second.
+     */
+    public double getRecordsPerSecond();
+
+    /**
+     * How many loci of the intervals being processed have been traversed?
+     * @return Total number of loci traversed.
+     */
+    public long getLociProcessed();
+
+    /**
+     * How fast are loci being traversed?
+     * @return Loci traversed per second.
+     */
+    public double getLociPerSecond();
+
+    /**
+     * How many active regions have been processed by the walker?
+     * @return Total number of active regions processed; 0 unless traversing active regions.
+     */
+    public long getActiveRegionsProcessed();
+
+    /**
+     * How fast are active regions being processed?
+     * @return Active regions processed per second.
+     */
+    public double getActiveRegionsPerSecond();
+
+    /**
+     * How many inputs are waiting for, or being processed by, the map stage of the NanoSchedulers?
+     * @return Number of inputs waiting to be mapped, over all NanoSchedulers.
+     */
+    public long getNanoSchedulerPendingMaps();
+
+    /**
+     * How many map results are waiting for the reduce stage of the NanoSchedulers?
+     * @return Number of map results waiting to be reduced, over all NanoSchedulers.
+     */
+    public long getNanoSchedulerPendingReduces();
+
+    /**
+     * How much BGZF data has been decompressed by the asynchronous block loader?
+     * @return Megabytes decompressed; -1 if asynchronous I/O is not enabled.
+     */
+    public double getBGZFDecompressedMB();
+
+    /**
+     * How fast is BGZF data being decompressed by the asynchronous block loader?
+     * @return Megabytes decompressed per second; -1 if asynchronous I/O is not enabled.
+     */
+    public double getBGZFDecompressedMBPerSecond();
+
+    /**
+     * How much time has the JVM spent in garbage collection?
+     * @return Total garbage collection time in milliseconds, over all collectors.
+     */
+    public long getGCTimeMillis();
+
+    /**
+     * What fraction of the time is the JVM spending in garbage collection?
+     * @return Milliseconds of garbage collection per second.
+     */
+    public double getGCMillisPerSecond();
+}
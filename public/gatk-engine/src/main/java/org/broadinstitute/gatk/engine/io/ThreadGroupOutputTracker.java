@@ -67,6 +67,33 @@ public class ThreadGroupOutputTracker extends OutputTracker {
         this.bypass = bypass;
     }
 
+    /**
+     * If true, each thread's output is held in memory rather than in temporary files until it's merged.
+     */
+    private final boolean mergeInMemory;
+
+    /**
+     * Create an output tracker that holds per-thread output in temporary files.
+     */
+    public ThreadGroupOutputTracker() {
+        this(false);
+    }
+
+    /**
+     * Create an output tracker.
+     * @param mergeInMemory if true, hold per-thread output in memory rather than in temporary files.
+     */
+    public ThreadGroupOutputTracker(final boolean mergeInMemory) {
+        this.mergeInMemory = mergeInMemory;
+    }
+
+    /**
+     * @return true if per-thread output is held in memory rather than in temporary files
+     */
+    public boolean isMergingInMemory() {
+        return mergeInMemory;
+    }
+
     /**
      * Initialize the storage map for this thread.
      *
@@ -88,7 +115,7 @@ public class ThreadGroupOutputTracker extends OutputTracker {
         }
 
         for ( final Stub stub : outputs.keySet() ) {
-            final Storage target = StorageFactory.createStorage(stub, createTempFile(stub));
+            final Storage target = mergeInMemory ? StorageFactory.createInMemoryStorage(stub) : StorageFactory.createStorage(stub, createTempFile(stub));
             threadLocalOutputStreams.put(stub, target);
         }
     }
@@ -131,7 +158,7 @@ public class ThreadGroupOutputTracker extends OutputTracker {
     }
 
     /**
-     * Close down any existing temporary files which have been opened.
+     * Close down any existing temporary files (or in-memory buffers) which have been opened.
      */
     public synchronized OutputMergeTask closeStorage() {
         final Map<Stub,Storage> threadLocalOutputStreams = findStorage(Thread.currentThread());
@@ -0,0 +1,131 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An in-memory output stream that stores its data in a list of fixed-size chunks.
+ *
+ * Unlike a ByteArrayOutputStream, growing the buffer never copies the data written so far and
+ * never needs one contiguous array as large as the whole output.  Not thread-safe.
+ */
+public class ChunkedOutputBuffer extends OutputStream {
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final int chunkSize;
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+    /**
+     * Number of bytes used in the last chunk
+     */
+    private int bytesInLastChunk = 0;
+    private long size = 0;
+
+    public ChunkedOutputBuffer() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize the size in bytes of each chunk, must be > 0
+     */
+    public ChunkedOutputBuffer(final int chunkSize) {
+        if ( chunkSize <= 0 ) throw new IllegalArgumentException("chunkSize must be > 0 but got " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void write(final int b) {
+        if ( chunks.isEmpty() || bytesInLastChunk == chunkSize )
+            addChunk();
+        chunks.get(chunks.size() - 1)[bytesInLastChunk++] = (byte)b;
+        size++;
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) {
+        if ( off < 0 || len < 0 || off + len > b.length ) throw new IndexOutOfBoundsException("off " + off + " len " + len + " array length " + b.length);
+
+        while ( len > 0 ) {
+            if ( chunks.isEmpty() || bytesInLastChunk == chunkSize )
+                addChunk();
+            final int n = Math.min(len, chunkSize - bytesInLastChunk);
+            System.arraycopy(b, off, chunks.get(chunks.size() - 1), bytesInLastChunk, n);
+            bytesInLastChunk += n;
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void addChunk() {
+        chunks.add(new byte[chunkSize]);
+        bytesInLastChunk = 0;
+    }
+
+    /**
+     * @return the number of bytes written to this buffer since it was created or last cleared
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Writes the contents of this buffer to out, in the order they were written
+     * @param out the stream to write to
+     * @throws IOException if out throws one
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        for ( int i = 0; i < chunks.size(); i++ )
+            out.write(chunks.get(i), 0, i == chunks.size() - 1 ? bytesInLastChunk : chunkSize);
+    }
+
+    /**
+     * @return a new stream reading the contents of this buffer.  Writing to the buffer while reading is not supported.
+     */
+    public InputStream getInputStream() {
+        final List<InputStream> streams = new ArrayList<InputStream>(chunks.size());
+        for ( int i = 0; i < chunks.size(); i++ )
+            streams.add(new ByteArrayInputStream(chunks.get(i), 0, i == chunks.size() - 1 ? bytesInLastChunk : chunkSize));
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * Discards the contents of this buffer, releasing its memory
+     */
+    public void clear() {
+        chunks.clear();
+        bytesInLastChunk = 0;
+        size = 0;
+    }
+}
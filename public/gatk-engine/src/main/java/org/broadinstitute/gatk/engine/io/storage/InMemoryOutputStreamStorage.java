@@ -0,0 +1,75 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Holds the output a single shard writes to an OutputStream in memory, until it is merged into the target stream.
+ */
+public class InMemoryOutputStreamStorage extends OutputStream implements Storage<OutputStream> {
+    private final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer();
+
+    /**
+     * @{inheritDoc}
+     */
+    public void write( byte[] b ) {
+        buffer.write(b, 0, b.length);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    public void write( byte[] b, int off, int len ) {
+        buffer.write(b, off, len);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    public void write( int b ) {
+        buffer.write(b);
+    }
+
+    /**
+     * Nothing to release; the buffered output is kept until it's merged
+     */
+    public void close() {
+    }
+
+    public void mergeInto( OutputStream targetStream ) {
+        try {
+            buffer.writeTo(targetStream);
+        }
+        catch( IOException ex ) {
+            throw new ReviewedGATKException("Unable to merge buffered shard output into the target stream", ex);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.ProgressLoggerInterface;
+import org.broadinstitute.gatk.engine.io.stubs.SAMFileWriterStub;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+/**
+ * Holds the reads a single shard writes in memory, until they are merged into the target writer.
+ *
+ * Reads are kept as uncompressed BAM records, which are compact and immune to the walker changing
+ * a read after writing it.  They are added to the target through its own writer, so sorting,
+ * indexing, and simplification happen there exactly as they do for the temporary file storage.
+ */
+public class InMemorySAMFileWriterStorage implements SAMFileWriter, Storage<SAMFileWriter> {
+    private final SAMFileHeader header;
+    private final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer();
+    private final BAMRecordCodec codec;
+    private int nReads = 0;
+
+    public InMemorySAMFileWriterStorage( SAMFileWriterStub stub ) {
+        this.header = stub.getFileHeader();
+        this.codec = new BAMRecordCodec(header);
+        codec.setOutputStream(buffer);
+    }
+
+    public SAMFileHeader getFileHeader() {
+        return header;
+    }
+
+    public void addAlignment( SAMRecord read ) {
+        codec.encode(read);
+        nReads++;
+    }
+
+    /**
+     * Nothing to release; the buffered reads are kept until they're merged
+     */
+    public void close() {
+    }
+
+    public void mergeInto( SAMFileWriter targetStream ) {
+        codec.setInputStream(buffer.getInputStream());
+        for ( int i = 0; i < nReads; i++ ) {
+            final SAMRecord read = codec.decode();
+            if ( read == null )
+                throw new ReviewedGATKException("Expected " + nReads + " buffered reads but found only " + i);
+            targetStream.addAlignment(read);
+        }
+        buffer.clear();
+        nReads = 0;
+    }
+
+    @Override
+    public void setProgressLogger(final ProgressLoggerInterface logger) {
+        // progress is logged by the target writer
+    }
+}
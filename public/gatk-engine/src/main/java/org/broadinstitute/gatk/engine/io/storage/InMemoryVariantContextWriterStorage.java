@@ -0,0 +1,78 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the variants a single shard writes in memory, until they are merged into the target writer.
+ *
+ * VariantContexts are immutable, so they can be kept as is.  They are added to the target through its
+ * own writer, which keeps on-the-fly indexing of the target (plain or block compressed) correct.
+ */
+public class InMemoryVariantContextWriterStorage implements Storage<VariantContextWriterStorage>, VariantContextWriter {
+    private final List<VariantContext> variants = new ArrayList<VariantContext>();
+    private boolean closed = false;
+
+    public void add(VariantContext vc) {
+        if ( closed ) throw new ReviewedGATKException("Attempting to write to a closed InMemoryVariantContextWriterStorage " + vc.getStart() + " storage=" + this);
+        variants.add(vc);
+    }
+
+    /**
+     * The header is written by the target, so it's ignored here
+     *
+     * @param header  the header
+     */
+    public void writeHeader(VCFHeader header) {
+    }
+
+    /**
+     * @return false, there's no underlying stream to fail
+     */
+    public boolean checkError() {
+        return false;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public void mergeInto(VariantContextWriterStorage target) {
+        if ( ! closed )
+            throw new ReviewedGATKException("Writer not closed, but we are merging into the file!");
+
+        for ( final VariantContext vc : variants )
+            target.add(vc);
+        variants.clear();
+    }
+}
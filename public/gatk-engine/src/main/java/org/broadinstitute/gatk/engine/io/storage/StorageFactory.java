@@ -89,4 +89,25 @@ public class StorageFactory {
 
         return storage;
     }
+
+    /**
+     * Gets storage for the given stub that holds its output in memory until it's merged.
+     * @param stub The stub for which to create the in-memory storage.
+     * @param <T> Type of the stream to create.
+     * @return Storage object with a facade of type T.
+     */
+    public static <T> Storage<T> createInMemoryStorage( Stub<T> stub ) {
+        Storage storage;
+
+        if(stub instanceof OutputStreamStub)
+            storage = new InMemoryOutputStreamStorage();
+        else if(stub instanceof SAMFileWriterStub)
+            storage = new InMemorySAMFileWriterStorage((SAMFileWriterStub)stub);
+        else if(stub instanceof VariantContextWriterStub)
+            storage = new InMemoryVariantContextWriterStorage();
+        else
+            throw new ReviewedGATKException("Unsupported stub type: " + stub.getClass().getName());
+
+        return storage;
+    }
 }
@@ -0,0 +1,167 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.iterators;
+
+import htsjdk.samtools.SAMRecord;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.iterators.GATKSAMIterator;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Iterator that applies a list of ReadTransformers to a stream of reads on a pool of worker threads.
+ *
+ * Reads are pulled from the wrapped iterator on the consuming thread in batches, and each batch is transformed as a
+ * unit by one of the executor's threads.  Batches are handed back in the order they were read, so the stream of reads
+ * coming out of this iterator is identical to that produced by chaining ReadTransformingIterators.  At most
+ * maxBatchesInFlight batches are pending at any time, which bounds the number of reads held in memory.
+ */
+public class ParallelReadTransformingIterator implements GATKSAMIterator {
+    private final GATKSAMIterator it;
+    private final List<ReadTransformer> transformers;
+    private final ExecutorService executor;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+
+    private final Queue<Future<List<SAMRecord>>> pendingBatches = new LinkedList<Future<List<SAMRecord>>>();
+    private Iterator<SAMRecord> currentBatch = Collections.<SAMRecord>emptyList().iterator();
+
+    /**
+     * Creates a new ParallelReadTransformingIterator
+     *
+     * @param it                 the reads to transform
+     * @param transformers       the transformers to apply to each read, in the order they should be applied
+     * @param executor           the executor that will transform the batches of reads
+     * @param batchSize          the number of reads in each batch
+     * @param maxBatchesInFlight the maximum number of batches submitted but not yet consumed
+     */
+    public ParallelReadTransformingIterator(final GATKSAMIterator it,
+                                            final List<ReadTransformer> transformers,
+                                            final ExecutorService executor,
+                                            final int batchSize,
+                                            final int maxBatchesInFlight) {
+        if ( it == null ) throw new IllegalArgumentException("it cannot be null");
+        if ( transformers == null ) throw new IllegalArgumentException("transformers cannot be null");
+        if ( executor == null ) throw new IllegalArgumentException("executor cannot be null");
+        if ( batchSize < 1 ) throw new IllegalArgumentException("batchSize must be >= 1, but saw " + batchSize);
+        if ( maxBatchesInFlight < 1 ) throw new IllegalArgumentException("maxBatchesInFlight must be >= 1, but saw " + maxBatchesInFlight);
+
+        for ( final ReadTransformer transformer : transformers ) {
+            if ( ! transformer.isInitialized() )
+                throw new IllegalStateException("Creating a read transformer stream for an uninitialized read transformer: " + transformer);
+            if ( transformer.getApplicationTime() == ReadTransformer.ApplicationTime.FORBIDDEN )
+                throw new IllegalStateException("Creating a read transformer stream for a forbidden transformer " + transformer);
+        }
+
+        this.it = it;
+        this.transformers = new ArrayList<ReadTransformer>(transformers);
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+
+        fillPipeline();
+    }
+
+    public boolean hasNext() {
+        while ( ! currentBatch.hasNext() ) {
+            if ( pendingBatches.isEmpty() )
+                return false;
+            currentBatch = getResult(pendingBatches.remove()).iterator();
+            fillPipeline();
+        }
+        return true;
+    }
+
+    public SAMRecord next() {
+        if ( ! hasNext() )
+            throw new NoSuchElementException("No more reads");
+        return currentBatch.next();
+    }
+
+    public void remove()        { throw new UnsupportedOperationException("Can not remove records from a SAM file via an iterator!"); }
+
+    public void close() {
+        for ( final Future<List<SAMRecord>> batch : pendingBatches )
+            batch.cancel(true);
+        pendingBatches.clear();
+        currentBatch = Collections.<SAMRecord>emptyList().iterator();
+        it.close();
+    }
+
+    public Iterator<SAMRecord> iterator() { return this; }
+
+    /**
+     * Read batches from the underlying iterator and submit them until the pipeline is full or the reads run out
+     */
+    private void fillPipeline() {
+        while ( pendingBatches.size() < maxBatchesInFlight && it.hasNext() ) {
+            final List<SAMRecord> batch = new ArrayList<SAMRecord>(batchSize);
+            while ( batch.size() < batchSize && it.hasNext() )
+                batch.add(it.next());
+            pendingBatches.add(executor.submit(new TransformBatch(batch)));
+        }
+    }
+
+    private static List<SAMRecord> getResult(final Future<List<SAMRecord>> batch) {
+        try {
+            return batch.get();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while waiting for reads to be transformed", e);
+        } catch ( ExecutionException e ) {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+                throw (RuntimeException) cause;
+            if ( cause instanceof Error )
+                throw (Error) cause;
+            throw new ReviewedGATKException("Failed to transform reads", cause);
+        }
+    }
+
+    /**
+     * Applies all of the transformers, in order, to each read of a batch
+     */
+    private class TransformBatch implements Callable<List<SAMRecord>> {
+        private final List<SAMRecord> batch;
+
+        private TransformBatch(final List<SAMRecord> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public List<SAMRecord> call() {
+            for ( int i = 0; i < batch.size(); i++ ) {
+                GATKSAMRecord read = (GATKSAMRecord) batch.get(i);
+                for ( final ReadTransformer transformer : transformers )
+                    read = transformer.apply(read);
+                batch.set(i, read);
+            }
+            return batch;
+        }
+    }
+}
@@ -31,11 +31,13 @@ import org.broadinstitute.gatk.utils.commandline.Gatherer;
 import org.broadinstitute.gatk.utils.report.GATKReport;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * User: carneiro
@@ -50,6 +52,12 @@ public class BQSRGatherer extends Gatherer  {
     private static final String MISSING_OUTPUT_FILE = "missing output file name";
     private static final String MISSING_READ_GROUPS = "Missing read group(s)";
 
+    /**
+     * How many reports each thread may parse ahead of the one being merged.  Bounds the number of parsed reports
+     * held in memory at once.
+     */
+    private static final int REPORTS_IN_FLIGHT_PER_THREAD = 2;
+
     @Override
     public void gather(final List<File> inputs, final File output) {
         final PrintStream outputFile;
@@ -63,19 +71,65 @@ public class BQSRGatherer extends Gatherer  {
     }
 
     /**
-     * Gathers the input recalibration reports into a single report.
+     * Gathers the input recalibration reports into a single report, using one thread per available processor.
      *
      * @param inputs Input recalibration GATK reports
      * @return gathered recalibration GATK report
      */
     public static GATKReport gatherReport(final List<File> inputs) {
+        return gatherReport(inputs, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gathers the input recalibration reports into a single report.
+     *
+     * Up to numThreads reports are parsed concurrently, but the reports are always merged one at a time in input
+     * order, so the result is identical to a single threaded gather.  Merging in any other order (e.g. as a tree)
+     * would not be: RecalDatum.combine() is not associative in floating point, so the reported qualities could change
+     * in the last digits depending on the shape of the merge.  Parsing dominates the cost of a gather, and the
+     * merges overlap with the parsing of the following reports.
+     *
+     * @param inputs     Input recalibration GATK reports
+     * @param numThreads the number of threads to parse the inputs with; 1 parses them one by one on the calling thread
+     * @return gathered recalibration GATK report
+     */
+    public static GATKReport gatherReport(final List<File> inputs, final int numThreads) {
+        if ( numThreads < 1 )
+            throw new IllegalArgumentException("numThreads must be at least 1, got " + numThreads);
+
+        final int nThreads = Math.min(numThreads, Math.max(inputs.size(), 1));
+        final ExecutorService executor = nThreads == 1 ? null : Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("BQSRGatherer-%d"));
+        try {
+            return gatherReport(inputs, executor, nThreads * REPORTS_IN_FLIGHT_PER_THREAD);
+        } finally {
+            if ( executor != null )
+                executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param inputs      Input recalibration GATK reports
+     * @param executor    the executor to parse the inputs with, or null to parse them on the calling thread
+     * @param maxInFlight the maximum number of reports parsed but not yet merged
+     * @return gathered recalibration GATK report
+     */
+    private static GATKReport gatherReport(final List<File> inputs, final ExecutorService executor, final int maxInFlight) {
         final SortedSet<String> allReadGroups = new TreeSet<String>();
         final LinkedHashMap<File, Set<String>> inputReadGroups = new LinkedHashMap<File, Set<String>>();
 
         // Get the read groups from each input report
+        final List<Future<SortedSet<String>>> readGroupsFutures = new ArrayList<Future<SortedSet<String>>>(inputs.size());
         for (final File input : inputs) {
-            final Set<String> readGroups = RecalibrationReport.getReadGroups(input);
-            inputReadGroups.put(input, readGroups);
+            readGroupsFutures.add(submit(executor, new Callable<SortedSet<String>>() {
+                @Override
+                public SortedSet<String> call() {
+                    return RecalibrationReport.getReadGroups(input);
+                }
+            }));
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            final Set<String> readGroups = getResult(readGroupsFutures.get(i));
+            inputReadGroups.put(inputs.get(i), readGroups);
             allReadGroups.addAll(readGroups);
         }
 
@@ -92,9 +146,24 @@ public class BQSRGatherer extends Gatherer  {
             }
         }
 
+        // Parse the reports ahead of time, but merge them strictly in input order
+        final SortedSet<String> sharedReadGroups = Collections.unmodifiableSortedSet(allReadGroups);
+        final Queue<Future<RecalibrationReport>> pendingReports = new ArrayDeque<Future<RecalibrationReport>>(maxInFlight);
+        int nextInput = 0;
+
         RecalibrationReport generalReport = null;
-        for (File input : inputs) {
-            final RecalibrationReport inputReport = new RecalibrationReport(input, allReadGroups);
+        while (nextInput < inputs.size() || !pendingReports.isEmpty()) {
+            while (nextInput < inputs.size() && pendingReports.size() < maxInFlight) {
+                final File input = inputs.get(nextInput++);
+                pendingReports.add(submit(executor, new Callable<RecalibrationReport>() {
+                    @Override
+                    public RecalibrationReport call() {
+                        return new RecalibrationReport(input, sharedReadGroups);
+                    }
+                }));
+            }
+
+            final RecalibrationReport inputReport = getResult(pendingReports.remove());
             if( inputReport.isEmpty() ) { continue; }
 
             if (generalReport == null)
@@ -109,4 +178,32 @@ public class BQSRGatherer extends Gatherer  {
 
         return generalReport.createGATKReport();
     }
+
+    /**
+     * Run the task on the executor, or right away on the calling thread if there is no executor
+     */
+    private static <T> Future<T> submit(final ExecutorService executor, final Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<T>(task);
+        if ( executor == null )
+            future.run();
+        else
+            executor.execute(future);
+        return future;
+    }
+
+    private static <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while gathering recalibration reports", e);
+        } catch (ExecutionException e) {
+            // rethrow the original exception (e.g. a UserException for a malformed input) as is
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException) e.getCause();
+            if ( e.getCause() instanceof Error )
+                throw (Error) e.getCause();
+            throw new ReviewedGATKException("Failed to read a recalibration report", e.getCause());
+        }
+    }
 }
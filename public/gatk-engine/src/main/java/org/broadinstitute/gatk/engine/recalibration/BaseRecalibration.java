@@ -129,6 +129,8 @@ public class BaseRecalibration {
 
         final ReadCovariates readCovariates = RecalUtils.computeCovariates(read, requestedCovariates);
         final int readLength = read.getReadLength();
+        final int[] keys = readCovariates.getKeys();
+        final List<RecalDatum> empiricalQualCovs = new ArrayList<RecalDatum>(requestedCovariates.length);
 
         for (final EventType errorModel : EventType.values()) { // recalibrate all three quality strings
             if (disableIndelQuals && errorModel != EventType.BASE_SUBSTITUTION) {
@@ -138,11 +140,8 @@ public class BaseRecalibration {
 
             final byte[] quals = read.getBaseQualities(errorModel);
 
-            // get the keyset for this base using the error model
-            final int[][] fullReadKeySet = readCovariates.getKeySet(errorModel);
-
             // the rg key is constant over the whole read, the global deltaQ is too
-            final int rgKey = fullReadKeySet[0][0];
+            final int rgKey = readCovariates.getKey(0, errorModel, 0);
             final RecalDatum empiricalQualRG = recalibrationTables.getReadGroupTable().get(rgKey, errorModel.ordinal());
 
             if( empiricalQualRG != null ) {
@@ -154,14 +153,17 @@ public class BaseRecalibration {
                     // only recalibrate usable qualities (the original quality will come from the instrument -- reported quality)
                     if ( origQual >= preserveQLessThan ) {
                         // get the keyset for this base using the error model
-                        final int[] keySet = fullReadKeySet[offset];
-                        final RecalDatum empiricalQualQS = recalibrationTables.getQualityScoreTable().get(keySet[0], keySet[1], errorModel.ordinal());
-                        final List<RecalDatum> empiricalQualCovs = new ArrayList<RecalDatum>();
+                        final int keyOffset = readCovariates.getKeyOffset(offset, errorModel);
+                        final int rgKeyAtOffset = keys[keyOffset];
+                        final int qualKey = keys[keyOffset + 1];
+                        final RecalDatum empiricalQualQS = recalibrationTables.getQualityScoreTable().get(rgKeyAtOffset, qualKey, errorModel.ordinal());
+                        empiricalQualCovs.clear();
                         for (int i = 2; i < requestedCovariates.length; i++) {
-                            if (keySet[i] < 0) {
+                            final int covKey = keys[keyOffset + i];
+                            if (covKey < 0) {
                                 continue;
                             }
-                            empiricalQualCovs.add(recalibrationTables.getTable(i).get(keySet[0], keySet[1], keySet[i], errorModel.ordinal()));
+                            empiricalQualCovs.add(recalibrationTables.getTable(i).get(rgKeyAtOffset, qualKey, covKey, errorModel.ordinal()));
                         }
 
                         double recalibratedQualDouble = hierarchicalBayesianQualityEstimate( epsilon, empiricalQualRG, empiricalQualQS, empiricalQualCovs );
@@ -0,0 +1,297 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A recalibration table holding observation and mismatch counts in flat primitive arrays rather than a
+ * NestedIntegerArray of RecalDatum objects, so that any number of threads can count into one shared table.
+ *
+ * The keys of a cell are flattened into a single index (row-major, so the last key varies fastest).  The index
+ * space is split into fixed size pages of parallel observation, mismatch and reported quality arrays, allocated
+ * lazily as cells in them are first touched, since most combinations of covariate values never occur.
+ *
+ * Observations are incremented with atomic adds and mismatches (which are fractional with BAQ) with a
+ * compare-and-swap on their bits, so increments never block.  Readers should only look at the counts once all
+ * writers are done; addTo() then turns the counts into the RecalDatums of an ordinary table, identical to those
+ * RecalUtils.incrementDatumOrPutIfNecessary() would have made from the same increments.
+ */
+public final class FlatRecalibrationTable {
+    /** log2 of the number of cells per page */
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int[] dimensions;
+    private final long numCells;
+    private final AtomicReferenceArray<Page> pages;
+
+    /**
+     * The counts for one page of cells, in parallel arrays
+     */
+    private static final class Page {
+        final AtomicLongArray numObservations = new AtomicLongArray(PAGE_SIZE);
+        final AtomicLongArray numMismatchesBits = new AtomicLongArray(PAGE_SIZE);
+        final byte[] reportedQuals = new byte[PAGE_SIZE];
+    }
+
+    /**
+     * Create an empty table
+     *
+     * @param dimensions the number of possible values of each key, exactly as for the equivalent NestedIntegerArray
+     */
+    public FlatRecalibrationTable(final int... dimensions) {
+        if ( dimensions.length == 0 )
+            throw new ReviewedGATKException("There must be at least one dimension to a FlatRecalibrationTable");
+
+        long size = 1;
+        for ( final int dimension : dimensions ) {
+            if ( dimension <= 0 ) throw new IllegalArgumentException("Dimensions must be > 0 but got " + Arrays.toString(dimensions));
+            size *= dimension;
+        }
+        final long numPages = (size + PAGE_SIZE - 1) >> PAGE_BITS;
+        if ( numPages > Integer.MAX_VALUE )
+            throw new IllegalArgumentException("Too many cells in a FlatRecalibrationTable with dimensions " + Arrays.toString(dimensions));
+
+        this.dimensions = dimensions.clone();
+        this.numCells = size;
+        this.pages = new AtomicReferenceArray<Page>((int)numPages);
+    }
+
+    /**
+     * @return the dimensions of this table.  DO NOT MODIFY
+     */
+    public int[] getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Count one observation in the cell at keys
+     *
+     * Thread-safe and lock-free.
+     *
+     * @param reportedQual the quality reported for observations in this cell
+     * @param isError the (possibly fractional) error value of this observation
+     * @param keys location of the cell in the table
+     */
+    public void increment(final byte reportedQual, final double isError, final int... keys) {
+        increment(reportedQual, 1L, isError, keys);
+    }
+
+    /**
+     * Add observations and mismatches to the cell at keys
+     *
+     * Thread-safe and lock-free.
+     *
+     * @param reportedQual the quality reported for observations in this cell
+     * @param incObservations the number of observations to add
+     * @param incMismatches the (possibly fractional) number of mismatches to add
+     * @param keys location of the cell in the table
+     */
+    public void increment(final byte reportedQual, final long incObservations, final double incMismatches, final int... keys) {
+        if ( incObservations < 0 ) throw new IllegalArgumentException("incObservations < 0");
+        if ( incMismatches < 0.0 ) throw new IllegalArgumentException("incMismatches < 0");
+
+        final long index = getIndex(keys);
+        final Page page = getOrCreatePage((int)(index >> PAGE_BITS));
+        final int offset = (int)(index & PAGE_MASK);
+
+        // every observation of a cell has the same reported quality, so racing writes here are harmless
+        page.reportedQuals[offset] = reportedQual;
+
+        page.numObservations.addAndGet(offset, incObservations);
+        if ( incMismatches != 0.0 ) {
+            while ( true ) {
+                final long bits = page.numMismatchesBits.get(offset);
+                final long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + incMismatches);
+                if ( page.numMismatchesBits.compareAndSet(offset, bits, updated) )
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of observations in the cell at keys
+     */
+    public long getNumObservations(final int... keys) {
+        final long index = getIndex(keys);
+        final Page page = pages.get((int)(index >> PAGE_BITS));
+        return page == null ? 0 : page.numObservations.get((int)(index & PAGE_MASK));
+    }
+
+    /**
+     * @return the number of mismatches in the cell at keys
+     */
+    public double getNumMismatches(final int... keys) {
+        final long index = getIndex(keys);
+        final Page page = pages.get((int)(index >> PAGE_BITS));
+        return page == null ? 0.0 : Double.longBitsToDouble(page.numMismatchesBits.get((int)(index & PAGE_MASK)));
+    }
+
+    /**
+     * Get the counts of the cell at keys as a new RecalDatum
+     *
+     * @return a new RecalDatum, or null if there are no observations in this cell
+     */
+    public RecalDatum get(final int... keys) {
+        final long index = getIndex(keys);
+        final Page page = pages.get((int)(index >> PAGE_BITS));
+        return page == null ? null : makeDatum(page, (int)(index & PAGE_MASK));
+    }
+
+    /**
+     * @return true if no cell of this table has any observations
+     */
+    public boolean isEmpty() {
+        for ( int p = 0; p < pages.length(); p++ ) {
+            final Page page = pages.get(p);
+            if ( page == null ) continue;
+            for ( int offset = 0; offset < PAGE_SIZE; offset++ )
+                if ( page.numObservations.get(offset) != 0 )
+                    return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of pages of cells that have been allocated so far
+     */
+    public int getNumAllocatedPages() {
+        int n = 0;
+        for ( int p = 0; p < pages.length(); p++ )
+            if ( pages.get(p) != null ) n++;
+        return n;
+    }
+
+    /**
+     * Throw away all of the counts in this table
+     *
+     * Must not be called while other threads are incrementing the table.
+     */
+    public void clear() {
+        for ( int p = 0; p < pages.length(); p++ )
+            pages.set(p, null);
+    }
+
+    /**
+     * Add all of the counts of other into this table
+     *
+     * Unlike RecalDatum.combine() this simply sums counts cell by cell, which is right for tables that are
+     * still being counted into.
+     *
+     * @param other a table with the same dimensions as this one
+     */
+    public void combine(final FlatRecalibrationTable other) {
+        if ( ! Arrays.equals(dimensions, other.dimensions) )
+            throw new IllegalArgumentException("Attempting to combine FlatRecalibrationTables with dimensions " + Arrays.toString(dimensions) + " and " + Arrays.toString(other.dimensions));
+
+        for ( int p = 0; p < other.pages.length(); p++ ) {
+            final Page otherPage = other.pages.get(p);
+            if ( otherPage == null ) continue;
+            for ( int offset = 0; offset < PAGE_SIZE; offset++ ) {
+                final long numObservations = otherPage.numObservations.get(offset);
+                if ( numObservations == 0 ) continue;
+                final double numMismatches = Double.longBitsToDouble(otherPage.numMismatchesBits.get(offset));
+                increment(otherPage.reportedQuals[offset], numObservations, numMismatches, getKeys(((long)p << PAGE_BITS) + offset));
+            }
+        }
+    }
+
+    /**
+     * Add the counts of every cell with observations into the RecalDatums of table
+     *
+     * Cells without a RecalDatum in table get a new one with our counts, and the others are incremented
+     * by our counts, just as if each of our increments had been made with RecalUtils.incrementDatumOrPutIfNecessary().
+     *
+     * @param table a table with the same dimensions as this one
+     */
+    public void addTo(final NestedIntegerArray<RecalDatum> table) {
+        if ( ! Arrays.equals(dimensions, table.getDimensions()) )
+            throw new IllegalArgumentException("Attempting to add a FlatRecalibrationTable with dimensions " + Arrays.toString(dimensions) + " to a table with dimensions " + Arrays.toString(table.getDimensions()));
+
+        for ( int p = 0; p < pages.length(); p++ ) {
+            final Page page = pages.get(p);
+            if ( page == null ) continue;
+            for ( int offset = 0; offset < PAGE_SIZE; offset++ ) {
+                final RecalDatum datum = makeDatum(page, offset);
+                if ( datum == null ) continue;
+
+                final int[] keys = getKeys(((long)p << PAGE_BITS) + offset);
+                final RecalDatum existing = table.get(keys);
+                if ( existing == null )
+                    table.put(datum, keys);
+                else
+                    existing.increment(datum.getNumObservations(), datum.getNumMismatches());
+            }
+        }
+    }
+
+    private static RecalDatum makeDatum(final Page page, final int offset) {
+        final long numObservations = page.numObservations.get(offset);
+        if ( numObservations == 0 )
+            return null;
+        return new RecalDatum(numObservations, Double.longBitsToDouble(page.numMismatchesBits.get(offset)), page.reportedQuals[offset]);
+    }
+
+    private Page getOrCreatePage(final int pageIndex) {
+        final Page page = pages.get(pageIndex);
+        if ( page != null )
+            return page;
+
+        // if another thread beats us to it, use its page instead of ours
+        final Page newPage = new Page();
+        return pages.compareAndSet(pageIndex, null, newPage) ? newPage : pages.get(pageIndex);
+    }
+
+    private long getIndex(final int[] keys) {
+        if ( keys.length != dimensions.length )
+            throw new ReviewedGATKException("Exactly " + dimensions.length + " keys should be passed to this FlatRecalibrationTable but " + keys.length + " were provided");
+
+        long index = 0;
+        for ( int i = 0; i < dimensions.length; i++ ) {
+            if ( keys[i] < 0 || keys[i] >= dimensions[i] )
+                throw new ReviewedGATKException("Key " + keys[i] + " is out of range for dimension " + i + " (max is " + (dimensions[i]-1) + ")");
+            index = index * dimensions[i] + keys[i];
+        }
+        return index;
+    }
+
+    private int[] getKeys(long index) {
+        if ( index >= numCells ) throw new ReviewedGATKException("BUG: index " + index + " is past the end of the table");
+        final int[] keys = new int[dimensions.length];
+        for ( int i = dimensions.length - 1; i >= 0; i-- ) {
+            keys[i] = (int)(index % dimensions[i]);
+            index /= dimensions[i];
+        }
+        return keys;
+    }
+}
@@ -26,13 +26,17 @@
 package org.broadinstitute.gatk.engine.recalibration;
 
 import org.apache.log4j.Logger;
-import org.broadinstitute.gatk.utils.LRUCache;
 import org.broadinstitute.gatk.utils.recalibration.EventType;
 
+import java.util.Arrays;
+
 /**
  * The object temporarily held by a read that describes all of it's covariates.
  *
- * In essence, this is an array of CovariateValues, but it also has some functionality to deal with the optimizations of the NestedHashMap
+ * In essence, this is an array of CovariateValues, but it also has some functionality to deal with the optimizations of the NestedHashMap.
+ * The keys live in a flat, per-thread int[] so that computing them for a read doesn't allocate.
+ * Because all ReadCovariates made on a thread share that buffer, only the most recently created one per thread
+ * is valid: creating a new one overwrites the keys of the last.
  *
  * @author Mauricio Carneiro
  * @since 2/8/12
@@ -40,36 +44,36 @@ import org.broadinstitute.gatk.utils.recalibration.EventType;
 public class ReadCovariates {
     private final static Logger logger = Logger.getLogger(ReadCovariates.class);
 
-    /**
-     * How big should we let the LRU cache grow
-     */
-    private static final int LRU_CACHE_SIZE = 500;
+    private final static int NUM_EVENT_TYPES = EventType.values().length;
 
     /**
-     * Use an LRU cache to keep cache of keys (int[][][]) arrays for each read length we've seen.
-     * The cache allows us to avoid the expense of recreating these arrays for every read.  The LRU
-     * keeps the total number of cached arrays to less than LRU_CACHE_SIZE.
+     * A growable buffer of keys, reused for every read processed by a thread so that computing covariates
+     * doesn't allocate anything once the buffer is big enough for the longest read seen.
      *
-     * This is a thread local variable, so the total memory required may grow to N_THREADS x LRU_CACHE_SIZE
+     * This is a thread local variable, so only one ReadCovariates per thread is valid at a time: creating a
+     * new one overwrites the keys of the last.
      */
-    private final static ThreadLocal<LRUCache<Integer, int[][][]>> keysCache = new ThreadLocal<LRUCache<Integer, int[][][]>>() {
-        @Override protected LRUCache<Integer, int[][][]> initialValue() {
-            return new LRUCache<Integer, int[][][]>(LRU_CACHE_SIZE);
+    private final static ThreadLocal<int[][]> keysBuffer = new ThreadLocal<int[][]>() {
+        @Override protected int[][] initialValue() {
+            return new int[1][0];
         }
     };
 
     /**
-     * The keys cache is only valid for a single covariate count.  Normally this will remain constant for the analysis.
-     * If running multiple analyses (or the unit test suite), it's necessary to clear the cache.
+     * The keys buffer is only valid for a single covariate count.  Normally this will remain constant for the analysis.
+     * If running multiple analyses (or the unit test suite), it's necessary to clear the buffer.
      */
     public static void clearKeysCache() {
-        keysCache.remove();
+        keysBuffer.remove();
     }
 
     /**
-     * Our keys, indexed by event type x read length x covariate
+     * Our keys, flattened from event type x read length x covariate, in that order
      */
-    private final int[][][] keys;
+    private final int[] keys;
+
+    private final int readLength;
+    private final int numberOfCovariates;
 
     /**
      * The index of the current covariate, used by addCovariate
@@ -77,16 +81,17 @@ public class ReadCovariates {
     private int currentCovariateIndex = 0;
 
     public ReadCovariates(final int readLength, final int numberOfCovariates) {
-        final LRUCache<Integer, int[][][]> cache = keysCache.get();
-        final int[][][] cachedKeys = cache.get(readLength);
-        if ( cachedKeys == null ) {
-            // There's no cached value for read length so we need to create a new int[][][] array
-            if ( logger.isDebugEnabled() ) logger.debug("Keys cache miss for length " + readLength + " cache size " + cache.size());
-            keys = new int[EventType.values().length][readLength][numberOfCovariates];
-            cache.put(readLength, keys);
-        } else {
-            keys = cachedKeys;
+        this.readLength = readLength;
+        this.numberOfCovariates = numberOfCovariates;
+
+        final int[][] buffer = keysBuffer.get();
+        final int size = NUM_EVENT_TYPES * readLength * numberOfCovariates;
+        if ( buffer[0].length < size ) {
+            // grow a little beyond what we need so that slightly longer reads don't immediately reallocate
+            if ( logger.isDebugEnabled() ) logger.debug("Growing keys buffer for length " + readLength + " from " + buffer[0].length + " keys");
+            buffer[0] = new int[size + size / 4];
         }
+        keys = buffer[0];
     }
 
     public void setCovariateIndex(final int index) {
@@ -106,24 +111,68 @@ public class ReadCovariates {
      * @param readOffset the read offset, must be >= 0 and <= the read length used to create this ReadCovariates
      */
     public void addCovariate(final int mismatch, final int insertion, final int deletion, final int readOffset) {
-        keys[EventType.BASE_SUBSTITUTION.ordinal()][readOffset][currentCovariateIndex] = mismatch;
-        keys[EventType.BASE_INSERTION.ordinal()][readOffset][currentCovariateIndex] = insertion;
-        keys[EventType.BASE_DELETION.ordinal()][readOffset][currentCovariateIndex] = deletion;
+        final int offset = readOffset * numberOfCovariates + currentCovariateIndex;
+        final int eventStride = readLength * numberOfCovariates;
+        keys[offset + EventType.BASE_SUBSTITUTION.ordinal() * eventStride] = mismatch;
+        keys[offset + EventType.BASE_INSERTION.ordinal() * eventStride] = insertion;
+        keys[offset + EventType.BASE_DELETION.ordinal() * eventStride] = deletion;
+    }
+
+    /**
+     * Get the key of one covariate at read position for error model, without allocating anything
+     *
+     * @param readPosition the read offset
+     * @param errorModel the event type
+     * @param covariateIndex the index of the covariate in the requested covariates
+     * @return the key
+     */
+    public int getKey(final int readPosition, final EventType errorModel, final int covariateIndex) {
+        return keys[getKeyOffset(readPosition, errorModel) + covariateIndex];
+    }
+
+    /**
+     * Get the index in getKeys() of the first covariate key for read position and error model.  The keys of all
+     * covariates for this position and error model follow it contiguously.
+     *
+     * @param readPosition the read offset
+     * @param errorModel the event type
+     * @return an index into getKeys()
+     */
+    public int getKeyOffset(final int readPosition, final EventType errorModel) {
+        return (errorModel.ordinal() * readLength + readPosition) * numberOfCovariates;
+    }
+
+    /**
+     * Get the flat array holding all of our keys, laid out as described in getKeyOffset().  DO NOT MODIFY
+     *
+     * The array may be longer than we need, and is reused by the next ReadCovariates made on this thread.
+     *
+     * @return the flat array of keys
+     */
+    public int[] getKeys() {
+        return keys;
+    }
+
+    public int getReadLength() {
+        return readLength;
+    }
+
+    public int getNumberOfCovariates() {
+        return numberOfCovariates;
     }
 
     /**
      * Get the keys for all covariates at read position for error model
      *
+     * Copies the keys into a new array, so prefer getKey() or getKeys() in performance critical code.
+     *
      * @param readPosition
      * @param errorModel
      * @return
      */
     public int[] getKeySet(final int readPosition, final EventType errorModel) {
-        return keys[errorModel.ordinal()][readPosition];
-    }
-
-    public int[][] getKeySet(final EventType errorModel) {
-        return keys[errorModel.ordinal()];
+        final int offset = getKeyOffset(readPosition, errorModel);
+        return Arrays.copyOfRange(keys, offset, offset + numberOfCovariates);
     }
 
     // ----------------------------------------------------------------------
@@ -132,6 +181,16 @@ public class ReadCovariates {
     //
     // ----------------------------------------------------------------------
 
+    /**
+     * Get the keys for all covariates at every read position for error model, as newly allocated arrays
+     */
+    protected int[][] getKeySet(final EventType errorModel) {
+        final int[][] keySet = new int[readLength][];
+        for ( int i = 0; i < readLength; i++ )
+            keySet[i] = getKeySet(i, errorModel);
+        return keySet;
+    }
+
     protected int[][] getMismatchesKeySet() { return getKeySet(EventType.BASE_SUBSTITUTION); }
     protected int[][] getInsertionsKeySet() { return getKeySet(EventType.BASE_INSERTION); }
     protected int[][] getDeletionsKeySet() { return getKeySet(EventType.BASE_DELETION); }
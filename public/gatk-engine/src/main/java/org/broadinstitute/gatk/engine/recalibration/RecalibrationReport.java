@@ -106,7 +106,8 @@ public class RecalibrationReport {
      * @return the unique read groups
      */
     public static SortedSet<String> getReadGroups(final File recalFile) {
-        return getReadGroups(new GATKReport(recalFile));
+        // only the read group table is needed, so don't bother parsing the (much larger) covariate tables
+        return getReadGroups(new GATKReport(recalFile, Collections.singleton(RecalUtils.READGROUP_REPORT_TABLE_TITLE)));
     }
 
     /**
@@ -37,6 +37,10 @@ import java.util.ArrayList;
 /**
  * Utility class to facilitate on-the-fly base quality score recalibration.
  *
+ * Optionally carries a FlatRecalibrationTable for each table, which all threads can count into at once
+ * without cloning the tables per thread; flushFlatTables() then folds the counts into the regular tables,
+ * from which reports are written exactly as before.
+ *
  * User: ebanks
  * Date: 6/20/12
  */
@@ -49,6 +53,12 @@ public final class RecalibrationTables {
     }
 
     private final ArrayList<NestedIntegerArray<RecalDatum>> tables;
+
+    /**
+     * Shared, lock-free tables that threads count into instead of tables, or null if we aren't using them.
+     * Their counts are moved into tables by flushFlatTables().
+     */
+    private final ArrayList<FlatRecalibrationTable> flatTables;
     private final int qualDimension;
     private final int eventDimension = EventType.values().length;
     private final int numReadGroups;
@@ -63,6 +73,14 @@ public final class RecalibrationTables {
     }
 
     public RecalibrationTables(final Covariate[] covariates, final int numReadGroups, final PrintStream log) {
+        this(covariates, numReadGroups, log, false);
+    }
+
+    /**
+     * @param useFlatTables if true, also create a FlatRecalibrationTable alongside each table, which all threads
+     *                      can count into at once instead of each counting into their own RecalibrationTables
+     */
+    public RecalibrationTables(final Covariate[] covariates, final int numReadGroups, final PrintStream log, final boolean useFlatTables) {
         tables = new ArrayList<NestedIntegerArray<RecalDatum>>(covariates.length);
         for ( int i = 0; i < covariates.length; i++ )
             tables.add(i, null); // initialize so we can set below
@@ -82,6 +100,14 @@ public final class RecalibrationTables {
                     log == null ? new NestedIntegerArray<RecalDatum>(numReadGroups, qualDimension, covariates[i].maximumKeyValue()+1, eventDimension) :
                             new LoggingNestedIntegerArray<RecalDatum>(log, String.format("OPTIONAL_COVARIATE_TABLE_%d", i - TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal() + 1),
                                     numReadGroups, qualDimension, covariates[i].maximumKeyValue()+1, eventDimension));
+
+        if ( useFlatTables ) {
+            flatTables = new ArrayList<FlatRecalibrationTable>(covariates.length);
+            for ( final NestedIntegerArray<RecalDatum> table : tables )
+                flatTables.add(new FlatRecalibrationTable(table.getDimensions()));
+        } else {
+            flatTables = null;
+        }
     }
 
     @Ensures("result != null")
@@ -99,18 +125,58 @@ public final class RecalibrationTables {
         return tables.get(index);
     }
 
+    /**
+     * Get the shared flat table that observations for table index should be counted into
+     *
+     * @param index the index of the table, as for getTable()
+     * @return the flat table, never null
+     * @throws IllegalStateException if these tables weren't created to use flat tables
+     */
+    @Ensures("result != null")
+    public FlatRecalibrationTable getFlatTable(final int index) {
+        if ( flatTables == null ) throw new IllegalStateException("These RecalibrationTables were not created with flat tables");
+        return flatTables.get(index);
+    }
+
+    /**
+     * @return true if these tables have flat tables to count into
+     */
+    public boolean isUsingFlatTables() {
+        return flatTables != null;
+    }
+
+    /**
+     * Move all of the counts in the flat tables into the RecalDatums of the regular tables, leaving the flat tables empty
+     *
+     * Must not be called while other threads are counting into the flat tables.  Does nothing if we aren't using flat tables.
+     */
+    public void flushFlatTables() {
+        if ( flatTables == null )
+            return;
+
+        for ( int i = 0; i < numTables(); i++ ) {
+            flatTables.get(i).addTo(getTable(i));
+            flatTables.get(i).clear();
+        }
+    }
+
     @Ensures("result >= 0")
     public int numTables() {
         return tables.size();
     }
 
     /**
-     * @return true if all the tables contain no RecalDatums
+     * @return true if all the tables contain no RecalDatums, and no flat table has any observations
      */
     public boolean isEmpty() {
         for( final NestedIntegerArray<RecalDatum> table : tables ) {
             if( !table.getAllValues().isEmpty() ) { return false; }
         }
+        if ( flatTables != null ) {
+            for ( final FlatRecalibrationTable flatTable : flatTables ) {
+                if ( !flatTable.isEmpty() ) { return false; }
+            }
+        }
         return true;
     }
 
@@ -139,5 +205,15 @@ public final class RecalibrationTables {
             final NestedIntegerArray<RecalDatum> otherTable = toMerge.getTable(i);
             RecalUtils.combineTables(myTable, otherTable);
         }
+
+        // counts still sitting in flat tables are simply summed
+        if ( toMerge.flatTables != null ) {
+            for ( int i = 0; i < numTables(); i++ ) {
+                if ( flatTables != null )
+                    flatTables.get(i).combine(toMerge.flatTables.get(i));
+                else
+                    toMerge.flatTables.get(i).addTo(getTable(i));
+            }
+        }
     }
 }
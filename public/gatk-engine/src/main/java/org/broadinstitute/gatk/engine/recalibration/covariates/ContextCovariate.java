@@ -35,8 +35,6 @@ import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.engine.recalibration.ReadCovariates;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
-import java.util.ArrayList;
-
 /**
  * Created by IntelliJ IDEA.
  * User: rpoplin
@@ -62,6 +60,15 @@ public class ContextCovariate implements StandardCovariate {
     static final private int MAX_DNA_CONTEXT = 13;
     private byte LOW_QUAL_TAIL;
 
+    /**
+     * Per-thread scratch arrays for the mismatch and indel context keys of a read, so we don't box every key
+     */
+    private static final ThreadLocal<int[][]> keyBuffers = new ThreadLocal<int[][]>() {
+        @Override protected int[][] initialValue() {
+            return new int[][]{ new int[0], new int[0] };
+        }
+    };
+
     // Initialize any member variables using the command-line arguments passed to the walkers
     @Override
     public void initialize(final RecalibrationArgumentCollection RAC) {
@@ -97,10 +104,12 @@ public class ContextCovariate implements StandardCovariate {
         if (negativeStrand)
             bases = BaseUtils.simpleReverseComplement(bases);
 
-        final ArrayList<Integer> mismatchKeys = contextWith(bases, mismatchesContextSize, mismatchesKeyMask);
-        final ArrayList<Integer> indelKeys = contextWith(bases, indelsContextSize, indelsKeyMask);
-
         final int readLength = bases.length;
+        final int[][] buffers = getKeyBuffers(readLength);
+        final int[] mismatchKeys = buffers[0];
+        final int[] indelKeys = buffers[1];
+        contextWith(bases, mismatchesContextSize, mismatchesKeyMask, mismatchKeys);
+        contextWith(bases, indelsContextSize, indelsKeyMask, indelKeys);
 
         // this is necessary to ensure that we don't keep historical data in the ReadCovariates values
         // since the context covariate may not span the entire set of values in read covariates
@@ -114,8 +123,8 @@ public class ContextCovariate implements StandardCovariate {
 
         for (int i = 0; i < readLength; i++) {
             final int readOffset = (negativeStrand ? readLength - i - 1 : i);
-            final int indelKey = indelKeys.get(i);
-            values.addCovariate(mismatchKeys.get(i), indelKey, indelKey, readOffset);
+            final int indelKey = indelKeys[i];
+            values.addCovariate(mismatchKeys[i], indelKey, indelKey, readOffset);
         }
 
         // put the original bases back in
@@ -150,30 +159,43 @@ public class ContextCovariate implements StandardCovariate {
         return mask << LENGTH_BITS;
     }
 
+    /**
+     * Get this thread's buffers for mismatch and indel keys, growing them if they can't hold readLength keys
+     */
+    private static int[][] getKeyBuffers(final int readLength) {
+        final int[][] buffers = keyBuffers.get();
+        if ( buffers[0].length < readLength ) {
+            buffers[0] = new int[readLength];
+            buffers[1] = new int[readLength];
+        }
+        return buffers;
+    }
+
     /**
      * calculates the context of a base independent of the covariate mode (mismatch, insertion or deletion)
      *
      * @param bases       the bases in the read to build the context from
      * @param contextSize context size to use building the context
      * @param mask        mask for pulling out just the context bits
+     * @param keys        array in which to put the key of each base in bases, must be at least as long as bases
      */
-    private static ArrayList<Integer> contextWith(final byte[] bases, final int contextSize, final int mask) {
+    private static void contextWith(final byte[] bases, final int contextSize, final int mask, final int[] keys) {
 
         final int readLength = bases.length;
-        final ArrayList<Integer> keys = new ArrayList<Integer>(readLength);
+        int nKeys = 0;
 
         // the first contextSize-1 bases will not have enough previous context
         for (int i = 1; i < contextSize && i <= readLength; i++)
-            keys.add(-1);
+            keys[nKeys++] = -1;
 
         if (readLength < contextSize)
-            return keys;
+            return;
 
         final int newBaseOffset = 2 * (contextSize - 1) + LENGTH_BITS;
 
         // get (and add) the key for the context starting at the first base
         int currentKey = keyFromContext(bases, 0, contextSize);
-        keys.add(currentKey);
+        keys[nKeys++] = currentKey;
 
         // if the first key was -1 then there was an N in the context; figure out how many more consecutive contexts it affects
         int currentNPenalty = 0;
@@ -202,14 +224,12 @@ public class ContextCovariate implements StandardCovariate {
             }
 
             if (currentNPenalty == 0) {
-                keys.add(currentKey);
+                keys[nKeys++] = currentKey;
             } else {
                 currentNPenalty--;
-                keys.add(-1);
+                keys[nKeys++] = -1;
             }
         }
-
-        return keys;
     }
 
     public static int keyFromContext(final String dna) {
@@ -26,6 +26,7 @@
 package org.broadinstitute.gatk.engine.resourcemanagement;
 
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
 
 /**
  * Models how threads are distributed between various components of the GATK.
@@ -46,11 +47,27 @@ public class ThreadAllocation {
      */
     private final int numIOThreads;
 
+    /**
+     * Number of threads used to apply read transformers to reads ahead of the traversal.  Default is 0,
+     * meaning that reads are transformed inline on the thread that consumes them.
+     */
+    private final int numReadPreparationThreads;
+
     /**
      * Should we monitor thread efficiency?
      */
     private final boolean monitorEfficiency;
 
+    /**
+     * The engine the traversals' NanoSchedulers use to run on more than one CPU thread
+     */
+    private final NanoScheduler.Engine nanoSchedulerEngine;
+
+    /**
+     * The number of bytes of input the traversals' NanoSchedulers keep in flight with the WORK_STEALING engine
+     */
+    private final long nanoSchedulerMemoryBudget;
+
     public int getNumDataThreads() {
         return numDataThreads;
     }
@@ -63,10 +80,22 @@ public class ThreadAllocation {
         return numIOThreads;
     }
 
+    public int getNumReadPreparationThreads() {
+        return numReadPreparationThreads;
+    }
+
     public boolean monitorThreadEfficiency() {
         return monitorEfficiency;
     }
 
+    public NanoScheduler.Engine getNanoSchedulerEngine() {
+        return nanoSchedulerEngine;
+    }
+
+    public long getNanoSchedulerMemoryBudget() {
+        return nanoSchedulerMemoryBudget;
+    }
+
     /**
      * Are we running in parallel mode?
      *
@@ -82,7 +111,7 @@ public class ThreadAllocation {
      * @return the sum of all thread allocations in this object
      */
     public int getTotalNumThreads() {
-        return getNumDataThreads() * getNumCPUThreadsPerDataThread() + getNumIOThreads();
+        return getNumDataThreads() * getNumCPUThreadsPerDataThread() + getNumIOThreads() + getNumReadPreparationThreads();
     }
 
     /**
@@ -104,13 +133,56 @@ public class ThreadAllocation {
                             final int numCPUThreadsPerDataThread,
                             final int numIOThreads,
                             final boolean monitorEfficiency) {
+        this(numDataThreads, numCPUThreadsPerDataThread, numIOThreads, 0, monitorEfficiency);
+    }
+
+    /**
+     * Set up the thread allocation, including threads devoted to preparing reads for the traversal.
+     * @param numDataThreads Total number of threads allocated to the traversal.
+     * @param numCPUThreadsPerDataThread The number of CPU threads per data thread to allocate
+     * @param numIOThreads Total number of threads allocated exclusively to IO.
+     * @param numReadPreparationThreads Total number of threads allocated to applying read transformers.
+     * @param monitorEfficiency should we monitor threading efficiency in the GATK?
+     */
+    public ThreadAllocation(final int numDataThreads,
+                            final int numCPUThreadsPerDataThread,
+                            final int numIOThreads,
+                            final int numReadPreparationThreads,
+                            final boolean monitorEfficiency) {
+        this(numDataThreads, numCPUThreadsPerDataThread, numIOThreads, numReadPreparationThreads, monitorEfficiency,
+                NanoScheduler.Engine.MASTER_THREAD, NanoScheduler.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Set up the thread allocation, including how the CPU threads of each data thread share the work.
+     * @param numDataThreads Total number of threads allocated to the traversal.
+     * @param numCPUThreadsPerDataThread The number of CPU threads per data thread to allocate
+     * @param numIOThreads Total number of threads allocated exclusively to IO.
+     * @param numReadPreparationThreads Total number of threads allocated to applying read transformers.
+     * @param monitorEfficiency should we monitor threading efficiency in the GATK?
+     * @param nanoSchedulerEngine the engine running the CPU threads of each data thread
+     * @param nanoSchedulerMemoryBudget the number of bytes of input the WORK_STEALING engine keeps in flight
+     */
+    public ThreadAllocation(final int numDataThreads,
+                            final int numCPUThreadsPerDataThread,
+                            final int numIOThreads,
+                            final int numReadPreparationThreads,
+                            final boolean monitorEfficiency,
+                            final NanoScheduler.Engine nanoSchedulerEngine,
+                            final long nanoSchedulerMemoryBudget) {
         if ( numDataThreads < 1 ) throw new ReviewedGATKException("numDataThreads cannot be less than 1, but saw " + numDataThreads);
         if ( numCPUThreadsPerDataThread < 1 ) throw new ReviewedGATKException("numCPUThreadsPerDataThread cannot be less than 1, but saw " + numCPUThreadsPerDataThread);
         if ( numIOThreads < 0 ) throw new ReviewedGATKException("numIOThreads cannot be less than 0, but saw " + numIOThreads);
+        if ( numReadPreparationThreads < 0 ) throw new ReviewedGATKException("numReadPreparationThreads cannot be less than 0, but saw " + numReadPreparationThreads);
+        if ( nanoSchedulerEngine == null ) throw new ReviewedGATKException("nanoSchedulerEngine cannot be null");
+        if ( nanoSchedulerMemoryBudget < 1 ) throw new ReviewedGATKException("nanoSchedulerMemoryBudget cannot be less than 1, but saw " + nanoSchedulerMemoryBudget);
 
         this.numDataThreads = numDataThreads;
         this.numCPUThreadsPerDataThread = numCPUThreadsPerDataThread;
         this.numIOThreads = numIOThreads;
+        this.numReadPreparationThreads = numReadPreparationThreads;
         this.monitorEfficiency = monitorEfficiency;
+        this.nanoSchedulerEngine = nanoSchedulerEngine;
+        this.nanoSchedulerMemoryBudget = nanoSchedulerMemoryBudget;
     }
 }
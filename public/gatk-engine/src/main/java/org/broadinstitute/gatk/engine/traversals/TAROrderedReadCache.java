@@ -25,37 +25,138 @@
 
 package org.broadinstitute.gatk.engine.traversals;
 
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
 import org.broadinstitute.gatk.utils.downsampling.Downsampler;
 import org.broadinstitute.gatk.utils.downsampling.ReservoirDownsampler;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.AlignmentStartComparator;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.sam.ReadUtils;
 
+import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Subsystem to track a list of all reads currently live in the TraverseActiveRegions system,
  * while limiting the total number of reads to a maximum capacity.
  *
+ * The cache can also be given a budget for the estimated heap bytes of the reads it holds (see
+ * ReadUtils.estimateHeapSize).  By default reads over either limit are downsampled away.  If a spill
+ * directory is provided, the cache never discards reads: instead, whenever the reads in memory exceed
+ * either limit the most recently added ones are written in BAM record form to a temporary file in that
+ * directory.  popCurrentReads(contigIndex, position) streams them back in coordinate order, only as far as
+ * the requested position, and reads handed back with addLiveReads stay in memory rather than being spilled
+ * again.  Spilled reads come back as new objects, with their temporary attributes and strandlessness restored.
+ *
  * User: depristo
  * Date: 4/7/13
  * Time: 11:23 AM
  */
 public class TAROrderedReadCache {
     private final int maxCapacity;
+    private final long maxBytesInMemory;
+    private final File spillDirectory;
     private ArrayList<GATKSAMRecord> undownsampledCache;
     private Downsampler<GATKSAMRecord> downsampler;
 
+    /**
+     * When spilling, the reads handed back by addLiveReads.  They sort before every other read in the cache
+     * and are never spilled, since the very next active region needs them.
+     */
+    private List<GATKSAMRecord> liveReads = new ArrayList<>();
+
+    /**
+     * Estimated heap bytes of the reads in liveReads and in undownsampledCache
+     */
+    private long liveBytes = 0;
+    private long cacheBytes = 0;
+    private long peakBytesInMemory = 0;
+
+    /**
+     * The spill file currently holding reads, or null if there are no spilled reads left to pop
+     */
+    private File spillFile = null;
+    private SAMFileHeader spillHeader = null;
+    private OutputStream spillOutput = null;
+    private BAMRecordCodec spillWriter = null;
+    private InputStream spillInput = null;
+    private BAMRecordCodec spillReader = null;
+
+    /**
+     * Number of reads in the spill file that haven't been popped yet, including nextSpilledRead
+     */
+    private int nReadsInSpillFile = 0;
+    private long nReadsWrittenToSpillFile = 0;
+    private long nReadsReadFromSpillFile = 0;
+
+    /**
+     * The spilled read we last read back, if it lies past the position of the pop that read it
+     */
+    private GATKSAMRecord nextSpilledRead = null;
+
+    /**
+     * The in-memory only state of the spilled reads that had any, in the order they were spilled
+     */
+    private final ArrayDeque<SpilledReadState> spilledReadStates = new ArrayDeque<>();
+
+    private long nSpilledReads = 0;
+    private long nSpills = 0;
+
     private static final int UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE = 10000;
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The state of a spilled read that BAM records can't hold
+     */
+    private static final class SpilledReadState {
+        final long index;
+        final Map<Object, Object> temporaryAttributes;
+        final boolean strandless;
+
+        SpilledReadState(final long index, final GATKSAMRecord read) {
+            this.index = index;
+            this.temporaryAttributes = read.getTemporaryAttributes();
+            this.strandless = read.isStrandless();
+        }
+
+        void restore(final GATKSAMRecord read) {
+            if ( temporaryAttributes != null ) {
+                for ( final Map.Entry<Object, Object> attribute : temporaryAttributes.entrySet() )
+                    read.setTemporaryAttribute(attribute.getKey(), attribute.getValue());
+            }
+            read.setIsStrandless(strandless);
+        }
+    }
 
     /**
      * Create a new empty ReadCache
      * @param maxCapacity the max capacity of the read cache.
      */
     public TAROrderedReadCache( final int maxCapacity ) {
+        this(maxCapacity, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Create a new empty ReadCache that also bounds the estimated heap bytes of the reads it holds
+     *
+     * @param maxCapacity the max number of reads held in memory
+     * @param maxBytesInMemory the max estimated heap bytes of the reads held in memory
+     * @param spillDirectory if not null, reads over either limit are spilled to a temporary file in this
+     *                       directory instead of being downsampled
+     */
+    public TAROrderedReadCache( final int maxCapacity, final long maxBytesInMemory, final File spillDirectory ) {
         if ( maxCapacity < 0 ) throw new IllegalArgumentException("maxCapacity must be >= 0 but got " + maxCapacity);
+        if ( maxBytesInMemory <= 0 ) throw new IllegalArgumentException("maxBytesInMemory must be > 0 but got " + maxBytesInMemory);
+        if ( spillDirectory != null && ! spillDirectory.isDirectory() ) throw new IllegalArgumentException("spillDirectory must be a directory but got " + spillDirectory);
         this.maxCapacity = maxCapacity;
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.spillDirectory = spillDirectory;
 
         // The one we're not currently using will always be null:
         initializeUndownsampledCache();
@@ -67,18 +168,125 @@ public class TAROrderedReadCache {
      * when the undownsampledCache fills up and we need to start discarding reads. Since the
      * ReservoirDownsampler doesn't preserve relative ordering, pop operations become expensive
      * after this point, as they require a O(n log n) sort.
+     *
+     * @param targetSize the number of reads the downsampler should keep
      */
-    private void activateDownsampler() {
-        downsampler = new ReservoirDownsampler<>(maxCapacity, false);
+    private void activateDownsampler( final int targetSize ) {
+        downsampler = new ReservoirDownsampler<>(targetSize, false);
         downsampler.submit(undownsampledCache);
         undownsampledCache = null; // preferable to the O(n) clear() method
+        cacheBytes = 0;
+    }
+
+    /**
+     * Appends all of the reads in the undownsampledCache to the spill file, freeing the memory they used.
+     *
+     * The reads arrive in sorted order, so everything in the spill file sorts before anything added later.
+     */
+    private void spillUndownsampledCache() {
+        if ( spillFile == null ) {
+            try {
+                spillFile = File.createTempFile("TAROrderedReadCache.", ".spill", spillDirectory);
+                spillFile.deleteOnExit();
+                spillOutput = new BufferedOutputStream(new FileOutputStream(spillFile), SPILL_BUFFER_SIZE);
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotCreateOutputFile(spillDirectory, "Unable to create a file to spill active region reads", e);
+            }
+            spillHeader = undownsampledCache.get(0).getHeader();
+            spillWriter = new BAMRecordCodec(spillHeader);
+            spillWriter.setOutputStream(spillOutput);
+        }
+
+        try {
+            for ( final GATKSAMRecord read : undownsampledCache ) {
+                final Map<Object, Object> temporaryAttributes = read.getTemporaryAttributes();
+                if ( read.isStrandless() || (temporaryAttributes != null && ! temporaryAttributes.isEmpty()) )
+                    spilledReadStates.add(new SpilledReadState(nReadsWrittenToSpillFile, read));
+                spillWriter.encode(read);
+                nReadsWrittenToSpillFile++;
+            }
+        } catch ( RuntimeException e ) { // the htsjdk codec wraps IOExceptions in RuntimeExceptions
+            throw new UserException.CouldNotCreateOutputFile(spillFile, "Unable to spill active region reads", e);
+        }
+
+        nReadsInSpillFile += undownsampledCache.size();
+        nSpilledReads += undownsampledCache.size();
+        nSpills++;
+        initializeUndownsampledCache();
+        cacheBytes = 0;
+    }
+
+    /**
+     * Reads back the next read in the spill file, restoring the state BAM records can't hold
+     *
+     * The spill file must have been flushed since the read was written.
+     *
+     * @return a non-null read
+     */
+    private GATKSAMRecord readSpilledRead() {
+        if ( spillReader == null ) {
+            try {
+                spillInput = new BufferedInputStream(new FileInputStream(spillFile), SPILL_BUFFER_SIZE);
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(spillFile, e);
+            }
+            spillReader = new BAMRecordCodec(spillHeader);
+            spillReader.setInputStream(spillInput, spillFile.getPath());
+        }
+
+        final SAMRecord record;
+        try {
+            record = spillReader.decode();
+        } catch ( RuntimeException e ) { // the htsjdk codec wraps IOExceptions in RuntimeExceptions
+            throw new UserException.CouldNotReadInputFile(spillFile, "Unable to read back spilled active region reads", e);
+        }
+        if ( record == null )
+            throw new UserException.CouldNotReadInputFile(spillFile, "expected " + nReadsInSpillFile + " more spilled reads but the file ended");
+
+        final GATKSAMRecord read = new GATKSAMRecord(record);
+        if ( ! spilledReadStates.isEmpty() && spilledReadStates.peek().index == nReadsReadFromSpillFile )
+            spilledReadStates.poll().restore(read);
+        nReadsReadFromSpillFile++;
+        return read;
+    }
+
+    /**
+     * Forget about the current spill file, if any, deleting it from disk
+     */
+    private void deleteSpillFile() {
+        if ( spillFile != null ) {
+            closeQuietly(spillOutput);
+            closeQuietly(spillInput);
+            spillFile.delete();
+            spillFile = null;
+            spillHeader = null;
+            spillOutput = null;
+            spillWriter = null;
+            spillInput = null;
+            spillReader = null;
+            nReadsInSpillFile = 0;
+            nReadsWrittenToSpillFile = 0;
+            nReadsReadFromSpillFile = 0;
+            nextSpilledRead = null;
+            spilledReadStates.clear();
+        }
+    }
+
+    private static void closeQuietly( final Closeable stream ) {
+        if ( stream != null ) {
+            try {
+                stream.close();
+            } catch ( IOException e ) {
+                // we are throwing the file away anyway
+            }
+        }
     }
 
     /**
      * Allocate the undownsampled cache used when we have fewer than maxCapacity items
      */
     private void initializeUndownsampledCache() {
-        undownsampledCache = new ArrayList<>(Math.min(maxCapacity + 1, UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE));
+        undownsampledCache = new ArrayList<>(Math.min(maxCapacity, UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE - 1) + 1); // no overflow for huge maxCapacity
     }
 
     /**
@@ -89,6 +297,54 @@ public class TAROrderedReadCache {
         return maxCapacity;
     }
 
+    /**
+     * What's the maximum estimated heap bytes of reads we'll hold in memory?
+     * @return a positive long, Long.MAX_VALUE if unbounded
+     */
+    public long getMaxBytesInMemory() {
+        return maxBytesInMemory;
+    }
+
+    /**
+     * Does this cache spill reads to disk rather than downsampling them?
+     * @return true if overflowing reads are spilled
+     */
+    public boolean isSpillingToDisk() {
+        return spillDirectory != null;
+    }
+
+    /**
+     * What's the estimated heap bytes of the reads currently held in memory, before any downsampling?
+     * @return a long >= 0
+     */
+    public long getBytesInMemory() {
+        return liveBytes + cacheBytes;
+    }
+
+    /**
+     * What's the largest estimated heap bytes of reads this cache has ever held in memory at once?
+     * @return a long >= 0
+     */
+    public long getPeakBytesInMemory() {
+        return peakBytesInMemory;
+    }
+
+    /**
+     * How many reads have been spilled to disk over the lifetime of this cache?
+     * @return a long >= 0
+     */
+    public long getNumSpilledReads() {
+        return nSpilledReads;
+    }
+
+    /**
+     * How many times has this cache spilled reads to disk?
+     * @return a long >= 0
+     */
+    public long getNumSpills() {
+        return nSpills;
+    }
+
     /**
      * Add a single read to this cache.  Assumed to be in sorted order w.r.t. the previously added reads
      * @param read a read to add
@@ -101,10 +357,22 @@ public class TAROrderedReadCache {
         }
         else {
             undownsampledCache.add(read);
+            cacheBytes += ReadUtils.estimateHeapSize(read);
+            peakBytesInMemory = Math.max(peakBytesInMemory, getBytesInMemory());
 
-            // No more room in the undownsampledCache? Time to start downsampling
-            if ( undownsampledCache.size() > maxCapacity ) {
-                activateDownsampler();
+            final boolean overCapacity = liveReads.size() + undownsampledCache.size() > maxCapacity;
+            final boolean overBudget = getBytesInMemory() > maxBytesInMemory;
+            if ( overCapacity || overBudget ) {
+                if ( isSpillingToDisk() ) {
+                    // only the newly added reads are spilled: the live reads are about to be needed again
+                    spillUndownsampledCache();
+                } else if ( overCapacity ) {
+                    // No more room in the undownsampledCache? Time to start downsampling
+                    activateDownsampler(maxCapacity);
+                } else {
+                    // Out of memory budget: keep only as many reads as fit within it
+                    activateDownsampler(Math.max(undownsampledCache.size() - 1, 1));
+                }
             }
         }
     }
@@ -121,11 +389,33 @@ public class TAROrderedReadCache {
     }
 
     /**
-     * How many reads are currently in the cache?
+     * Put back reads returned by the last call to popCurrentReads that may still occur in later active regions
+     *
+     * The reads must be in sorted order, and so sort before every read still in the cache.  When spilling, they
+     * are kept in memory and never spilled again; otherwise this is the same as addAll.
+     *
+     * @param reads a sorted list of reads returned by the last popCurrentReads
+     */
+    public void addLiveReads( final List<GATKSAMRecord> reads ) {
+        if ( reads == null ) throw new IllegalArgumentException("Reads cannot be null");
+        if ( ! isSpillingToDisk() ) {
+            addAll(reads);
+            return;
+        }
+
+        for ( final GATKSAMRecord read : reads ) {
+            liveReads.add(read);
+            liveBytes += ReadUtils.estimateHeapSize(read);
+        }
+        peakBytesInMemory = Math.max(peakBytesInMemory, getBytesInMemory());
+    }
+
+    /**
+     * How many reads are currently in the cache, including those spilled to disk?
      * @return a positive integer
      */
     public int size() {
-        return downsampler != null ? downsampler.size() : undownsampledCache.size();
+        return (downsampler != null ? downsampler.size() : undownsampledCache.size()) + liveReads.size() + nReadsInSpillFile;
     }
 
     /**
@@ -147,8 +437,10 @@ public class TAROrderedReadCache {
      * @return a list of GATKSAMRecords in this cache
      */
     public List<GATKSAMRecord> popCurrentReads() {
-        final List<GATKSAMRecord> poppedReads;
+        if ( isSpillingToDisk() )
+            return popCurrentReads(Integer.MAX_VALUE, Integer.MAX_VALUE);
 
+        final List<GATKSAMRecord> poppedReads;
         if ( downsampler == null ) {
             poppedReads = undownsampledCache;  // avoid making a copy here, since we're going to allocate a new cache
         }
@@ -163,6 +455,77 @@ public class TAROrderedReadCache {
         }
 
         initializeUndownsampledCache();
+        cacheBytes = 0;
         return poppedReads;
     }
+
+    /**
+     * Removes the reads in the cache that start at or before position on the contig with contigIndex (or on an
+     * earlier contig), and returns them in sorted order (w.r.t. alignmentStart)
+     *
+     * Reads that start later can't overlap anything ending at position, and stay in the cache -- on disk, if they
+     * were spilled -- so only the part of the spill file that is needed is read back.  When not spilling, this
+     * pops every read, just like popCurrentReads().
+     *
+     * @param contigIndex the contig index of the last position to pop
+     * @param position the last alignment start to pop on that contig
+     * @return a list of GATKSAMRecords in this cache
+     */
+    public List<GATKSAMRecord> popCurrentReads( final int contigIndex, final int position ) {
+        if ( ! isSpillingToDisk() )
+            return popCurrentReads();
+
+        // the live reads were popped by the last call, so they come first and lie before position
+        final List<GATKSAMRecord> poppedReads = liveReads;
+        liveReads = new ArrayList<>();
+        liveBytes = 0;
+
+        if ( spillFile != null ) {
+            try {
+                spillOutput.flush();
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotCreateOutputFile(spillFile, "Unable to spill active region reads", e);
+            }
+
+            while ( nReadsInSpillFile > 0 ) {
+                if ( nextSpilledRead == null )
+                    nextSpilledRead = readSpilledRead();
+                if ( ! startsAtOrBefore(nextSpilledRead, contigIndex, position) )
+                    return poppedReads; // the reads in memory all sort after this one
+                poppedReads.add(nextSpilledRead);
+                nextSpilledRead = null;
+                nReadsInSpillFile--;
+            }
+            deleteSpillFile();
+        }
+
+        int nPopped = 0;
+        while ( nPopped < undownsampledCache.size() && startsAtOrBefore(undownsampledCache.get(nPopped), contigIndex, position) )
+            nPopped++;
+        if ( nPopped == undownsampledCache.size() ) {
+            poppedReads.addAll(undownsampledCache);
+            initializeUndownsampledCache();
+            cacheBytes = 0;
+        } else {
+            final List<GATKSAMRecord> popped = undownsampledCache.subList(0, nPopped);
+            for ( final GATKSAMRecord read : popped )
+                cacheBytes -= ReadUtils.estimateHeapSize(read);
+            poppedReads.addAll(popped);
+            popped.clear();
+        }
+
+        return poppedReads;
+    }
+
+    private static boolean startsAtOrBefore( final GATKSAMRecord read, final int contigIndex, final int position ) {
+        final int readContigIndex = read.getReferenceIndex();
+        return readContigIndex < contigIndex || (readContigIndex == contigIndex && read.getAlignmentStart() <= position);
+    }
+
+    /**
+     * Releases the resources held by this cache, deleting any spill file.  The reads in the cache are lost.
+     */
+    public void close() {
+        deleteSpillFile();
+    }
 }
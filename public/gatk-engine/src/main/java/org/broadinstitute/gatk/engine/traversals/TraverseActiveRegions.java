@@ -29,12 +29,14 @@ import com.google.java.contract.Ensures;
 import com.google.java.contract.Requires;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.arguments.GATKArgumentCollection;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
 import org.broadinstitute.gatk.engine.datasources.providers.*;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.engine.walkers.ActiveRegionTraversalParameters;
 import org.broadinstitute.gatk.engine.walkers.ActiveRegionWalker;
+import org.broadinstitute.gatk.engine.walkers.ParallelIsActive;
 import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.Utils;
@@ -42,19 +44,27 @@ import org.broadinstitute.gatk.utils.activeregion.ActiveRegion;
 import org.broadinstitute.gatk.utils.activeregion.ActivityProfile;
 import org.broadinstitute.gatk.utils.activeregion.ActivityProfileState;
 import org.broadinstitute.gatk.utils.activeregion.BandPassActivityProfile;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSReduceFunction;
+import org.broadinstitute.gatk.utils.nanoScheduler.NSSizeFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
 import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
 
+import java.io.File;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Implement active region traversal
@@ -74,9 +84,23 @@ import java.util.List;
  *   in the collected read list.  All of the data related to the live region is captured by the local
  *   variable spanOfLastReadSeen
  *
+ * Parallel isActive:
+ *
+ *   When running with more than one thread of the WORK_STEALING engine and the walker implements ParallelIsActive,
+ *   loci are read ahead in windows of IS_ACTIVE_WINDOW_SIZE and isActive is evaluated for the whole window in parallel
+ *   on the NanoScheduler's threads, alongside the map jobs.
+ *   The loci are then replayed one at a time in genomic order exactly as in the serial traversal (reads
+ *   collected, ready regions popped, state added to the activity profile), so the active regions produced
+ *   are identical to those of the serial traversal.
+ *
  */
 public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,ActiveRegionWalker<M,T>,LocusShardDataProvider> {
     private final static boolean DEBUG = false;
+
+    /**
+     * Number of loci read ahead and evaluated together when isActive runs in parallel
+     */
+    protected final static int IS_ACTIVE_WINDOW_SIZE = 500;
     protected final static Logger logger = Logger.getLogger(TraversalEngine.class);
     protected final static boolean LOG_READ_CARRYING = false;
 
@@ -98,6 +122,18 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
     final NanoScheduler<MapData, M, T> nanoScheduler;
 
+    private final int nThreads;
+
+    /**
+     * Is isActive evaluated in parallel for windows of loci?
+     */
+    private boolean parallelIsActive = false;
+
+    /**
+     * The number of active regions the walker has mapped, for monitoring throughput
+     */
+    private final LongAdder nActiveRegionsProcessed = new LongAdder();
+
     /**
      * Data to use in the ActiveRegionWalker.map function produced by the NanoScheduler input iterator
      */
@@ -123,7 +159,19 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
      * @param nThreads number of threads
      */
     public TraverseActiveRegions(final int nThreads) {
-        nanoScheduler = new NanoScheduler<>(nThreads);
+        this(nThreads, NanoScheduler.Engine.MASTER_THREAD, NanoScheduler.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Create an active region traverser that uses nThreads, run by engine, for getting its work done
+     * @param nThreads number of threads
+     * @param engine the NanoScheduler engine to use with more than one thread
+     * @param memoryBudget the number of bytes of active region reads the WORK_STEALING engine keeps in flight
+     */
+    public TraverseActiveRegions(final int nThreads, final NanoScheduler.Engine engine, final long memoryBudget) {
+        this.nThreads = nThreads;
+        nanoScheduler = new NanoScheduler<>(nThreads, engine);
+        nanoScheduler.setMemoryBudget(memoryBudget);
         nanoScheduler.setProgressFunction(new NSProgressFunction<MapData>() {
             @Override
             public void progress(MapData lastActiveRegion) {
@@ -132,6 +180,16 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                     printProgress(lastActiveRegion.activeRegion.getLocation().getStopLocation());
             }
         });
+        nanoScheduler.setSizeFunction(new NSSizeFunction<MapData>() {
+            @Override
+            public long estimateSize(MapData mapData) {
+                // the reads dominate the memory held by an active region, both during map and in its result
+                long size = 0;
+                for ( final GATKSAMRecord read : mapData.activeRegion.getReads() )
+                    size += ReadUtils.estimateHeapSize(read);
+                return size;
+            }
+        });
     }
 
     /**
@@ -164,7 +222,45 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
         final int maxReadsAcrossSamples = annotation.maxReadsToHoldInMemoryPerSample() * ReadUtils.getSAMFileSamples(engine.getSAMFileHeader()).size();
         final int maxReadsToHoldInMemory = Math.min(maxReadsAcrossSamples, annotation.maxReadsToHoldTotal());
-        myReads = new TAROrderedReadCache(maxReadsToHoldInMemory);
+        final GATKArgumentCollection arguments = engine.getArguments();
+        final long maxReadBytesToHoldInMemory = arguments == null || arguments.activeRegionReadMemoryBudgetMB == null
+                ? Long.MAX_VALUE : arguments.activeRegionReadMemoryBudgetMB * 1024L * 1024L;
+        final File spillDirectory = arguments != null && arguments.spillActiveRegionReads
+                ? new File(System.getProperty("java.io.tmpdir")) : null;
+        myReads = new TAROrderedReadCache(maxReadsToHoldInMemory, maxReadBytesToHoldInMemory, spillDirectory);
+
+        // isActive runs on the map threads, so that we never use more than the threads we were given
+        parallelIsActive = walker instanceof ParallelIsActive && nanoScheduler.canInvokeTasks();
+    }
+
+    @Override
+    public void shutdown() {
+        if ( myReads != null ) {
+            printReadCacheSummary();
+            myReads.close();
+        }
+    }
+
+    /**
+     * Prints out how much memory the reads carried between active regions used, and how often they were spilled
+     *
+     * Looks like:
+     *
+     * INFO  10:40:47,370 TraversalEngine - Active region read cache carried at most 42000 reads, peaking at ~85.31 MB in memory; 20000 reads were spilled to disk in 3 spills
+     */
+    private void printReadCacheSummary() {
+        if ( myReads.getPeakBytesInMemory() > 0 ) {
+            logger.info(String.format("Active region read cache carried at most %d reads, peaking at ~%.2f MB in memory; %d reads were spilled to disk in %d spills",
+                    maxReadsInMemory, myReads.getPeakBytesInMemory() / (1024.0 * 1024.0),
+                    myReads.getNumSpilledReads(), myReads.getNumSpills()));
+        }
+    }
+
+    /**
+     * @return true if isActive is evaluated in parallel for windows of loci
+     */
+    protected boolean isEvaluatingIsActiveInParallel() {
+        return parallelIsActive;
     }
 
     // -------------------------------------------------------------------------------------
@@ -208,6 +304,13 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         return "active regions";
     }
 
+    /**
+     * @return the number of active regions the walker has mapped so far
+     */
+    public long getNumActiveRegionsProcessed() {
+        return nActiveRegionsProcessed.sum();
+    }
+
     @Override
     public String toString() {
         return "TraverseActiveRegions";
@@ -276,9 +379,28 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         return result;
     }
 
+    /**
+     * A locus that has been read from the locus view, with everything the traversal needs to process it
+     */
+    private static class PendingLocus {
+        final AlignmentContext locus;
+        final Collection<GATKSAMRecord> reads;
+        final boolean outsideEngineIntervals;
+        ReferenceContext refContext = null;
+        RefMetaDataTracker tracker = null;
+        ActivityProfileState state = null;
+
+        private PendingLocus(final AlignmentContext locus, final Collection<GATKSAMRecord> reads, final boolean outsideEngineIntervals) {
+            this.locus = locus;
+            this.reads = reads;
+            this.outsideEngineIntervals = outsideEngineIntervals;
+        }
+    }
+
     private class ActiveRegionIterator implements Iterator<MapData> {
         private final LocusShardDataProvider dataProvider;
         private LinkedList<MapData> readyActiveRegions = new LinkedList<>();
+        private final LinkedList<PendingLocus> pendingLoci = new LinkedList<>();
         private boolean done = false;
         private final LocusView locusView;
         private final LocusReferenceView referenceView;
@@ -335,16 +457,17 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                 return false;
             else {
 
-                while( locusView.hasNext() ) {
-                    final AlignmentContext locus = locusView.next();
-                    final GenomeLoc location = locus.getLocation();
+                while( ! pendingLoci.isEmpty() || locusView.hasNext() ) {
+                    if ( pendingLoci.isEmpty() )
+                        readPendingLoci();
+                    final PendingLocus pending = pendingLoci.pop();
+                    final GenomeLoc location = pending.locus.getLocation();
 
                     rememberLastLocusLocation(location);
 
                     // get all of the new reads that appear in the current pileup, and them to our list of reads
                     // provided we haven't seen them before
-                    final Collection<GATKSAMRecord> reads = locusView.getLIBS().transferReadsFromAllPreviousPileups();
-                    for( final GATKSAMRecord read : reads ) {
+                    for( final GATKSAMRecord read : pending.reads ) {
                         // note that ActiveRegionShards span entire contigs, so this check is in some
                         // sense no longer necessary, as any read that appeared in the last shard would now
                         // by definition be on a different contig.  However, the logic here doesn't hurt anything
@@ -357,7 +480,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                     }
 
                     // skip this location -- it's not part of our engine intervals
-                    if ( outsideEngineIntervals(location) )
+                    if ( pending.outsideEngineIntervals )
                         continue;
 
                     // we've move across some interval boundary, restart profile
@@ -368,15 +491,8 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
 
                     dataProvider.getShard().getReadMetrics().incrementNumIterations();
 
-                    // create reference context. Note that if we have a pileup of "extended events", the context will
-                    // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
-                    final ReferenceContext refContext = referenceView.getReferenceContext(location);
-
-                    // Iterate forward to get all reference ordered data covering this location
-                    final RefMetaDataTracker tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(locus.getLocation());
-
-                    // Call the walkers isActive function for this locus and add them to the list to be integrated later
-                    addIsActiveResult(walker, tracker, refContext, locus);
+                    // add the result of the walkers isActive function for this locus to the list to be integrated later
+                    addIsActiveResult(pending.state);
 
                     maxReadsInMemory = Math.max(myReads.size(), maxReadsInMemory);
                     printProgress(location);
@@ -401,6 +517,82 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                 return ! readyActiveRegions.isEmpty();
             }
         }
+
+        /**
+         * Read the next loci from the locus view into pendingLoci and evaluate isActive for them
+         *
+         * Reads a single locus when isActive is evaluated serially, or a window of up to IS_ACTIVE_WINDOW_SIZE
+         * loci whose isActive calls are spread across the NanoScheduler's threads otherwise.
+         */
+        private void readPendingLoci() {
+            final int windowSize = isEvaluatingIsActiveInParallel() ? IS_ACTIVE_WINDOW_SIZE : 1;
+            final List<PendingLocus> toEvaluate = new ArrayList<>(windowSize);
+            while ( pendingLoci.size() < windowSize && locusView.hasNext() ) {
+                final AlignmentContext locus = locusView.next();
+                final GenomeLoc location = locus.getLocation();
+
+                // the reads must be collected right away, as they are those of all pileups up to this one
+                final PendingLocus pending = new PendingLocus(locus, locusView.getLIBS().transferReadsFromAllPreviousPileups(), outsideEngineIntervals(location));
+                if ( ! pending.outsideEngineIntervals ) {
+                    // create reference context. Note that if we have a pileup of "extended events", the context will
+                    // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
+                    pending.refContext = referenceView.getReferenceContext(location);
+
+                    // Iterate forward to get all reference ordered data covering this location
+                    pending.tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(location);
+                    toEvaluate.add(pending);
+                }
+                pendingLoci.add(pending);
+            }
+
+            if ( isEvaluatingIsActiveInParallel() && toEvaluate.size() > 1 )
+                evaluateIsActiveInParallel(toEvaluate);
+            else
+                evaluateIsActive(toEvaluate);
+        }
+    }
+
+    /**
+     * Call the walker's isActive function for each of the loci, in order, on the calling thread
+     *
+     * @param loci the loci to evaluate
+     */
+    private void evaluateIsActive(final List<PendingLocus> loci) {
+        for ( final PendingLocus pending : loci )
+            // must be called, even if we won't use the result, to satisfy walker contract
+            pending.state = walker.isActive(pending.tracker, pending.refContext, pending.locus);
+    }
+
+    /**
+     * Call the walker's isActive function for each of the loci, splitting them in contiguous chunks across the NanoScheduler's threads
+     *
+     * @param loci the loci to evaluate
+     */
+    private void evaluateIsActiveInParallel(final List<PendingLocus> loci) {
+        final int chunkSize = (loci.size() + nThreads - 1) / nThreads;
+        final List<Callable<Void>> chunks = new ArrayList<>(nThreads);
+        for ( int start = 0; start < loci.size(); start += chunkSize ) {
+            final List<PendingLocus> chunk = loci.subList(start, Math.min(loci.size(), start + chunkSize));
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    evaluateIsActive(chunk);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for ( final Future<Void> result : nanoScheduler.invokeAll(chunks) )
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while evaluating isActive", e);
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedGATKException("Failed to evaluate isActive", e.getCause());
+        }
     }
 
     // -------------------------------------------------------------------------------------
@@ -605,18 +797,11 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     // -------------------------------------------------------------------------------------
 
     /**
-     * Invoke the walker isActive function, and incorporate its result into the activity profile
+     * Incorporate the result of the walker isActive function into the activity profile
      *
-     * @param walker the walker we're running
-     * @param tracker the ref meta data tracker to pass on to the isActive function of walker
-     * @param refContext the refContext to pass on to the isActive function of walker
-     * @param locus the AlignmentContext to pass on to the isActive function of walker
+     * @param state the result of the walker's isActive function for the current locus
      */
-    private void addIsActiveResult(final ActiveRegionWalker<M, T> walker,
-                                   final RefMetaDataTracker tracker, final ReferenceContext refContext,
-                                   final AlignmentContext locus) {
-        // must be called, even if we won't use the result, to satisfy walker contract
-        final ActivityProfileState state = walker.isActive( tracker, refContext, locus );
+    private void addIsActiveResult(final ActivityProfileState state) {
         if ( walker.forceActive) state.isActiveProb = 1.0;
         if ( ! walkerHasPresetRegions ) {
             activityProfile.add(state);
@@ -660,7 +845,9 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                                                   final ActiveRegionWalker<M, T> walker,
                                                   final IntervalReferenceOrderedView referenceOrderedDataView) {
         final List<GATKSAMRecord> stillLive = new LinkedList<>();
-        for ( final GATKSAMRecord read : myReads.popCurrentReads() ) {
+        // reads starting after the extended region can't be in it, so they stay in the cache (and on disk, if spilled)
+        final GenomeLoc extendedLoc = activeRegion.getExtendedLoc();
+        for ( final GATKSAMRecord read : myReads.popCurrentReads(extendedLoc.getContigIndex(), extendedLoc.getStop()) ) {
             boolean killed = false;
             final GenomeLoc readLoc = this.engine.getGenomeLocParser().createGenomeLoc( read );
 
@@ -682,7 +869,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
             // keep track of all of the still live active regions
             if ( ! killed ) stillLive.add(read);
         }
-        myReads.addAll(stillLive);
+        myReads.addLiveReads(stillLive);
 
         if ( logger.isDebugEnabled() ) {
             logger.debug(">> Map call with " + activeRegion.getReads().size() + " " + (activeRegion.isActive() ? "active" : "inactive") + " reads @ " + activeRegion.getLocation() + " with full extent: " + activeRegion.getReadSpanLoc());
@@ -706,7 +893,9 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         @Override
         public M apply(final MapData mapData) {
             if ( DEBUG ) logger.info("Executing walker.map for " + mapData.activeRegion + " in thread " + Thread.currentThread().getName());
-            return walker.map(mapData.activeRegion, mapData.tracker);
+            final M result = walker.map(mapData.activeRegion, mapData.tracker);
+            nActiveRegionsProcessed.increment();
+            return result;
         }
     }
 
@@ -52,7 +52,17 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
     final NanoScheduler<MapData, MapResult, T> nanoScheduler;
 
     public TraverseLociNano(int nThreads) {
-        nanoScheduler = new NanoScheduler<MapData, MapResult, T>(nThreads);
+        this(nThreads, NanoScheduler.Engine.MASTER_THREAD, NanoScheduler.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param nThreads the number of threads to map with
+     * @param engine the NanoScheduler engine to use with more than one thread
+     * @param memoryBudget the number of bytes of input the WORK_STEALING engine keeps in flight
+     */
+    public TraverseLociNano(int nThreads, NanoScheduler.Engine engine, long memoryBudget) {
+        nanoScheduler = new NanoScheduler<MapData, MapResult, T>(nThreads, engine);
+        nanoScheduler.setMemoryBudget(memoryBudget);
         nanoScheduler.setProgressFunction(new TraverseLociProgress());
     }
 
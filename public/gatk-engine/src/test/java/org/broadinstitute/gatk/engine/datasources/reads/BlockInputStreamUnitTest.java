@@ -0,0 +1,182 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tests that BlockInputStream, fed by the asynchronous block loading pipeline, presents the same bytes as Picard's
+ * BlockCompressedInputStream, both when streaming through the whole file and when reading a set of chunks.
+ */
+public class BlockInputStreamUnitTest extends BaseTest {
+    private File bgzfFile;
+
+    /**
+     * File pointers at which to cut the file into chunks, as reported by BlockCompressedInputStream.
+     */
+    private final List<Long> filePointers = new ArrayList<Long>();
+
+    @BeforeClass
+    public void writeBGZFFile() throws IOException {
+        bgzfFile = createTempFile("BlockInputStreamUnitTest", ".bgzf");
+
+        // Mildly compressible data, so that the file spans a good number of blocks.
+        final Random random = new Random(42);
+        final byte[] data = new byte[1024 * 1024];
+        for ( int i = 0; i < data.length; i++ )
+            data[i] = (byte)"ACGT".charAt(random.nextInt(4));
+
+        final BlockCompressedOutputStream outputStream = new BlockCompressedOutputStream(bgzfFile);
+        outputStream.write(data);
+        outputStream.close();
+
+        final BlockCompressedInputStream inputStream = new BlockCompressedInputStream(bgzfFile);
+        // getFilePointer() throws an NPE until the stream has loaded its first block.
+        inputStream.available();
+        final byte[] buffer = new byte[10007];
+        do {
+            filePointers.add(inputStream.getFilePointer());
+        }
+        while ( inputStream.read(buffer) > 0 );
+        inputStream.close();
+    }
+
+    @DataProvider(name = "BlockInputStreamTest")
+    public Object[][] makeBlockInputStreamTest() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int nIOThreads : Arrays.asList(1, 3) )
+            for ( final int nInflaterThreads : Arrays.asList(1, 4) )
+                for ( final int readaheadBlocks : Arrays.asList(1, 2, BGZFBlockLoadingDispatcher.DEFAULT_READAHEAD_BLOCKS) )
+                    tests.add(new Object[]{nIOThreads, nInflaterThreads, readaheadBlocks});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "BlockInputStreamTest")
+    public void testReadWholeFile(final int nIOThreads, final int nInflaterThreads, final int readaheadBlocks) throws IOException {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(nIOThreads, 1, nInflaterThreads, readaheadBlocks);
+        try {
+            final BlockInputStream blockInputStream = new BlockInputStream(dispatcher, new SAMReaderID(bgzfFile, new Tags()), false);
+            final BlockCompressedInputStream expected = new BlockCompressedInputStream(bgzfFile);
+            Assert.assertEquals(readFully(blockInputStream, 4099), readFully(expected, 4099));
+            blockInputStream.close();
+            expected.close();
+
+            Assert.assertTrue(dispatcher.getDecompressedMB() > 0.9, "Dispatcher didn't record decompressed data");
+            Assert.assertEquals(dispatcher.getNumPrefetchedBlocks(), 0);
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedDecompressionReleasesBuffer() throws InterruptedException {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(1, 1, 1, 1);
+        try {
+            for ( int i = 0; i < 3; i++ ) {
+                // a block whose footer claims more uncompressed data than any BGZF block can hold
+                final ByteBuffer block = dispatcher.acquireCompressedBlock();
+                block.limit(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+                block.putInt(block.limit() - 4, BGZFBlockLoadingDispatcher.MAX_UNCOMPRESSED_BLOCK_SIZE + 1);
+                try {
+                    dispatcher.decompress(block).get();
+                    Assert.fail("Decompressing an oversized block should fail");
+                }
+                catch ( ExecutionException e ) {
+                    Assert.assertTrue(e.getCause() instanceof ReviewedGATKException, "Unexpected failure " + e.getCause());
+                }
+            }
+            Assert.assertEquals(dispatcher.getNumAllocatedDecompressedBlocks(), 1, "Failed decompressions leaked their buffers");
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test(dataProvider = "BlockInputStreamTest")
+    public void testReadChunks(final int nIOThreads, final int nInflaterThreads, final int readaheadBlocks) throws IOException {
+        final BGZFBlockLoadingDispatcher dispatcher = new BGZFBlockLoadingDispatcher(nIOThreads, 1, nInflaterThreads, readaheadBlocks);
+        try {
+            final SAMReaderID readerID = new SAMReaderID(bgzfFile, new Tags());
+            final BlockInputStream blockInputStream = new BlockInputStream(dispatcher, readerID, false);
+            final BlockCompressedInputStream expectedStream = new BlockCompressedInputStream(bgzfFile);
+
+            // Read a few non-contiguous runs of chunks, seeking back and forth between them.
+            for ( final int[] range : new int[][]{ {3, 9}, {1, 2}, {20, 60}, {61, 62}, {0, filePointers.size() - 1} } ) {
+                final List<GATKChunk> chunks = new ArrayList<GATKChunk>();
+                final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                for ( int i = range[0]; i < range[1]; i += 2 ) {
+                    final int end = Math.min(i + 1, range[1]);
+                    chunks.add(new GATKChunk(filePointers.get(i), filePointers.get(end)));
+                    expectedStream.seek(filePointers.get(i));
+                    int nextByte;
+                    while ( expectedStream.getFilePointer() < filePointers.get(end) && (nextByte = expectedStream.read()) >= 0 )
+                        expected.write(nextByte);
+                }
+
+                blockInputStream.submitAccessPlan(new BAMAccessPlan(readerID, blockInputStream, new GATKBAMFileSpan(chunks.toArray(new GATKChunk[chunks.size()]))));
+                Assert.assertEquals(readFully(blockInputStream, 1000), expected.toByteArray(), "Mismatch reading chunks " + chunks);
+            }
+
+            blockInputStream.close();
+            expectedStream.close();
+        }
+        finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private byte[] readFully(final java.io.InputStream inputStream, final int bufferSize) throws IOException {
+        final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[bufferSize];
+        int bytesRead;
+        while ( (bytesRead = inputStream.read(buffer)) > 0 )
+            contents.write(buffer, 0, bytesRead);
+        return contents.toByteArray();
+    }
+}
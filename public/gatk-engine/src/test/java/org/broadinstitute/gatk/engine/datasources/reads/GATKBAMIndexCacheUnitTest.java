@@ -0,0 +1,147 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.Bin;
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamFiles;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.sam.ArtificialBAMBuilder;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class GATKBAMIndexCacheUnitTest extends BaseTest {
+    private SAMSequenceDictionary sequenceDictionary;
+    private File bamFile;
+    private File indexFile;
+    private File cacheDirectory;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        sequenceDictionary = ArtificialSAMUtils.createArtificialSamHeader(3, 1, 1000000).getSequenceDictionary();
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(sequenceDictionary, 2, 200000);
+        bamBuilder.setReadLength(50);
+        bamFile = bamBuilder.makeTemporarilyBAMFile();
+        indexFile = SamFiles.findIndex(bamFile);
+        cacheDirectory = createTempDirectory("bamIndexCache");
+    }
+
+    @AfterMethod
+    public void teardown() {
+        for ( final File cacheFile : cacheDirectory.listFiles() )
+            cacheFile.delete();
+        cacheDirectory.delete();
+    }
+
+    private static File createTempDirectory(final String prefix) throws IOException {
+        final File directory = File.createTempFile(prefix, "");
+        if ( ! directory.delete() || ! directory.mkdir() )
+            throw new IOException("Unable to create temporary directory " + directory);
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    @Test
+    public void testCachedIndexMatchesIndex() {
+        final GATKBAMIndex index = new GATKBAMIndex(indexFile, sequenceDictionary);
+
+        final GATKBAMIndexCache cache = new GATKBAMIndexCache(cacheDirectory);
+        final GATKBAMIndex firstCachedIndex = cache.getIndex(bamFile, indexFile, sequenceDictionary);
+        Assert.assertEquals(cache.getNumberOfMisses(), 1);
+        Assert.assertEquals(cache.getNumberOfHits(), 0);
+        final GATKBAMIndex cachedIndex = new GATKBAMIndexCache(cacheDirectory).getIndex(bamFile, indexFile, sequenceDictionary);
+
+        for ( final GATKBAMIndex queried : new GATKBAMIndex[]{firstCachedIndex, cachedIndex} ) {
+            Assert.assertTrue(queried instanceof MappedGATKBAMIndex, "Index should have been read from the cache");
+            assertIndicesMatch(queried, index);
+        }
+    }
+
+    @Test
+    public void testCacheIsShared() {
+        final GATKBAMIndexCache cache = new GATKBAMIndexCache(cacheDirectory);
+        cache.getIndex(bamFile, indexFile, sequenceDictionary);
+
+        final GATKBAMIndexCache otherCache = new GATKBAMIndexCache(cacheDirectory);
+        otherCache.getIndex(bamFile, indexFile, sequenceDictionary);
+        Assert.assertEquals(otherCache.getNumberOfHits(), 1, "Cached index should be reused by another cache over the same directory");
+        Assert.assertEquals(otherCache.getNumberOfMisses(), 0);
+    }
+
+    @Test
+    public void testModifiedBamIsRebuilt() {
+        new GATKBAMIndexCache(cacheDirectory).getIndex(bamFile, indexFile, sequenceDictionary);
+        Assert.assertTrue(bamFile.setLastModified(bamFile.lastModified() - 10000));
+
+        final GATKBAMIndexCache cache = new GATKBAMIndexCache(cacheDirectory);
+        final GATKBAMIndex cachedIndex = cache.getIndex(bamFile, indexFile, sequenceDictionary);
+        Assert.assertEquals(cache.getNumberOfMisses(), 1, "Cached index of a modified BAM file should be rebuilt");
+        assertIndicesMatch(cachedIndex, new GATKBAMIndex(indexFile, sequenceDictionary));
+    }
+
+    @Test
+    public void testTruncatedCacheFileIsRebuilt() throws IOException {
+        final GATKBAMIndexCache cache = new GATKBAMIndexCache(cacheDirectory);
+        cache.getIndex(bamFile, indexFile, sequenceDictionary);
+
+        final File cacheFile = cache.getCacheFile(bamFile);
+        Assert.assertTrue(cacheFile.exists());
+        final RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+        file.setLength(30);
+        file.close();
+
+        final GATKBAMIndexCache otherCache = new GATKBAMIndexCache(cacheDirectory);
+        final GATKBAMIndex cachedIndex = otherCache.getIndex(bamFile, indexFile, sequenceDictionary);
+        Assert.assertEquals(otherCache.getNumberOfMisses(), 1, "Truncated cache file should be rebuilt");
+        assertIndicesMatch(cachedIndex, new GATKBAMIndex(indexFile, sequenceDictionary));
+    }
+
+    private void assertIndicesMatch(final GATKBAMIndex actual, final GATKBAMIndex expected) {
+        Assert.assertEquals(actual.getNumberOfSequences(), expected.getNumberOfSequences());
+        Assert.assertEquals(actual.getStartOfLastLinearBin(), expected.getStartOfLastLinearBin());
+
+        for ( int sequence = 0; sequence < expected.getNumberOfSequences(); sequence++ ) {
+            final GATKBAMIndexData actualData = actual.readReferenceSequence(sequence);
+            final GATKBAMIndexData expectedData = expected.readReferenceSequence(sequence);
+
+            // every bin of the lowest three levels, which covers every bin of the higher levels as well
+            for ( int binNumber = GATKBAMIndex.getFirstBinInLevel(3); binNumber < GATKBAMIndex.MAX_BINS - 1; binNumber++ ) {
+                final Bin bin = new Bin(sequence, binNumber);
+                final GATKBAMFileSpan actualSpan = actualData.getSpanOverlapping(bin);
+                final GATKBAMFileSpan expectedSpan = expectedData.getSpanOverlapping(bin);
+                Assert.assertEquals(actualSpan.getGATKChunks(), expectedSpan.getGATKChunks(), "Spans differ for bin " + binNumber + " of sequence " + sequence);
+            }
+        }
+    }
+}
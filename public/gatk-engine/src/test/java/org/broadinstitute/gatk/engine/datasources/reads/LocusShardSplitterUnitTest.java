@@ -0,0 +1,162 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.SAMFileSpan;
+import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.sam.ArtificialBAMBuilder;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class LocusShardSplitterUnitTest extends BaseTest {
+    private final static int N_LOCI = 200000;
+
+    private GenomeLocParser genomeLocParser;
+    private String contig;
+    private SAMDataSource dataSource;
+    private LocusShardSplitter splitter;
+    private Shard shard;
+
+    @BeforeClass
+    public void setup() {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(1, N_LOCI);
+        bamBuilder.setReadLength(50);
+        genomeLocParser = bamBuilder.getGenomeLocParser();
+        contig = genomeLocParser.getContigs().getSequence(0).getSequenceName();
+
+        final SAMReaderID readerID = new SAMReaderID(bamBuilder.makeTemporarilyBAMFile(), new Tags());
+        dataSource = new SAMDataSource(null, Collections.singletonList(readerID), new ThreadAllocation(), null, genomeLocParser);
+        splitter = new LocusShardSplitter(dataSource, genomeLocParser);
+
+        final GenomeLocSortedSet intervals = new GenomeLocSortedSet(genomeLocParser, genomeLocParser.createGenomeLoc(contig, 1, N_LOCI));
+        // test with the most expensive of the shards the balancer makes
+        for ( final Shard candidate : dataSource.createShardIteratorOverIntervals(intervals, new LocusShardBalancer()) ) {
+            if ( shard == null || LocusShardSplitter.estimateCost(candidate) > LocusShardSplitter.estimateCost(shard) )
+                shard = candidate;
+        }
+    }
+
+    @AfterClass
+    public void teardown() {
+        dataSource.close();
+    }
+
+    @Test
+    public void testEstimateCost() {
+        Assert.assertTrue(LocusShardSplitter.estimateCost(shard) > 0, "A shard over an indexed BAM should have a positive cost");
+        Assert.assertTrue(splitter.canSplit(shard));
+    }
+
+    @Test
+    public void testEstimateCostIgnoresNegativeChunkSizes() {
+        // ends early in the block after the one it starts in, so GATKChunk estimates its size as negative
+        final GATKChunk crossingChunk = new GATKChunk(0, 60000, 1, 10);
+        final GATKChunk chunk = new GATKChunk(10, 0, 10, 100);
+        Assert.assertTrue(crossingChunk.size() < 0);
+
+        final SAMReaderID readerID = shard.getFileSpans().keySet().iterator().next();
+        final Map<SAMReaderID,SAMFileSpan> fileSpans = new HashMap<SAMReaderID,SAMFileSpan>();
+        fileSpans.put(readerID, new GATKBAMFileSpan(new GATKChunk[]{crossingChunk, chunk}));
+        final Shard crossingShard = new LocusShard(genomeLocParser, dataSource, shard.getGenomeLocs(), fileSpans);
+        Assert.assertEquals(LocusShardSplitter.estimateCost(crossingShard), chunk.size());
+    }
+
+    @DataProvider(name = "SplitData")
+    public Object[][] makeSplitData() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+        for ( final int divisor : Arrays.asList(1, 2, 3, 8, 1000) )
+            tests.add(new Object[]{divisor});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "SplitData")
+    public void testSplit(final int divisor) {
+        final long cost = LocusShardSplitter.estimateCost(shard);
+        final long maxCost = cost / divisor;
+        final List<Shard> pieces = splitter.split(shard, maxCost);
+
+        if ( divisor == 1 ) {
+            Assert.assertEquals(pieces, Collections.singletonList(shard), "A shard within the maximum cost shouldn't be split");
+            return;
+        }
+
+        Assert.assertTrue(pieces.size() > 1, "Expected the shard to be split");
+
+        final List<GenomeLoc> loci = new ArrayList<GenomeLoc>();
+        for ( final Shard piece : pieces ) {
+            final long pieceCost = LocusShardSplitter.estimateCost(piece, shard);
+            Assert.assertTrue(piece instanceof LocusShard);
+            Assert.assertTrue(LocusShardSplitter.estimateCost(piece) > 0 && LocusShardSplitter.estimateCost(piece) <= cost, "Piece " + piece.getGenomeLocs() + " should read at most the data of the shard");
+            Assert.assertTrue(pieceCost < cost, "Piece cost " + pieceCost + " should be less than the cost of the shard " + cost);
+            Assert.assertTrue(pieceCost <= maxCost || ! splitter.canSplit(piece), "Piece " + piece.getGenomeLocs() + " with cost " + pieceCost + " should have been split further");
+            loci.addAll(piece.getGenomeLocs());
+        }
+
+        // the pieces cover exactly the loci of the shard, in order
+        for ( int i = 1; i < loci.size(); i++ )
+            Assert.assertEquals(loci.get(i).getStart(), loci.get(i - 1).getStop() + 1, "Pieces should be contiguous and in order");
+        Assert.assertEquals(loci.get(0).getStart(), shard.getGenomeLocs().get(0).getStart());
+        Assert.assertEquals(loci.get(loci.size() - 1).getStop(), shard.getGenomeLocs().get(shard.getGenomeLocs().size() - 1).getStop());
+    }
+
+    @Test
+    public void testBisect() {
+        final List<GenomeLoc> intervals = Arrays.asList(
+                genomeLocParser.createGenomeLoc(contig, 1, 100),
+                genomeLocParser.createGenomeLoc(contig, 201, 250),
+                genomeLocParser.createGenomeLoc(contig, 301, 350));
+
+        final List<List<GenomeLoc>> halves = splitter.bisect(intervals);
+        Assert.assertEquals(halves.size(), 2);
+        Assert.assertEquals(halves.get(0), Arrays.asList(genomeLocParser.createGenomeLoc(contig, 1, 100)));
+        Assert.assertEquals(halves.get(1), Arrays.asList(genomeLocParser.createGenomeLoc(contig, 201, 250), genomeLocParser.createGenomeLoc(contig, 301, 350)));
+
+        final List<List<GenomeLoc>> unevenHalves = splitter.bisect(Arrays.asList(genomeLocParser.createGenomeLoc(contig, 11, 20)));
+        Assert.assertEquals(unevenHalves.get(0), Arrays.asList(genomeLocParser.createGenomeLoc(contig, 11, 15)));
+        Assert.assertEquals(unevenHalves.get(1), Arrays.asList(genomeLocParser.createGenomeLoc(contig, 16, 20)));
+    }
+
+    @Test
+    public void testSmallShardIsNotSplit() {
+        final GenomeLocSortedSet intervals = new GenomeLocSortedSet(genomeLocParser, genomeLocParser.createGenomeLoc(contig, 1, LocusShardSplitter.MIN_PIECE_SIZE));
+        final Shard smallShard = dataSource.createShardIteratorOverIntervals(intervals, new LocusShardBalancer()).iterator().next();
+        Assert.assertFalse(splitter.canSplit(smallShard));
+        Assert.assertEquals(splitter.split(smallShard, 0), Collections.singletonList(smallShard));
+    }
+}
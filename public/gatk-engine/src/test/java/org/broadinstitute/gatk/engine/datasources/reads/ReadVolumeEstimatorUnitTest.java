@@ -0,0 +1,187 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBin;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.LinearIndex;
+import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
+import org.broadinstitute.gatk.utils.interval.IntervalUtils;
+import org.broadinstitute.gatk.utils.sam.ArtificialBAMBuilder;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class ReadVolumeEstimatorUnitTest extends BaseTest {
+    private final static int N_LOCI = 200000;
+    private final static int DENSE_START = 100001;
+    private final static int DENSE_LOCI = 20000;
+
+    private GenomeLocParser genomeLocParser;
+    private String contig;
+    private SAMDataSource dataSource;
+    private ReadVolumeEstimator estimator;
+
+    @BeforeClass
+    public void setup() {
+        // one read per locus everywhere, and ten more per locus over the dense region
+        final ArtificialBAMBuilder sparseBuilder = new ArtificialBAMBuilder(1, N_LOCI);
+        genomeLocParser = sparseBuilder.getGenomeLocParser();
+        contig = genomeLocParser.getContigs().getSequence(0).getSequenceName();
+        final ArtificialBAMBuilder denseBuilder = new ArtificialBAMBuilder(genomeLocParser.getContigs(), 10, DENSE_LOCI).setAlignmentStart(DENSE_START);
+
+        final List<SAMReaderID> readerIDs = Arrays.asList(
+                new SAMReaderID(sparseBuilder.makeTemporarilyBAMFile(), new Tags()),
+                new SAMReaderID(denseBuilder.makeTemporarilyBAMFile(), new Tags()));
+        dataSource = new SAMDataSource(null, readerIDs, new ThreadAllocation(), null, genomeLocParser);
+        estimator = new ReadVolumeEstimator(dataSource);
+    }
+
+    @AfterClass
+    public void teardown() {
+        dataSource.close();
+    }
+
+    private GenomeLoc loc(final int start, final int stop) {
+        return genomeLocParser.createGenomeLoc(contig, start, stop);
+    }
+
+    @Test
+    public void testEstimateCost() {
+        final long sparseCost = estimator.estimateCost(loc(20001, 20000 + ReadVolumeEstimator.WINDOW_SIZE));
+        final long denseCost = estimator.estimateCost(loc(DENSE_START, DENSE_START + ReadVolumeEstimator.WINDOW_SIZE - 1));
+        Assert.assertTrue(sparseCost > 0, "Expected a positive cost over reads");
+        Assert.assertTrue(denseCost > 5 * sparseCost, "Dense region cost " + denseCost + " should be much more than sparse region cost " + sparseCost);
+        Assert.assertEquals(estimator.estimateCost(loc(N_LOCI + 100000, N_LOCI + 200000)), 0, "Expected no cost without reads");
+        Assert.assertEquals(estimator.estimateCost(Arrays.asList(loc(20001, 30000), loc(DENSE_START, DENSE_START + 9999))),
+                estimator.estimateCost(loc(20001, 30000)) + estimator.estimateCost(loc(DENSE_START, DENSE_START + 9999)));
+    }
+
+    @Test
+    public void testWindowVolumesOfChunksWithDecreasingInBlockOffsets() {
+        // ends early in the block after the one it starts in, so GATKChunk estimates its size as negative
+        final GATKChunk crossingChunk = new GATKChunk(0, 60000, 1, 10);
+        final GATKChunk chunk = new GATKChunk(10, 0, 10, 100);
+        Assert.assertTrue(crossingChunk.size() < 0);
+
+        // the first window spans the crossing chunk according to the linear index, and the bin of the last window
+        // holds both chunks
+        final LinearIndex linearIndex = new LinearIndex(0, 0, new long[]{crossingChunk.getChunkStart(), crossingChunk.getChunkEnd()});
+        final GATKBin lastWindowBin = new GATKBin(0, ReadVolumeEstimator.FIRST_WINDOW_BIN + 1);
+        lastWindowBin.setChunkList(new GATKChunk[]{crossingChunk, chunk});
+        final List<GATKBin> bins = new ArrayList<GATKBin>(Collections.<GATKBin>nCopies(ReadVolumeEstimator.FIRST_WINDOW_BIN + 2, null));
+        bins.set(ReadVolumeEstimator.FIRST_WINDOW_BIN + 1, lastWindowBin);
+
+        final long[] volumes = ReadVolumeEstimator.getWindowVolumes(new GATKBAMIndexData(null, 0, bins, linearIndex), 2);
+        Assert.assertEquals(volumes, new long[]{0, chunk.size()});
+    }
+
+    @DataProvider(name = "SplitByCostData")
+    public Object[][] makeSplitByCostData() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+        for ( final int numParts : Arrays.asList(1, 2, 3, 7, 16) ) {
+            tests.add(new Object[]{Arrays.asList(loc(1, N_LOCI)), numParts});
+            tests.add(new Object[]{Arrays.asList(loc(1, 50000), loc(90001, 110000), loc(150001, N_LOCI)), numParts});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "SplitByCostData")
+    public void testSplitByCost(final List<GenomeLoc> locs, final int numParts) {
+        final List<List<GenomeLoc>> parts = estimator.splitByCost(locs, numParts);
+        Assert.assertEquals(parts.size(), numParts);
+
+        final long totalCost = estimator.estimateCost(locs);
+        final List<GenomeLoc> covered = new ArrayList<GenomeLoc>();
+        for ( final List<GenomeLoc> part : parts ) {
+            Assert.assertFalse(part.isEmpty(), "Every part should have loci");
+            final long partCost = estimator.estimateCost(part);
+            Assert.assertTrue(Math.abs(partCost - totalCost / numParts) <= totalCost / numParts / 20 + 1000,
+                    "Part " + part + " cost " + partCost + " should be about " + totalCost / numParts);
+            covered.addAll(part);
+        }
+
+        // the parts cover exactly the loci of locs, in order
+        for ( int i = 1; i < covered.size(); i++ )
+            Assert.assertTrue(covered.get(i).isPast(covered.get(i - 1)), "Parts should be in order");
+        Assert.assertEquals(IntervalUtils.sortAndMergeIntervals(genomeLocParser, covered, IntervalMergingRule.ALL).toList(), locs);
+    }
+
+    @Test
+    public void testSplitByCostWithoutReads() {
+        final List<List<GenomeLoc>> parts = estimator.splitByCost(Arrays.asList(loc(N_LOCI + 1001, N_LOCI + 1100)), 4);
+        Assert.assertEquals(parts.size(), 4);
+        for ( int i = 0; i < parts.size(); i++ )
+            Assert.assertEquals(parts.get(i), Arrays.asList(loc(N_LOCI + 1001 + 25 * i, N_LOCI + 1025 + 25 * i)));
+    }
+
+    @Test(expectedExceptions = UserException.BadArgumentValue.class)
+    public void testSplitByCostIntoTooManyParts() {
+        estimator.splitByCost(Arrays.asList(loc(1, 3)), 4);
+    }
+
+    @Test
+    public void testReadVolumeShardBalancer() {
+        final GenomeLocSortedSet intervals = new GenomeLocSortedSet(genomeLocParser, loc(1, N_LOCI));
+        final long targetCost = estimator.estimateCost(intervals) / 16;
+
+        long denseTerritory = 0, sparseTerritory = 0, denseShards = 0, sparseShards = 0;
+        GenomeLoc previous = null;
+        for ( final Shard shard : dataSource.createShardIteratorOverIntervals(intervals, new ReadVolumeShardBalancer(estimator, targetCost)) ) {
+            Assert.assertTrue(estimator.estimateCost(shard.getGenomeLocs()) <= 2 * targetCost, "Shard " + shard.getGenomeLocs() + " is too expensive");
+            for ( final GenomeLoc loc : shard.getGenomeLocs() ) {
+                if ( previous != null )
+                    Assert.assertEquals(loc.getStart(), previous.getStop() + 1, "Shards should be contiguous and in order");
+                previous = loc;
+            }
+
+            final GenomeLoc span = shard.getLocation();
+            if ( span.getStart() >= DENSE_START && span.getStop() < DENSE_START + DENSE_LOCI ) {
+                denseTerritory += span.size();
+                denseShards++;
+            } else if ( span.getStop() < DENSE_START || span.getStart() >= DENSE_START + DENSE_LOCI ) {
+                sparseTerritory += span.size();
+                sparseShards++;
+            }
+        }
+
+        Assert.assertEquals(previous.getStop(), N_LOCI);
+        Assert.assertTrue(denseShards > 0 && sparseShards > 0);
+        Assert.assertTrue(denseTerritory / denseShards < sparseTerritory / sparseShards, "Shards over dense regions should be smaller");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.executive;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class ShardCostHistogramUnitTest extends BaseTest {
+    @DataProvider(name = "BucketData")
+    public Object[][] makeBucketData() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+        tests.add(new Object[]{0L, 0});
+        tests.add(new Object[]{1L, 1});
+        tests.add(new Object[]{2L, 2});
+        tests.add(new Object[]{3L, 2});
+        tests.add(new Object[]{4L, 3});
+        tests.add(new Object[]{1023L, 10});
+        tests.add(new Object[]{1024L, 11});
+        tests.add(new Object[]{Long.MAX_VALUE, ShardCostHistogram.NUM_BUCKETS - 1});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "BucketData")
+    public void testBucket(final long cost, final int expectedBucket) {
+        Assert.assertEquals(ShardCostHistogram.getBucket(cost), expectedBucket);
+
+        final ShardCostHistogram histogram = new ShardCostHistogram();
+        histogram.add(cost);
+        histogram.add(cost);
+        final long[] counts = histogram.getCounts();
+        Assert.assertEquals(counts.length, ShardCostHistogram.NUM_BUCKETS);
+        for ( int i = 0; i < counts.length; i++ )
+            Assert.assertEquals(counts[i], i == expectedBucket ? 2 : 0, "Wrong count in bucket " + i);
+        Assert.assertEquals(histogram.getTotalCount(), 2);
+    }
+
+    @Test
+    public void testCountsAreACopy() {
+        final ShardCostHistogram histogram = new ShardCostHistogram();
+        histogram.add(10);
+        histogram.getCounts()[ShardCostHistogram.getBucket(10)] = 100;
+        Assert.assertEquals(histogram.getCounts()[ShardCostHistogram.getBucket(10)], 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeCost() {
+        new ShardCostHistogram().add(-1);
+    }
+}
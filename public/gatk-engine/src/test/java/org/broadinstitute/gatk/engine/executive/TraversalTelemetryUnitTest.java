@@ -0,0 +1,77 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.executive;
+
+import org.broadinstitute.gatk.engine.traversals.TraversalEngine;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class TraversalTelemetryUnitTest extends BaseTest {
+    private final static Pattern JSON_LINE = Pattern.compile("\\{(\"\\w+\":(-?[0-9.]+|\"[^\"]*\"),)*\"\\w+\":(-?[0-9.]+|\"[^\"]*\")\\}");
+
+    @Test
+    public void testTelemetry() throws IOException {
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000).getSequenceDictionary());
+        final String contig = genomeLocParser.getContigs().getSequence(0).getSequenceName();
+        final ProgressMeter meter = new ProgressMeter(null, "sites", new GenomeLocSortedSet(genomeLocParser, genomeLocParser.createGenomeLoc(contig, 1, 1000000)));
+
+        final File log = createTempFile("telemetry", ".json");
+        final TraversalTelemetry telemetry = new TraversalTelemetry(meter, Collections.<TraversalEngine>emptyList(), null, log, TraversalTelemetry.DEFAULT_SAMPLING_PERIOD_MILLISECONDS);
+
+        meter.notifyOfProgress(genomeLocParser.createGenomeLoc(contig, 1001), 100);
+        telemetry.sample();
+        Assert.assertEquals(telemetry.getRecordsProcessed(), 100);
+        Assert.assertEquals(telemetry.getLociProcessed(), 1000);
+        Assert.assertTrue(telemetry.getRecordsPerSecond() > 0, "Expected a positive rate after progress");
+        Assert.assertEquals(telemetry.getActiveRegionsProcessed(), 0);
+        Assert.assertEquals(telemetry.getBGZFDecompressedMB(), -1.0, "Without reads there is no block loader to measure");
+        Assert.assertTrue(telemetry.getGCTimeMillis() >= 0);
+
+        telemetry.sample();
+        Assert.assertEquals(telemetry.getRecordsPerSecond(), 0.0, "Expected no rate without progress");
+
+        telemetry.done();
+        final List<String> lines = Files.readAllLines(log.toPath());
+        Assert.assertEquals(lines.size(), 3, "Expected a line for each sample, and one when done");
+        for ( final String line : lines )
+            Assert.assertTrue(JSON_LINE.matcher(line).matches(), "Not a flat line of JSON: " + line);
+        Assert.assertTrue(lines.get(0).contains("\"units\":\"sites\""));
+        Assert.assertTrue(lines.get(0).contains("\"records\":100,"));
+        Assert.assertTrue(lines.get(0).contains("\"loci\":1000,"));
+    }
+}
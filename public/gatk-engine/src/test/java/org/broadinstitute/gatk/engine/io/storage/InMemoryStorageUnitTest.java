@@ -0,0 +1,155 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.io.storage;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.ProgressLoggerInterface;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import org.broadinstitute.gatk.engine.io.stubs.SAMFileWriterStub;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class InMemoryStorageUnitTest extends BaseTest {
+    @DataProvider(name = "ChunkedOutputBufferTestData")
+    public Object[][] makeChunkedOutputBufferTestData() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int chunkSize : Arrays.asList(1, 7, 64, ChunkedOutputBuffer.DEFAULT_CHUNK_SIZE) ) {
+            for ( final int nBytes : Arrays.asList(0, 1, 63, 64, 65, 1000) ) {
+                for ( final int writeSize : Arrays.asList(1, 3, 100) ) {
+                    tests.add(new Object[]{chunkSize, nBytes, writeSize});
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "ChunkedOutputBufferTestData")
+    public void testChunkedOutputBuffer(final int chunkSize, final int nBytes, final int writeSize) throws IOException {
+        final byte[] data = new byte[nBytes];
+        for ( int i = 0; i < nBytes; i++ ) data[i] = (byte)(i * 31);
+
+        final ChunkedOutputBuffer buffer = new ChunkedOutputBuffer(chunkSize);
+        for ( int start = 0; start < nBytes; start += writeSize ) {
+            if ( writeSize == 1 )
+                buffer.write(data[start]);
+            else
+                buffer.write(data, start, Math.min(writeSize, nBytes - start));
+        }
+        Assert.assertEquals(buffer.size(), nBytes);
+
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        buffer.writeTo(written);
+        Assert.assertEquals(written.toByteArray(), data);
+
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        final InputStream in = buffer.getInputStream();
+        for ( int b = in.read(); b != -1; b = in.read() )
+            read.write(b);
+        Assert.assertEquals(read.toByteArray(), data);
+
+        buffer.clear();
+        Assert.assertEquals(buffer.size(), 0);
+    }
+
+    @Test
+    public void testInMemoryOutputStreamStorage() throws IOException {
+        final InMemoryOutputStreamStorage storage = new InMemoryOutputStreamStorage();
+        storage.write("first line\n".getBytes());
+        storage.write('x');
+        storage.write("-- second line\n".getBytes(), 2, 13);
+        storage.close();
+
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        target.write("header\n".getBytes());
+        storage.mergeInto(target);
+        Assert.assertEquals(target.toString(), "header\nfirst line\nx second line\n");
+    }
+
+    @Test
+    public void testInMemorySAMFileWriterStorage() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2, 0, 10000);
+        final SAMFileWriterStub stub = new SAMFileWriterStub(null, (OutputStream)new ByteArrayOutputStream());
+        stub.writeHeader(header);
+
+        final InMemorySAMFileWriterStorage storage = new InMemorySAMFileWriterStorage(stub);
+        Assert.assertSame(storage.getFileHeader(), header);
+
+        final List<SAMRecord> reads = new ArrayList<SAMRecord>();
+        for ( int i = 0; i < 100; i++ ) {
+            final SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, i % 2, 1 + i * 10, 50);
+            reads.add(read);
+            storage.addAlignment(read);
+        }
+
+        // changing a read after writing it must not change the output
+        final String firstReadAsWritten = reads.get(0).getSAMString();
+        reads.get(0).setReadName("renamed");
+        storage.close();
+
+        final List<SAMRecord> merged = new ArrayList<SAMRecord>();
+        storage.mergeInto(new SAMFileWriter() {
+            @Override public void addAlignment(final SAMRecord read) { merged.add(read); }
+            @Override public SAMFileHeader getFileHeader() { return header; }
+            @Override public void setProgressLogger(final ProgressLoggerInterface logger) { }
+            @Override public void close() { }
+        });
+
+        Assert.assertEquals(merged.size(), reads.size());
+        Assert.assertEquals(merged.get(0).getSAMString(), firstReadAsWritten);
+        for ( int i = 1; i < reads.size(); i++ )
+            Assert.assertEquals(merged.get(i).getSAMString(), reads.get(i).getSAMString());
+    }
+
+    @Test(expectedExceptions = ReviewedGATKException.class)
+    public void testInMemoryVariantContextWriterStorageRejectsWritesAfterClose() {
+        final InMemoryVariantContextWriterStorage storage = new InMemoryVariantContextWriterStorage();
+        storage.close();
+        storage.add(new VariantContextBuilder("test", "1", 10, 10, Arrays.asList(Allele.create("A", true))).make());
+    }
+
+    @Test(expectedExceptions = ReviewedGATKException.class)
+    public void testInMemoryVariantContextWriterStorageRequiresCloseBeforeMerge() {
+        final InMemoryVariantContextWriterStorage storage = new InMemoryVariantContextWriterStorage();
+        storage.mergeInto(null);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.iterators;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
+import org.broadinstitute.gatk.engine.walkers.TestCountReadsWalker;
+import org.broadinstitute.gatk.engine.walkers.Walker;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.iterators.GATKSAMIteratorAdapter;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ParallelReadTransformingIteratorUnitTest extends BaseTest {
+    private static final String TAG = "XT";
+
+    /**
+     * Appends its name to the XT tag of each read, so we can tell which transformers ran and in which order
+     */
+    public static class TaggingReadTransformer extends ReadTransformer {
+        private final String name;
+
+        protected TaggingReadTransformer(final String name) {
+            this.name = name;
+        }
+
+        // need this because PackageUtils will pick up this class as a possible ReadTransformer
+        protected TaggingReadTransformer() {
+            this.name = null;
+        }
+
+        @Override
+        public ApplicationTime initializeSub(final GenomeAnalysisEngine engine, final Walker walker) { return ApplicationTime.ON_INPUT; }
+
+        @Override
+        public boolean enabled() { return name != null; }
+
+        @Override
+        public GATKSAMRecord apply(final GATKSAMRecord read) {
+            final Object previous = read.getAttribute(TAG);
+            read.setAttribute(TAG, previous == null ? name : previous + name);
+            return read;
+        }
+    }
+
+    public static class FailingReadTransformer extends TaggingReadTransformer {
+        protected FailingReadTransformer(final String name) {
+            super(name);
+        }
+
+        // need this because PackageUtils will pick up this class as a possible ReadTransformer
+        protected FailingReadTransformer() {
+            super();
+        }
+
+        @Override
+        public GATKSAMRecord apply(final GATKSAMRecord read) {
+            throw new IllegalStateException("failing transformer");
+        }
+    }
+
+    private static ReadTransformer makeTransformer(final String name) {
+        return initialize(new TaggingReadTransformer(name));
+    }
+
+    private static ReadTransformer initialize(final ReadTransformer transformer) {
+        transformer.initialize(null, new GenomeAnalysisEngine(), new TestCountReadsWalker());
+        return transformer;
+    }
+
+    private static List<SAMRecord> makeReads(final int nReads) {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000);
+        final List<SAMRecord> reads = new ArrayList<SAMRecord>(nReads);
+        for ( int i = 0; i < nReads; i++ )
+            reads.add(ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, i + 1, 10));
+        return reads;
+    }
+
+    @DataProvider(name = "ParallelReadTransformingData")
+    public Object[][] makeParallelReadTransformingData() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int nReads : Arrays.asList(0, 1, 10, 1000) )
+            for ( final int batchSize : Arrays.asList(1, 7, 256) )
+                for ( final int nThreads : Arrays.asList(1, 4) )
+                    for ( final int maxBatchesInFlight : Arrays.asList(1, 8) )
+                        tests.add(new Object[]{nReads, batchSize, nThreads, maxBatchesInFlight});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "ParallelReadTransformingData")
+    public void testOrderIsPreserved(final int nReads, final int batchSize, final int nThreads, final int maxBatchesInFlight) {
+        final List<SAMRecord> reads = makeReads(nReads);
+        final List<ReadTransformer> transformers = Arrays.asList(makeTransformer("A"), makeTransformer("B"), makeTransformer("C"));
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+
+        try {
+            final ParallelReadTransformingIterator iterator = new ParallelReadTransformingIterator(
+                    GATKSAMIteratorAdapter.adapt(reads.iterator()), transformers, executor, batchSize, maxBatchesInFlight);
+
+            final List<SAMRecord> seen = new ArrayList<SAMRecord>();
+            while ( iterator.hasNext() )
+                seen.add(iterator.next());
+            iterator.close();
+
+            Assert.assertEquals(seen.size(), nReads, "Wrong number of reads");
+            for ( int i = 0; i < nReads; i++ ) {
+                Assert.assertSame(seen.get(i), reads.get(i), "Read out of order at position " + i);
+                Assert.assertEquals(seen.get(i).getAttribute(TAG), "ABC", "Transformers not applied exactly once, in order");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = NoSuchElementException.class)
+    public void testNextWhenExhausted() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final ParallelReadTransformingIterator iterator = new ParallelReadTransformingIterator(
+                    GATKSAMIteratorAdapter.adapt(makeReads(0).iterator()), Arrays.asList(makeTransformer("A")), executor, 10, 2);
+            iterator.next();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testFailsWithUninitializedTransformer() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new ParallelReadTransformingIterator(GATKSAMIteratorAdapter.adapt(makeReads(1).iterator()),
+                    Arrays.<ReadTransformer>asList(new TaggingReadTransformer("A")), executor, 10, 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testTransformerExceptionsArePropagated() {
+        final ReadTransformer failing = initialize(new FailingReadTransformer("F"));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final ParallelReadTransformingIterator iterator = new ParallelReadTransformingIterator(
+                    GATKSAMIteratorAdapter.adapt(makeReads(100).iterator()), Arrays.asList(failing), executor, 10, 2);
+            while ( iterator.hasNext() )
+                iterator.next();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import org.broadinstitute.gatk.engine.recalibration.covariates.*;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+import org.broadinstitute.gatk.utils.recalibration.EventType;
+import org.broadinstitute.gatk.utils.report.GATKReport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class BQSRGathererUnitTest extends BaseTest {
+    private static final String[] CONTEXTS = {"AA", "AC", "CG", "GT", "TT"};
+
+    /**
+     * Write a recalibration report with random counts for some of the given read groups
+     */
+    private File createRandomReport(final Random random, final List<String> readGroups) throws IOException {
+        final RecalibrationArgumentCollection RAC = new RecalibrationArgumentCollection();
+        final Covariate[] covariates = {new ReadGroupCovariate(), new QualityScoreCovariate(), new ContextCovariate(), new CycleCovariate()};
+        for ( final Covariate covariate : covariates )
+            covariate.initialize(RAC);
+        for ( final String readGroup : readGroups )
+            covariates[0].keyFromValue(readGroup);
+
+        final RecalibrationTables tables = new RecalibrationTables(covariates, readGroups.size());
+        for ( int i = 0; i < 200; i++ ) {
+            final int rg = covariates[0].keyFromValue(readGroups.get(random.nextInt(readGroups.size())));
+            final int qual = 10 + random.nextInt(30);
+            final int event = random.nextInt(EventType.values().length);
+            final int context = covariates[2].keyFromValue(CONTEXTS[random.nextInt(CONTEXTS.length)]);
+            final int cycle = covariates[3].keyFromValue(random.nextInt(100) - 50);
+
+            increment(tables.getReadGroupTable(), random, qual, rg, event);
+            increment(tables.getQualityScoreTable(), random, qual, rg, qual, event);
+            increment(tables.getTable(RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal()), random, qual, rg, qual, context, event);
+            increment(tables.getTable(RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal() + 1), random, qual, rg, qual, cycle, event);
+        }
+
+        final File file = createTempFile("BQSRGatherer-UnitTest", ".grp");
+        final PrintStream out = new PrintStream(file);
+        RecalUtils.createRecalibrationGATKReport(RAC.generateReportTable(RecalUtils.covariateNames(covariates)),
+                new QuantizationInfo(tables, RAC.QUANTIZING_LEVELS), tables, covariates, true).print(out);
+        out.close();
+        return file;
+    }
+
+    private static void increment(final NestedIntegerArray<RecalDatum> table, final Random random, final int qual, final int... keys) {
+        final long observations = 1 + random.nextInt(100000);
+        final double errors = observations * random.nextDouble() * 0.05;
+        final RecalDatum datum = table.get(keys);
+        if ( datum == null )
+            table.put(new RecalDatum(observations, errors, (byte) qual), keys);
+        else
+            datum.increment(observations, errors);
+    }
+
+    private static String print(final GATKReport report) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(bytes);
+        report.print(out);
+        out.close();
+        return bytes.toString();
+    }
+
+    @Test
+    public void testParallelGatherMatchesSequential() throws IOException {
+        final Random random = new Random(11L);
+        final List<String> allReadGroups = Arrays.asList("rg1", "rg2", "rg3");
+        final List<File> inputs = new ArrayList<File>();
+        for ( int i = 0; i < 10; i++ ) {
+            // some of the inputs are missing read groups
+            final List<String> readGroups = new ArrayList<String>(allReadGroups);
+            Collections.shuffle(readGroups, random);
+            inputs.add(createRandomReport(random, readGroups.subList(0, 1 + random.nextInt(readGroups.size()))));
+        }
+
+        final String sequential = print(BQSRGatherer.gatherReport(inputs, 1));
+        for ( final int numThreads : new int[]{2, 3, 16} )
+            Assert.assertEquals(print(BQSRGatherer.gatherReport(inputs, numThreads)), sequential, "gather with " + numThreads + " threads");
+
+        final File gathered = writeToFile(sequential);
+        Assert.assertEquals(RecalibrationReport.getReadGroups(gathered), new TreeSet<String>(allReadGroups));
+        Assert.assertFalse(new RecalibrationReport(gathered).isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBadNumThreads() {
+        BQSRGatherer.gatherReport(Collections.<File>emptyList(), 0);
+    }
+
+    private File writeToFile(final String contents) throws IOException {
+        final File file = createTempFile("BQSRGatherer-UnitTest", ".grp");
+        final PrintStream out = new PrintStream(file);
+        out.print(contents);
+        out.close();
+        return file;
+    }
+}
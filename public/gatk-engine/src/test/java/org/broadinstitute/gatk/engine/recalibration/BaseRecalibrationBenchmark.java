@@ -0,0 +1,102 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.recalibration.EventType;
+import org.broadinstitute.gatk.utils.sam.GATKSAMReadGroupRecord;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.sam.ReadUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caliper microbenchmark of on-the-fly recalibration of reads, including computing their covariates
+ */
+public class BaseRecalibrationBenchmark extends SimpleBenchmark {
+    @Param({"76", "150", "250"})
+    int readLength; // set automatically by framework
+
+    @Param({"false", "true"})
+    boolean disableIndelQuals; // set automatically by framework
+
+    private BaseRecalibration baseRecalibration;
+    private Covariate[] covariates;
+    private List<GATKSAMRecord> reads;
+    private List<byte[]> originalQuals;
+
+    @Override protected void setUp() {
+        final File recalFile = new File(BaseTest.publicTestDir + "exampleGRP.grp");
+        baseRecalibration = new BaseRecalibration(recalFile, -1, disableIndelQuals, 6, false, -1.0, null, false);
+        covariates = new RecalibrationReport(recalFile).getRequestedCovariates();
+
+        // the read group of exampleGRP.grp, so that the read group table lookups succeed
+        final GATKSAMReadGroupRecord readGroup = new GATKSAMReadGroupRecord("exampleBAM.bam");
+        readGroup.setPlatform("illumina");
+
+        final int nReads = 1000;
+        reads = new ArrayList<GATKSAMRecord>(nReads);
+        originalQuals = new ArrayList<byte[]>(nReads);
+        for ( int i = 0; i < nReads; i++ ) {
+            final GATKSAMRecord read = ReadUtils.createRandomRead(readLength, true);
+            read.setReadGroup(readGroup);
+            read.setReadNegativeStrandFlag(Utils.getRandomGenerator().nextBoolean());
+            reads.add(read);
+            originalQuals.add(read.getBaseQualities().clone());
+        }
+    }
+
+    public void timeRecalibrateRead(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            for ( int j = 0; j < reads.size(); j++ ) {
+                final GATKSAMRecord read = reads.get(j);
+                // recalibration overwrites the qualities in place, so start from the originals each time
+                read.setBaseQualities(originalQuals.get(j).clone());
+                baseRecalibration.recalibrateRead(read);
+            }
+        }
+    }
+
+    public void timeComputeCovariates(int rep) {
+        int sum = 0;
+        for ( int i = 0; i < rep; i++ ) {
+            for ( final GATKSAMRecord read : reads ) {
+                final ReadCovariates readCovariates = RecalUtils.computeCovariates(read, covariates);
+                sum += readCovariates.getKey(0, EventType.BASE_SUBSTITUTION, 0);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(BaseRecalibrationBenchmark.class, args);
+    }
+}
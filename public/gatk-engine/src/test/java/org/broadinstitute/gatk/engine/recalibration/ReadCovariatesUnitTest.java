@@ -35,6 +35,7 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -119,4 +120,48 @@ public class ReadCovariatesUnitTest {
 
     }
 
+    @Test
+    public void testFlatKeysMatchKeySets() {
+        final RecalibrationArgumentCollection RAC = new RecalibrationArgumentCollection();
+        final Covariate[] requestedCovariates = new Covariate[]{ new QualityScoreCovariate(), new ContextCovariate(), new CycleCovariate() };
+        for ( final Covariate covariate : requestedCovariates )
+            covariate.initialize(RAC);
+
+        final GATKSAMReadGroupRecord rg = new GATKSAMReadGroupRecord("id");
+        rg.setPlatform("illumina");
+
+        // alternate long and short reads, so the shared keys buffer is reused for reads of different lengths
+        int[] previousKeys = null;
+        int longestLength = 0;
+        for ( final int length : Arrays.asList(150, 10, 76, 250, 1, 100) ) {
+            final GATKSAMRecord read = ReadUtils.createRandomRead(length, true);
+            read.setReadGroup(rg);
+            final ReadCovariates rc = RecalUtils.computeCovariates(read, requestedCovariates);
+            if ( length <= longestLength )
+                Assert.assertSame(rc.getKeys(), previousKeys, "A read no longer than one already seen should reuse the thread's keys buffer");
+            previousKeys = rc.getKeys();
+            longestLength = Math.max(longestLength, length);
+            Assert.assertEquals(rc.getReadLength(), length);
+            Assert.assertEquals(rc.getNumberOfCovariates(), requestedCovariates.length);
+
+            final byte[] quals = read.getBaseQualities();
+            for ( final EventType eventType : EventType.values() ) {
+                for ( int i = 0; i < length; i++ ) {
+                    final int[] keySet = rc.getKeySet(i, eventType);
+                    Assert.assertEquals(keySet.length, requestedCovariates.length);
+                    Assert.assertEquals(rc.getKeySet(eventType)[i], keySet);
+                    for ( int j = 0; j < requestedCovariates.length; j++ ) {
+                        Assert.assertEquals(rc.getKey(i, eventType, j), keySet[j]);
+                        Assert.assertEquals(rc.getKeys()[rc.getKeyOffset(i, eventType) + j], keySet[j]);
+                    }
+
+                    // indel cycles are masked out near the ends of the read, so only check substitutions
+                    if ( eventType == EventType.BASE_SUBSTITUTION ) {
+                        Assert.assertEquals(keySet[0], quals[i]);
+                        Assert.assertEquals(requestedCovariates[2].formatKey(keySet[2]), "" + (i + 1));
+                    }
+                }
+            }
+        }
+    }
 }
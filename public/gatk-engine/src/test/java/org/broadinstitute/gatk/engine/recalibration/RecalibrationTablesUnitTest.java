@@ -33,8 +33,15 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public final class RecalibrationTablesUnitTest extends BaseTest {
     private RecalibrationTables tables;
@@ -174,4 +181,110 @@ public final class RecalibrationTablesUnitTest extends BaseTest {
             }
         }
     }
+
+    private void fillFlatTable(final RecalibrationTables tables) {
+        for ( int iterations = 0; iterations < 10; iterations++ ) {
+            for ( final EventType et : EventType.values() ) {
+                for ( final int rg : combineStates) {
+                    final double error = rg % 2 == 0 ? 1 : 0;
+                    tables.getFlatTable(0).increment(qualByte, error, rg, et.ordinal());
+                    for ( final int qual : combineStates) {
+                        tables.getFlatTable(1).increment(qualByte, error, rg, qual, et.ordinal());
+                        for ( final int cycle : combineStates)
+                            tables.getFlatTable(2).increment(qualByte, error, rg, qual, cycle, et.ordinal());
+                        for ( final int context : combineStates)
+                            tables.getFlatTable(3).increment(qualByte, error, rg, qual, context, et.ordinal());
+                    }
+                }
+            }
+        }
+    }
+
+    private void assertTablesEqual(final RecalibrationTables actual, final RecalibrationTables expected) {
+        Assert.assertEquals(actual.numTables(), expected.numTables());
+        for ( int i = 0; i < expected.numTables(); i++ ) {
+            final NestedIntegerArray<RecalDatum> expectedTable = expected.getTable(i);
+            final NestedIntegerArray<RecalDatum> actualTable = actual.getTable(i);
+
+            Assert.assertEquals(actualTable.getAllLeaves().size(), expectedTable.getAllLeaves().size());
+            for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : expectedTable.getAllLeaves() ) {
+                final RecalDatum actualValue = actualTable.get(leaf.keys);
+                Assert.assertNotNull(actualValue);
+                Assert.assertEquals(actualValue.getNumObservations(), leaf.value.getNumObservations());
+                Assert.assertEquals(actualValue.getNumMismatches(), leaf.value.getNumMismatches());
+                Assert.assertEquals(actualValue.getEstimatedQReported(), leaf.value.getEstimatedQReported());
+                Assert.assertEquals(actualValue.stringForCSV(), leaf.value.stringForCSV());
+            }
+        }
+    }
+
+    @Test
+    public void testFlatTablesMatchNestedTables() {
+        final RecalibrationTables flat = new RecalibrationTables(covariates, numReadGroups, null, true);
+        Assert.assertTrue(flat.isUsingFlatTables());
+        Assert.assertTrue(flat.isEmpty());
+
+        fillFlatTable(flat);
+        Assert.assertFalse(flat.isEmpty());
+        Assert.assertEquals(flat.getTable(3).getAllLeaves().size(), 0, "Flat counts should not be in the regular tables before flushing");
+
+        flat.flushFlatTables();
+        assertTablesEqual(flat, tables);
+        Assert.assertTrue(flat.getFlatTable(3).isEmpty());
+
+        // flushing again doesn't count anything twice
+        flat.flushFlatTables();
+        assertTablesEqual(flat, tables);
+    }
+
+    @Test
+    public void testCombineFlatTables() {
+        final RecalibrationTables flat1 = new RecalibrationTables(covariates, numReadGroups, null, true);
+        final RecalibrationTables flat2 = new RecalibrationTables(covariates, numReadGroups, null, true);
+        fillFlatTable(flat1);
+        fillFlatTable(flat2);
+        flat1.combine(flat2);
+        flat1.flushFlatTables();
+
+        final RecalibrationTables expected = new RecalibrationTables(covariates, numReadGroups);
+        fillTable(expected);
+        fillTable(expected);
+        assertTablesEqual(flat1, expected);
+    }
+
+    @Test
+    public void testFlatTablesMultiThreaded() throws InterruptedException, ExecutionException {
+        final int nThreads = 4;
+        final int nIncrementsPerThread = 100000;
+        final FlatRecalibrationTable table = new FlatRecalibrationTable(numReadGroups, 50, EventType.values().length);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nThreads);
+        for ( int t = 0; t < nThreads; t++ ) {
+            final int seed = t;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final Random random = new Random(seed);
+                    for ( int i = 0; i < nIncrementsPerThread; i++ ) {
+                        // only two cells, so every thread is fighting over them
+                        final int rg = random.nextInt(2);
+                        table.increment(qualByte, rg == 0 ? 0.5 : 0.0, rg, 10, 0);
+                    }
+                    return null;
+                }
+            });
+        }
+        for ( final Future<Void> result : executor.invokeAll(tasks) )
+            result.get();
+        executor.shutdownNow();
+
+        final long totalObservations = table.getNumObservations(0, 10, 0) + table.getNumObservations(1, 10, 0);
+        Assert.assertEquals(totalObservations, (long)nThreads * nIncrementsPerThread);
+        Assert.assertEquals(table.getNumMismatches(0, 10, 0), table.getNumObservations(0, 10, 0) * 0.5);
+        Assert.assertEquals(table.getNumMismatches(1, 10, 0), 0.0);
+        Assert.assertEquals(table.get(0, 10, 0).getEstimatedQReported(), (double)qualByte);
+        Assert.assertNull(table.get(2, 10, 0));
+        Assert.assertEquals(table.getNumAllocatedPages(), 1);
+    }
 }
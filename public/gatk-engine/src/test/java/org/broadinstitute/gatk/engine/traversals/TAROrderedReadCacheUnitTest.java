@@ -30,6 +30,7 @@ import org.broadinstitute.gatk.utils.BaseTest;
 import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
 import org.broadinstitute.gatk.utils.sam.ArtificialBAMBuilder;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.sam.ReadUtils;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
@@ -39,6 +40,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
 public class TAROrderedReadCacheUnitTest extends BaseTest {
@@ -101,6 +103,188 @@ public class TAROrderedReadCacheUnitTest extends BaseTest {
         verifySortednessOfReads(cacheReads);
     }
 
+    @DataProvider(name = "ReadCacheMemoryBudgetTestData")
+    public Object[][] makeReadCacheMemoryBudgetTestData() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int nReadsPerLocus : Arrays.asList(1, 10) ) {
+            for ( final int nLoci : Arrays.asList(10, 100) ) {
+                for ( final int budgetInReads : Arrays.asList(1, 7, 50, 10000) ) {
+                    for ( final boolean spill : Arrays.asList(true, false) ) {
+                        tests.add(new Object[]{nReadsPerLocus, nLoci, budgetInReads, spill});
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "ReadCacheMemoryBudgetTestData")
+    public void testReadCacheMemoryBudget(final int nReadsPerLocus, final int nLoci, final int budgetInReads, final boolean spill) {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(seq, nReadsPerLocus, nLoci);
+        final List<GATKSAMRecord> reads = bamBuilder.makeReads();
+        long maxBytesPerRead = 0;
+        for ( final GATKSAMRecord read : reads )
+            maxBytesPerRead = Math.max(maxBytesPerRead, ReadUtils.estimateHeapSize(read));
+        final long budget = budgetInReads * ReadUtils.estimateHeapSize(reads.get(0));
+
+        final TAROrderedReadCache cache = new TAROrderedReadCache(Integer.MAX_VALUE, budget, spill ? new File(System.getProperty("java.io.tmpdir")) : null);
+        Assert.assertEquals(cache.getMaxBytesInMemory(), budget);
+        Assert.assertEquals(cache.isSpillingToDisk(), spill);
+
+        cache.addAll(reads);
+        Assert.assertTrue(cache.getPeakBytesInMemory() <= budget + maxBytesPerRead, "peak bytes in memory can exceed the budget by at most one read");
+        Assert.assertTrue(cache.getBytesInMemory() <= budget, "too many bytes in memory");
+
+        // replay the budget by hand: reads names differ in length, so reads differ slightly in size
+        int nSpills = 0, nSpilledReads = 0, nFitting = reads.size(), nInMemory = 0;
+        long bytes = 0;
+        for ( int i = 0; i < reads.size(); i++ ) {
+            bytes += ReadUtils.estimateHeapSize(reads.get(i));
+            nInMemory++;
+            if ( bytes > budget ) {
+                if ( nFitting == reads.size() ) nFitting = Math.max(i, 1);
+                nSpills++;
+                nSpilledReads += nInMemory;
+                bytes = 0;
+                nInMemory = 0;
+            }
+        }
+
+        final int nExpectedToKeep = spill ? reads.size() : nFitting;
+        Assert.assertEquals(cache.size(), nExpectedToKeep, "wrong number of reads kept");
+        Assert.assertEquals(cache.getNumDiscarded(), reads.size() - nExpectedToKeep, "wrong number of reads discarded");
+        Assert.assertEquals(cache.getNumSpills(), spill ? nSpills : 0, "wrong number of spills");
+        Assert.assertEquals(cache.getNumSpilledReads(), spill ? nSpilledReads : 0, "wrong number of spilled reads");
+
+        final List<GATKSAMRecord> cacheReads = cache.popCurrentReads();
+        Assert.assertEquals(cache.size(), 0, "Should be no reads left");
+        Assert.assertEquals(cache.getBytesInMemory(), 0, "Should be no bytes left");
+        Assert.assertEquals(cacheReads.size(), nExpectedToKeep);
+        verifySortednessOfReads(cacheReads);
+
+        if ( spill ) {
+            // every read must come back from disk intact and in its original order
+            for ( int i = 0; i < reads.size(); i++ ) {
+                Assert.assertEquals(cacheReads.get(i).getReadName(), reads.get(i).getReadName());
+                Assert.assertEquals(cacheReads.get(i).getAlignmentStart(), reads.get(i).getAlignmentStart());
+                Assert.assertEquals(cacheReads.get(i).getCigarString(), reads.get(i).getCigarString());
+                Assert.assertEquals(cacheReads.get(i).getReadBases(), reads.get(i).getReadBases());
+                Assert.assertEquals(cacheReads.get(i).getBaseQualities(), reads.get(i).getBaseQualities());
+            }
+
+            // the cache is reusable after the spilled reads have been popped
+            cache.addAll(reads);
+            Assert.assertEquals(cache.popCurrentReads().size(), reads.size());
+        }
+
+        cache.close();
+    }
+
+    @DataProvider(name = "BoundedPopTestData")
+    public Object[][] makeBoundedPopTestData() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int budgetInReads : Arrays.asList(1, 7, 50, 10000) ) {
+            for ( final int popEveryNLoci : Arrays.asList(1, 5, 20) ) {
+                tests.add(new Object[]{budgetInReads, popEveryNLoci});
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Replays how TraverseActiveRegions uses a spilling cache: add reads locus by locus, and every so often pop the
+     * reads up to some position and hand back the ones that are still live
+     */
+    @Test(dataProvider = "BoundedPopTestData")
+    public void testBoundedPopOfSpilledReads(final int budgetInReads, final int popEveryNLoci) {
+        final int nLoci = 100;
+        final int readsPerLocus = 3;
+        final List<GATKSAMRecord> reads = new ArtificialBAMBuilder(readsPerLocus, nLoci).makeReads();
+        final long budget = budgetInReads * ReadUtils.estimateHeapSize(reads.get(0));
+        final TAROrderedReadCache cache = new TAROrderedReadCache(Integer.MAX_VALUE, budget, new File(System.getProperty("java.io.tmpdir")));
+
+        final List<String> finishedReads = new ArrayList<String>();
+        int nextRead = 0;
+        for ( int locus = 1; locus <= nLoci; locus++ ) {
+            while ( nextRead < reads.size() && reads.get(nextRead).getAlignmentStart() == locus )
+                cache.add(reads.get(nextRead++));
+
+            if ( locus % popEveryNLoci == 0 ) {
+                final int popPosition = locus - 2;
+                final long nSpilledReadsBeforePop = cache.getNumSpilledReads();
+                final List<GATKSAMRecord> popped = cache.popCurrentReads(0, popPosition);
+                verifySortednessOfReads(popped);
+
+                final List<GATKSAMRecord> stillLive = new ArrayList<GATKSAMRecord>();
+                for ( final GATKSAMRecord read : popped ) {
+                    Assert.assertTrue(read.getAlignmentStart() <= popPosition, "popped read " + read.getReadName() + " past " + popPosition);
+                    if ( read.getAlignmentEnd() < popPosition )
+                        finishedReads.add(read.getReadName());
+                    else
+                        stillLive.add(read);
+                }
+                cache.addLiveReads(stillLive);
+
+                // nothing we haven't popped may start at or before the pop position, and live reads stay in memory
+                Assert.assertEquals(cache.size(), nextRead - finishedReads.size());
+                Assert.assertEquals(finishedReads.size() + stillLive.size(), countStartingAtOrBefore(reads.subList(0, nextRead), popPosition));
+                Assert.assertEquals(cache.getNumSpilledReads(), nSpilledReadsBeforePop, "popping must not spill any reads");
+            }
+        }
+
+        final List<GATKSAMRecord> remaining = cache.popCurrentReads();
+        verifySortednessOfReads(remaining);
+        Assert.assertEquals(cache.size(), 0, "Should be no reads left");
+        for ( final GATKSAMRecord read : remaining )
+            finishedReads.add(read.getReadName());
+
+        // every read comes out exactly once
+        final List<String> expected = new ArrayList<String>();
+        for ( final GATKSAMRecord read : reads )
+            expected.add(read.getReadName());
+        Assert.assertEquals(new HashSet<String>(finishedReads), new HashSet<String>(expected));
+        Assert.assertEquals(finishedReads.size(), expected.size());
+        if ( budgetInReads == 1 )
+            Assert.assertTrue(cache.getNumSpills() > 0, "expected to spill with a budget of a single read");
+        cache.close();
+    }
+
+    private static int countStartingAtOrBefore(final List<GATKSAMRecord> reads, final int position) {
+        int count = 0;
+        for ( final GATKSAMRecord read : reads )
+            if ( read.getAlignmentStart() <= position )
+                count++;
+        return count;
+    }
+
+    @Test
+    public void testSpilledReadsKeepInMemoryState() {
+        final List<GATKSAMRecord> reads = new ArtificialBAMBuilder(2, 20).makeReads();
+        for ( int i = 0; i < reads.size(); i += 3 ) {
+            reads.get(i).setTemporaryAttribute("index", i);
+            reads.get(i).setIsStrandless(i % 2 == 0);
+        }
+
+        // a budget of a single read spills nearly everything
+        final TAROrderedReadCache cache = new TAROrderedReadCache(Integer.MAX_VALUE, ReadUtils.estimateHeapSize(reads.get(0)),
+                new File(System.getProperty("java.io.tmpdir")));
+        cache.addAll(reads);
+        Assert.assertTrue(cache.getNumSpilledReads() > reads.size() / 2);
+
+        final List<GATKSAMRecord> popped = cache.popCurrentReads();
+        Assert.assertEquals(popped.size(), reads.size());
+        for ( int i = 0; i < reads.size(); i++ ) {
+            Assert.assertEquals(popped.get(i).getReadName(), reads.get(i).getReadName());
+            Assert.assertEquals(popped.get(i).getTemporaryAttribute("index"), reads.get(i).getTemporaryAttribute("index"));
+            Assert.assertEquals(popped.get(i).isStrandless(), reads.get(i).isStrandless());
+        }
+        cache.close();
+    }
+
     private void verifySortednessOfReads( final List<GATKSAMRecord> reads) {
         int lastStart = -1;
         for ( GATKSAMRecord read : reads ) {
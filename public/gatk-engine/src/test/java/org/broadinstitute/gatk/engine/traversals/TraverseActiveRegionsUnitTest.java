@@ -33,11 +33,17 @@ import org.broadinstitute.gatk.engine.datasources.reads.*;
 import org.broadinstitute.gatk.engine.filters.ReadFilter;
 import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
 import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.gatk.engine.walkers.ParallelIsActive;
 import org.broadinstitute.gatk.engine.walkers.Walker;
+import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
+import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
+import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
+import org.broadinstitute.gatk.utils.activeregion.ActivityProfileState;
 import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
 import org.broadinstitute.gatk.utils.activeregion.ActiveRegionReadState;
 import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
 import org.broadinstitute.gatk.utils.interval.IntervalUtils;
+import org.broadinstitute.gatk.utils.nanoScheduler.NanoScheduler;
 import org.broadinstitute.gatk.utils.sam.*;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import org.broadinstitute.gatk.utils.BaseTest;
@@ -677,4 +683,115 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
 
         Assert.assertEquals(region.size(), nReadsExpectedInRegion, "There are more reads in active region " + region + "than expected");
     }
+
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Make sure evaluating isActive in parallel produces exactly the active regions of the serial traversal
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    private static class ParallelDummyActiveRegionWalker extends DummyActiveRegionWalker implements ParallelIsActive {
+        private ParallelDummyActiveRegionWalker(final GenomeLocSortedSet activeRegions) {
+            super(activeRegions, false);
+        }
+
+        @Override
+        public synchronized ActivityProfileState isActive(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+            return super.isActive(tracker, ref, context);
+        }
+
+        @Override
+        public synchronized Integer map(ActiveRegion activeRegion, RefMetaDataTracker metaDataTracker) {
+            return super.map(activeRegion, metaDataTracker);
+        }
+    }
+
+    @DataProvider(name = "ParallelIsActiveProvider")
+    public Object[][] makeParallelIsActiveProvider() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        // enough loci to span several isActive windows
+        final int nLoci = 5 * TraverseActiveRegions.IS_ACTIVE_WINDOW_SIZE;
+        for ( final int start : Arrays.asList(1, ArtificialBAMBuilder.BAM_SHARD_SIZE - 100) ) {
+            for ( final int skips : Arrays.asList(0, 10) ) {
+                final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(reference, 2, nLoci);
+                bamBuilder.setReadLength(100);
+                bamBuilder.setSkipNLoci(skips);
+                bamBuilder.setAlignmentStart(start);
+                for ( final int stepSize : Arrays.asList(11, 97, 1300) )
+                    tests.add(new Object[]{makeActiveRegionMask(bamBuilder.getAlignmentStart(), bamBuilder.getAlignmentEnd(), stepSize, true), bamBuilder});
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "ParallelIsActiveProvider")
+    public void testParallelIsActiveMatchesSerial(final GenomeLocSortedSet activeRegions, final ArtificialBAMBuilder bamBuilder) {
+        final List<GenomeLoc> intervals = Arrays.asList(
+                genomeLocParser.createGenomeLoc("1", bamBuilder.getAlignmentStart(), bamBuilder.getAlignmentEnd())
+        );
+        final File bam = bamBuilder.makeTemporarilyBAMFile();
+
+        final DummyActiveRegionWalker serialWalker = new DummyActiveRegionWalker(activeRegions, false);
+        final Map<GenomeLoc, ActiveRegion> serial = getActiveRegions(new TraverseActiveRegions<Integer, Integer>(), serialWalker, intervals, bam);
+
+        final TraverseActiveRegions<Integer, Integer> parallelTraversal =
+                new TraverseActiveRegions<>(4, NanoScheduler.Engine.WORK_STEALING, NanoScheduler.DEFAULT_MEMORY_BUDGET);
+        final ParallelDummyActiveRegionWalker parallelWalker = new ParallelDummyActiveRegionWalker(activeRegions);
+        final Map<GenomeLoc, ActiveRegion> parallel = getActiveRegions(parallelTraversal, parallelWalker, intervals, bam);
+        Assert.assertTrue(parallelTraversal.isEvaluatingIsActiveInParallel());
+        parallelTraversal.shutdown();
+
+        final List<GenomeLoc> serialCalls = new ArrayList<GenomeLoc>(serialWalker.isActiveCalls);
+        final List<GenomeLoc> parallelCalls = new ArrayList<GenomeLoc>(parallelWalker.isActiveCalls);
+        Collections.sort(serialCalls);
+        Collections.sort(parallelCalls);
+        Assert.assertEquals(parallelCalls, serialCalls);
+
+        Assert.assertEquals(new TreeSet<GenomeLoc>(parallel.keySet()), new TreeSet<GenomeLoc>(serial.keySet()));
+        for ( final Map.Entry<GenomeLoc, ActiveRegion> entry : serial.entrySet() ) {
+            final ActiveRegion parallelRegion = parallel.get(entry.getKey());
+            Assert.assertEquals(parallelRegion.isActive(), entry.getValue().isActive());
+            Assert.assertEquals(readNamesInRegion(parallelRegion), readNamesInRegion(entry.getValue()));
+        }
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testParallelIsActiveOnlyRunsOnWorkStealingThreads() {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(reference, 2, 100);
+        final List<GenomeLoc> intervals = Arrays.asList(
+                genomeLocParser.createGenomeLoc("1", bamBuilder.getAlignmentStart(), bamBuilder.getAlignmentEnd())
+        );
+        final GenomeLocSortedSet activeRegions = makeActiveRegionMask(bamBuilder.getAlignmentStart(), bamBuilder.getAlignmentEnd(), 11, true);
+        final File bam = bamBuilder.makeTemporarilyBAMFile();
+
+        // the map threads of the MASTER_THREAD engine are busy for the whole traversal, so isActive stays on the traversal thread
+        final TraverseActiveRegions<Integer, Integer> masterThread = new TraverseActiveRegions<>(4);
+        getActiveRegions(masterThread, new ParallelDummyActiveRegionWalker(activeRegions), intervals, bam);
+        Assert.assertFalse(masterThread.isEvaluatingIsActiveInParallel());
+        masterThread.shutdown();
+
+        // walkers must still opt in to have isActive run on the WORK_STEALING threads
+        final TraverseActiveRegions<Integer, Integer> serialWalker =
+                new TraverseActiveRegions<>(4, NanoScheduler.Engine.WORK_STEALING, NanoScheduler.DEFAULT_MEMORY_BUDGET);
+        getActiveRegions(serialWalker, new DummyActiveRegionWalker(activeRegions, false), intervals, bam);
+        Assert.assertFalse(serialWalker.isEvaluatingIsActiveInParallel());
+        serialWalker.shutdown();
+    }
+
+    @Test(enabled = true && ! DEBUG)
+    public void testNanoSchedulerSettingsComeFromConstructor() {
+        final TraverseActiveRegions<Integer, Integer> workStealing =
+                new TraverseActiveRegions<>(2, NanoScheduler.Engine.WORK_STEALING, 1024 * 1024);
+        Assert.assertEquals(workStealing.nanoScheduler.getEngine(), NanoScheduler.Engine.WORK_STEALING);
+        Assert.assertEquals(workStealing.nanoScheduler.getMemoryBudget(), 1024 * 1024);
+        workStealing.shutdown();
+
+        // settings given to one traversal must not leak into the next
+        final TraverseActiveRegions<Integer, Integer> byDefault = new TraverseActiveRegions<>(2);
+        Assert.assertEquals(byDefault.nanoScheduler.getEngine(), NanoScheduler.Engine.MASTER_THREAD);
+        Assert.assertEquals(byDefault.nanoScheduler.getMemoryBudget(), NanoScheduler.DEFAULT_MEMORY_BUDGET);
+        byDefault.shutdown();
+    }
 }
@@ -286,6 +286,27 @@ public class WalkerTest extends BaseTest {
         return executeTestParallel(name, spec, ParallelTestType.TREE_REDUCIBLE);
     }
 
+    /**
+     * Run args with -nct 1 and then with each of cpuThreads, requiring every run to produce exactly the same output
+     *
+     * The expected MD5s are those of the -nct 1 run, so these tests don't depend on anything in the output that
+     * varies between checkouts, like the path of the reference in VCF headers.
+     *
+     * @param name the name of the test
+     * @param args the command line, with a %s for each output file
+     * @param nOutputFiles the number of output files
+     * @param cpuThreads the numbers of CPU threads to compare with -nct 1
+     */
+    protected void executeTestAcrossCPUThreads(final String name, final String args, final int nOutputFiles, final int... cpuThreads) {
+        final WalkerTestSpec singleThreadedSpec = new WalkerTestSpec(args + " -nct 1", nOutputFiles, Collections.nCopies(nOutputFiles, ""));
+        final List<String> md5s = new ArrayList<String>();
+        for ( final File resultFile : executeTest(name + "-cnt-1", singleThreadedSpec).getFirst() )
+            md5s.add(getMd5DB().calculateFileMD5(resultFile));
+
+        for ( final int nct : cpuThreads )
+            executeTest(name + "-cnt-" + nct, new WalkerTestSpec(args + " -nct " + nct, nOutputFiles, md5s));
+    }
+
     protected Pair<List<File>, List<String>> executeTest(final String name, WalkerTestSpec spec, List<Integer> ntThreads, List<Integer> cpuThreads) {
         String originalArgs = spec.args;
         Pair<List<File>, List<String>> results = null;
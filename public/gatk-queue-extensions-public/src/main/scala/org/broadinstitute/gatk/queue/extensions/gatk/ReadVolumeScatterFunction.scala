@@ -0,0 +1,56 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.queue.extensions.gatk
+
+import collection.JavaConversions._
+import htsjdk.samtools.{SamFiles, SamReaderFactory}
+import org.broadinstitute.gatk.utils.interval.IntervalUtils
+import org.broadinstitute.gatk.utils.exceptions.UserException
+import org.broadinstitute.gatk.engine.datasources.reads.{GATKBAMIndex, ReadVolumeEstimator}
+import org.broadinstitute.gatk.queue.function.InProcessFunction
+
+/**
+ * A scatter function that divides down to the locus level, like the LocusScatterFunction, but into
+ * parts of about the same volume of reads rather than of the same size, so that the scattered jobs
+ * take about the same time.  The volume of reads is estimated from the indices of the input BAM files.
+ */
+class ReadVolumeScatterFunction extends GATKScatterFunction with InProcessFunction {
+  protected override def maxIntervals = scatterCount
+
+  def run() {
+    val gi = GATKScatterFunction.getGATKIntervals(this.originalGATK)
+    val estimator = new ReadVolumeEstimator
+    for (bam <- this.originalGATK.input_file) {
+      val index = SamFiles.findIndex(bam)
+      if (index == null)
+        throw new UserException.CommandLineException("Cannot scatter by read volume because the BAM file is not indexed: " + bam)
+      val sequenceDictionary = SamReaderFactory.makeDefault.getFileHeader(bam).getSequenceDictionary
+      estimator.addIndex(new GATKBAMIndex(index, sequenceDictionary), sequenceDictionary)
+    }
+    val splits = estimator.splitByCost(gi.locs, this.scatterOutputFiles.size)
+    IntervalUtils.scatterFixedIntervals(gi.samFileHeader, splits, this.scatterOutputFiles)
+  }
+}
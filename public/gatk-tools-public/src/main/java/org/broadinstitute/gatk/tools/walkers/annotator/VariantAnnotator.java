@@ -116,7 +116,7 @@ import java.util.*;
 @Reference(window=@Window(start=-50,stop=50))
 @Downsample(by= DownsampleType.BY_SAMPLE, toCoverage=250)
 @By(DataSource.REFERENCE)
-public class VariantAnnotator extends RodWalker<Integer, Integer> implements AnnotatorCompatible, TreeReducible<Integer> {
+public class VariantAnnotator extends RodWalker<Collection<VariantContext>, Integer> implements AnnotatorCompatible, TreeReducible<Integer>, NanoSchedulable {
 
     @ArgumentCollection
     protected StandardVariantContextInputArgumentCollection variantCollection = new StandardVariantContextInputArgumentCollection();
@@ -331,19 +331,21 @@ public class VariantAnnotator extends RodWalker<Integer, Integer> implements Ann
     /**
      * For each site of interest, annotate based on the requested annotation types
      *
+     * Map may run on several threads, so the annotated variants are written out in reduce.
+     *
      * @param tracker  the meta-data tracker
      * @param ref      the reference base
      * @param context  the context for the given locus
-     * @return 1 if the locus was successfully processed, 0 if otherwise
+     * @return the annotated variants at the locus, or null if there are none
      */
-    public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public Collection<VariantContext> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if ( tracker == null )
-            return 0;
+            return null;
 
         // get the variant contexts for all the variants at the location
         Collection<VariantContext> VCs = tracker.getValues(variantCollection.variants, context.getLocation());
         if ( VCs.isEmpty() )
-            return 0;
+            return null;
 
         Collection<VariantContext> annotatedVCs = VCs;
 
@@ -356,17 +358,22 @@ public class VariantAnnotator extends RodWalker<Integer, Integer> implements Ann
                 annotatedVCs.add(engine.annotateContext(tracker, ref, stratifiedContexts, vc));
         }
 
-        for ( VariantContext annotatedVC : annotatedVCs )
-            vcfWriter.add(annotatedVC);
-
-        return 1;
+        return annotatedVCs;
     }
 
     @Override
     public Integer reduceInit() { return 0; }
 
     @Override
-    public Integer reduce(Integer value, Integer sum) { return value + sum; }
+    public Integer reduce(Collection<VariantContext> annotatedVCs, Integer sum) {
+        if ( annotatedVCs == null )
+            return sum;
+
+        for ( VariantContext annotatedVC : annotatedVCs )
+            vcfWriter.add(annotatedVC);
+
+        return sum + 1;
+    }
 
     @Override
     public Integer treeReduce(Integer lhs, Integer rhs) {
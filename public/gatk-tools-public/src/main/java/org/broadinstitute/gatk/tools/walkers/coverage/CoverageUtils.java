@@ -140,6 +140,63 @@ public class CoverageUtils {
         Map<String, int[]> countsByRGName = new HashMap<String, int[]>();
         Map<String, SAMReadGroupRecord> RGByName = new HashMap<String, SAMReadGroupRecord>();
 
+        for (PileupElement e : getCountPileup(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType)) {
+            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
+
+            String readGroupId = readGroup.getSample() + "_" + readGroup.getReadGroupId();
+            int[] counts = countsByRGName.get(readGroupId);
+            if (counts == null) {
+                counts = new int[6];
+                countsByRGName.put(readGroupId, counts);
+                RGByName.put(readGroupId, readGroup);
+            }
+
+            updateCounts(counts, e);
+        }
+
+        for (String readGroupId : RGByName.keySet()) {
+            countsByRG.put(RGByName.get(readGroupId), countsByRGName.get(readGroupId));
+        }
+
+        return countsByRG;
+    }
+
+    /**
+     * Returns the counts of bases in the context by read group, like getBaseCountsByReadGroup(), but with the read
+     * groups resolved to dense indices rather than hashed by record
+     *
+     * @param context          the alignment context
+     * @param minMapQ          minimum mapping quality of the reads to count
+     * @param maxMapQ          maximum mapping quality of the reads to count
+     * @param minBaseQ         minimum quality of the bases to count
+     * @param maxBaseQ         maximum quality of the bases to count
+     * @param countType        how to count overlapping reads from the same fragment
+     * @param readGroupIndices the index of each read group, by read group ID
+     * @return an array with the counts (indexed by the index fields of BaseUtils) of each read group, at the index of
+     *         the read group; read groups without counted bases, and reads from read groups that have no index, are
+     *         left null
+     */
+    public static int[][] getBaseCountsByReadGroupIndex(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType, Map<String,Integer> readGroupIndices) {
+        final int[][] countsByReadGroup = new int[readGroupIndices.size()][];
+
+        for (PileupElement e : getCountPileup(context, minMapQ, maxMapQ, minBaseQ, maxBaseQ, countType)) {
+            final Integer index = readGroupIndices.get(getReadGroup(e.getRead()).getReadGroupId());
+            if (index == null)
+                continue;
+
+            int[] counts = countsByReadGroup[index];
+            if (counts == null) {
+                counts = new int[6];
+                countsByReadGroup[index] = counts;
+            }
+
+            updateCounts(counts, e);
+        }
+
+        return countsByReadGroup;
+    }
+
+    private static List<PileupElement> getCountPileup(AlignmentContext context, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ, CountPileupType countType) {
         List<PileupElement> countPileup = new LinkedList<PileupElement>();
         FragmentCollection<PileupElement> fpile;
 
@@ -203,25 +260,7 @@ public class CoverageUtils {
                 throw new UserException("Must use valid CountPileupType");
         }
 
-        for (PileupElement e : countPileup) {
-            SAMReadGroupRecord readGroup = getReadGroup(e.getRead());
-
-            String readGroupId = readGroup.getSample() + "_" + readGroup.getReadGroupId();
-            int[] counts = countsByRGName.get(readGroupId);
-            if (counts == null) {
-                counts = new int[6];
-                countsByRGName.put(readGroupId, counts);
-                RGByName.put(readGroupId, readGroup);
-            }
-
-            updateCounts(counts, e);
-        }
-
-        for (String readGroupId : RGByName.keySet()) {
-            countsByRG.put(RGByName.get(readGroupId), countsByRGName.get(readGroupId));
-        }
-
-        return countsByRG;
+        return countPileup;
     }
 
     private static boolean countElement(PileupElement e, int minMapQ, int maxMapQ, byte minBaseQ, byte maxBaseQ) {
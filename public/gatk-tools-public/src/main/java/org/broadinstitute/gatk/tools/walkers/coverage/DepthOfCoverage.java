@@ -100,6 +100,10 @@ import java.util.*;
  *   [-ct 4 -ct 6 -ct 10] \
  *   [-L my_capture_genes.interval_list]
  * </pre>
+ *
+ * <h3>Multi-threading</h3>
+ * <p>The coverage at each locus can be counted on several threads with -nct, which works with all of the outputs.
+ * Parallelism with -nt requires -omitIntervals.</p>
  */
 // todo -- cache the map from sample names to means in the print functions, rather than regenerating each time
 // todo -- support for granular histograms for total depth; maybe n*[start,stop], bins*sqrt(n)
@@ -110,7 +114,7 @@ import java.util.*;
 @By(DataSource.REFERENCE)
 @PartitionBy(PartitionType.NONE)
 @Downsample(by= DownsampleType.NONE, toCoverage=Integer.MAX_VALUE)
-public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map<String,int[]>>, CoveragePartitioner> implements TreeReducible<CoveragePartitioner> {
+public class DepthOfCoverage extends LocusWalker<Pair<GenomeLoc,int[][]>, CoveragePartitioner> implements TreeReducible<CoveragePartitioner>, NanoSchedulable {
     private final static Logger logger = Logger.getLogger(DepthOfCoverage.class);
 
     /**
@@ -254,6 +258,11 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
     String separator = "\t";
     Map<DoCOutputType.Partition,List<String>> orderCheck = new HashMap<DoCOutputType.Partition,List<String>>();
 
+    // the read groups of the input, and their indices by read group ID: map() counts the bases of each read group at
+    // its index, and the CoveragePartitioner adds them up by partition
+    List<SAMReadGroupRecord> readGroups;
+    Map<String,Integer> readGroupIndices;
+
     ////////////////////////////////////////////////////////////////////////////////////
     // STANDARD WALKER METHODS
     ////////////////////////////////////////////////////////////////////////////////////
@@ -327,6 +336,12 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             }
             Collections.sort(orderCheck.get(type));
         }
+
+        readGroups = getToolkit().getSAMFileHeader().getReadGroups();
+        readGroupIndices = new HashMap<String,Integer>(readGroups.size());
+        for ( SAMReadGroupRecord rg : readGroups ) {
+            readGroupIndices.put(rg.getReadGroupId(),readGroupIndices.size());
+        }
     }
 
     private HashSet<String> getSamplesFromToolKit( Collection<DoCOutputType.Partition> types ) {
@@ -387,33 +402,30 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             aggro.addIdentifiers(t,getSamplesFromToolKit(t));
         }
         aggro.initialize(includeDeletions,omitLocusTable);
+        aggro.initializeReadGroups(readGroups);
         checkOrder(aggro);
         return aggro;
     }
 
-    public Map<DoCOutputType.Partition,Map<String,int[]>> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public Pair<GenomeLoc,int[][]> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if (includeRefNBases || BaseUtils.isRegularBase(ref.getBase())) {
-            if ( ! omitDepthOutput ) {
-                getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary).printf("%s",ref.getLocus()); // yes: print locus in map, and the rest of the info in reduce (for eventual cumulatives)
-                //System.out.printf("\t[log]\t%s",ref.getLocus());
-            }
-
-            return CoverageUtils.getBaseCountsByPartition(context,minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType,partitionTypes);
+            return new Pair<GenomeLoc,int[][]>(ref.getLocus(),
+                    CoverageUtils.getBaseCountsByReadGroupIndex(context,minMappingQuality,maxMappingQuality,minBaseQuality,maxBaseQuality,countType,readGroupIndices));
         } else {
             return null;
         }
     }
 
-    public CoveragePartitioner reduce(Map<DoCOutputType.Partition,Map<String,int[]>> thisMap, CoveragePartitioner prevReduce) {
+    public CoveragePartitioner reduce(Pair<GenomeLoc,int[][]> thisMap, CoveragePartitioner prevReduce) {
         if ( thisMap != null ) { // skip sites we didn't want to include in the calculation (ref Ns)
+            prevReduce.update(thisMap.second);
+
             if ( ! omitDepthOutput ) {
                 //checkOrder(prevReduce); // tests prevReduce.getIdentifiersByType().get(t) against the initialized header order
-                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),thisMap,prevReduce.getIdentifiersByType());
-                // this is an additional iteration through thisMap, plus dealing with IO, so should be much slower without
+                printDepths(getCorrectStream(null, DoCOutputType.Aggregation.locus, DoCOutputType.FileType.summary),thisMap.first,prevReduce);
+                // this is an additional iteration through the counts, plus dealing with IO, so should be much slower without
                 // turning on omit
             }
-
-            prevReduce.update(thisMap); // note that in "useBoth" cases, this method alters the thisMap object
         }
 
         return prevReduce;
@@ -907,20 +919,20 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
         return 100*( (double) above )/( above + below );
     }
 
-    private void printDepths(PrintStream stream, Map<DoCOutputType.Partition,Map<String,int[]>> countsBySampleByType, Map<DoCOutputType.Partition,List<String>> identifiersByType) {
+    private void printDepths(PrintStream stream, GenomeLoc locus, CoveragePartitioner partitioner) {
         // get the depths per sample and build up the output string while tabulating total and average coverage
         StringBuilder perSampleOutput = new StringBuilder();
         int tDepth = 0;
         boolean depthCounted = false;
         for (DoCOutputType.Partition type : partitionTypes ) {
-            Map<String,int[]> countsByID = countsBySampleByType.get(type);
-            for ( String s : identifiersByType.get(type) ) {
+            int[][] countsBySample = partitioner.getCountsBySample(type);
+            for ( int index : partitioner.getSampleIndices(type) ) {
                 perSampleOutput.append(separator);
-                long dp = (countsByID != null && countsByID.keySet().contains(s)) ? sumArray(countsByID.get(s)) : 0 ;
+                long dp = sumArray(countsBySample[index]);
                 perSampleOutput.append(dp);
                 if ( printBaseCounts ) {
                     perSampleOutput.append(separator);
-                    perSampleOutput.append(baseCounts(countsByID != null ? countsByID.get(s) : null ));
+                    perSampleOutput.append(baseCounts(countsBySample[index]));
                 }
                 if ( ! depthCounted ) {
                     tDepth += dp;
@@ -929,12 +941,17 @@ public class DepthOfCoverage extends LocusWalker<Map<DoCOutputType.Partition,Map
             depthCounted = true; // only sum the total depth once
         }
 
-        // remember -- genome locus was printed in map()
-        stream.printf("%s%d",separator,tDepth);
+        // print the whole line at once, as the output stream isn't buffered
+        StringBuilder locusOutput = new StringBuilder();
+        locusOutput.append(locus);
+        locusOutput.append(separator);
+        locusOutput.append(tDepth);
         for (DoCOutputType.Partition type : partitionTypes ) {
-            stream.printf("%s%.2f",separator, ( (double) tDepth / identifiersByType.get(type).size() ) );
+            locusOutput.append(separator);
+            locusOutput.append(String.format("%.2f", ( (double) tDepth / partitioner.getSampleIndices(type).length ) ));
         }
-        stream.printf("%s%n",perSampleOutput);
+        locusOutput.append(perSampleOutput);
+        stream.printf("%s%n",locusOutput);
     }
 
     private long sumArray(int[] array) {
@@ -1071,6 +1088,11 @@ class CoveragePartitioner {
     private Map<DoCOutputType.Partition,DepthOfCoverageStats> coverageProfiles;
     private Map<DoCOutputType.Partition,List<String>> identifiersByType;
     private Set<String> allIdentifiers;
+    // the index in the coverage profile of each identifier in identifiersByType, and of the identifier of each read group
+    private Map<DoCOutputType.Partition,int[]> sampleIndicesByType;
+    private Map<DoCOutputType.Partition,int[]> sampleIndicesByReadGroupByType;
+    // the base counts of the last update(), by type and by index in the coverage profile; reused between updates
+    private Map<DoCOutputType.Partition,int[][]> countsBySampleByType;
     public CoveragePartitioner(Collection<DoCOutputType.Partition> typesToUse, int start, int stop, int nBins) {
         coverageProfiles = new TreeMap<DoCOutputType.Partition,DepthOfCoverageStats>();
         identifiersByType = new HashMap<DoCOutputType.Partition,List<String>>();
@@ -1112,12 +1134,74 @@ class CoveragePartitioner {
         }
     }
 
-    public void update(Map<DoCOutputType.Partition,Map<String,int[]>> countsByIdentifierByType) {
+    /**
+     * Resolve the identifiers, and the read groups, to their indices in the coverage profiles. Must be called after
+     * all of the identifiers have been added, and before update().
+     *
+     * @param readGroups the read groups, in the order of the read group counts given to update()
+     */
+    public void initializeReadGroups(List<SAMReadGroupRecord> readGroups) {
+        sampleIndicesByType = new HashMap<DoCOutputType.Partition,int[]>();
+        sampleIndicesByReadGroupByType = new HashMap<DoCOutputType.Partition,int[]>();
+        countsBySampleByType = new HashMap<DoCOutputType.Partition,int[][]>();
         for ( DoCOutputType.Partition t : types ) {
-            coverageProfiles.get(t).update(countsByIdentifierByType.get(t));
+            DepthOfCoverageStats stats = coverageProfiles.get(t);
+            List<String> identifiers = identifiersByType.get(t);
+
+            int[] sampleIndices = new int[identifiers.size()];
+            for ( int i = 0; i < sampleIndices.length; i++ ) {
+                sampleIndices[i] = stats.getSampleIndex(identifiers.get(i));
+            }
+
+            int[] sampleIndicesByReadGroup = new int[readGroups.size()];
+            for ( int rg = 0; rg < sampleIndicesByReadGroup.length; rg++ ) {
+                sampleIndicesByReadGroup[rg] = stats.getSampleIndex(CoverageUtils.getTypeID(readGroups.get(rg),t));
+            }
+
+            sampleIndicesByType.put(t,sampleIndices);
+            sampleIndicesByReadGroupByType.put(t,sampleIndicesByReadGroup);
+            countsBySampleByType.put(t,new int[stats.getAllSamples().size()][6]);
         }
     }
 
+    /**
+     * Update the coverage profiles with the base counts of one locus
+     *
+     * @param countsByReadGroup the base counts of each read group, in the order given to initializeReadGroups();
+     *                          read groups without coverage may be null
+     */
+    public void update(int[][] countsByReadGroup) {
+        for ( DoCOutputType.Partition t : types ) {
+            int[][] countsBySample = countsBySampleByType.get(t);
+            for ( int[] counts : countsBySample ) {
+                Arrays.fill(counts,0);
+            }
+
+            int[] sampleIndicesByReadGroup = sampleIndicesByReadGroupByType.get(t);
+            for ( int rg = 0; rg < countsByReadGroup.length; rg++ ) {
+                if ( countsByReadGroup[rg] != null && sampleIndicesByReadGroup[rg] >= 0 ) {
+                    CoverageUtils.addCounts(countsBySample[sampleIndicesByReadGroup[rg]],countsByReadGroup[rg]);
+                }
+            }
+
+            coverageProfiles.get(t).update(countsBySample);
+        }
+    }
+
+    /**
+     * @return the base counts of the last update(), indexed as given by getSampleIndices()
+     */
+    public int[][] getCountsBySample(DoCOutputType.Partition t) {
+        return countsBySampleByType.get(t);
+    }
+
+    /**
+     * @return the index in getCountsBySample() of each identifier, in the order of getIdentifiersByType()
+     */
+    public int[] getSampleIndices(DoCOutputType.Partition t) {
+        return sampleIndicesByType.get(t);
+    }
+
     public Set<String> getAllIdentifiers() {
         return allIdentifiers;
     }
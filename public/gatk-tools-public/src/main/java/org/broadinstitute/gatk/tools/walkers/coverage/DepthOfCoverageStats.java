@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.tools.walkers.coverage;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -51,9 +52,12 @@ public class DepthOfCoverageStats {
     ////////////////////////////////////////////////////////////////////////////////////
 
     private Map<String,long[]> granularHistogramBySample; // holds the counts per each bin
-    private Map<String,Long> totalCoverages; // holds total coverage per sample
+    private Map<String,Integer> sampleIndices; // holds the index of each sample in the arrays below
+    private long[][] histogramsBySampleIndex; // the histograms of granularHistogramBySample, by sample index
+    private long[] totalCoverages; // holds total coverage per sample index
     private int[] binLeftEndpoints; // describes the left endpoint for each bin
-    private long[][] locusCoverageCounts; // holds counts of number of bases with >=X samples at >=Y coverage
+    private int[] binsByDepth; // holds the bin of each depth below the largest left endpoint
+    private long[][] locusCoverageCountsBySampleCount; // holds counts of number of bases with exactly X samples at >=Y coverage
     private boolean tabulateLocusCounts = false;
     private long nLoci; // number of loci seen
     private long totalDepthOfCoverage;
@@ -65,6 +69,7 @@ public class DepthOfCoverageStats {
 
     private int[] locusHistogram; // holds a histogram for each locus; reset after each update() call
     private int totalLocusDepth; // holds the total depth of coverage for each locus; reset after each update() call
+    private int[] locusDepths; // holds the depth of each sample for each locus; overwritten by each update() call
 
     ////////////////////////////////////////////////////////////////////////////////////
     // STATIC METHODS
@@ -103,8 +108,11 @@ public class DepthOfCoverageStats {
 
     public DepthOfCoverageStats(int[] leftEndpoints) {
         this.binLeftEndpoints = leftEndpoints;
+        this.binsByDepth = calculateBinsByDepth(leftEndpoints);
         granularHistogramBySample = new HashMap<String,long[]>();
-        totalCoverages = new HashMap<String,Long>();
+        sampleIndices = new HashMap<String,Integer>();
+        histogramsBySampleIndex = new long[0][];
+        totalCoverages = new long[0];
         nLoci = 0;
         totalLocusDepth = 0;
         totalDepthOfCoverage = 0;
@@ -112,19 +120,20 @@ public class DepthOfCoverageStats {
 
     public DepthOfCoverageStats(DepthOfCoverageStats cloneMe) {
         this.binLeftEndpoints = cloneMe.binLeftEndpoints;
+        this.binsByDepth = cloneMe.binsByDepth;
         granularHistogramBySample = new TreeMap<String,long[]>();
-        totalCoverages = new TreeMap<String,Long>();
+        sampleIndices = new HashMap<String,Integer>();
+        histogramsBySampleIndex = new long[0][];
+        totalCoverages = new long[0];
         for ( String s : cloneMe.getAllSamples() ) {
-            granularHistogramBySample.put(s,new long[cloneMe.getHistograms().get(s).length]);
-            for ( int i = 0; i < granularHistogramBySample.get(s).length; i++ ) {
-                granularHistogramBySample.get(s)[i] = cloneMe.getHistograms().get(s)[i];
-            }
-            totalCoverages.put(s,cloneMe.totalCoverages.get(s));
+            final int cloneIndex = cloneMe.sampleIndices.get(s);
+            addSample(s,cloneMe.histogramsBySampleIndex[cloneIndex].clone(),cloneMe.totalCoverages[cloneIndex]);
         }
 
         this.includeDeletions = cloneMe.includeDeletions;
         if ( cloneMe.tabulateLocusCounts ) {
-            this.locusCoverageCounts = new long[cloneMe.locusCoverageCounts.length][cloneMe.locusCoverageCounts[0].length];
+            this.locusCoverageCountsBySampleCount = new long[cloneMe.locusCoverageCountsBySampleCount.length][cloneMe.locusCoverageCountsBySampleCount[0].length];
+            this.locusHistogram = new int[cloneMe.locusHistogram.length];
         }
         //this.granularHistogramBySample = cloneMe.granularHistogramBySample;
         //this.totalCoverages = cloneMe.totalCoverages;
@@ -133,29 +142,51 @@ public class DepthOfCoverageStats {
         this.tabulateLocusCounts = cloneMe.tabulateLocusCounts;
     }
 
+    /*
+     * The bin of each depth below the largest left endpoint, so that update() can look bins up rather than search
+     * for them. Depths at or above all of the left endpoints go in the last bin.
+     */
+    private static int[] calculateBinsByDepth(int[] leftEndpoints) {
+        int maxEndpoint = 0;
+        for ( int e : leftEndpoints ) {
+            maxEndpoint = Math.max(maxEndpoint,e);
+        }
+
+        int[] binsByDepth = new int[maxEndpoint];
+        for ( int depth = 0; depth < maxEndpoint; depth++ ) {
+            int b = 0;
+            while ( b < leftEndpoints.length && depth >= leftEndpoints[b] ) {
+                b++;
+            }
+            binsByDepth[depth] = b;
+        }
+
+        return binsByDepth;
+    }
+
     public void addSample(String sample) {
         if ( granularHistogramBySample.containsKey(sample) ) {
             return;
         }
 
-        long[] binCounts = new long[this.binLeftEndpoints.length+1];
-        for ( int b = 0; b < binCounts.length; b ++ ) {
-            binCounts[b] = 0;
-        }
+        addSample(sample,new long[this.binLeftEndpoints.length+1],0l);
+    }
+
+    private void addSample(String sample, long[] binCounts, long totalCoverage) {
+        final int index = histogramsBySampleIndex.length;
+        histogramsBySampleIndex = Arrays.copyOf(histogramsBySampleIndex,index+1);
+        histogramsBySampleIndex[index] = binCounts;
+        totalCoverages = Arrays.copyOf(totalCoverages,index+1);
+        totalCoverages[index] = totalCoverage;
 
         granularHistogramBySample.put(sample,binCounts);
-        totalCoverages.put(sample,0l);
+        sampleIndices.put(sample,index);
     }
 
     public void initializeLocusCounts() {
-        locusCoverageCounts = new long[granularHistogramBySample.size()][binLeftEndpoints.length+1];
+        // row X counts the loci at which exactly X samples are covered to each depth bin, hence the extra row for 0
+        locusCoverageCountsBySampleCount = new long[granularHistogramBySample.size()+1][binLeftEndpoints.length+1];
         locusHistogram = new int[binLeftEndpoints.length+1];
-        for ( int b = 0; b < binLeftEndpoints.length+1; b ++ ) {
-            for ( int a = 0; a < granularHistogramBySample.size(); a ++ ) {
-                locusCoverageCounts[a][b] = 0;
-            }
-            locusHistogram[b] = 0;
-        }
 
         tabulateLocusCounts = true;
     }
@@ -169,19 +200,32 @@ public class DepthOfCoverageStats {
     ////////////////////////////////////////////////////////////////////////////////////
 
     public void updateDepths(Map<String,Integer> depthBySample) {
-        int b;
-        for ( String sample : granularHistogramBySample.keySet() ) {
-            if ( depthBySample.containsKey(sample) ) {
-                b = updateSample(sample,depthBySample.get(sample));
-                totalLocusDepth += depthBySample.get(sample);
-            } else {
-                b = updateSample(sample,0);
+        int[] depths = new int[histogramsBySampleIndex.length];
+        for ( Map.Entry<String,Integer> sampleDepth : depthBySample.entrySet() ) {
+            Integer index = sampleIndices.get(sampleDepth.getKey());
+            if ( index != null ) {
+                depths[index] = sampleDepth.getValue();
             }
+        }
+
+        this.updateDepths(depths);
+    }
+
+    /**
+     * Update with the depths of coverage of one locus
+     *
+     * @param depthBySampleIndex the depth of each sample, indexed as given by getSampleIndex()
+     */
+    public void updateDepths(int[] depthBySampleIndex) {
+        for ( int index = 0; index < histogramsBySampleIndex.length; index++ ) {
+            int depth = depthBySampleIndex[index];
+            int b = depth < binsByDepth.length ? binsByDepth[depth] : binLeftEndpoints.length;
+            histogramsBySampleIndex[index][b]++;
+            totalCoverages[index] += depth;
+            totalLocusDepth += depth;
 
             if ( tabulateLocusCounts ) {
-                for ( int i = 0; i <= b; i ++ ) {
-                    locusHistogram[i]++;
-                }
+                locusHistogram[b]++;
             }
         }
         updateLocusCounts(locusHistogram);
@@ -192,92 +236,99 @@ public class DepthOfCoverageStats {
     }
 
     public void update(Map<String,int[]> countsBySample) {
-        if ( countsBySample == null ) {
-            this.updateDepths(new HashMap<String,Integer>(1));
-            return;
-        }
-        // todo -- do we want to do anything special regarding base count or deletion statistics?
-        HashMap<String,Integer> depthBySample = new HashMap<String,Integer>();
-        // todo -- needs fixing with advent of new baseutils functionality using ENUMS and handling N,D
-        for ( String s : countsBySample.keySet() ) {
-            int total = 0;
-            int[] counts = countsBySample.get(s);
-            for ( byte base : BaseUtils.EXTENDED_BASES ) {
-                if ( includeDeletions || ! ( base == BaseUtils.Base.D.base) ) { // note basesAreEqual assigns TRUE to (N,D) as both have simple index -1
-                    total += counts[BaseUtils.extendedBaseToBaseIndex(base)];
+        int[][] counts = new int[histogramsBySampleIndex.length][];
+        if ( countsBySample != null ) {
+            for ( Map.Entry<String,int[]> sampleCounts : countsBySample.entrySet() ) {
+                Integer index = sampleIndices.get(sampleCounts.getKey());
+                if ( index != null ) {
+                    counts[index] = sampleCounts.getValue();
                 }
             }
-            depthBySample.put(s,total);
         }
-        
-        this.updateDepths(depthBySample);
+
+        this.update(counts);
     }
 
-    private int updateSample(String sample, int depth) {
-        totalCoverages.put(sample,totalCoverages.get(sample)+depth);
+    /**
+     * Update with the base counts of one locus
+     *
+     * @param countsBySampleIndex the base counts of each sample (indexed by the index fields of BaseUtils), indexed as
+     *                            given by getSampleIndex(); samples without coverage may be null
+     */
+    public void update(int[][] countsBySampleIndex) {
+        if ( locusDepths == null || locusDepths.length != histogramsBySampleIndex.length ) {
+            locusDepths = new int[histogramsBySampleIndex.length];
+        }
 
-        long[] granularBins = granularHistogramBySample.get(sample);
-        for ( int b = 0; b < binLeftEndpoints.length; b ++ ) {
-            if ( depth < binLeftEndpoints[b] ) {
-                granularBins[b]++;
-                return b;
+        // todo -- do we want to do anything special regarding base count or deletion statistics?
+        for ( int index = 0; index < locusDepths.length; index++ ) {
+            int total = 0;
+            int[] counts = countsBySampleIndex[index];
+            if ( counts != null ) {
+                for ( int baseIndex = 0; baseIndex < BaseUtils.EXTENDED_BASES.length; baseIndex++ ) {
+                    total += counts[baseIndex];
+                }
+                if ( ! includeDeletions ) {
+                    total -= counts[BaseUtils.Base.D.ordinal()];
+                }
             }
+            locusDepths[index] = total;
         }
 
-        granularBins[binLeftEndpoints.length]++; // greater than all left-endpoints
-        return binLeftEndpoints.length;
+        this.updateDepths(locusDepths);
     }
 
     public void merge(DepthOfCoverageStats newStats) {
         this.mergeSamples(newStats);
         if ( this.tabulateLocusCounts && newStats.tabulateLocusCounts ) {
-            this.mergeLocusCounts(newStats.getLocusCounts());
+            this.mergeLocusCounts(newStats.locusCoverageCountsBySampleCount);
         }
         nLoci += newStats.getTotalLoci();
         totalDepthOfCoverage += newStats.getTotalCoverage();
     }
 
     private void mergeSamples(DepthOfCoverageStats otherStats) {
-        Map<String,long[]> otherHistogram = otherStats.getHistograms();
-        Map<String,Double> otherMeans = otherStats.getMeans();
-        for ( String s : this.getAllSamples() ) {
-            long[] internalCounts = granularHistogramBySample.get(s);
-            long[] externalCounts = otherHistogram.get(s);
+        for ( Map.Entry<String,Integer> sampleIndex : sampleIndices.entrySet() ) {
+            int index = sampleIndex.getValue();
+            int otherIndex = otherStats.sampleIndices.get(sampleIndex.getKey());
+            long[] internalCounts = histogramsBySampleIndex[index];
+            long[] externalCounts = otherStats.histogramsBySampleIndex[otherIndex];
             for ( int b = 0; b < internalCounts.length; b++ ) {
                 internalCounts[b] += externalCounts[b];
             }
 
-            this.totalCoverages.put(s, this.totalCoverages.get(s) + otherStats.totalCoverages.get(s));
+            this.totalCoverages[index] += otherStats.totalCoverages[otherIndex];
         }
     }
 
     private void mergeLocusCounts( long[][] otherCounts ) {
-        for ( int a = 0; a < locusCoverageCounts.length; a ++ ) {
-            for ( int b = 0; b < locusCoverageCounts[0].length; b ++ ) {
-                locusCoverageCounts[a][b] += otherCounts[a][b];
+        for ( int a = 0; a < locusCoverageCountsBySampleCount.length; a ++ ) {
+            for ( int b = 0; b < locusCoverageCountsBySampleCount[0].length; b ++ ) {
+                locusCoverageCountsBySampleCount[a][b] += otherCounts[a][b];
             }
         }
     }
 
     /*
      * Update locus counts -- takes an array in which the number of samples
-     * with depth ABOVE [i] is held. So if the bin left endpoints were 2, 5, 10
+     * with depth in bin [i] is held. So if the bin left endpoints were 2, 5, 10
      * then we'd have an array that represented:
-     * [# samples with depth 0 - inf], [# samples with depth 2 - inf],
-     * [# samples with depth 5 - inf], [# samples with depth 10-inf];
+     * [# samples with depth 0 - 2), [# samples with depth 2 - 5),
+     * [# samples with depth 5 - 10), [# samples with depth 10-inf];
      *
-     * this is
-     * @argument cumulativeSamplesByDepthBin - see above
+     * the locus is counted once per bin, in the row of the number of samples
+     * with depth ABOVE the left endpoint of the bin; getLocusCounts() adds the
+     * rows up
+     * @argument samplesByDepthBin - see above
      */
-    private void updateLocusCounts(int[] cumulativeSamplesByDepthBin) {
+    private void updateLocusCounts(int[] samplesByDepthBin) {
         if ( tabulateLocusCounts ) {
-            for ( int bin = 0; bin < cumulativeSamplesByDepthBin.length; bin ++ ) {
-                int numSamples = cumulativeSamplesByDepthBin[bin];
-                for ( int i = 0; i < numSamples; i ++ ) {
-                    locusCoverageCounts[i][bin]++;
-                }
+            int numSamples = 0;
+            for ( int bin = samplesByDepthBin.length-1; bin >= 0; bin -- ) {
+                numSamples += samplesByDepthBin[bin];
+                locusCoverageCountsBySampleCount[numSamples][bin]++;
 
-                cumulativeSamplesByDepthBin[bin] = 0; // reset counts in advance of next update()
+                samplesByDepthBin[bin] = 0; // reset counts in advance of next update()
             }
         }
     }
@@ -290,7 +341,25 @@ public class DepthOfCoverageStats {
         return granularHistogramBySample;
     }
 
+    /**
+     * @return the number of loci with at least X+1 samples covered to at least each depth bin, indexed by X and by
+     *         bin; null if the locus counts were never initialized
+     */
     public long[][] getLocusCounts() {
+        if ( ! tabulateLocusCounts ) {
+            return null;
+        }
+
+        int nSamples = locusCoverageCountsBySampleCount.length-1;
+        long[][] locusCoverageCounts = new long[nSamples][locusCoverageCountsBySampleCount[0].length];
+        for ( int b = 0; b < locusCoverageCountsBySampleCount[0].length; b ++ ) {
+            long atLeast = 0;
+            for ( int a = nSamples-1; a >= 0; a -- ) {
+                atLeast += locusCoverageCountsBySampleCount[a+1][b];
+                locusCoverageCounts[a][b] = atLeast;
+            }
+        }
+
         return locusCoverageCounts;
     }
 
@@ -300,15 +369,30 @@ public class DepthOfCoverageStats {
 
     public Map<String,Double> getMeans() {
         HashMap<String,Double> means = new HashMap<String,Double>();
-        for ( String s : getAllSamples() ) {
-            means.put(s,( (double)totalCoverages.get(s))/( (double) nLoci ));
+        for ( Map.Entry<String,Integer> sampleIndex : sampleIndices.entrySet() ) {
+            means.put(sampleIndex.getKey(),( (double)totalCoverages[sampleIndex.getValue()])/( (double) nLoci ));
         }
 
         return means;
     }
 
     public Map<String,Long> getTotals() {
-        return totalCoverages;
+        HashMap<String,Long> totals = new HashMap<String,Long>();
+        for ( Map.Entry<String,Integer> sampleIndex : sampleIndices.entrySet() ) {
+            totals.put(sampleIndex.getKey(),totalCoverages[sampleIndex.getValue()]);
+        }
+
+        return totals;
+    }
+
+    /**
+     * @param sample the sample name
+     * @return the index of the sample in the arrays given to update(int[][]) and updateDepths(int[]), or -1 if there
+     *         is no such sample
+     */
+    public int getSampleIndex(String sample) {
+        Integer index = sampleIndices.get(sample);
+        return index == null ? -1 : index;
     }
 
     public long getTotalLoci() {
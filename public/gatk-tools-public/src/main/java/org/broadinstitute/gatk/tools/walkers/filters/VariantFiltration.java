@@ -33,6 +33,7 @@ import org.broadinstitute.gatk.engine.arguments.StandardVariantContextInputArgum
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulable;
 import org.broadinstitute.gatk.engine.walkers.Reference;
 import org.broadinstitute.gatk.engine.walkers.RodWalker;
 import org.broadinstitute.gatk.engine.walkers.Window;
@@ -46,6 +47,7 @@ import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
 import htsjdk.variant.variantcontext.*;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
+import org.broadinstitute.gatk.utils.variant.jexl.VariantMatchExpression;
 
 import java.util.*;
 
@@ -93,10 +95,15 @@ import java.util.*;
  * in parallel to the same original record. So unfortunately, to achieve the desired result, these filters should be applied as 
  * separate commands.</p>
  *
+ * <h3>Multi-threading</h3>
+ * <p>The filter expressions can be evaluated on several threads with -nct, which scales well on VCFs with many samples.
+ * When a mask is provided, masks may be applied to records after they are first seen, so the expressions are then
+ * evaluated in order along with the masking, and -nct only helps with reading the input.</p>
+ *
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VAREVAL, extraDocs = {CommandLineGATK.class} )
 @Reference(window=@Window(start=-50,stop=50))
-public class VariantFiltration extends RodWalker<Integer, Integer> {
+public class VariantFiltration extends RodWalker<VariantFiltration.FiltrationSite, Integer> implements NanoSchedulable {
 
     @ArgumentCollection
     protected StandardVariantContextInputArgumentCollection variantCollection = new StandardVariantContextInputArgumentCollection();
@@ -207,9 +214,18 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
     @Argument(fullName="setFilteredGtToNocall", required=false, doc="Set filtered genotypes to no-call")
     private boolean setFilteredGenotypesToNocall = false;
 
+    /**
+     * Parse the filter expressions once into compiled evaluators instead of having JEXL interpret them for every record
+     * and genotype, which is much faster on VCFs with many samples.  The results are the same as with JEXL; expressions
+     * using JEXL features that can't be compiled (e.g. method calls like vc.isSNP()) are still interpreted.
+     */
+    @Advanced
+    @Argument(fullName="compileExpressions", shortName="compileExp", doc="Compile the filter expressions instead of interpreting them with JEXL", required=false)
+    private boolean compileExpressions = false;
+
     // JEXL expressions for the filters
-    List<VariantContextUtils.JexlVCMatchExp> filterExps;
-    List<VariantContextUtils.JexlVCMatchExp> genotypeFilterExps;
+    List<VariantMatchExpression> filterExps;
+    List<VariantMatchExpression> genotypeFilterExps;
 
     public static final String CLUSTERED_SNP_FILTER_NAME = "SnpCluster";
     private ClusteredSnps clusteredSNPs = null;
@@ -222,6 +238,21 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
 
     private final List<Allele> diploidNoCallAlleles = Arrays.asList(Allele.NO_CALL, Allele.NO_CALL);
 
+    /**
+     * The records at a site, as passed from map to reduce
+     */
+    public static final class FiltrationSite {
+        private final GenomeLoc locus;
+        private final boolean hasMask;
+        private final List<FiltrationContext> contexts;
+
+        private FiltrationSite(final GenomeLoc locus, final boolean hasMask, final List<FiltrationContext> contexts) {
+            this.locus = locus;
+            this.hasMask = hasMask;
+            this.contexts = contexts;
+        }
+    }
+
     /**
      * Prepend inverse phrase to description if --invertFilterExpression
      *
@@ -256,10 +287,10 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
             hInfo.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.GENOTYPE_FILTER_KEY));
 
         try {
-            for ( VariantContextUtils.JexlVCMatchExp exp : filterExps )
-                hInfo.add(new VCFFilterHeaderLine(exp.name, possiblyInvertFilterExpression(exp.exp.toString())));
-            for ( VariantContextUtils.JexlVCMatchExp exp : genotypeFilterExps )
-                hInfo.add(new VCFFilterHeaderLine(exp.name, possiblyInvertFilterExpression(exp.exp.toString())));
+            for ( VariantMatchExpression exp : filterExps )
+                hInfo.add(new VCFFilterHeaderLine(exp.name, possiblyInvertFilterExpression(exp.getJexlExpression().exp.toString())));
+            for ( VariantMatchExpression exp : genotypeFilterExps )
+                hInfo.add(new VCFFilterHeaderLine(exp.name, possiblyInvertFilterExpression(exp.getJexlExpression().exp.toString())));
 
             if ( mask.isBound() ) {
                 if (filterRecordsNotInMask)
@@ -282,8 +313,10 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
 
         if (filterRecordsNotInMask && !mask.isBound())
             throw new UserException.BadArgumentValue("filterNotInMask","argument not allowed if mask argument is not provided");
-        filterExps = VariantContextUtils.initializeMatchExps(filterNames, filterExpressions);
-        genotypeFilterExps = VariantContextUtils.initializeMatchExps(genotypeFilterNames, genotypeFilterExpressions);
+        // the input header tells the compiled expressions which variables are INFO and FORMAT fields
+        final VCFHeader inputHeader = new VCFHeader(GATKVCFUtils.getHeaderFields(getToolkit(), Arrays.asList(variantCollection.variants.getName())));
+        filterExps = VariantMatchExpression.create(VariantContextUtils.initializeMatchExps(filterNames, filterExpressions), inputHeader, compileExpressions);
+        genotypeFilterExps = VariantMatchExpression.create(VariantContextUtils.initializeMatchExps(genotypeFilterNames, genotypeFilterExpressions), inputHeader, compileExpressions);
 
         VariantContextUtils.engine.get().setSilent(true);
 
@@ -293,64 +326,40 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
     public Integer reduceInit() { return 0; }
 
     /**
+     * Apply the filters that only depend on each record itself
+     *
+     * Map may run on several threads, so the windowed work (masks, clustered SNPs) and the writing of the records
+     * is done in reduce, which sees the sites in order.
      *
      * @param tracker  the meta-data tracker
      * @param ref      the reference base
      * @param context  the context for the given locus
-     * @return 1 if the locus was successfully processed, 0 if otherwise
+     * @return the records at the locus, or null if there's no data here
      */
-    public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    public FiltrationSite map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if ( tracker == null )
-            return 0;
+            return null;
 
         Collection<VariantContext> VCs = tracker.getValues(variantCollection.variants, context.getLocation());
 
         // is there a SNP mask present?
         boolean hasMask = (tracker.hasValues(mask) && !filterRecordsNotInMask) || (filterRecordsNotInMask && !tracker.hasValues(mask));
-        if ( hasMask )
-            previousMaskPosition = ref.getLocus();  // multi-base masks will get triggered over all bases of the mask
 
+        final List<FiltrationContext> contexts = new ArrayList<FiltrationContext>(VCs.size());
         for ( VariantContext vc : VCs ) {
 
             if ( invalidatePrevious ) {
                 vc = (new VariantContextBuilder(vc)).filters(new HashSet<String>()).make();
             }
 
-            // filter based on previous mask position
-            vc = addMaskIfCoversVariant(vc, previousMaskPosition, maskName, maskExtension, false);
-
-            FiltrationContext varContext = new FiltrationContext(ref, vc);
-
-            // if we're still initializing the context, do so
-            if ( windowInitializer != null ) {
-
-                // if this is a mask position, filter previous records
-                if ( hasMask ) {
-                    for ( FiltrationContext prevVC : windowInitializer )
-                        prevVC.setVariantContext(addMaskIfCoversVariant(prevVC.getVariantContext(), ref.getLocus(), maskName, maskExtension, true));
-                }
-
-                windowInitializer.add(varContext);
-                if ( windowInitializer.size() == WINDOW_SIZE ) {
-                    variantContextWindow = new FiltrationContextWindow(windowInitializer);
-                    windowInitializer = null;
-                }
-            } else {
-
-                // if this is a mask position, filter previous records
-                if ( hasMask ) {
-                    for ( FiltrationContext prevVC : variantContextWindow.getWindow(10, 10) ) {
-                        if ( prevVC != null )
-                            prevVC.setVariantContext(addMaskIfCoversVariant(prevVC.getVariantContext(), ref.getLocus(), maskName, maskExtension, true));
-                    }
-                }
+            // masks can be added to a record until it leaves the window, and the expressions may test for them
+            if ( !mask.isBound() )
+                vc = applyFilterExpressions(vc);
 
-                variantContextWindow.moveWindow(varContext);
-                filter();
-            }
+            contexts.add(new FiltrationContext(ref, vc));
         }
 
-        return 1;
+        return new FiltrationSite(ref.getLocus(), hasMask, contexts);
     }
 
     /**
@@ -403,7 +412,27 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
         if ( context == null )
             return;
 
-        final VariantContext vc = context.getVariantContext();
+        VariantContext vc = context.getVariantContext();
+        if ( mask.isBound() )
+            vc = applyFilterExpressions(vc);
+
+        // test for clustered SNPs if requested
+        if ( clusteredSNPs != null && clusteredSNPs.filter(variantContextWindow) ) {
+            final Set<String> filters = new LinkedHashSet<String>(vc.getFilters());
+            filters.add(CLUSTERED_SNP_FILTER_NAME);
+            vc = new VariantContextBuilder(vc).filters(filters).make();
+        }
+
+        writer.add(vc);
+    }
+
+    /**
+     * Apply the genotype and site filter expressions to a record
+     *
+     * @param vc the record
+     * @return a new record with the genotype filters applied and the site filters added to its FILTER field
+     */
+    private VariantContext applyFilterExpressions(final VariantContext vc) {
         final VariantContextBuilder builder = new VariantContextBuilder(vc);
 
         // make new Genotypes based on filters
@@ -429,8 +458,8 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
                     if ( g.isFiltered() ) filters.add(g.getFilters());
 
                     // Add if expression filters the variant context
-                    for ( VariantContextUtils.JexlVCMatchExp exp : genotypeFilterExps ) {
-                        if ( Utils.invertLogic(VariantContextUtils.match(vc, g, exp), invertGenotypeFilterExpression) )
+                    for ( VariantMatchExpression exp : genotypeFilterExps ) {
+                        if ( Utils.invertLogic(exp.match(vc, g), invertGenotypeFilterExpression) )
                             filters.add(exp.name);
                     }
 
@@ -457,13 +486,9 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
         // make a new variant context based on filters
         Set<String> filters = new LinkedHashSet<String>(vc.getFilters());
 
-        // test for clustered SNPs if requested
-        if ( clusteredSNPs != null && clusteredSNPs.filter(variantContextWindow) )
-            filters.add(CLUSTERED_SNP_FILTER_NAME);
-
-        for ( VariantContextUtils.JexlVCMatchExp exp : filterExps ) {
+        for ( VariantMatchExpression exp : filterExps ) {
             try {
-                if ( Utils.invertLogic(VariantContextUtils.match(vc, exp), invertFilterExpression) )
+                if ( Utils.invertLogic(exp.match(vc), invertFilterExpression) )
                     filters.add(exp.name);
             } catch (Exception e) {
                 // do nothing unless specifically asked to; it just means that the expression isn't defined for this context
@@ -477,11 +502,51 @@ public class VariantFiltration extends RodWalker<Integer, Integer> {
         else
             builder.filters(filters);
 
-        writer.add(builder.make());
+        return builder.make();
     }
 
-    public Integer reduce(Integer value, Integer sum) {
-        return sum + value;
+    public Integer reduce(FiltrationSite site, Integer sum) {
+        if ( site == null )
+            return sum;
+
+        if ( site.hasMask )
+            previousMaskPosition = site.locus;  // multi-base masks will get triggered over all bases of the mask
+
+        for ( final FiltrationContext varContext : site.contexts ) {
+
+            // filter based on previous mask position
+            varContext.setVariantContext(addMaskIfCoversVariant(varContext.getVariantContext(), previousMaskPosition, maskName, maskExtension, false));
+
+            // if we're still initializing the context, do so
+            if ( windowInitializer != null ) {
+
+                // if this is a mask position, filter previous records
+                if ( site.hasMask ) {
+                    for ( FiltrationContext prevVC : windowInitializer )
+                        prevVC.setVariantContext(addMaskIfCoversVariant(prevVC.getVariantContext(), site.locus, maskName, maskExtension, true));
+                }
+
+                windowInitializer.add(varContext);
+                if ( windowInitializer.size() == WINDOW_SIZE ) {
+                    variantContextWindow = new FiltrationContextWindow(windowInitializer);
+                    windowInitializer = null;
+                }
+            } else {
+
+                // if this is a mask position, filter previous records
+                if ( site.hasMask ) {
+                    for ( FiltrationContext prevVC : variantContextWindow.getWindow(10, 10) ) {
+                        if ( prevVC != null )
+                            prevVC.setVariantContext(addMaskIfCoversVariant(prevVC.getVariantContext(), site.locus, maskName, maskExtension, true));
+                    }
+                }
+
+                variantContextWindow.moveWindow(varContext);
+                filter();
+            }
+        }
+
+        return sum + 1;
     }
 
     /**
@@ -40,6 +40,7 @@ import org.broadinstitute.gatk.engine.walkers.BAQMode;
 import org.broadinstitute.gatk.engine.walkers.ReadWalker;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.smithwaterman.CompactSWPairwiseAlignment;
 import org.broadinstitute.gatk.utils.smithwaterman.Parameters;
 import org.broadinstitute.gatk.utils.smithwaterman.SWPairwiseAlignment;
 import org.broadinstitute.gatk.utils.Utils;
@@ -56,6 +57,7 @@ import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.broadinstitute.gatk.engine.io.NWaySAMFileWriter;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
 import org.broadinstitute.gatk.utils.text.XReadLines;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 import htsjdk.variant.variantcontext.VariantContext;
 
 import java.io.File;
@@ -63,6 +65,7 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Perform local realignment of reads around indels
@@ -235,6 +238,15 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     @Argument(fullName="maxReadsForRealignment", shortName="maxReads", doc="Max reads allowed at an interval for realignment", required=false)
     protected int MAX_READS = 20000;
 
+    /**
+     * The target intervals are cleaned on this many threads while the traversal keeps reading, and the results are
+     * written out in genomic order, so the output is identical to a single-threaded run.  Ignored with the USE_SW
+     * consensus model, which picks reads for its consensuses at random.
+     */
+    @Advanced
+    @Argument(fullName="numCleaningThreads", shortName="cleaningThreads", doc="Number of threads used to clean the target intervals in parallel with the traversal", required=false, minValue=0)
+    protected int NUM_CLEANING_THREADS = 0;
+
     @Advanced
     @Argument(fullName="noOriginalAlignmentTags", shortName="noTags", required=false, doc="Don't output the original cigar or alignment start tags for each realigned read in the output bam")
     protected boolean NO_ORIGINAL_ALIGNMENT_TAGS = false;
@@ -301,6 +313,12 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     private final HashSet<Object> indelRodsSeen = new HashSet<Object>();
     private final HashSet<GATKSAMRecord> readsActuallyCleaned = new HashSet<GATKSAMRecord>();
 
+    // when cleaning on multiple threads, the output waiting (in order) for the intervals still being cleaned
+    private ExecutorService cleaningPool = null;
+    private final Queue<PendingOutput> pendingOutput = new LinkedList<PendingOutput>();
+    private int nPendingCleanings = 0;
+    private int nPendingReads = 0;
+
     private static final int MAX_QUAL = 99;
 
     // fraction of mismatches that need to no longer mismatch for a column to be considered cleaned
@@ -396,6 +414,14 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         }
         manager = new ConstrainedMateFixingManager(writerToUse, getToolkit().getGenomeLocParser(), MAX_ISIZE_FOR_MOVEMENT, MAX_POS_MOVE_ALLOWED, MAX_RECORDS_IN_MEMORY);
 
+        if ( NUM_CLEANING_THREADS > 0 ) {
+            if ( consensusModel == ConsensusDeterminationModel.USE_SW )
+                logger.warn("The USE_SW consensus model picks reads at random, so the intervals will be cleaned on a single thread to keep the output reproducible");
+            else
+                // daemon threads, so that a traversal that fails before onTraversalDone doesn't leave them behind
+                cleaningPool = Executors.newFixedThreadPool(NUM_CLEANING_THREADS, new NamedThreadFactory("IndelRealigner-cleaner-%d", true));
+        }
+
         if ( OUT_INDELS != null ) {
             try {
                 indelOutput = new FileWriter(new File(OUT_INDELS));
@@ -459,6 +485,15 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     private void emit(final GATKSAMRecord read) {
+        // the read has to wait behind the intervals that are still being cleaned
+        if ( ! pendingOutput.isEmpty() ) {
+            queueOutput(new PendingOutput(read));
+            return;
+        }
+        addReadToManager(read);
+    }
+
+    private void addReadToManager(final GATKSAMRecord read) {
 
         // check to see whether the read was modified by looking at the temporary tag
         boolean wasModified = readsActuallyCleaned.contains(read);
@@ -471,15 +506,125 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     private void emitReadLists() {
-        // pre-merge lists to sort them in preparation for constrained SAMFileWriter
-        readsNotToClean.addAll(readsToClean.getReads());
-        ReadUtils.sortReadsByCoordinate(readsNotToClean);
-        manager.addReads(readsNotToClean, readsActuallyCleaned);
+        if ( cleaningPool != null ) {
+            queueReadLists(false);
+            return;
+        }
+        emitReadLists(readsNotToClean, readsToClean.getReads());
         readsToClean.clear();
         readsNotToClean.clear();
+    }
+
+    private void emitReadLists(final List<GATKSAMRecord> readsNotCleaned, final List<GATKSAMRecord> readsCleaned) {
+        // pre-merge lists to sort them in preparation for constrained SAMFileWriter
+        readsNotCleaned.addAll(readsCleaned);
+        ReadUtils.sortReadsByCoordinate(readsNotCleaned);
+        manager.addReads(readsNotCleaned, readsActuallyCleaned);
         readsActuallyCleaned.clear();
     }
 
+    /**
+     * Cleans the reads of the current interval if the manager still allows them to move, and emits them
+     */
+    private void cleanAndEmitReadLists() {
+        if ( cleaningPool != null ) {
+            queueReadLists(true);
+            return;
+        }
+        if ( readsToClean.size() > 0 ) {
+            GenomeLoc earliestPossibleMove = getToolkit().getGenomeLocParser().createGenomeLoc(readsToClean.getReads().get(0));
+            if ( manager.canMoveReads(earliestPossibleMove) )
+                clean(readsToClean);
+        }
+        emitReadLists();
+    }
+
+    /**
+     * Queues the reads of the current interval for output, starting the search for their best consensus on the
+     * cleaning threads if requested.  Whether the manager allows the reads to move can only be decided once all of
+     * the earlier reads have been handed to it, so that check (and the actual cleaning) is done in writePendingOutput().
+     *
+     * @param tryToClean should we try to clean the reads?
+     */
+    private void queueReadLists(final boolean tryToClean) {
+        final PendingOutput output = new PendingOutput(new ArrayList<GATKSAMRecord>(readsNotToClean), readsToClean);
+        if ( tryToClean && readsToClean.size() > 0 ) {
+            final ReadBin bin = readsToClean;
+            final GenomeLoc interval = currentInterval;
+            final List<VariantContext> knownIndels = new ArrayList<VariantContext>(knownIndelsToTry);
+
+            // the reference reader is only used on this thread
+            bin.getReference(referenceReader);
+            output.earliestPossibleMove = getToolkit().getGenomeLocParser().createGenomeLoc(bin.getReads().get(0));
+            output.cleaning = cleaningPool.submit(new Callable<Cleaning>() {
+                @Override
+                public Cleaning call() {
+                    return findBestConsensus(bin, interval, knownIndels);
+                }
+            });
+        }
+
+        readsToClean = new ReadBin(getToolkit().getGenomeLocParser(), REFERENCE_PADDING);
+        readsNotToClean.clear();
+        queueOutput(output);
+    }
+
+    private void queueOutput(final PendingOutput output) {
+        pendingOutput.add(output);
+        nPendingReads += output.size();
+        if ( output.cleaning != null )
+            nPendingCleanings++;
+        writePendingOutput(false);
+    }
+
+    /**
+     * Hands the pending output to the manager in order, up to the first interval that is still being cleaned
+     *
+     * @param waitForAll if true, wait for all of the intervals to be cleaned and write out everything
+     */
+    private void writePendingOutput(final boolean waitForAll) {
+        while ( ! pendingOutput.isEmpty() ) {
+            final PendingOutput output = pendingOutput.peek();
+            final boolean mustWait = waitForAll || nPendingCleanings > 2 * NUM_CLEANING_THREADS || nPendingReads > MAX_RECORDS_IN_MEMORY;
+            if ( output.cleaning != null && ! output.cleaning.isDone() && ! mustWait )
+                return;
+
+            pendingOutput.remove();
+            nPendingReads -= output.size();
+            if ( output.read != null ) {
+                addReadToManager(output.read);
+                continue;
+            }
+            if ( output.cleaning != null ) {
+                nPendingCleanings--;
+                final Cleaning cleaning = getResult(output.cleaning);
+                if ( manager.canMoveReads(output.earliestPossibleMove) )
+                    applyCleaning(cleaning);
+            }
+            emitReadLists(output.readsNotToClean, output.readsToClean.getReads());
+        }
+    }
+
+    /**
+     * Waits for the result of a cleaning, shutting down the cleaning threads if it failed as we won't be needing them again
+     */
+    private <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            cleaningPool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while waiting for an interval to be cleaned", e);
+        } catch (ExecutionException e) {
+            cleaningPool.shutdownNow();
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException) e.getCause();
+            if ( e.getCause() instanceof Error )
+                throw (Error) e.getCause();
+            throw new ReviewedGATKException("Failed to clean an interval", e.getCause());
+        }
+    }
+
     public Integer map(ReferenceContext ref, GATKSAMRecord read, RefMetaDataTracker metaDataTracker) {
         if ( currentInterval == null ) {
             emit(read);
@@ -549,15 +694,10 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     private void cleanAndCallMap(ReferenceContext ref, GATKSAMRecord read, RefMetaDataTracker metaDataTracker, GenomeLoc readLoc) {
-        if ( readsToClean.size() > 0 ) {
-            GenomeLoc earliestPossibleMove = getToolkit().getGenomeLocParser().createGenomeLoc(readsToClean.getReads().get(0));
-            if ( manager.canMoveReads(earliestPossibleMove) )
-                clean(readsToClean);
-        }
+        cleanAndEmitReadLists();
         knownIndelsToTry.clear();
         indelRodsSeen.clear();
 
-        emitReadLists();
         try {
             do {
                 currentInterval = intervals.hasNext() ? intervals.next() : null;
@@ -581,14 +721,10 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     public void onTraversalDone(Integer result) {
-        if ( readsToClean.size() > 0 ) {
-            GenomeLoc earliestPossibleMove = getToolkit().getGenomeLocParser().createGenomeLoc(readsToClean.getReads().get(0));
-            if ( manager.canMoveReads(earliestPossibleMove) )
-                clean(readsToClean);
-            emitReadLists();
-        } else if ( readsNotToClean.size() > 0 ) {
-            emitReadLists();                            
-        }
+        cleanAndEmitReadLists();
+        writePendingOutput(true);
+        if ( cleaningPool != null )
+            cleaningPool.shutdown();
 
         knownIndelsToTry.clear();
         indelRodsSeen.clear();
@@ -663,13 +799,27 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     }
 
     private void clean(ReadBin readsToClean) {
-
-        final List<GATKSAMRecord> reads = readsToClean.getReads();
-        if ( reads.size() == 0 )
+        if ( readsToClean.size() == 0 )
             return;
 
-        byte[] reference = readsToClean.getReference(referenceReader);
-        int leftmostIndex = readsToClean.getLocation().getStart();
+        applyCleaning(findBestConsensus(readsToClean, currentInterval, knownIndelsToTry));
+    }
+
+    /**
+     * Searches for the alternate consensus that best explains the reads in the bin and decides whether the reads
+     * should be cleaned against it.  None of the reads are modified here (only their AlignedRead wrappers), so this
+     * can run on a cleaning thread while the traversal continues; applyCleaning() finishes the job.
+     *
+     * @param readsToClean the reads to clean, whose reference must already have been fetched when run on a cleaning thread
+     * @param interval     the target interval the reads belong to
+     * @param knownIndels  the known indels overlapping the reads
+     * @return the outcome of the search
+     */
+    private Cleaning findBestConsensus(final ReadBin readsToClean, final GenomeLoc interval, final List<VariantContext> knownIndels) {
+
+        final List<GATKSAMRecord> reads = readsToClean.getReads();
+        final byte[] reference = readsToClean.getReference(referenceReader);
+        final int leftmostIndex = readsToClean.getLocation().getStart();
 
         final ArrayList<GATKSAMRecord> refReads = new ArrayList<GATKSAMRecord>();                 // reads that perfectly match ref
         final ArrayList<AlignedRead> altReads = new ArrayList<AlignedRead>();               // reads that don't perfectly match
@@ -677,7 +827,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         final Set<Consensus> altConsenses = new LinkedHashSet<Consensus>();               // list of alt consenses
 
         // if there are any known indels for this region, get them and create alternate consenses
-        generateAlternateConsensesFromKnownIndels(altConsenses, leftmostIndex, reference);
+        generateAlternateConsensesFromKnownIndels(knownIndels, altConsenses, leftmostIndex, reference);
 
         // decide which reads potentially need to be cleaned;
         // if there are reads with a single indel in them, add that indel to the list of alternate consenses
@@ -749,6 +899,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         // 3) didn't just move around the mismatching columns (i.e. it actually reduces entropy), 
         // then clean!
         final double improvement = (bestConsensus == null ? -1 : ((double)(totalRawMismatchSum - bestConsensus.mismatchSum))/10.0);
+        final Cleaning cleaning = new Cleaning(interval, reads, reference, leftmostIndex, altReads, bestConsensus, totalRawMismatchSum, improvement);
         if ( improvement >= LOD_THRESHOLD ) {
 
             bestConsensus.cigar = AlignmentUtils.leftAlignIndel(bestConsensus.cigar, reference, bestConsensus.str, bestConsensus.positionOnReference, bestConsensus.positionOnReference, true);
@@ -756,13 +907,47 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
            // start cleaning the appropriate reads
             for ( Pair<Integer, Integer> indexPair : bestConsensus.readIndexes ) {
                 AlignedRead aRead = altReads.get(indexPair.first);
-                if ( !updateRead(bestConsensus.cigar, bestConsensus.positionOnReference, indexPair.second, aRead, leftmostIndex) )
-                    return;
+                if ( !updateRead(bestConsensus.cigar, bestConsensus.positionOnReference, indexPair.second, aRead, leftmostIndex) ) {
+                    cleaning.outcome = CleaningOutcome.UPDATE_FAILED;
+                    return cleaning;
+                }
             }
-            if ( consensusModel != ConsensusDeterminationModel.KNOWNS_ONLY && !alternateReducesEntropy(altReads, reference, leftmostIndex) ) {
+            if ( consensusModel != ConsensusDeterminationModel.KNOWNS_ONLY && !alternateReducesEntropy(altReads, reference, leftmostIndex, cleaning.snps) )
+                cleaning.outcome = CleaningOutcome.ENTROPY_NOT_REDUCED;
+            else
+                cleaning.outcome = CleaningOutcome.CLEAN;
+        } else {
+            cleaning.outcome = CleaningOutcome.NOT_IMPROVED;
+        }
+
+        return cleaning;
+    }
+
+    /**
+     * Writes out the outcome of findBestConsensus() and, if it was decided to clean the reads, updates them in place
+     * and adds them to readsActuallyCleaned.  Must be called on the traversal thread, in the order of the intervals.
+     *
+     * @param cleaning the outcome of the consensus search
+     */
+    private void applyCleaning(final Cleaning cleaning) {
+        final GenomeLoc interval = cleaning.interval;
+        final List<GATKSAMRecord> reads = cleaning.reads;
+        final ArrayList<AlignedRead> altReads = cleaning.altReads;
+        final Consensus bestConsensus = cleaning.bestConsensus;
+        final long totalRawMismatchSum = cleaning.totalRawMismatchSum;
+        final double improvement = cleaning.improvement;
+        byte[] reference = cleaning.reference;
+        int leftmostIndex = cleaning.leftmostIndex;
+
+        if ( cleaning.outcome == CleaningOutcome.UPDATE_FAILED )
+            return;
+
+        if ( cleaning.outcome != CleaningOutcome.NOT_IMPROVED ) {
+
+            if ( cleaning.outcome == CleaningOutcome.ENTROPY_NOT_REDUCED ) {
                 if ( statsOutput != null ) {
                     try {
-                        statsOutput.write(currentInterval.toString());
+                        statsOutput.write(interval.toString());
                         statsOutput.write("\tFAIL (bad indel)\t"); // if improvement > LOD_THRESHOLD *BUT* entropy is not reduced (SNPs still exist)
                         statsOutput.write(Double.toString(improvement));
                         statsOutput.write("\n");
@@ -772,6 +957,15 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                     }
                 }
             } else {
+                if ( snpsOutput != null && cleaning.snps.length() > 0 ) {
+                    try {
+                        snpsOutput.write(cleaning.snps.toString());
+                        snpsOutput.flush();
+                    } catch (Exception e) {
+                        throw new UserException.CouldNotCreateOutputFile("snpsOutput", "Failed to write SNPs output file", e);
+                    }
+                }
+
                 //logger.debug("CLEAN: " + bestConsensus.cigar + " " + bestConsensus.str.toString() + " " + bestConsensus.cigar.numCigarElements() );
                 if ( indelOutput != null && bestConsensus.cigar.numCigarElements() > 1 ) {
                     // NOTE: indels are printed out in the format specified for the low-coverage pilot1
@@ -800,7 +994,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                 }
                 if ( statsOutput != null ) {
                     try {
-                        statsOutput.write(currentInterval.toString());
+                        statsOutput.write(interval.toString());
                         statsOutput.write("\tCLEAN"); // if improvement > LOD_THRESHOLD *AND* entropy is reduced
                         if ( bestConsensus.cigar.numCigarElements() > 1 )
                             statsOutput.write(" (found indel)");
@@ -816,7 +1010,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                 // finish cleaning the appropriate reads
                 for ( Pair<Integer, Integer> indexPair : bestConsensus.readIndexes ) {
                     final AlignedRead aRead = altReads.get(indexPair.first);
-                    if ( aRead.finalizeUpdate() ) {
+                    if ( aRead.finalizeUpdate(interval) ) {
                         // We need to update the mapping quality score of the cleaned reads;
                         // however we don't have enough info to use the proper MAQ scoring system.
                         // For now, we will just arbitrarily add 10 to the mapping quality. [EB, 6/7/2010].
@@ -831,8 +1025,8 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
                         int neededBases = Math.max(neededBasesToLeft, neededBasesToRight);
                         if ( neededBases > 0 ) {
                             int padLeft = Math.max(leftmostIndex-neededBases, 1);
-                            int padRight = Math.min(leftmostIndex+reference.length+neededBases, referenceReader.getSequenceDictionary().getSequence(currentInterval.getContig()).getSequenceLength());
-                            reference = referenceReader.getSubsequenceAt(currentInterval.getContig(), padLeft, padRight).getBases();
+                            int padRight = Math.min(leftmostIndex+reference.length+neededBases, referenceReader.getSequenceDictionary().getSequence(interval.getContig()).getSequenceLength());
+                            reference = referenceReader.getSubsequenceAt(interval.getContig(), padLeft, padRight).getBases();
                             leftmostIndex = padLeft;
                         }
 
@@ -861,7 +1055,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         } else if ( statsOutput != null ) {
             try {
                 statsOutput.write(String.format("%s\tFAIL\t%.1f%n",
-                        currentInterval.toString(), improvement));
+                        interval.toString(), improvement));
                 statsOutput.flush();
             } catch (Exception e) {
                 throw new UserException.CouldNotCreateOutputFile("statsOutput", "Failed to write stats output file", e);
@@ -869,8 +1063,8 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         }
     }
 
-    private void generateAlternateConsensesFromKnownIndels(final Set<Consensus> altConsensesToPopulate, final int leftmostIndex, final byte[] reference) {
-        for ( VariantContext knownIndel : knownIndelsToTry ) {
+    private void generateAlternateConsensesFromKnownIndels(final List<VariantContext> knownIndels, final Set<Consensus> altConsensesToPopulate, final int leftmostIndex, final byte[] reference) {
+        for ( VariantContext knownIndel : knownIndels ) {
             if ( knownIndel == null || !knownIndel.isIndel() || knownIndel.isComplexIndel() )
                 continue;
             final byte[] indelStr;
@@ -972,7 +1166,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     private void createAndAddAlternateConsensus(final byte[] read, final Set<Consensus> altConsensesToPopulate, final byte[] reference) {
 
         // do a pairwise alignment against the reference
-         SWPairwiseAlignment swConsensus = new SWPairwiseAlignment(reference, read, swParameters);
+         SWPairwiseAlignment swConsensus = new CompactSWPairwiseAlignment(reference, read, swParameters);
          Consensus c = createAlternateConsensus(swConsensus.getAlignmentStart2wrt1(), swConsensus.getCigar(), reference, read);
          if ( c != null )
              altConsensesToPopulate.add(c);
@@ -989,7 +1183,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
          }
          // do a pairwise alignment against the reference
          SWalignmentRuns++;
-         SWPairwiseAlignment swConsensus = new SWPairwiseAlignment(reference, read.getReadBases(), swParameters);
+         SWPairwiseAlignment swConsensus = new CompactSWPairwiseAlignment(reference, read.getReadBases(), swParameters);
          Consensus c = createAlternateConsensus(swConsensus.getAlignmentStart2wrt1(), swConsensus.getCigar(), reference, read.getReadBases());
          if ( c != null ) {
              altConsensesToPopulate.add(c);
@@ -1250,7 +1444,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         return true;
     }
 
-    private boolean alternateReducesEntropy(final List<AlignedRead> reads, final byte[] reference, final int leftmostIndex) {
+    private boolean alternateReducesEntropy(final List<AlignedRead> reads, final byte[] reference, final int leftmostIndex, final StringBuilder sb) {
         final int[] originalMismatchBases = new int[reference.length];
         final int[] cleanedMismatchBases = new int[reference.length];
         final int[] totalOriginalBases = new int[reference.length];
@@ -1312,7 +1506,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         }
 
         int originalMismatchColumns = 0, cleanedMismatchColumns = 0;
-        StringBuilder sb = new StringBuilder();
+        final int snpsLength = sb.length();
         for ( int i=0; i < reference.length; i++ ) {
             if ( cleanedMismatchBases[i] == originalMismatchBases[i] )
                 continue;
@@ -1340,15 +1534,10 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
 
         //logger.debug("Original mismatch columns = " + originalMismatchColumns + "; cleaned mismatch columns = " + cleanedMismatchColumns);
 
+        // the SNPs are only reported (by applyCleaning) if the reads get cleaned
         final boolean reduces = (originalMismatchColumns == 0 || cleanedMismatchColumns < originalMismatchColumns);
-        if ( reduces && snpsOutput != null ) {
-            try {
-                snpsOutput.write(sb.toString());
-                snpsOutput.flush();
-            } catch (Exception e) {
-                throw new UserException.CouldNotCreateOutputFile("snpsOutput", "Failed to write SNPs output file", e);
-            }
-        }
+        if ( ! reduces )
+            sb.setLength(snpsLength);
         return reduces;
     }
 
@@ -1514,7 +1703,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
 
         // finalizes the changes made.
         // returns true if this record actually changes, false otherwise
-        public boolean finalizeUpdate() {
+        public boolean finalizeUpdate(final GenomeLoc interval) {
             // if we haven't made any changes, don't do anything
             if ( newCigar == null )
                 return false;
@@ -1534,7 +1723,7 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
             read.setAlignmentStart(newStart);
 
             // back out if necessary
-            if ( realignmentProducesBadAlignment(read) ) {
+            if ( realignmentProducesBadAlignment(read, interval) ) {
                 read.setCigar(oldCigar);
                 read.setAlignmentStart(oldStart);
                 return false;
@@ -1570,11 +1759,12 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     /**
      * Determines whether the read aligns off the end of the contig
      *
-     * @param read  the read to check
+     * @param read      the read to check
+     * @param interval  the target interval the read is being cleaned in
      * @return true if it aligns off the end
      */
-    private boolean realignmentProducesBadAlignment(final GATKSAMRecord read) {
-        final int contigLength = referenceReader.getSequenceDictionary().getSequence(currentInterval.getContig()).getSequenceLength();
+    private boolean realignmentProducesBadAlignment(final GATKSAMRecord read, final GenomeLoc interval) {
+        final int contigLength = referenceReader.getSequenceDictionary().getSequence(interval.getContig()).getSequenceLength();
         return realignmentProducesBadAlignment(read, contigLength);
     }
 
@@ -1589,6 +1779,73 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         return read.getAlignmentEnd() > contigLength;
     }
 
+    /**
+     * Output waiting for an earlier interval to be cleaned: either a single read, or the reads of an interval along
+     * with the (possibly still running) search for their best consensus
+     */
+    private static class PendingOutput {
+        private final GATKSAMRecord read;
+        private final List<GATKSAMRecord> readsNotToClean;
+        private final ReadBin readsToClean;
+        private GenomeLoc earliestPossibleMove = null;
+        private Future<Cleaning> cleaning = null;
+
+        private PendingOutput(final GATKSAMRecord read) {
+            this.read = read;
+            this.readsNotToClean = null;
+            this.readsToClean = null;
+        }
+
+        private PendingOutput(final List<GATKSAMRecord> readsNotToClean, final ReadBin readsToClean) {
+            this.read = null;
+            this.readsNotToClean = readsNotToClean;
+            this.readsToClean = readsToClean;
+        }
+
+        private int size() {
+            return read != null ? 1 : readsNotToClean.size() + readsToClean.size();
+        }
+    }
+
+    private enum CleaningOutcome {
+        /** the best alternate consensus doesn't beat the LOD threshold */
+        NOT_IMPROVED,
+        /** one of the reads could not be realigned to the best alternate consensus */
+        UPDATE_FAILED,
+        /** the best alternate consensus just moves the mismatching columns around */
+        ENTROPY_NOT_REDUCED,
+        /** the reads should be cleaned */
+        CLEAN
+    }
+
+    /**
+     * Everything findBestConsensus() learned about a bin of reads that applyCleaning() needs to finish cleaning it
+     */
+    private class Cleaning {
+        private final GenomeLoc interval;
+        private final List<GATKSAMRecord> reads;
+        private final byte[] reference;
+        private final int leftmostIndex;
+        private final ArrayList<AlignedRead> altReads;
+        private final Consensus bestConsensus;
+        private final long totalRawMismatchSum;
+        private final double improvement;
+        private final StringBuilder snps = new StringBuilder();
+        private CleaningOutcome outcome;
+
+        private Cleaning(final GenomeLoc interval, final List<GATKSAMRecord> reads, final byte[] reference, final int leftmostIndex,
+                         final ArrayList<AlignedRead> altReads, final Consensus bestConsensus, final long totalRawMismatchSum, final double improvement) {
+            this.interval = interval;
+            this.reads = reads;
+            this.reference = reference;
+            this.leftmostIndex = leftmostIndex;
+            this.altReads = altReads;
+            this.bestConsensus = bestConsensus;
+            this.totalRawMismatchSum = totalRawMismatchSum;
+            this.improvement = improvement;
+        }
+    }
+
     private static class Consensus {
         public final byte[] str;
         public final ArrayList<Pair<Integer, Integer>> readIndexes;
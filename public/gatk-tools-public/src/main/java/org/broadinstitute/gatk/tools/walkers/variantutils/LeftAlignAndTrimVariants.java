@@ -38,6 +38,7 @@ import org.broadinstitute.gatk.engine.arguments.StandardVariantContextInputArgum
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulable;
 import org.broadinstitute.gatk.engine.walkers.Reference;
 import org.broadinstitute.gatk.engine.walkers.RodWalker;
 import org.broadinstitute.gatk.engine.walkers.Window;
@@ -136,7 +137,7 @@ import java.util.*;
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARMANIP, extraDocs = {CommandLineGATK.class} )
 @Reference(window=@Window(start=-200,stop=200))    // WARNING: if this changes,MAX_INDEL_LENGTH needs to change as well!
-public class LeftAlignAndTrimVariants extends RodWalker<Integer, Integer> {
+public class LeftAlignAndTrimVariants extends RodWalker<List<Pair<VariantContext,Integer>>, Integer> implements NanoSchedulable {
 
     // Log message for a reference allele that is too long
     protected static final String REFERENCE_ALLELE_TOO_LONG_MSG = "Reference allele is too long";
@@ -199,34 +200,52 @@ public class LeftAlignAndTrimVariants extends RodWalker<Integer, Integer> {
         referenceWindowStop = getToolkit().getArguments().reference_window_stop;
     }
 
-    public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    /**
+     * Trim and left align the variants at this site
+     *
+     * Map may run on several threads, so the variants are written out in reduce.
+     *
+     * @return the new variants, each with 1 if it was left-aligned and 0 otherwise
+     */
+    public List<Pair<VariantContext,Integer>> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if ( tracker == null )
-            return 0;
+            return Collections.emptyList();
 
         Collection<VariantContext> VCs = tracker.getValues(variantCollection.variants, context.getLocation());
 
-        int changedSites = 0;
+        final List<Pair<VariantContext,Integer>> results = new ArrayList<>(VCs.size());
         for ( final VariantContext vc : VCs ) {
             // split first into biallelics, and optionally don't trim alleles to minimal representation
             if (splitMultiallelics) {
                 final List<VariantContext> vcList = GATKVariantContextUtils.splitVariantContextToBiallelics(vc, false,
                         GATKVariantContextUtils.GenotypeAssignmentMethod.BEST_MATCH_TO_ORIGINAL, keepOriginalChrCounts);
                 for (final VariantContext biallelicVC: vcList) {
-                    changedSites += trimAlignWrite(biallelicVC, ref, vcList.size());
+                    addIfNotNull(results, trimAlign(biallelicVC, ref, vcList.size()));
                 }
             }
             else {
-                changedSites += trimAlignWrite(vc, ref, 1);
+                addIfNotNull(results, trimAlign(vc, ref, 1));
             }
         }
 
-        return changedSites;
+        return results;
+    }
+
+    private static void addIfNotNull(final List<Pair<VariantContext,Integer>> results, final Pair<VariantContext,Integer> result) {
+        if ( result != null )
+            results.add(result);
     }
 
     public Integer reduceInit() { return 0; }
 
-    public Integer reduce(Integer value, Integer sum) {
-        return sum + value;
+    public Integer reduce(List<Pair<VariantContext,Integer>> results, Integer sum) {
+        for ( final Pair<VariantContext,Integer> result : results ) {
+            // write out new VC
+            writer.add(result.first);
+            // number of records left aligned
+            sum += result.second;
+        }
+        return sum;
     }
 
     public void onTraversalDone(Integer result) {
@@ -235,15 +254,15 @@ public class LeftAlignAndTrimVariants extends RodWalker<Integer, Integer> {
     }
 
     /**
-     * Trim, align and write out the vc.
+     * Trim and align the vc.
      *
      * @param vc                Input VC with variants to left align
      * @param ref               Reference context
      * @param numBiallelics     Number of biallelics from the original VC
-     * @return                  Number of records left-aligned (0 or 1)
+     * @return                  The new VC and the number of records left-aligned (0 or 1), or null if the vc is skipped
      */
     @Requires("vc != null")
-    protected int trimAlignWrite(final VariantContext vc, final ReferenceContext ref, final int numBiallelics ){
+    protected Pair<VariantContext,Integer> trimAlign(final VariantContext vc, final ReferenceContext ref, final int numBiallelics ){
 
         final int refLength =  vc.getReference().length();
 
@@ -251,20 +270,14 @@ public class LeftAlignAndTrimVariants extends RodWalker<Integer, Integer> {
         if ( refLength > MAX_INDEL_LENGTH && refLength > referenceWindowStop ) {
             logger.info(String.format("%s (%d) at position %s:%d; skipping that record. Set --reference_window_stop >= %d",
                         REFERENCE_ALLELE_TOO_LONG_MSG, refLength, vc.getChr(), vc.getStart(), refLength));
-            return 0;
+            return null;
         }
 
         // optionally don't trim VC
         final VariantContext v = dontTrimAlleles ? vc : GATKVariantContextUtils.trimAlleles(vc, true, true);
 
         // align the VC
-        final Pair<VariantContext,Integer> result = alignAndWrite(v, ref);
-
-        // write out new VC
-        writer.add(result.first);
-
-        // number of records left aligned
-        return result.second;
+        return alignAndWrite(v, ref);
     }
 
     /**
@@ -42,6 +42,7 @@ import org.broadinstitute.gatk.engine.GATKVCFUtils;
 import org.broadinstitute.gatk.utils.variant.GATKVCFConstants;
 import org.broadinstitute.gatk.utils.variant.GATKVCFHeaderLines;
 import org.broadinstitute.gatk.utils.variant.GATKVariantContextUtils;
+import org.broadinstitute.gatk.utils.variant.jexl.VariantMatchExpression;
 import htsjdk.variant.vcf.*;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.help.DocumentedGATKFeature;
@@ -597,6 +598,15 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
     @Argument(fullName="forceValidOutput", required=false, doc="Forces output VCF to be compliant to up-to-date version")
     private boolean forceValidOutput = false;
 
+    /**
+     * Parse the select expressions once into compiled evaluators instead of having JEXL interpret them for every record.
+     * The results are the same as with JEXL; expressions using JEXL features that can't be compiled (e.g. method calls
+     * like vc.isSNP()) are still interpreted.
+     */
+    @Advanced
+    @Argument(fullName="compileExpressions", shortName="compileExp", doc="Compile the select expressions instead of interpreting them with JEXL", required=false)
+    private boolean compileExpressions = false;
+
     public enum NumberAlleleRestriction {
         ALL,
         BIALLELIC,
@@ -605,7 +615,7 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
 
     private ArrayList<VariantContext.Type> selectedTypes = new ArrayList<>();
     private ArrayList<String> selectNames = new ArrayList<>();
-    private List<VariantContextUtils.JexlVCMatchExp> jexls = null;
+    private List<VariantMatchExpression> jexls = null;
 
     private TreeSet<String> samples = new TreeSet<>();
     private boolean noSamplesSpecified = false;
@@ -731,7 +741,8 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
             selectNames.add(String.format("select-%d", i));
         }
 
-        jexls = VariantContextUtils.initializeMatchExps(selectNames, selectExpressions);
+        jexls = VariantMatchExpression.create(VariantContextUtils.initializeMatchExps(selectNames, selectExpressions),
+                new VCFHeader(headerLines), compileExpressions);
 
         // Look at the parameters to decide which analysis to perform
         discordanceOnly = discordanceTrack.isBound();
@@ -862,8 +873,8 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
                 boolean failedJexlMatch = false;
 
                 try {
-                    for (VariantContextUtils.JexlVCMatchExp jexl : jexls) {
-                        if ( Utils.invertLogic(!VariantContextUtils.match(filteredGenotypeToNocall, jexl), invertSelect) ){
+                    for (VariantMatchExpression jexl : jexls) {
+                        if ( Utils.invertLogic(!jexl.match(filteredGenotypeToNocall), invertSelect) ){
                             failedJexlMatch = true;
                             break;
                         }
@@ -32,6 +32,7 @@ import htsjdk.variant.vcf.VCFConstants;
 import org.broadinstitute.gatk.engine.CommandLineGATK;
 import org.broadinstitute.gatk.engine.arguments.DbsnpArgumentCollection;
 import org.broadinstitute.gatk.engine.arguments.StandardVariantContextInputArgumentCollection;
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulable;
 import org.broadinstitute.gatk.engine.walkers.Reference;
 import org.broadinstitute.gatk.engine.walkers.RodWalker;
 import org.broadinstitute.gatk.engine.walkers.Window;
@@ -125,7 +126,7 @@ import java.util.*;
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VAREVAL, extraDocs = {CommandLineGATK.class} )
 @Reference(window=@Window(start=0,stop=100))
-public class ValidateVariants extends RodWalker<GenomeLoc, GenomeLocSortedSet> {
+public class ValidateVariants extends RodWalker<ValidateVariants.SiteValidation, GenomeLocSortedSet> implements NanoSchedulable {
 
     // Log message for a reference allele that is too long
     protected static final String REFERENCE_ALLELE_TOO_LONG_MSG = "Reference allele is too long";
@@ -214,33 +215,67 @@ public class ValidateVariants extends RodWalker<GenomeLoc, GenomeLocSortedSet> {
      */
     private Collection<ValidationType> validationTypes;
 
+    /**
+     * The result of validating the records at a site, as passed from map to reduce
+     */
+    public static final class SiteValidation {
+        private final GenomeLoc span;
+        private final List<TribbleException> failures;
+
+        private SiteValidation(final GenomeLoc span, final List<TribbleException> failures) {
+            this.span = span;
+            this.failures = failures;
+        }
+    }
+
     public void initialize() {
         file = new File(variantCollection.variants.getSource());
         validationTypes = calculateValidationTypesToApply(excludeTypes);
         referenceWindowStop = getToolkit().getArguments().reference_window_stop;
     }
 
-    public GenomeLoc map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    /**
+     * Validate the records at a site
+     *
+     * Map may run on several threads, so the failures are counted, reported or thrown in reduce, in the order of the
+     * records in the file.
+     */
+    public SiteValidation map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if ( tracker == null )
             return null;
 
         int lastVcEnd = -1;
+        final List<TribbleException> failures = new ArrayList<>();
 
         Collection<VariantContext> VCs = tracker.getValues(variantCollection.variants, context.getLocation());
         if (VALIDATE_GVCF && VCs.size() > 1) {
             logger.error("GVCF validation can only be performed one file at a time. Validation results are invalid.");
         }
         for ( VariantContext vc : VCs ) {
-            validate(vc, tracker, ref, VALIDATE_GVCF);
+            final TribbleException failure = validate(vc, tracker, ref, VALIDATE_GVCF);
+            if ( failure != null )
+                failures.add(failure);
             lastVcEnd = vc.getEnd();
         }
 
-        return GenomeLoc.setStop(ref.getLocus(), lastVcEnd);
+        return new SiteValidation(GenomeLoc.setStop(ref.getLocus(), lastVcEnd), failures);
     }
 
     @Override
-    public GenomeLocSortedSet reduce(GenomeLoc value, GenomeLocSortedSet sum) {
-        sum.add(value, true);
+    public GenomeLocSortedSet reduce(SiteValidation value, GenomeLocSortedSet sum) {
+        if ( value == null )
+            return sum;
+
+        for ( final TribbleException e : value.failures ) {
+            if ( WARN_ON_ERROR ) {
+                numErrors++;
+                logger.warn("***** " + e.getMessage() + " *****");
+            } else {
+                throw new UserException.FailsStrictValidation(file, e.getMessage());
+            }
+        }
+
+        sum.add(value.span, true);
         return sum;
     }
 
@@ -273,9 +308,14 @@ public class ValidateVariants extends RodWalker<GenomeLoc, GenomeLocSortedSet> {
             System.out.println("Found " + numErrors + " records with failures.");                     
     }
 
-    private void validate(VariantContext vc, RefMetaDataTracker tracker, ReferenceContext ref, boolean gvcf) {
+    /**
+     * Validate a record
+     *
+     * @return the validation failure, or null if the record is valid or wasn't validated
+     */
+    private TribbleException validate(VariantContext vc, RefMetaDataTracker tracker, ReferenceContext ref, boolean gvcf) {
         if ( DO_NOT_VALIDATE_FILTERED && vc.isFiltered() )
-            return;
+            return null;
 
         // get the true reference allele
         final Allele reportedRefAllele = vc.getReference();
@@ -285,7 +325,7 @@ public class ValidateVariants extends RodWalker<GenomeLoc, GenomeLocSortedSet> {
         if ( refLength > 100 && refLength > referenceWindowStop ) {
             logger.info(String.format("%s (%d) at position %s:%d; skipping that record. Set --reference_window_stop >= %d",
                     REFERENCE_ALLELE_TOO_LONG_MSG, refLength, vc.getContig(), vc.getStart(), refLength));
-            return;
+            return null;
         }
 
         final byte[] observedRefBases = new byte[refLength];
@@ -308,13 +348,9 @@ public class ValidateVariants extends RodWalker<GenomeLoc, GenomeLocSortedSet> {
                 ValidateGVCFVariant(vc);
             }
         } catch (TribbleException e) {
-            if ( WARN_ON_ERROR ) {
-                numErrors++;
-                logger.warn("***** " + e.getMessage() + " *****");
-            } else {
-                throw new UserException.FailsStrictValidation(file, e.getMessage());
-            }
+            return e;
         }
+        return null;
     }
 
     /**
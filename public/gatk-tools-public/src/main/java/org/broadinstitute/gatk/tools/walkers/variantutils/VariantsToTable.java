@@ -39,6 +39,7 @@ import htsjdk.variant.variantcontext.VariantContext;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
 import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
+import org.broadinstitute.gatk.engine.walkers.NanoSchedulable;
 import org.broadinstitute.gatk.engine.walkers.RodWalker;
 import org.broadinstitute.gatk.utils.Utils;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
@@ -106,7 +107,7 @@ import java.util.*;
  * @since 2010
  */
 @DocumentedGATKFeature( groupName = HelpConstants.DOCS_CAT_VARMANIP, extraDocs = {CommandLineGATK.class} )
-public class VariantsToTable extends RodWalker<Integer, Integer> {
+public class VariantsToTable extends RodWalker<List<List<List<String>>>, Integer> implements NanoSchedulable {
     /**
      * Variants from this VCF file are used by this tool as input.
      * The file must at least contain the standard VCF header lines, but
@@ -146,7 +147,7 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
      */
     @Argument(fullName="maxRecords", shortName="M", doc="If provided, we will emit at most maxRecord records to the table", required=false)
     public int MAX_RECORDS = -1;
-    long nRecords = 0L;
+    volatile long nRecords = 0L;
 
     /**
      * By default, records with multiple ALT alleles will comprise just one line of output; note that in general this can make your resulting file
@@ -203,23 +204,24 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
         }
     }
 
-    public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    /**
+     * Extract the field values of the variants at this site
+     *
+     * Map may run on several threads, so the records are numbered and written out in reduce.
+     *
+     * @return for each variant to emit, the list of its output records, or null if there's no data here
+     */
+    public List<List<List<String>>> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if ( tracker == null ) // RodWalkers can make funky map calls
-            return 0;
+            return null;
 
+        final List<List<List<String>>> records = new ArrayList<List<List<String>>>();
         for ( VariantContext vc : tracker.getValues(variants, context.getLocation())) {
-            if ( showFiltered || vc.isNotFiltered() ) {
-                nRecords++;
-                for ( final List<String> record : extractFields(vc, fieldsToTake, genotypeFieldsToTake, samples, ALLOW_MISSING_DATA, splitMultiAllelic) ) {
-                    if ( moltenizeOutput )
-                        emitMoltenizedOutput(record);
-                    else
-                        out.println(Utils.join("\t", record));
-                }
-            }
+            if ( showFiltered || vc.isNotFiltered() )
+                records.add(extractFields(vc, fieldsToTake, genotypeFieldsToTake, samples, ALLOW_MISSING_DATA, splitMultiAllelic));
         }
-        
-        return 1;
+
+        return records;
     }
 
     @Override
@@ -387,10 +389,28 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
         return extractFields(vc, fields, null, null, allowMissingData, false);
     }
     //
-    // default reduce -- doesn't do anything at all
+    // reduce -- writes out the records in order
     //
     public Integer reduceInit() { return 0; }
-    public Integer reduce(Integer counter, Integer sum) { return counter + sum; }
+
+    public Integer reduce(List<List<List<String>>> records, Integer sum) {
+        // with multiple threads, map may have run on sites beyond the last one we want to emit
+        if ( records == null || isDone() )
+            return sum;
+
+        for ( final List<List<String>> variantRecords : records ) {
+            nRecords++;
+            for ( final List<String> record : variantRecords ) {
+                if ( moltenizeOutput )
+                    emitMoltenizedOutput(record);
+                else
+                    out.println(Utils.join("\t", record));
+            }
+        }
+
+        return sum + 1;
+    }
+
     public void onTraversalDone(Integer sum) {}
 
     // ----------------------------------------------------------------------------------------------------
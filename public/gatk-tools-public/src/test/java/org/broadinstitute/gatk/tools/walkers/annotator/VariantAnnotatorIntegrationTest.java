@@ -0,0 +1,42 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.annotator;
+
+import org.broadinstitute.gatk.engine.walkers.WalkerTest;
+import org.testng.annotations.Test;
+
+public class VariantAnnotatorIntegrationTest extends WalkerTest {
+    @Test
+    public void testAnnotateAcrossCPUThreads() {
+        final String variants = publicTestDir + "forMultiThreadedVariantWalkers.vcf";
+        executeTestAcrossCPUThreads("testAnnotateAcrossCPUThreads",
+                "-T VariantAnnotator -R " + exampleFASTA + " --no_cmdline_in_header -o %s -V " + variants +
+                        " --resource:resource " + variants + " -E resource.FS" +
+                        " --comp:knownIndels " + publicTestDir + "forMultiThreadedVariantWalkers.indels.vcf" +
+                        " -A AlleleBalance -A FractionInformativeReads",
+                1, 4);
+    }
+}
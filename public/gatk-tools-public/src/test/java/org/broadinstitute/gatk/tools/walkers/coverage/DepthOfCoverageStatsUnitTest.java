@@ -0,0 +1,213 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.coverage;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.BaseUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class DepthOfCoverageStatsUnitTest extends BaseTest {
+    private final static int N_LOCI = 200;
+
+    @DataProvider(name = "StatsData")
+    public Object[][] makeStatsData() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+        for ( final int nSamples : Arrays.asList(1, 2, 10, 50) ) {
+            tests.add(new Object[]{nSamples, DepthOfCoverageStats.calculateBinEndpoints(1, 500, 499)});
+            tests.add(new Object[]{nSamples, DepthOfCoverageStats.calculateBinEndpoints(5, 100, 10)});
+            tests.add(new Object[]{nSamples, new int[]{2, 5, 10}});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    private static List<String> makeSamples(final int nSamples) {
+        final List<String> samples = new ArrayList<String>(nSamples);
+        for ( int s = 0; s < nSamples; s++ )
+            samples.add("sample" + s);
+        return samples;
+    }
+
+    private static DepthOfCoverageStats makeStats(final int[] endpoints, final List<String> samples, final boolean includeDeletions) {
+        final DepthOfCoverageStats stats = new DepthOfCoverageStats(endpoints);
+        for ( final String sample : samples )
+            stats.addSample(sample);
+        if ( includeDeletions )
+            stats.initializeDeletions();
+        stats.initializeLocusCounts();
+        return stats;
+    }
+
+    private static int[][] makeDepths(final int nSamples, final Random random) {
+        final int[][] depths = new int[N_LOCI][nSamples];
+        for ( final int[] locusDepths : depths ) {
+            for ( int s = 0; s < nSamples; s++ )
+                locusDepths[s] = random.nextInt(4) == 0 ? 0 : random.nextInt(600);
+        }
+        return depths;
+    }
+
+    /**
+     * The bin of depth, searched for as DepthOfCoverageStats originally did
+     */
+    private static int getBin(final int[] endpoints, final int depth) {
+        for ( int b = 0; b < endpoints.length; b++ ) {
+            if ( depth < endpoints[b] )
+                return b;
+        }
+        return endpoints.length;
+    }
+
+    @Test(dataProvider = "StatsData")
+    public void testUpdateDepths(final int nSamples, final int[] endpoints) {
+        final List<String> samples = makeSamples(nSamples);
+        final DepthOfCoverageStats stats = makeStats(endpoints, samples, false);
+        final int[][] depths = makeDepths(nSamples, new Random(nSamples));
+
+        // the expected statistics, tabulated the straightforward way
+        final long[][] histograms = new long[nSamples][endpoints.length + 1];
+        final long[] totals = new long[nSamples];
+        final long[][] locusCounts = new long[nSamples][endpoints.length + 1];
+        long totalCoverage = 0;
+        for ( final int[] locusDepths : depths ) {
+            final int[] samplesAtOrAboveBin = new int[endpoints.length + 1];
+            for ( int s = 0; s < nSamples; s++ ) {
+                final int bin = getBin(endpoints, locusDepths[s]);
+                histograms[s][bin]++;
+                totals[s] += locusDepths[s];
+                totalCoverage += locusDepths[s];
+                for ( int b = 0; b <= bin; b++ )
+                    samplesAtOrAboveBin[b]++;
+            }
+            for ( int b = 0; b < samplesAtOrAboveBin.length; b++ ) {
+                for ( int a = 0; a < samplesAtOrAboveBin[b]; a++ )
+                    locusCounts[a][b]++;
+            }
+
+            final int[] depthBySampleIndex = new int[nSamples];
+            for ( int s = 0; s < nSamples; s++ )
+                depthBySampleIndex[stats.getSampleIndex(samples.get(s))] = locusDepths[s];
+            stats.updateDepths(depthBySampleIndex);
+        }
+
+        for ( int s = 0; s < nSamples; s++ ) {
+            Assert.assertEquals(stats.getHistograms().get(samples.get(s)), histograms[s], "Histogram of " + samples.get(s));
+            Assert.assertEquals(stats.getTotals().get(samples.get(s)).longValue(), totals[s], "Total coverage of " + samples.get(s));
+        }
+        Assert.assertEquals(stats.getLocusCounts(), locusCounts);
+        Assert.assertEquals(stats.getTotalLoci(), N_LOCI);
+        Assert.assertEquals(stats.getTotalCoverage(), totalCoverage);
+    }
+
+    @DataProvider(name = "CountsData")
+    public Object[][] makeCountsData() {
+        return new Object[][]{{false}, {true}};
+    }
+
+    @Test(dataProvider = "CountsData")
+    public void testUpdateCounts(final boolean includeDeletions) {
+        final int[] endpoints = DepthOfCoverageStats.calculateBinEndpoints(1, 100, 20);
+        final List<String> samples = makeSamples(10);
+        final DepthOfCoverageStats byName = makeStats(endpoints, samples, includeDeletions);
+        final DepthOfCoverageStats byIndex = makeStats(endpoints, samples, includeDeletions);
+        final DepthOfCoverageStats byDepth = makeStats(endpoints, samples, includeDeletions);
+
+        final Random random = new Random(1);
+        for ( int locus = 0; locus < N_LOCI; locus++ ) {
+            final Map<String,int[]> countsBySample = new HashMap<String,int[]>();
+            final int[][] countsBySampleIndex = new int[samples.size()][];
+            final Map<String,Integer> depthBySample = new HashMap<String,Integer>();
+            // samples without coverage are missing from the map and null in the array
+            for ( final String sample : samples ) {
+                if ( random.nextInt(3) == 0 )
+                    continue;
+                final int[] counts = new int[BaseUtils.EXTENDED_BASES.length];
+                int depth = 0;
+                for ( int b = 0; b < counts.length; b++ ) {
+                    counts[b] = random.nextInt(20);
+                    if ( includeDeletions || b != BaseUtils.Base.D.ordinal() )
+                        depth += counts[b];
+                }
+                countsBySample.put(sample, counts);
+                countsBySampleIndex[byIndex.getSampleIndex(sample)] = counts;
+                depthBySample.put(sample, depth);
+            }
+
+            byName.update(countsBySample);
+            byIndex.update(countsBySampleIndex);
+            byDepth.updateDepths(depthBySample);
+        }
+
+        for ( final DepthOfCoverageStats stats : Arrays.asList(byIndex, byDepth) ) {
+            Assert.assertEquals(stats.getTotals(), byName.getTotals());
+            Assert.assertEquals(stats.getLocusCounts(), byName.getLocusCounts());
+            Assert.assertEquals(stats.getTotalCoverage(), byName.getTotalCoverage());
+            for ( final String sample : samples )
+                Assert.assertEquals(stats.getHistograms().get(sample), byName.getHistograms().get(sample));
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        final int[] endpoints = DepthOfCoverageStats.calculateBinEndpoints(1, 500, 499);
+        final List<String> samples = makeSamples(20);
+        final List<String> reversedSamples = new ArrayList<String>(samples);
+        Collections.reverse(reversedSamples);
+
+        final DepthOfCoverageStats all = makeStats(endpoints, samples, false);
+        final DepthOfCoverageStats first = makeStats(endpoints, samples, false);
+        // sample indices may differ between the merged stats
+        final DepthOfCoverageStats second = makeStats(endpoints, reversedSamples, false);
+
+        final int[][] depths = makeDepths(samples.size(), new Random(2));
+        for ( int locus = 0; locus < N_LOCI; locus++ ) {
+            final Map<String,Integer> depthBySample = new HashMap<String,Integer>();
+            for ( int s = 0; s < samples.size(); s++ )
+                depthBySample.put(samples.get(s), depths[locus][s]);
+            all.updateDepths(depthBySample);
+            (locus < N_LOCI / 3 ? first : second).updateDepths(depthBySample);
+        }
+
+        first.merge(second);
+        Assert.assertEquals(first.getTotals(), all.getTotals());
+        Assert.assertEquals(first.getMeans(), all.getMeans());
+        Assert.assertEquals(first.getLocusCounts(), all.getLocusCounts());
+        Assert.assertEquals(first.getTotalLoci(), all.getTotalLoci());
+        for ( final String sample : samples )
+            Assert.assertEquals(first.getHistograms().get(sample), all.getHistograms().get(sample));
+
+        // a copy has the same histograms and totals, but no locus counts
+        final DepthOfCoverageStats copy = new DepthOfCoverageStats(all);
+        Assert.assertEquals(copy.getTotals(), all.getTotals());
+        for ( final String sample : samples )
+            Assert.assertEquals(copy.getHistograms().get(sample), all.getHistograms().get(sample));
+        for ( final long[] counts : copy.getLocusCounts() )
+            Assert.assertEquals(counts, new long[endpoints.length + 1]);
+    }
+}
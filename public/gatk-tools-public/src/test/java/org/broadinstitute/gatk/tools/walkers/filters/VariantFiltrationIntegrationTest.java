@@ -0,0 +1,49 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.filters;
+
+import org.broadinstitute.gatk.engine.walkers.WalkerTest;
+import org.testng.annotations.Test;
+
+public class VariantFiltrationIntegrationTest extends WalkerTest {
+    private final static String baseCommand = "-T VariantFiltration -R " + exampleFASTA + " --no_cmdline_in_header -o %s -V " + publicTestDir + "forMultiThreadedVariantWalkers.vcf";
+
+    @Test
+    public void testFiltersAcrossCPUThreads() {
+        executeTestAcrossCPUThreads("testFiltersAcrossCPUThreads",
+                baseCommand + " --filterExpression 'QD < 5.0' --filterName LowQD --filterExpression 'FS > 60.0' --filterName HighFS" +
+                        " -G_filter 'GQ < 20' -G_filterName LowGQ --clusterWindowSize 10",
+                1, 4);
+    }
+
+    @Test
+    public void testMaskAcrossCPUThreads() {
+        executeTestAcrossCPUThreads("testMaskAcrossCPUThreads",
+                baseCommand + " --mask " + publicTestDir + "forMultiThreadedVariantWalkers.mask.bed --maskName InMask" +
+                        " --filterExpression 'QD < 5.0 || InMask == 1' --filterName LowQDOrMasked",
+                1, 4);
+    }
+}
@@ -140,6 +140,29 @@ public class IndelRealignerIntegrationTest extends WalkerTest {
         }
     }
 
+    @Test
+    public void testCleaningThreads() {
+        HashMap<String, String> e = new HashMap<String, String>();
+        e.put("--numCleaningThreads 1", base_md5);
+        e.put("--numCleaningThreads 4", base_md5);
+        e.put("--numCleaningThreads 4 --maxReadsInMemory 40000", base_md5);
+        e.put("--numCleaningThreads 4 -known " + knownIndels, base_md5_with_SW_or_VCF);
+
+        for ( Map.Entry<String, String> entry : e.entrySet() ) {
+            WalkerTest.WalkerTestSpec spec = new WalkerTest.WalkerTestSpec(
+                    baseCommand + entry.getKey(),
+                    1,
+                    Arrays.asList(entry.getValue()));
+            executeTest(String.format("realigner [%s]", entry.getKey()), spec);
+        }
+
+        WalkerTestSpec statsSpec = new WalkerTestSpec(
+                baseCommandPrefix + "--numCleaningThreads 4 -stats %s -o /dev/null",
+                1,
+                Arrays.asList("7ed8d4eed635613fd031598a5c9ef5a3"));
+        executeTest("realigner stats with cleaning threads", statsSpec);
+    }
+
     @Test
     public void testNWayOut() {
         WalkerTestSpec spec1 = new WalkerTestSpec(
@@ -0,0 +1,49 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.variantutils;
+
+import org.broadinstitute.gatk.engine.walkers.WalkerTest;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.testng.annotations.Test;
+
+public class ValidateVariantsIntegrationTest extends WalkerTest {
+    private final static String baseCommand = "-T ValidateVariants -R " + exampleFASTA + " -V " + publicTestDir;
+
+    @Test
+    public void testValidFileAcrossCPUThreads() {
+        executeTestAcrossCPUThreads("testValidFileAcrossCPUThreads", baseCommand + "forMultiThreadedVariantWalkers.vcf", 0, 4);
+    }
+
+    @Test
+    public void testInvalidFileAcrossCPUThreads() {
+        // some of the records have ALT alleles that no sample carries
+        for ( final int nct : new int[]{1, 4} ) {
+            final WalkerTestSpec spec = new WalkerTestSpec(baseCommand + "forMultiThreadedVariantWalkers.indels.vcf -nct " + nct,
+                    0, UserException.FailsStrictValidation.class);
+            executeTest("testInvalidFileAcrossCPUThreads-cnt-" + nct, spec);
+        }
+    }
+}
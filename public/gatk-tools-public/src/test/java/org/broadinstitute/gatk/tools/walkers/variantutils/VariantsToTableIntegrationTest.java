@@ -0,0 +1,47 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.variantutils;
+
+import org.broadinstitute.gatk.engine.walkers.WalkerTest;
+import org.testng.annotations.Test;
+
+public class VariantsToTableIntegrationTest extends WalkerTest {
+    private final static String baseCommand = "-T VariantsToTable -R " + exampleFASTA + " -o %s -V " + publicTestDir + "forMultiThreadedVariantWalkers.vcf";
+
+    @Test
+    public void testTableAcrossCPUThreads() {
+        executeTestAcrossCPUThreads("testTableAcrossCPUThreads",
+                baseCommand + " -F CHROM -F POS -F QD -F FS -F HET -GF GT -GF GQ -AMD",
+                1, 4);
+    }
+
+    @Test
+    public void testMoltenTableWithMaxRecordsAcrossCPUThreads() {
+        executeTestAcrossCPUThreads("testMoltenTableWithMaxRecordsAcrossCPUThreads",
+                baseCommand + " -F POS -F DP -GF DP -moltenize -M 50 -AMD",
+                1, 4);
+    }
+}
@@ -82,6 +82,20 @@ public class ReferenceContext {
         public byte[] getBases();
     }
 
+    /**
+     * Optional extension of ReferenceContextRefProvider for providers that can look up a single base
+     * without materializing the whole window, which is all many walkers ever ask for
+     */
+    public static interface ReferenceContextBaseProvider extends ReferenceContextRefProvider {
+        /**
+         * Gets a single upper cased base of the window
+         *
+         * @param offset the 0-based offset of the base from the start of the window
+         * @return the base, exactly as getBases()[offset] would be
+         */
+        public byte getBase(int offset);
+    }
+
     private static class ForwardingProvider implements ReferenceContextRefProvider {
         byte[] bases;
 
@@ -176,7 +190,10 @@ public class ReferenceContext {
      * @return The base at the given locus from the reference.
      */
     public byte getBase() {
-        return getBases()[(locus.getStart() - window.getStart())];
+        final int offset = locus.getStart() - window.getStart();
+        if ( basesCache == null && basesProvider instanceof ReferenceContextBaseProvider )
+            return ((ReferenceContextBaseProvider)basesProvider).getBase(offset);
+        return getBases()[offset];
     }
 
     /**
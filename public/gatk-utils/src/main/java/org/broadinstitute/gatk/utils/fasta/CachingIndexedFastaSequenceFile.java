@@ -39,11 +39,14 @@ import org.broadinstitute.gatk.utils.BaseUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A caching version of the IndexedFastaSequenceFile that avoids going to disk as often as the raw indexer.
  *
- * Thread-safe!  Uses a thread-local cache.
+ * Thread-safe!  Uses a thread-local cache, or in MEMORY_MAPPED mode, a read-only mapping of the whole FASTA
+ * shared by all threads and all readers of the same file.  In PACKED mode the mapping is of a 2-bit per base copy
+ * of the FASTA, built once next to it (see PackedReferenceStore).
  *
  * Automatically upper-cases the bases coming in, unless the flag preserveCase is explicitly set.
  * Automatically converts IUPAC bases to Ns, unless the flag preserveIUPAC is explicitly set.
@@ -57,6 +60,18 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     /** If we are printing efficiency info, what frequency should we do it at? */
     private static final int PRINT_FREQUENCY = 10000;
 
+    /**
+     * How bases are fetched from the FASTA
+     */
+    public enum AccessMode {
+        /** Each thread keeps its own cache of the region around its last query, refilled from disk on a miss */
+        CACHED,
+        /** The whole FASTA is memory mapped once per JVM, and every query is copied directly out of the mapping */
+        MEMORY_MAPPED,
+        /** The FASTA is packed at 2 bits per base into a cache file next to it, which is memory mapped once per JVM */
+        PACKED
+    }
+
     /** The default cache size in bp */
     public static final long DEFAULT_CACHE_SIZE = 1000000;
 
@@ -76,9 +91,22 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      */
     private final boolean preserveIUPAC;
 
+    /** How we fetch bases from the FASTA */
+    private final AccessMode accessMode;
+
+    /** The shared mapping of the FASTA, if we are in MEMORY_MAPPED mode, otherwise null */
+    private final MappedFastaSequenceStore mappedStore;
+
+    /** The shared packed copy of the FASTA, if we are in PACKED mode, otherwise null */
+    private final PackedReferenceStore packedStore;
+
     // information about checking efficiency
-    long cacheHits = 0;
-    long cacheMisses = 0;
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+
+    /** Queries answered straight from the mapping or the packed reference, which have no cache to hit or miss */
+    private final LongAdder uncachedQueries = new LongAdder();
 
     /** Represents a specific cached sequence, with a specific start and stop, as well as the bases */
     private static class Cache {
@@ -108,12 +136,31 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * @param preserveIUPAC If true, we will keep the IUPAC bases in the FASTA, otherwise they are converted to Ns
      */
     public CachingIndexedFastaSequenceFile(final File fasta, final FastaSequenceIndex index, final long cacheSize, final boolean preserveCase, final boolean preserveIUPAC) {
+        this(fasta, index, cacheSize, preserveCase, preserveIUPAC, AccessMode.CACHED, false);
+    }
+
+    /**
+     * Same as general constructor but allows one to choose how bases are fetched from the FASTA
+     *
+     * @param fasta the file we will read our FASTA sequence from.
+     * @param index the index of the fasta file, used for efficient random access
+     * @param cacheSize the size in bp of the cache we will use for this reader, ignored in MEMORY_MAPPED and PACKED modes
+     * @param preserveCase If true, we will keep the case of the underlying bases in the FASTA, otherwise everything is converted to upper case
+     * @param preserveIUPAC If true, we will keep the IUPAC bases in the FASTA, otherwise they are converted to Ns
+     * @param accessMode how bases are fetched from the FASTA
+     * @param preTouch if true and accessMode is MEMORY_MAPPED, touch every page of the FASTA now rather than on first use
+     */
+    public CachingIndexedFastaSequenceFile(final File fasta, final FastaSequenceIndex index, final long cacheSize, final boolean preserveCase, final boolean preserveIUPAC,
+                                           final AccessMode accessMode, final boolean preTouch) {
         super(fasta, index);
         if ( cacheSize < 0 ) throw new IllegalArgumentException("cacheSize must be > 0");
         this.cacheSize = cacheSize;
         this.cacheMissBackup = Math.max(cacheSize / 1000, 1);
         this.preserveCase = preserveCase;
         this.preserveIUPAC = preserveIUPAC;
+        this.accessMode = accessMode;
+        this.mappedStore = openMappedStore(fasta, accessMode, preTouch);
+        this.packedStore = openPackedStore(fasta, accessMode, preserveCase, preserveIUPAC);
     }
 
     /**
@@ -128,12 +175,54 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * @param preserveIUPAC If true, we will keep the IUPAC bases in the FASTA, otherwise they are converted to Ns
      */
     public CachingIndexedFastaSequenceFile(final File fasta, final long cacheSize, final boolean preserveCase, final boolean preserveIUPAC) throws FileNotFoundException {
+        this(fasta, cacheSize, preserveCase, preserveIUPAC, AccessMode.CACHED, false);
+    }
+
+    /**
+     * Open the given indexed fasta sequence file.  Throw an exception if the file cannot be opened.
+     *
+     * Looks for a index file for fasta on disk
+     *
+     * @param fasta The file to open.
+     * @param cacheSize the size of the cache to use in this CachingIndexedFastaReader, must be >= 0, ignored in MEMORY_MAPPED and PACKED modes
+     * @param preserveCase If true, we will keep the case of the underlying bases in the FASTA, otherwise everything is converted to upper case
+     * @param preserveIUPAC If true, we will keep the IUPAC bases in the FASTA, otherwise they are converted to Ns
+     * @param accessMode how bases are fetched from the FASTA
+     * @param preTouch if true and accessMode is MEMORY_MAPPED, touch every page of the FASTA now rather than on first use
+     */
+    public CachingIndexedFastaSequenceFile(final File fasta, final long cacheSize, final boolean preserveCase, final boolean preserveIUPAC,
+                                           final AccessMode accessMode, final boolean preTouch) throws FileNotFoundException {
         super(fasta);
         if ( cacheSize < 0 ) throw new IllegalArgumentException("cacheSize must be > 0");
         this.cacheSize = cacheSize;
         this.cacheMissBackup = Math.max(cacheSize / 1000, 1);
         this.preserveCase = preserveCase;
         this.preserveIUPAC = preserveIUPAC;
+        this.accessMode = accessMode;
+        this.mappedStore = openMappedStore(fasta, accessMode, preTouch);
+        this.packedStore = openPackedStore(fasta, accessMode, preserveCase, preserveIUPAC);
+    }
+
+    private static MappedFastaSequenceStore openMappedStore(final File fasta, final AccessMode accessMode, final boolean preTouch) {
+        if ( accessMode == null ) throw new IllegalArgumentException("accessMode cannot be null");
+        if ( accessMode != AccessMode.MEMORY_MAPPED )
+            return null;
+
+        final MappedFastaSequenceStore store = MappedFastaSequenceStore.getStore(fasta);
+        if ( preTouch ) store.preTouch();
+        return store;
+    }
+
+    private PackedReferenceStore openPackedStore(final File fasta, final AccessMode accessMode, final boolean preserveCase, final boolean preserveIUPAC) {
+        if ( accessMode != AccessMode.PACKED )
+            return null;
+        // the packed encoding only knows about upper case ACGT and N
+        if ( preserveCase || preserveIUPAC )
+            throw new IllegalArgumentException("PACKED access mode cannot preserve case or IUPAC bases");
+        if ( getSequenceDictionary() == null )
+            throw new IllegalArgumentException("PACKED access mode requires a sequence dictionary for " + fasta);
+
+        return PackedReferenceStore.getStore(fasta, getSequenceDictionary());
     }
 
     /**
@@ -194,6 +283,17 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * @return A new instance of a CachingIndexedFastaSequenceFile.
      */
     public static CachingIndexedFastaSequenceFile checkAndCreate(final File fastaFile) {
+        return checkAndCreate(fastaFile, AccessMode.CACHED, false);
+    }
+
+    /**
+     * Create reference data source from fasta file, after performing several preliminary checks on the file.
+     * @param fastaFile Fasta file to be used as reference
+     * @param accessMode how bases are fetched from the FASTA
+     * @param preTouch if true and accessMode is MEMORY_MAPPED, touch every page of the FASTA at startup
+     * @return A new instance of a CachingIndexedFastaSequenceFile.
+     */
+    public static CachingIndexedFastaSequenceFile checkAndCreate(final File fastaFile, final AccessMode accessMode, final boolean preTouch) {
         // does the fasta file exist? check that first...
         if (!fastaFile.exists())
             throw new UserException("The fasta file you specified (" + fastaFile.getAbsolutePath() + ") does not exist.");
@@ -220,7 +320,7 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
 
         // Read reference data by creating an IndexedFastaSequenceFile.
         try {
-            return new CachingIndexedFastaSequenceFile(fastaFile);
+            return new CachingIndexedFastaSequenceFile(fastaFile, DEFAULT_CACHE_SIZE, false, false, accessMode, preTouch);
         }
         catch (IllegalArgumentException e) {
             throw new UserException.CouldNotReadInputFile(fastaFile, "Could not read reference sequence.  The FASTA must have either a .fasta or .fa extension", e);
@@ -245,31 +345,67 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
 
     /**
      * Print the efficiency (hits / queries) to logger with priority
+     *
+     * Only the CACHED mode has a cache, so the other modes just report how much they have copied
      */
     public void printEfficiency(final Priority priority) {
-        logger.log(priority, String.format("### CachingIndexedFastaReader: hits=%d misses=%d efficiency %.6f%%", cacheHits, cacheMisses, calcEfficiency()));
+        if ( accessMode == AccessMode.CACHED )
+            logger.log(priority, String.format("### CachingIndexedFastaReader (%s): hits=%d misses=%d efficiency %.6f%% bytesCopied=%d",
+                    accessMode, getCacheHits(), getCacheMisses(), calcEfficiency(), getBytesCopied()));
+        else
+            logger.log(priority, String.format("### CachingIndexedFastaReader (%s): queries=%d bytesCopied=%d",
+                    accessMode, getUncachedQueries(), getBytesCopied()));
     }
 
     /**
-     * Returns the efficiency (% of hits of all queries) of this object
+     * Returns the efficiency (% of hits of all queries) of the cache of this object, only meaningful in CACHED mode
      * @return
      */
     public double calcEfficiency() {
-        return 100.0 * cacheHits / (cacheMisses + cacheHits * 1.0);
+        final long hits = getCacheHits();
+        return 100.0 * hits / (getCacheMisses() + hits * 1.0);
     }
 
     /**
      * @return the number of cache hits that have occurred
      */
     public long getCacheHits() {
-        return cacheHits;
+        return cacheHits.sum();
     }
 
     /**
      * @return the number of cache misses that have occurred
      */
     public long getCacheMisses() {
-        return cacheMisses;
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return the number of queries answered in MEMORY_MAPPED or PACKED mode, which count as neither hits nor misses
+     */
+    public long getUncachedQueries() {
+        return uncachedQueries.sum();
+    }
+
+    /**
+     * @return the number of bases copied out of the cache, the mapping, or the file to satisfy queries
+     */
+    public long getBytesCopied() {
+        return bytesCopied.sum();
+    }
+
+    /**
+     * @return how this reader fetches bases from the FASTA
+     */
+    public AccessMode getAccessMode() {
+        return accessMode;
+    }
+
+    /**
+     * @return the shared packed copy of the reference if we are in PACKED mode, otherwise null
+     */
+    public PackedReferenceStore getPackedStore() {
+        return packedStore;
     }
 
     /**
@@ -321,11 +457,17 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      */
     @Override
     public ReferenceSequence getSubsequenceAt( final String contig, long start, final long stop ) {
+        if ( mappedStore != null )
+            return getMappedSubsequenceAt(contig, start, stop);
+        // the packed store only knows 1-based positions, so odd queries starting at 0 take the regular path
+        if ( packedStore != null && start >= 1 )
+            return getPackedSubsequenceAt(contig, start, stop);
+
         final ReferenceSequence result;
         final Cache myCache = cache.get();
 
         if ( (stop - start) >= cacheSize ) {
-            cacheMisses++;
+            cacheMisses.increment();
             result = super.getSubsequenceAt(contig, start, stop);
             if ( ! preserveCase ) StringUtil.toUpperCase(result.getBases());
             if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(result.getBases(), true, start < 1);
@@ -337,7 +479,7 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
                 throw new SAMException("Query asks for data past end of contig");
 
             if ( start < myCache.start || stop > myCache.stop || myCache.seq == null || myCache.seq.getContigIndex() != contigInfo.getSequenceIndex() ) {
-                cacheMisses++;
+                cacheMisses.increment();
                 myCache.start = Math.max(start - cacheMissBackup, 0);
                 myCache.stop  = Math.min(start + cacheSize + cacheMissBackup, contigInfo.getSequenceLength());
                 myCache.seq   = super.getSubsequenceAt(contig, myCache.start, myCache.stop);
@@ -346,7 +488,7 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
                 if ( ! preserveCase ) StringUtil.toUpperCase(myCache.seq.getBases());
                 if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(myCache.seq.getBases(), true, myCache.start == 0);
             } else {
-                cacheHits++;
+                cacheHits.increment();
             }
 
             // at this point we determine where in the cache we want to extract the requested subsequence
@@ -361,10 +503,51 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
             }
         }
 
+        bytesCopied.add(result.length());
+
         // for debugging -- print out our efficiency if requested
         if ( PRINT_EFFICIENCY && (getCacheHits() + getCacheMisses()) % PRINT_FREQUENCY == 0 )
             printEfficiency(Priority.INFO);
 
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the subsequence of the contig in the range [start,stop] directly from the memory mapped FASTA
+     */
+    private ReferenceSequence getMappedSubsequenceAt( final String contig, final long start, final long stop ) {
+        final SAMSequenceRecord contigInfo = super.getSequenceDictionary().getSequence(contig);
+        if ( contigInfo == null )
+            throw new SAMException("Unable to find entry for contig: " + contig);
+
+        final byte[] bases = mappedStore.getBases(contig, start, stop);
+        if ( ! preserveCase ) StringUtil.toUpperCase(bases);
+        if ( ! preserveIUPAC ) BaseUtils.convertIUPACtoN(bases, true, start < 1);
+
+        uncachedQueries.increment();
+        bytesCopied.add(bases.length);
+
+        if ( PRINT_EFFICIENCY && getUncachedQueries() % PRINT_FREQUENCY == 0 )
+            printEfficiency(Priority.INFO);
+
+        return new ReferenceSequence(contig, contigInfo.getSequenceIndex(), bases);
+    }
+
+    /**
+     * Gets the subsequence of the contig in the range [start,stop] by unpacking it from the packed reference
+     *
+     * The packed bases are already upper cased with IUPAC bases converted to Ns.
+     */
+    private ReferenceSequence getPackedSubsequenceAt( final String contig, final long start, final long stop ) {
+        final int contigIndex = packedStore.getContigIndex(contig);
+        final byte[] bases = packedStore.getBases(contigIndex, start, stop);
+
+        uncachedQueries.increment();
+        bytesCopied.add(bases.length);
+
+        if ( PRINT_EFFICIENCY && getUncachedQueries() % PRINT_FREQUENCY == 0 )
+            printEfficiency(Priority.INFO);
+
+        return new ReferenceSequence(contig, contigIndex, bases);
+    }
+}
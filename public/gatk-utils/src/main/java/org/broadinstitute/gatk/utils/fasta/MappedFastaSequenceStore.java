@@ -0,0 +1,243 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.fasta;
+
+import htsjdk.samtools.SAMException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only memory mapping of an entire FASTA file, shared by every reader of that file in the JVM.
+ *
+ * Bases are located using the offsets and line lengths from the .fai index, and copied line by line directly
+ * out of the mapped region, so no per-thread caches are needed.  Files larger than 2Gb are mapped in segments.
+ */
+class MappedFastaSequenceStore {
+    protected static final org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(MappedFastaSequenceStore.class);
+
+    /** Size of each mapped segment of the file */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /** Granularity at which to pre-touch the mapping */
+    private static final int PAGE_SIZE = 4096;
+
+    /**
+     * All of the stores opened so far, keyed by canonical path of the FASTA
+     *
+     * Stores are never evicted, so every FASTA mapped in this JVM stays mapped until the JVM exits.  The mapping takes
+     * address space and page cache rather than heap, GATK uses a single reference per run, and the JVM offers no
+     * supported way to unmap a MappedByteBuffer short of garbage collecting it, which callers can't coordinate anyway.
+     */
+    private static final Map<String, MappedFastaSequenceStore> stores = new ConcurrentHashMap<String, MappedFastaSequenceStore>();
+
+    private final File fasta;
+    private final Map<String, IndexEntry> index;
+    private final MappedByteBuffer[] segments;
+
+    /** The location and layout of a single contig within the FASTA, from the .fai */
+    private static class IndexEntry {
+        final long size, location;
+        final int basesPerLine, bytesPerLine;
+
+        IndexEntry(final long size, final long location, final int basesPerLine, final int bytesPerLine) {
+            this.size = size;
+            this.location = location;
+            this.basesPerLine = basesPerLine;
+            this.bytesPerLine = bytesPerLine;
+        }
+    }
+
+    /**
+     * Per-thread views of the segments, so that relative bulk gets can be used without synchronization
+     */
+    private final ThreadLocal<ByteBuffer[]> views = new ThreadLocal<ByteBuffer[]>() {
+        @Override protected ByteBuffer[] initialValue() {
+            final ByteBuffer[] views = new ByteBuffer[segments.length];
+            for ( int i = 0; i < segments.length; i++ )
+                views[i] = segments[i].duplicate();
+            return views;
+        }
+    };
+
+    /**
+     * Gets the mapping of the given FASTA, mapping it if this is the first request for it in this JVM
+     *
+     * @param fasta the FASTA file to map, which must have a .fai index alongside it
+     * @return a shared store for fasta, never null
+     */
+    public static MappedFastaSequenceStore getStore(final File fasta) {
+        final String key;
+        try {
+            key = fasta.getCanonicalPath();
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(fasta, e);
+        }
+
+        MappedFastaSequenceStore store = stores.get(key);
+        if ( store == null ) {
+            synchronized (stores) {
+                store = stores.get(key);
+                if ( store == null ) {
+                    store = new MappedFastaSequenceStore(fasta);
+                    stores.put(key, store);
+                }
+            }
+        }
+        return store;
+    }
+
+    private MappedFastaSequenceStore(final File fasta) {
+        this.fasta = fasta;
+        this.index = readIndex(new File(fasta.getAbsolutePath() + ".fai"));
+
+        try ( final RandomAccessFile file = new RandomAccessFile(fasta, "r") ) {
+            final FileChannel channel = file.getChannel();
+            final long size = channel.size();
+            segments = new MappedByteBuffer[(int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for ( int i = 0; i < segments.length; i++ ) {
+                final long segmentStart = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE, size - segmentStart));
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(fasta, "Could not memory map the reference", e);
+        }
+
+        logger.info(String.format("Memory mapped reference %s in %d segment(s)", fasta, segments.length));
+    }
+
+    /**
+     * Reads the offsets and line layout of every contig from the .fai file
+     *
+     * FastaSequenceIndex doesn't expose its entries outside of htsjdk, so we parse the (trivial) format ourselves
+     */
+    private static Map<String, IndexEntry> readIndex(final File faiFile) {
+        final Map<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+        try ( final BufferedReader reader = new BufferedReader(new FileReader(faiFile)) ) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                if ( line.isEmpty() ) continue;
+                final String[] fields = line.split("\t");
+                if ( fields.length < 5 )
+                    throw new UserException.MalformedFile(faiFile, "Expected at least 5 tab-separated fields but found " + fields.length + " in line: " + line);
+                index.put(fields[0], new IndexEntry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(faiFile, e);
+        } catch ( NumberFormatException e ) {
+            throw new UserException.MalformedFile(faiFile, "Could not parse reference index", e);
+        }
+        return index;
+    }
+
+    /**
+     * Touches every page of the mapping so that later queries don't fault pages in from disk
+     *
+     * @return the number of pages touched
+     */
+    public long preTouch() {
+        long nPages = 0;
+        int checksum = 0;
+        for ( final MappedByteBuffer segment : segments ) {
+            for ( int i = 0; i < segment.limit(); i += PAGE_SIZE, nPages++ )
+                checksum += segment.get(i);
+        }
+        if ( logger.isDebugEnabled() ) logger.debug(String.format("Pre-touched %d pages of %s (checksum %d)", nPages, fasta, checksum));
+        return nPages;
+    }
+
+    /**
+     * Copies the bases of contig in the range [start,stop] into a new array
+     *
+     * Follows the indexing semantics of IndexedFastaSequenceFile.getSubsequenceAt exactly.
+     *
+     * @param contig the contig whose bases we want
+     * @param start inclusive, 1-based start of region.
+     * @param stop inclusive, 1-based stop of region.
+     * @return a newly allocated array of bases, exactly as they appear in the file
+     */
+    public byte[] getBases(final String contig, final long start, final long stop) {
+        if ( start > stop + 1 )
+            throw new SAMException(String.format("Malformed query; start point %d lies after end point %d", start, stop));
+
+        final IndexEntry indexEntry = index.get(contig);
+        if ( indexEntry == null )
+            throw new SAMException("Unable to find entry for contig: " + contig);
+        if ( stop > indexEntry.size )
+            throw new SAMException("Query asks for data past end of contig");
+
+        final int length = (int)(stop - start + 1);
+        final byte[] bases = new byte[length];
+        if ( length == 0 )
+            return bases;
+
+        final int basesPerLine = indexEntry.basesPerLine;
+        final int bytesPerLine = indexEntry.bytesPerLine;
+
+        // same arithmetic as IndexedFastaSequenceFile, including its treatment of start == 0
+        long position = indexEntry.location + ((start - 1) / basesPerLine) * bytesPerLine + (start - 1) % basesPerLine;
+        int basesInLine = (int)(basesPerLine - (start - 1) % basesPerLine);
+
+        int copied = 0;
+        while ( copied < length ) {
+            final int toCopy = Math.min(basesInLine, length - copied);
+            copy(position, bases, copied, toCopy);
+            copied += toCopy;
+            position += toCopy + (bytesPerLine - basesPerLine);
+            basesInLine = basesPerLine;
+        }
+
+        return bases;
+    }
+
+    /**
+     * Copies length bytes starting at position in the file into dest, crossing segments if needed
+     */
+    private void copy(long position, final byte[] dest, int offset, int length) {
+        final ByteBuffer[] myViews = views.get();
+        while ( length > 0 ) {
+            final int segment = (int)(position / SEGMENT_SIZE);
+            final int segmentOffset = (int)(position % SEGMENT_SIZE);
+            final ByteBuffer view = myViews[segment];
+            final int toCopy = Math.min(length, view.limit() - segmentOffset);
+            view.position(segmentOffset);
+            view.get(dest, offset, toCopy);
+            position += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+}
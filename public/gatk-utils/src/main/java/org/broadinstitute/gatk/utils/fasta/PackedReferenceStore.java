@@ -0,0 +1,463 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.fasta;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.broadinstitute.gatk.utils.BaseUtils;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A whole-genome reference store packing each base into 2 bits, with N and IUPAC bases recorded as runs of exceptions.
+ *
+ * The packed genome is built once from the FASTA into a cache file next to the .fai (e.g. ref.fasta.packed), and is
+ * afterwards memory mapped read-only, so it lives off-heap and is shared by every thread and reader in the JVM.
+ * GRCh38 packs into roughly 800 Mb.
+ *
+ * Bases come back upper-cased with all IUPAC codes converted to N, exactly as from a CachingIndexedFastaSequenceFile
+ * that doesn't preserve case or IUPAC bases.  Single bases can be fetched without allocating anything via getBase().
+ *
+ * Contig indices follow the order of the sequence dictionary used to build the store.
+ */
+public class PackedReferenceStore {
+    protected static final org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger(PackedReferenceStore.class);
+
+    /** The extension added to the FASTA file name to make the name of the packed cache file */
+    public static final String PACKED_EXTENSION = ".packed";
+
+    private static final long MAGIC = 0x4741544b5041434bL; // "GATKPACK"
+    private static final int VERSION = 1;
+
+    /** How many bases to pull from the FASTA at a time when building */
+    private static final int BUILD_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /** Size of each mapped segment of the packed file */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /** The base encoded by each 2-bit code */
+    private static final byte[] CODE_TO_BASE = { 'A', 'C', 'G', 'T' };
+
+    /** The 2-bit code of each byte, or -1 for anything that isn't ACGT in either case (by the time we pack, only N) */
+    private static final byte[] BASE_TO_CODE = new byte[256];
+    static {
+        Arrays.fill(BASE_TO_CODE, (byte)-1);
+        for ( int code = 0; code < CODE_TO_BASE.length; code++ ) {
+            BASE_TO_CODE[CODE_TO_BASE[code]] = (byte)code;
+            BASE_TO_CODE[Character.toLowerCase(CODE_TO_BASE[code])] = (byte)code;
+        }
+    }
+
+    /**
+     * All of the stores opened so far, keyed by canonical path of the FASTA
+     *
+     * As with MappedFastaSequenceStore, stores are never evicted, so each packed reference stays mapped until the JVM exits.
+     */
+    private static final Map<String, PackedReferenceStore> stores = new ConcurrentHashMap<String, PackedReferenceStore>();
+
+    private final String[] contigNames;
+    private final Map<String, Integer> contigIndices = new HashMap<String, Integer>();
+    private final long[] contigLengths;
+    private final long[] packedOffsets;
+
+    /** Per contig, the 1-based inclusive starts and stops of runs of Ns, sorted by start */
+    private final int[][] exceptionStarts;
+    private final int[][] exceptionStops;
+
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Gets the packed store for the given FASTA, building its cache file first if it is missing or out of date
+     *
+     * @param fasta the FASTA file, which must have a .fai index alongside it
+     * @param dictionary the sequence dictionary of fasta, which determines contig indices
+     * @return a store shared by all callers in this JVM, never null
+     */
+    public static PackedReferenceStore getStore(final File fasta, final SAMSequenceDictionary dictionary) {
+        final String key;
+        try {
+            key = fasta.getCanonicalPath();
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(fasta, e);
+        }
+
+        PackedReferenceStore store = stores.get(key);
+        if ( store == null ) {
+            synchronized (stores) {
+                store = stores.get(key);
+                if ( store == null ) {
+                    store = openOrBuild(fasta, dictionary);
+                    stores.put(key, store);
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Gets the name of the packed cache file for fasta
+     */
+    public static File getPackedFile(final File fasta) {
+        return new File(fasta.getAbsolutePath() + PACKED_EXTENSION);
+    }
+
+    private static PackedReferenceStore openOrBuild(final File fasta, final SAMSequenceDictionary dictionary) {
+        final File packedFile = getPackedFile(fasta);
+        if ( packedFile.exists() ) {
+            try {
+                final PackedReferenceStore store = new PackedReferenceStore(packedFile, fasta);
+                if ( store.matches(dictionary) )
+                    return store;
+                logger.warn(String.format("Packed reference %s doesn't match the sequence dictionary of %s; rebuilding it", packedFile, fasta));
+            } catch ( StalePackedFileException e ) {
+                logger.info(String.format("Packed reference %s is out of date (%s); rebuilding it", packedFile, e.getMessage()));
+            }
+        }
+
+        build(fasta, dictionary, packedFile);
+        try {
+            return new PackedReferenceStore(packedFile, fasta);
+        } catch ( StalePackedFileException e ) {
+            throw new ReviewedGATKException("Packed reference " + packedFile + " was stale immediately after being built", e);
+        }
+    }
+
+    /** Thrown when a packed file was built from a different version of the FASTA */
+    private static class StalePackedFileException extends Exception {
+        StalePackedFileException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Packs the contigs of dictionary from fasta into packedFile
+     *
+     * Layout: a header (magic, version, FASTA length and modification time), then for each contig its packed bases
+     * followed by its exception runs, then a directory of contigs, and finally the offset of the directory.
+     * The file is written under a temporary name and renamed into place, so concurrent runs never see half a file.
+     */
+    static void build(final File fasta, final SAMSequenceDictionary dictionary, final File packedFile) {
+        logger.info(String.format("Building packed reference %s from %s", packedFile, fasta));
+        final MappedFastaSequenceStore source = MappedFastaSequenceStore.getStore(fasta);
+        final File tempFile = new File(packedFile.getAbsolutePath() + ".tmp." + System.nanoTime());
+
+        final List<SAMSequenceRecord> contigs = dictionary.getSequences();
+        final long[] packedOffsets = new long[contigs.size()];
+        final long[] exceptionOffsets = new long[contigs.size()];
+        final int[] nExceptions = new int[contigs.size()];
+
+        // DataOutputStream.size() is only an int, so count the bytes underneath it ourselves
+        try ( final CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1024 * 1024));
+              final DataOutputStream out = new DataOutputStream(counter) ) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fasta.length());
+            out.writeLong(fasta.lastModified());
+
+            final IntArrayBuilder starts = new IntArrayBuilder(), stops = new IntArrayBuilder();
+            for ( int contigIndex = 0; contigIndex < contigs.size(); contigIndex++ ) {
+                final SAMSequenceRecord contig = contigs.get(contigIndex);
+                final int length = contig.getSequenceLength();
+                packedOffsets[contigIndex] = counter.getByteCount();
+                starts.clear();
+                stops.clear();
+
+                int packed = 0;
+                for ( int chunkStart = 1; chunkStart <= length; chunkStart += BUILD_CHUNK_SIZE ) {
+                    final int chunkStop = (int)Math.min((long)chunkStart + BUILD_CHUNK_SIZE - 1, length);
+                    final byte[] bases = source.getBases(contig.getSequenceName(), chunkStart, chunkStop);
+                    // reject non-IUPAC bases just like CachingIndexedFastaSequenceFile does, rather than packing them as Ns
+                    BaseUtils.convertIUPACtoN(bases, true, false);
+                    for ( int i = 0; i < bases.length; i++ ) {
+                        final int position = chunkStart + i;
+                        int code = BASE_TO_CODE[bases[i] & 0xFF];
+                        if ( code < 0 ) {
+                            // extend the current run of Ns if it ends right before us, otherwise start a new one
+                            if ( stops.size() > 0 && stops.last() == position - 1 )
+                                stops.setLast(position);
+                            else {
+                                starts.add(position);
+                                stops.add(position);
+                            }
+                            code = 0;
+                        }
+                        packed |= code << (((position - 1) & 3) * 2);
+                        if ( ((position - 1) & 3) == 3 ) {
+                            out.writeByte(packed);
+                            packed = 0;
+                        }
+                    }
+                }
+                if ( (length & 3) != 0 )
+                    out.writeByte(packed);
+
+                exceptionOffsets[contigIndex] = counter.getByteCount();
+                nExceptions[contigIndex] = starts.size();
+                for ( int i = 0; i < starts.size(); i++ ) {
+                    out.writeInt(starts.get(i));
+                    out.writeInt(stops.get(i));
+                }
+            }
+
+            final long directoryOffset = counter.getByteCount();
+            out.writeInt(contigs.size());
+            for ( int contigIndex = 0; contigIndex < contigs.size(); contigIndex++ ) {
+                out.writeUTF(contigs.get(contigIndex).getSequenceName());
+                out.writeLong(contigs.get(contigIndex).getSequenceLength());
+                out.writeLong(packedOffsets[contigIndex]);
+                out.writeLong(exceptionOffsets[contigIndex]);
+                out.writeInt(nExceptions[contigIndex]);
+            }
+            out.writeLong(directoryOffset);
+        } catch ( IOException e ) {
+            tempFile.delete();
+            throw new UserException.CouldNotCreateOutputFile(packedFile, "Could not write packed reference", e);
+        }
+
+        if ( ! tempFile.renameTo(packedFile) ) {
+            tempFile.delete();
+            throw new UserException.CouldNotCreateOutputFile(packedFile, "Could not move packed reference into place");
+        }
+    }
+
+    private PackedReferenceStore(final File packedFile, final File fasta) throws StalePackedFileException {
+        try ( final RandomAccessFile file = new RandomAccessFile(packedFile, "r") ) {
+            if ( file.readLong() != MAGIC )
+                throw new UserException.MalformedFile(packedFile, "Not a packed reference file");
+            if ( file.readInt() != VERSION )
+                throw new StalePackedFileException("unsupported version");
+            if ( file.readLong() != fasta.length() || file.readLong() != fasta.lastModified() )
+                throw new StalePackedFileException("FASTA has changed since the packed file was built");
+
+            file.seek(file.length() - 8);
+            file.seek(file.readLong());
+            final int nContigs = file.readInt();
+            contigNames = new String[nContigs];
+            contigLengths = new long[nContigs];
+            packedOffsets = new long[nContigs];
+            exceptionStarts = new int[nContigs][];
+            exceptionStops = new int[nContigs][];
+            final long[] exceptionOffsets = new long[nContigs];
+            for ( int i = 0; i < nContigs; i++ ) {
+                contigNames[i] = file.readUTF();
+                contigLengths[i] = file.readLong();
+                packedOffsets[i] = file.readLong();
+                exceptionOffsets[i] = file.readLong();
+                exceptionStarts[i] = new int[file.readInt()];
+                exceptionStops[i] = new int[exceptionStarts[i].length];
+                contigIndices.put(contigNames[i], i);
+            }
+
+            final FileChannel channel = file.getChannel();
+            for ( int i = 0; i < nContigs; i++ ) {
+                // each run is a pair of big-endian ints, as written by DataOutputStream
+                final ByteBuffer runs = ByteBuffer.allocate(exceptionStarts[i].length * 8);
+                while ( runs.hasRemaining() ) {
+                    if ( channel.read(runs, exceptionOffsets[i] + runs.position()) < 0 )
+                        throw new UserException.MalformedFile(packedFile, "Packed reference is truncated");
+                }
+                runs.flip();
+                for ( int j = 0; j < exceptionStarts[i].length; j++ ) {
+                    exceptionStarts[i][j] = runs.getInt();
+                    exceptionStops[i][j] = runs.getInt();
+                }
+            }
+
+            final long size = channel.size();
+            segments = new MappedByteBuffer[(int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for ( int i = 0; i < segments.length; i++ ) {
+                final long segmentStart = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE, size - segmentStart));
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(packedFile, e);
+        }
+    }
+
+    /**
+     * Does this store contain exactly the contigs of dictionary, in the same order?
+     */
+    private boolean matches(final SAMSequenceDictionary dictionary) {
+        if ( dictionary.size() != contigNames.length )
+            return false;
+        for ( int i = 0; i < contigNames.length; i++ ) {
+            final SAMSequenceRecord contig = dictionary.getSequence(i);
+            if ( ! contig.getSequenceName().equals(contigNames[i]) || contig.getSequenceLength() != contigLengths[i] )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of contigs in this store
+     */
+    public int getNumContigs() {
+        return contigNames.length;
+    }
+
+    /**
+     * Gets the index of the named contig
+     *
+     * @param contig the name of a contig
+     * @return the index of contig, which is the same as its index in the sequence dictionary
+     */
+    public int getContigIndex(final String contig) {
+        final Integer index = contigIndices.get(contig);
+        if ( index == null )
+            throw new SAMException("Unable to find entry for contig: " + contig);
+        return index;
+    }
+
+    /**
+     * @return the length of the contig with the given index
+     */
+    public long getContigLength(final int contigIndex) {
+        return contigLengths[contigIndex];
+    }
+
+    /**
+     * Gets a single base without allocating anything
+     *
+     * @param contigIndex the index of the contig
+     * @param position 1-based position on the contig
+     * @return one of A, C, G, T or N
+     */
+    public byte getBase(final int contigIndex, final long position) {
+        if ( position < 1 || position > contigLengths[contigIndex] )
+            throw new SAMException(String.format("Position %d is outside of contig %s of length %d", position, contigNames[contigIndex], contigLengths[contigIndex]));
+        if ( isException(contigIndex, (int)position) )
+            return 'N';
+        final int packed = getPackedByte(packedOffsets[contigIndex] + ((position - 1) >> 2));
+        return CODE_TO_BASE[(packed >> (((position - 1) & 3) * 2)) & 3];
+    }
+
+    /**
+     * Gets the bases of a contig in the range [start,stop]
+     *
+     * @param contigIndex the index of the contig
+     * @param start inclusive, 1-based start of region
+     * @param stop inclusive, 1-based stop of region
+     * @return a newly allocated array of bases
+     */
+    public byte[] getBases(final int contigIndex, final long start, final long stop) {
+        final byte[] bases = new byte[(int)(stop - start + 1)];
+        copyBases(contigIndex, start, stop, bases, 0);
+        return bases;
+    }
+
+    /**
+     * Unpacks the bases of a contig in the range [start,stop] into dest
+     *
+     * @param contigIndex the index of the contig
+     * @param start inclusive, 1-based start of region
+     * @param stop inclusive, 1-based stop of region
+     * @param dest the array to unpack into
+     * @param destOffset where in dest to put the base at start
+     */
+    public void copyBases(final int contigIndex, final long start, final long stop, final byte[] dest, final int destOffset) {
+        if ( start > stop + 1 )
+            throw new SAMException(String.format("Malformed query; start point %d lies after end point %d", start, stop));
+        if ( start < 1 || stop > contigLengths[contigIndex] )
+            throw new SAMException("Query asks for data past end of contig");
+
+        final long packedOffset = packedOffsets[contigIndex];
+        int destIndex = destOffset;
+        long position = start - 1; // 0-based from here on
+        int packed = position <= stop - 1 ? getPackedByte(packedOffset + (position >> 2)) : 0;
+        while ( position < stop ) {
+            final int shift = (int)(position & 3);
+            dest[destIndex++] = CODE_TO_BASE[(packed >> (shift * 2)) & 3];
+            position++;
+            if ( shift == 3 && position < stop )
+                packed = getPackedByte(packedOffset + (position >> 2));
+        }
+
+        // overwrite any Ns
+        final int[] starts = exceptionStarts[contigIndex];
+        final int[] stops = exceptionStops[contigIndex];
+        for ( int i = firstExceptionEndingAtOrAfter(contigIndex, start); i < starts.length && starts[i] <= stop; i++ ) {
+            final long from = Math.max(starts[i], start);
+            final long to = Math.min(stops[i], stop);
+            Arrays.fill(dest, (int)(destOffset + from - start), (int)(destOffset + to - start + 1), (byte)'N');
+        }
+    }
+
+    private boolean isException(final int contigIndex, final int position) {
+        final int i = firstExceptionEndingAtOrAfter(contigIndex, position);
+        return i < exceptionStarts[contigIndex].length && exceptionStarts[contigIndex][i] <= position;
+    }
+
+    /**
+     * Binary search for the first run of Ns whose stop is >= position
+     */
+    private int firstExceptionEndingAtOrAfter(final int contigIndex, final long position) {
+        final int[] stops = exceptionStops[contigIndex];
+        int low = 0, high = stops.length;
+        while ( low < high ) {
+            final int mid = (low + high) >>> 1;
+            if ( stops[mid] < position )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private int getPackedByte(final long offset) {
+        return segments[(int)(offset / SEGMENT_SIZE)].get((int)(offset % SEGMENT_SIZE)) & 0xFF;
+    }
+
+    /**
+     * A minimal growable int array, to avoid boxing while collecting runs of Ns
+     */
+    private static class IntArrayBuilder {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void add(final int value) {
+            if ( size == values.length ) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(final int i) { return values[i]; }
+        int last() { return values[size - 1]; }
+        void setLast(final int value) { values[size - 1] = value; }
+        int size() { return size; }
+        void clear() { size = 0; }
+    }
+}
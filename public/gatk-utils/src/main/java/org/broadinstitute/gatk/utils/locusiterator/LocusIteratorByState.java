@@ -38,8 +38,8 @@ import org.broadinstitute.gatk.utils.sam.GATKSAMRecordIterator;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.downsampling.DownsamplingMethod;
+import org.broadinstitute.gatk.utils.pileup.ArrayPileupBuilder;
 import org.broadinstitute.gatk.utils.pileup.PileupElement;
-import org.broadinstitute.gatk.utils.pileup.ReadBackedPileupImpl;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
 
@@ -114,6 +114,11 @@ public final class LocusIteratorByState extends LocusIterator {
      */
     private AlignmentContext nextAlignmentContext;
 
+    /**
+     * Collects the pileup elements of all samples at the current locus into flat arrays.  Reused from locus to locus.
+     */
+    private final ArrayPileupBuilder pileupBuilder = new ArrayPileupBuilder();
+
     // -----------------------------------------------------------------------------------------------------------------
     //
     // constructors and other basic operations
@@ -295,13 +300,14 @@ public final class LocusIteratorByState extends LocusIterator {
             readStates.collectPendingReads();
 
             final GenomeLoc location = getLocation();
-            final Map<String, ReadBackedPileupImpl> fullPileup = new HashMap<String, ReadBackedPileupImpl>();
 
             for (final Map.Entry<String, PerSampleReadStateManager> sampleStatePair : readStates ) {
                 final String sample = sampleStatePair.getKey();
                 final PerSampleReadStateManager readState = sampleStatePair.getValue();
                 final Iterator<AlignmentStateMachine> iterator = readState.iterator();
-                final List<PileupElement> pile = new ArrayList<PileupElement>(readState.size());
+
+                // samples that don't add any bases are dropped by the builder
+                pileupBuilder.startSample(sample);
 
                 while (iterator.hasNext()) {
                     // state object with the read/offset information
@@ -317,17 +323,14 @@ public final class LocusIteratorByState extends LocusIterator {
                             continue;
                         }
 
-                        pile.add(state.makePileupElement());
+                        pileupBuilder.add(state.makePileupElement());
                     }
                 }
-
-                if (! pile.isEmpty() ) // if this pileup added at least one base, add it to the full pileup
-                    fullPileup.put(sample, new ReadBackedPileupImpl(location, pile));
             }
 
             readStates.updateReadStates(); // critical - must be called after we get the current state offsets and location
-            if (!fullPileup.isEmpty()) // if we got reads with non-D/N over the current position, we are done
-                nextAlignmentContext = new AlignmentContext(location, new ReadBackedPileupImpl(location, fullPileup), false);
+            if (!pileupBuilder.isEmpty()) // if we got reads with non-D/N over the current position, we are done
+                nextAlignmentContext = new AlignmentContext(location, pileupBuilder.build(location), false);
         }
     }
 
@@ -55,6 +55,11 @@ public class MapResultsQueue<MapType> {
      */
     int prevJobID = -1; // no jobs observed
 
+    /**
+     * Once closed, no more results will be reduced, so new results are dropped rather than queued
+     */
+    boolean closed = false;
+
     /**
      * Put mapResult into this MapResultsQueue, associated with its jobID
      * @param mapResult a non-null map result
@@ -62,10 +67,15 @@ public class MapResultsQueue<MapType> {
     public synchronized void put(final MapResult<MapType> mapResult) {
         if ( mapResult == null ) throw new IllegalArgumentException("mapResult cannot be null");
 
+        // a map thread can still be finishing up after the run was abandoned
+        if ( closed )
+            return;
+
         // make sure that nothing is at the job id for map
         assert queue.size() < mapResult.getJobID() || queue.get(mapResult.getJobID()) == null;
 
         queue.set(mapResult.getJobID(), mapResult);
+        NanoScheduler.nPendingReduces.increment();
     }
 
     /**
@@ -110,7 +120,30 @@ public class MapResultsQueue<MapType> {
 
         prevJobID = result.getJobID();
         queue.set(prevJobID, null);
+        NanoScheduler.nPendingReduces.decrement();
 
         return result;
     }
+
+    /**
+     * Drop all of the results still waiting to be reduced, and any put after this call
+     *
+     * Must be called when we are done with this queue, so that the results of a run that
+     * failed before reducing everything don't stay counted as pending reduces forever.
+     *
+     * @return the number of results dropped
+     */
+    public synchronized int close() {
+        closed = true;
+
+        int nDropped = 0;
+        for ( int i = 0; i < queue.size(); i++ ) {
+            if ( queue.get(i) != null ) {
+                queue.set(i, null);
+                nDropped++;
+            }
+        }
+        NanoScheduler.nPendingReduces.add(-nDropped);
+        return nDropped;
+    }
 }
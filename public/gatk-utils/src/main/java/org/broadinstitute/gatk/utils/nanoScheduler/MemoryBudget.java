@@ -0,0 +1,145 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.nanoScheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A blocking budget of bytes and items shared between the producer and the workers of a NanoScheduler
+ *
+ * The producer acquires room for each input before it's handed out to be mapped, and the worker
+ * that reduces the corresponding map result releases it.  If the budget is exhausted the producer
+ * blocks, which gives us backpressure on the input stage.  A single item larger than the whole byte budget
+ * is always allowed when nothing else is in flight, so that huge inputs slow us down but never deadlock.
+ */
+class MemoryBudget {
+    private final long maxBytes;
+    private final int maxItems;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private long bytesInUse = 0;
+    private int itemsInUse = 0;
+    private long peakBytesInUse = 0;
+
+    /**
+     * @param maxBytes the maximum number of bytes we allow in flight, must be > 0
+     * @param maxItems the maximum number of items we allow in flight, must be > 0
+     */
+    public MemoryBudget(final long maxBytes, final int maxItems) {
+        if ( maxBytes < 1 ) throw new IllegalArgumentException("maxBytes must be >= 1, got " + maxBytes);
+        if ( maxItems < 1 ) throw new IllegalArgumentException("maxItems must be >= 1, got " + maxItems);
+        this.maxBytes = maxBytes;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Try to acquire room for one item of nBytes, waiting at most maxWaitMillis for room to become available
+     *
+     * @param nBytes the estimated size of the item
+     * @param maxWaitMillis how long to wait before giving up
+     * @return true if the room was acquired, false if we timed out
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(final long nBytes, final long maxWaitMillis) throws InterruptedException {
+        if ( nBytes < 0 ) throw new IllegalArgumentException("nBytes must be >= 0, got " + nBytes);
+        lock.lock();
+        try {
+            long nanosLeft = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            while ( ! hasRoomFor(nBytes) ) {
+                if ( nanosLeft <= 0 )
+                    return false;
+                nanosLeft = released.awaitNanos(nanosLeft);
+            }
+
+            itemsInUse++;
+            bytesInUse += nBytes;
+            peakBytesInUse = Math.max(peakBytesInUse, bytesInUse);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release the room previously acquired for an item of nBytes
+     *
+     * @param nBytes the size passed to the tryAcquire call for this item
+     */
+    public void release(final long nBytes) {
+        lock.lock();
+        try {
+            if ( itemsInUse < 1 ) throw new IllegalStateException("Released more items than were acquired");
+            itemsInUse--;
+            bytesInUse -= nBytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait at most maxWaitMillis until every acquired item has been released
+     *
+     * @return true if nothing is in flight anymore, false if we timed out
+     * @throws InterruptedException
+     */
+    public boolean awaitEmpty(final long maxWaitMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanosLeft = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            while ( itemsInUse > 0 ) {
+                if ( nanosLeft <= 0 )
+                    return false;
+                nanosLeft = released.awaitNanos(nanosLeft);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the largest number of bytes that were ever simultaneously in flight
+     */
+    public long getPeakBytesInUse() {
+        lock.lock();
+        try {
+            return peakBytesInUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasRoomFor(final long nBytes) {
+        if ( itemsInUse == 0 ) return true; // always let a single item through, however large
+        return itemsInUse < maxItems && bytesInUse + nBytes <= maxBytes;
+    }
+}
@@ -31,9 +31,14 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.MultiThreadedErrorTracker;
 import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Framework for very fine grained MapReduce parallelism
@@ -61,6 +66,15 @@ import java.util.concurrent.*;
  * thread is put to work by execute to help with the processing of the data.  So in reality the
  * nanoScheduler only spawn nThreads - 1 additional workers (if this is > 1).
  *
+ * The multi-threaded execution can be done by one of two engines (see Engine).  The default
+ * MASTER_THREAD engine runs a master thread and a fixed pool of map threads that pull from a shared
+ * InputProducer.  The WORK_STEALING engine instead has the calling thread read the input and fork one
+ * map task per input into a ForkJoinPool, holding the amount of work in flight within a byte budget
+ * (see setSizeFunction and setMemoryBudget) so that the input reader blocks when the map / reduce
+ * stages fall behind.  Reduce is done in input order by whichever worker completes the map job at the
+ * head of the line.  Both engines honor exactly the same NSMapFunction / NSReduceFunction / NSProgressFunction
+ * contracts, so clients can switch between them without changes.
+ *
  * User: depristo
  * Date: 8/24/12
  * Time: 9:47 AM
@@ -70,6 +84,41 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
     private final static boolean ALLOW_SINGLE_THREAD_FASTPATH = true;
     protected final static int UPDATE_PROGRESS_FREQ = 100;
 
+    /**
+     * How long (in milliseconds) the threads blocked in the WORK_STEALING engine wait before checking for errors
+     */
+    private final static long ERROR_CHECK_INTERVAL_MILLISECONDS = 100;
+
+    /**
+     * The default number of bytes of input that the WORK_STEALING engine will keep in flight
+     */
+    public final static long DEFAULT_MEMORY_BUDGET = 512L * 1024 * 1024;
+
+    /**
+     * The engines available for multi-threaded execution
+     */
+    public enum Engine {
+        /**
+         * A master thread plus a fixed thread pool of map threads, with the number of inputs in flight bounded by bufferSize
+         */
+        MASTER_THREAD,
+
+        /**
+         * A work-stealing ForkJoinPool of map tasks, with the inputs in flight bounded by both bufferSize and a memory budget
+         */
+        WORK_STEALING
+    }
+
+    /**
+     * The number of inputs handed out to be mapped but not yet mapped, over all of the multi-threaded NanoSchedulers in this JVM
+     */
+    final static LongAdder nPendingMaps = new LongAdder();
+
+    /**
+     * The number of map results waiting to be reduced, over all of the multi-threaded NanoSchedulers in this JVM
+     */
+    final static LongAdder nPendingReduces = new LongAdder();
+
     /**
      * Currently not used, but kept because it's conceptual reasonable to have a buffer
      */
@@ -80,13 +129,21 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
      */
     final int nThreads;
 
+    /**
+     * The engine we use to execute map / reduce with more than one thread
+     */
+    final Engine engine;
+
     final ExecutorService masterExecutor;
     final ExecutorService mapExecutor;
+    final ForkJoinPool workStealingPool;
     final MultiThreadedErrorTracker errorTracker = new MultiThreadedErrorTracker();
 
     boolean shutdown = false;
     boolean debug = false;
     private NSProgressFunction<InputType> progressFunction = null;
+    private NSSizeFunction<InputType> sizeFunction = null;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
 
     /**
      * Create a new nanoscheduler with the desire characteristics requested by the argument
@@ -95,24 +152,66 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
      *                 thread calling execute
      */
     public NanoScheduler(final int nThreads) {
-        this(nThreads*100, nThreads);
+        this(nThreads, Engine.MASTER_THREAD);
+    }
+
+    /**
+     * Create a new nanoscheduler that uses engine to do its work with more than one thread
+     *
+     * @param nThreads the number of threads to use to get work done, in addition to the
+     *                 thread calling execute
+     * @param engine the engine to use for multi-threaded execution
+     */
+    public NanoScheduler(final int nThreads, final Engine engine) {
+        this(nThreads*100, nThreads, engine);
     }
 
     protected NanoScheduler(final int bufferSize, final int nThreads) {
+        this(bufferSize, nThreads, Engine.MASTER_THREAD);
+    }
+
+    protected NanoScheduler(final int bufferSize, final int nThreads, final Engine engine) {
         if ( bufferSize < 1 ) throw new IllegalArgumentException("bufferSize must be >= 1, got " + bufferSize);
         if ( nThreads < 1 ) throw new IllegalArgumentException("nThreads must be >= 1, got " + nThreads);
+        if ( engine == null ) throw new IllegalArgumentException("engine cannot be null");
 
         this.bufferSize = bufferSize;
         this.nThreads = nThreads;
+        this.engine = engine;
 
         if ( nThreads == 1 ) {
             this.mapExecutor = this.masterExecutor = null;
+            this.workStealingPool = null;
+        } else if ( engine == Engine.WORK_STEALING ) {
+            this.mapExecutor = this.masterExecutor = null;
+            this.workStealingPool = new ForkJoinPool(nThreads, new NamedForkJoinWorkerThreadFactory("NS-ws-thread-%d"), null, true);
         } else {
             this.masterExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("NS-master-thread-%d"));
             this.mapExecutor = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("NS-map-thread-%d"));
+            this.workStealingPool = null;
         }
     }
 
+    /**
+     * Get the number of inputs handed out to be mapped but not yet mapped, over all of the
+     * multi-threaded NanoSchedulers in this JVM.  A snapshot, for monitoring only.
+     *
+     * @return the number of inputs waiting for or being mapped
+     */
+    public static long getNumPendingMaps() {
+        return nPendingMaps.sum();
+    }
+
+    /**
+     * Get the number of map results waiting to be reduced, over all of the multi-threaded
+     * NanoSchedulers in this JVM.  A snapshot, for monitoring only.
+     *
+     * @return the number of map results waiting for or being reduced
+     */
+    public static long getNumPendingReduces() {
+        return nPendingReduces.sum();
+    }
+
     /**
      * The number of parallel map threads in use with this NanoScheduler
      * @return
@@ -131,13 +230,58 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         return this.bufferSize;
     }
 
+    /**
+     * The engine used by this NanoScheduler when running with more than one thread
+     * @return
+     */
+    @Ensures("result != null")
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * The maximum number of bytes (as estimated by the size function) of input the WORK_STEALING engine keeps in flight
+     * @return
+     */
+    @Ensures("result > 0")
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Can this nanoScheduler run tasks other than map jobs on its threads, with invokeAll?
+     *
+     * Only the WORK_STEALING engine can, as each map thread of the MASTER_THREAD engine is busy for the whole execute call
+     *
+     * @return true if invokeAll can be called
+     */
+    public boolean canInvokeTasks() {
+        return workStealingPool != null;
+    }
+
+    /**
+     * Run tasks on the threads of this nanoScheduler, alongside any map jobs, returning when all of them are done
+     *
+     * Lets the input side of a traversal spread its own work across the threads it was given, rather than
+     * starting threads of its own.  Can only be called when canInvokeTasks() is true.
+     *
+     * @param tasks the tasks to run
+     * @return the futures of the tasks, in the same order, all of which are done
+     */
+    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) {
+        if ( ! canInvokeTasks() ) throw new IllegalStateException("Only a multi-threaded WORK_STEALING nanoScheduler can run tasks, but engine is " + engine + " with " + nThreads + " threads");
+        return workStealingPool.invokeAll(tasks);
+    }
+
     /**
      * Tells this nanoScheduler to shutdown immediately, releasing all its resources.
      *
      * After this call, execute cannot be invoked without throwing an error
      */
     public void shutdown() {
-        if ( nThreads > 1 ) {
+        if ( workStealingPool != null ) {
+            shutdownExecutor("workStealingPool", workStealingPool);
+        } else if ( nThreads > 1 ) {
             shutdownExecutor("mapExecutor", mapExecutor);
             shutdownExecutor("masterExecutor", masterExecutor);
         }
@@ -209,6 +353,28 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         this.progressFunction = progressFunction;
     }
 
+    /**
+     * Set the function used to estimate the memory cost of each input
+     *
+     * Only used by the WORK_STEALING engine.  Without a size function each input is considered to be
+     * free, so that only the bufferSize limits the amount of work in flight.
+     *
+     * @param sizeFunction a size function, or null if inputs should only be counted
+     */
+    public void setSizeFunction(final NSSizeFunction<InputType> sizeFunction) {
+        this.sizeFunction = sizeFunction;
+    }
+
+    /**
+     * Set the maximum number of bytes of input, as estimated by the size function, the WORK_STEALING engine keeps in flight
+     *
+     * @param memoryBudget the budget in bytes, must be > 0
+     */
+    public void setMemoryBudget(final long memoryBudget) {
+        if ( memoryBudget < 1 ) throw new IllegalArgumentException("memoryBudget must be >= 1, got " + memoryBudget);
+        this.memoryBudget = memoryBudget;
+    }
+
     /**
      * Execute a map/reduce job with this nanoScheduler
      *
@@ -243,6 +409,8 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         ReduceType result;
         if ( ALLOW_SINGLE_THREAD_FASTPATH && getnThreads() == 1 ) {
             result = executeSingleThreaded(inputReader, map, initialValue, reduce);
+        } else if ( workStealingPool != null ) {
+            result = executeWorkStealing(inputReader, map, initialValue, reduce);
         } else {
             result = executeMultiThreaded(inputReader, map, initialValue, reduce);
         }
@@ -354,10 +522,69 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
 //        }
 //    }
 
+    /**
+     * Work-stealing version of Map/Reduce
+     *
+     * The calling thread reads the input, waiting for room in the memory budget before handing each input
+     * to a new MapReduceTask in the work stealing pool.  We are done when every input has been read
+     * and all of their map results have been reduced, which releases all of the budget.
+     *
+     * @return the reduce result of this map/reduce job
+     */
+    @Requires({"inputReader != null", "map != null", "reduce != null"})
+    private ReduceType executeWorkStealing(final Iterator<InputType> inputReader,
+                                           final NSMapFunction<InputType, MapType> map,
+                                           final ReduceType initialValue,
+                                           final NSReduceFunction<MapType, ReduceType> reduce) {
+        debugPrint("Executing work stealing nanoScheduler");
+
+        final MemoryBudget budget = new MemoryBudget(memoryBudget, bufferSize);
+        final WorkStealingJob job = new WorkStealingJob(budget, map, initialValue, reduce);
+
+        try {
+            int jobID = 0;
+            while ( true ) {
+                handleErrors();
+
+                if ( ! inputReader.hasNext() )
+                    break;
+
+                final InputType input = inputReader.next();
+                if ( input == null )
+                    throw new IllegalStateException("inputReader.next() returned a null value, breaking our contract");
+
+                // backpressure: wait until the map and reduce stages have freed enough room for this input
+                final long size = sizeFunction == null ? 0 : sizeFunction.estimateSize(input);
+                while ( ! budget.tryAcquire(size, ERROR_CHECK_INTERVAL_MILLISECONDS) )
+                    handleErrors();
+
+                job.submit(jobID++, input, size);
+            }
+
+            // wait until everything we've submitted has been reduced
+            while ( ! budget.awaitEmpty(ERROR_CHECK_INTERVAL_MILLISECONDS) )
+                handleErrors();
+        } catch (Throwable ex) {
+            errorTracker.notifyOfError(ex);
+        }
+
+        // in case an error occurred in the input, map, or reduce
+        if ( errorTracker.hasAnErrorOccurred() )
+            job.abandon();
+        handleErrors();
+
+        debugPrint("Work stealing nanoScheduler done, peak bytes in flight %d", budget.getPeakBytesInUse());
+        return job.getReduceResult();
+    }
+
     private void handleErrors() {
         if ( errorTracker.hasAnErrorOccurred() ) {
-            masterExecutor.shutdownNow();
-            mapExecutor.shutdownNow();
+            if ( workStealingPool != null ) {
+                workStealingPool.shutdownNow();
+            } else {
+                masterExecutor.shutdownNow();
+                mapExecutor.shutdownNow();
+            }
             errorTracker.throwErrorIfPending();
         }
     }
@@ -407,6 +634,9 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
             } catch (Throwable ex) {
                 errorTracker.notifyOfError(ex);
                 return initialValue;
+            } finally {
+                // after an error there may be map results that will now never be reduced
+                mapResultQueue.close();
             }
         }
 
@@ -468,7 +698,13 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
                         final InputType input = inputWrapper.getValue();
 
                         // actually execute the map
-                        final MapType mapValue = map.apply(input);
+                        nPendingMaps.increment();
+                        final MapType mapValue;
+                        try {
+                            mapValue = map.apply(input);
+                        } finally {
+                            nPendingMaps.decrement();
+                        }
 
                         // enqueue the result into the mapResultQueue
                         result = new MapResult<MapType>(mapValue, inputWrapper.getId());
@@ -491,4 +727,173 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The shared state of a single execute call of the WORK_STEALING engine
+     *
+     * Map results are parked in a ring of bufferSize slots indexed by job ID, which is safe because the
+     * memory budget never lets more than bufferSize jobs be in flight, and jobs are always reduced in
+     * order.  After each map the worker tries to reduce from the head of the line.  If another worker
+     * already holds the reduce lock we don't wait for it, but we do check again after it releases the
+     * lock, so that a result published while the lock was held is never stranded.
+     */
+    private class WorkStealingJob {
+        final MemoryBudget budget;
+        final NSMapFunction<InputType, MapType> map;
+        final NSReduceFunction<MapType, ReduceType> reduce;
+
+        final AtomicReferenceArray<MapResult<MapType>> results;
+        final long[] resultSizes;
+        final Lock reduceLock = new ReentrantLock();
+
+        /**
+         * The ID of the next job to reduce.  Only written while holding reduceLock.
+         */
+        volatile int nextJobToReduce = 0;
+
+        /**
+         * The current reduce value.  Only accessed while holding reduceLock, or after everything has been released from the budget.
+         */
+        ReduceType sum;
+
+        /**
+         * Set when the job has failed, after which no more map results will be reduced
+         */
+        volatile boolean abandoned = false;
+
+        private WorkStealingJob(final MemoryBudget budget,
+                                final NSMapFunction<InputType, MapType> map,
+                                final ReduceType initialValue,
+                                final NSReduceFunction<MapType, ReduceType> reduce) {
+            this.budget = budget;
+            this.map = map;
+            this.reduce = reduce;
+            this.sum = initialValue;
+            this.results = new AtomicReferenceArray<MapResult<MapType>>(bufferSize);
+            this.resultSizes = new long[bufferSize];
+        }
+
+        /**
+         * Fork a new map task for input with jobID, whose size has already been acquired from the budget
+         */
+        private void submit(final int jobID, final InputType input, final long size) {
+            resultSizes[jobID % bufferSize] = size;
+            nPendingMaps.increment();
+            try {
+                workStealingPool.execute(new MapReduceTask(this, jobID, input));
+            } catch (RejectedExecutionException e) {
+                nPendingMaps.decrement();
+                throw e;
+            }
+        }
+
+        private void publish(final MapResult<MapType> result) {
+            final int slot = result.getJobID() % bufferSize;
+            nPendingReduces.increment();
+            results.set(slot, result);
+
+            // if abandon() already emptied the slots, drop our result ourselves
+            if ( abandoned && results.getAndSet(slot, null) != null )
+                nPendingReduces.decrement();
+        }
+
+        /**
+         * Drop all of the map results that are waiting to be reduced, and any published after this call
+         *
+         * Whoever takes a result out of its slot, with getAndSet, is the one that stops counting it as a pending reduce.
+         */
+        private void abandon() {
+            abandoned = true;
+            for ( int slot = 0; slot < bufferSize; slot++ ) {
+                if ( results.getAndSet(slot, null) != null )
+                    nPendingReduces.decrement();
+            }
+        }
+
+        /**
+         * Reduce all of the map results in order from the head of the line, without ever blocking on the reduce lock
+         */
+        private void reduceAsMuchAsPossible() {
+            do {
+                if ( ! reduceLock.tryLock() )
+                    return; // whoever holds the lock will check for our result after releasing it
+
+                try {
+                    while ( true ) {
+                        final int slot = nextJobToReduce % bufferSize;
+                        final MapResult<MapType> result = results.getAndSet(slot, null);
+                        if ( result == null )
+                            break;
+
+                        final long size = resultSizes[slot];
+                        try {
+                            sum = reduce.apply(result.getValue(), sum);
+                        } finally {
+                            nPendingReduces.decrement();
+                        }
+                        nextJobToReduce++;
+                        budget.release(size);
+                    }
+                } finally {
+                    reduceLock.unlock();
+                }
+            } while ( results.get(nextJobToReduce % bufferSize) != null );
+        }
+
+        private ReduceType getReduceResult() {
+            return sum;
+        }
+    }
+
+    /**
+     * Maps a single input, and then reduces as much as it can in the order of the inputs
+     */
+    private class MapReduceTask extends RecursiveAction {
+        final WorkStealingJob job;
+        final int jobID;
+        final InputType input;
+
+        private MapReduceTask(final WorkStealingJob job, final int jobID, final InputType input) {
+            this.job = job;
+            this.jobID = jobID;
+            this.input = input;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                final MapType mapValue;
+                try {
+                    mapValue = job.map.apply(input);
+                } finally {
+                    nPendingMaps.decrement();
+                }
+                job.publish(new MapResult<MapType>(mapValue, jobID));
+                job.reduceAsMuchAsPossible();
+                updateProgress(jobID, input);
+            } catch (Throwable ex) {
+                errorTracker.notifyOfError(ex);
+            }
+        }
+    }
+
+    /**
+     * Gives the worker threads of the work stealing pool meaningful names, like NamedThreadFactory
+     */
+    private static class NamedForkJoinWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        final String format;
+        int counter = 0;
+
+        private NamedForkJoinWorkerThreadFactory(final String format) {
+            this.format = format;
+            String.format(format, counter); // test the name
+        }
+
+        @Override
+        public synchronized ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(String.format(format, counter++));
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.QualityUtils;
+
+import static org.broadinstitute.gatk.utils.pairhmm.PairHMMModel.*;
+import static org.broadinstitute.gatk.utils.pairhmm.VectorizedLoglessPairHMM.*;
+
+/**
+ * Logless caching PairHMM that keeps its read x haplotype matrices in single precision.
+ *
+ * <p>
+ * Every pair is computed first in float matrices, which halves the memory traffic of the inner loop compared
+ * to double matrices. Only pairs whose single precision likelihood falls below {@code 1e-28} (scaled), where
+ * float loses accuracy or underflows, are recomputed in double precision. The double matrices are allocated
+ * the first time that happens.
+ * </p>
+ *
+ * <p>
+ * Like the other caching implementations, when the read is unchanged only the haplotype columns from
+ * {@code hapStartIndex} onwards are recomputed.
+ * </p>
+ */
+public class HybridLoglessPairHMM extends PairHMM {
+    private static final double ONE_THIRD = 1.0 / 3.0;
+
+    private float[][] transition = null;
+    private float[][] prior = null;
+    private float[][] matchMatrix = null;
+    private float[][] insertionMatrix = null;
+    private float[][] deletionMatrix = null;
+
+    private double[][] transitionDouble = null;
+
+    // double precision fallback, allocated on first use
+    private double[][] priorDouble = null;
+    private double[][] matchMatrixDouble = null;
+    private double[][] insertionMatrixDouble = null;
+    private double[][] deletionMatrixDouble = null;
+
+    // per read position prior for a matching and a mismatching haplotype base
+    private double[] matchPrior;
+    private double[] mismatchPrior;
+
+    /**
+     * Whether the double precision matrices hold the previous pair, so that their columns before hapStartIndex can be reused
+     */
+    private boolean doubleMatricesAreCurrent = false;
+
+    private long nPairs = 0;
+    private long nDoublePrecisionPairs = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize(final int readMaxLength, final int haplotypeMaxLength) {
+        super.initialize(readMaxLength, haplotypeMaxLength);
+
+        transition = new float[paddedMaxReadLength][TRANS_PROB_ARRAY_LENGTH];
+        transitionDouble = PairHMMModel.createTransitionMatrix(maxReadLength);
+        prior = new float[paddedMaxReadLength][paddedMaxHaplotypeLength];
+        matchMatrix = new float[paddedMaxReadLength][paddedMaxHaplotypeLength];
+        insertionMatrix = new float[paddedMaxReadLength][paddedMaxHaplotypeLength];
+        deletionMatrix = new float[paddedMaxReadLength][paddedMaxHaplotypeLength];
+        matchPrior = new double[paddedMaxReadLength];
+        mismatchPrior = new double[paddedMaxReadLength];
+
+        priorDouble = matchMatrixDouble = insertionMatrixDouble = deletionMatrixDouble = null;
+        doubleMatricesAreCurrent = false;
+    }
+
+    /**
+     * @return the number of read x haplotype pairs computed by this HMM
+     */
+    public long getNumberOfPairs() {
+        return nPairs;
+    }
+
+    /**
+     * @return the number of read x haplotype pairs that had to be recomputed in double precision
+     */
+    public long getNumberOfDoublePrecisionPairs() {
+        return nDoublePrecisionPairs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected double subComputeReadLikelihoodGivenHaplotypeLog10(final byte[] haplotypeBases,
+                                                                 final byte[] readBases,
+                                                                 final byte[] readQuals,
+                                                                 final byte[] insertionGOP,
+                                                                 final byte[] deletionGOP,
+                                                                 final byte[] overallGCP,
+                                                                 final int hapStartIndex,
+                                                                 final boolean recacheReadValues,
+                                                                 final int nextHapStartIndex) {
+        final boolean newRead = ! constantsAreInitialized || recacheReadValues;
+        if ( newRead )
+            initializeReadValues(readQuals, insertionGOP, deletionGOP, overallGCP);
+        nPairs++;
+
+        // hapStartIndex is 0 whenever the read or the haplotype length changes, so the first row only depends on it then
+        final float initialValue = INITIAL_CONDITION_FLOAT / haplotypeBases.length;
+        for ( int j = hapStartIndex; j < paddedHaplotypeLength; j++ ) {
+            deletionMatrix[0][j] = initialValue;
+            for ( int i = 1; i < paddedReadLength && j > 0; i++ )
+                prior[i][j] = (float) prior(readBases[i - 1], haplotypeBases[j - 1], i);
+        }
+        final float result = computeFloat(hapStartIndex);
+
+        if ( result >= MIN_ACCEPTED_FLOAT ) {
+            doubleMatricesAreCurrent = false;
+            return Math.log10(result) - INITIAL_CONDITION_FLOAT_LOG10;
+        }
+
+        nDoublePrecisionPairs++;
+        final int doubleStartIndex = doubleMatricesAreCurrent && ! newRead ? hapStartIndex : 0;
+        return Math.log10(computeDouble(haplotypeBases, readBases, doubleStartIndex)) - INITIAL_CONDITION_LOG10;
+    }
+
+    /**
+     * Caches the per read position priors and transition probabilities of the current read.
+     *
+     * @param readQuals      the base quality scores of the read
+     * @param insertionGOP   insertion quality scores of the read
+     * @param deletionGOP    deletion quality scores of the read
+     * @param overallGCP     overall gap continuation penalty
+     */
+    private void initializeReadValues(final byte[] readQuals, final byte[] insertionGOP, final byte[] deletionGOP, final byte[] overallGCP) {
+        for ( int i = 1; i < paddedReadLength; i++ ) {
+            final byte qual = readQuals[i - 1];
+            matchPrior[i] = QualityUtils.qualToProb(qual);
+            mismatchPrior[i] = doNotUseTristateCorrection ? QualityUtils.qualToErrorProb(qual) : QualityUtils.qualToErrorProb(qual) * ONE_THIRD;
+
+            qualToTransProbs(transitionDouble[i], insertionGOP[i - 1], deletionGOP[i - 1], overallGCP[i - 1]);
+            for ( int t = 0; t < TRANS_PROB_ARRAY_LENGTH; t++ )
+                transition[i][t] = (float) transitionDouble[i][t];
+        }
+        doubleMatricesAreCurrent = false;
+        constantsAreInitialized = true;
+    }
+
+    private double prior(final byte readBase, final byte haplotypeBase, final int i) {
+        return readBase == haplotypeBase || readBase == (byte) 'N' || haplotypeBase == (byte) 'N' ? matchPrior[i] : mismatchPrior[i];
+    }
+
+    /**
+     * Fills the float matrices from column {@code hapStartIndex + 1} and returns the scaled likelihood
+     */
+    private float computeFloat(final int hapStartIndex) {
+        for ( int i = 1; i < paddedReadLength; i++ ) {
+            final float[] t = transition[i];
+            final float mm = t[matchToMatch], gm = t[indelToMatch], mx = t[matchToInsertion], xx = t[insertionToInsertion], my = t[matchToDeletion], yy = t[deletionToDeletion];
+            final float[] p = prior[i];
+            final float[] m = matchMatrix[i], x = insertionMatrix[i], y = deletionMatrix[i];
+            final float[] mUp = matchMatrix[i - 1], xUp = insertionMatrix[i - 1], yUp = deletionMatrix[i - 1];
+            for ( int j = hapStartIndex + 1; j < paddedHaplotypeLength; j++ ) {
+                m[j] = p[j] * (mUp[j - 1] * mm + xUp[j - 1] * gm + yUp[j - 1] * gm);
+                x[j] = mUp[j] * mx + xUp[j] * xx;
+                y[j] = m[j - 1] * my + y[j - 1] * yy;
+            }
+        }
+
+        final int endI = paddedReadLength - 1;
+        float result = 0f;
+        for ( int j = 1; j < paddedHaplotypeLength; j++ )
+            result += matchMatrix[endI][j] + insertionMatrix[endI][j];
+        return result;
+    }
+
+    /**
+     * Fills the double matrices from column {@code startIndex + 1} and returns the scaled likelihood
+     */
+    private double computeDouble(final byte[] haplotypeBases, final byte[] readBases, final int startIndex) {
+        if ( matchMatrixDouble == null ) {
+            priorDouble = new double[paddedMaxReadLength][paddedMaxHaplotypeLength];
+            matchMatrixDouble = new double[paddedMaxReadLength][paddedMaxHaplotypeLength];
+            insertionMatrixDouble = new double[paddedMaxReadLength][paddedMaxHaplotypeLength];
+            deletionMatrixDouble = new double[paddedMaxReadLength][paddedMaxHaplotypeLength];
+        }
+
+        final double initialValue = INITIAL_CONDITION / haplotypeBases.length;
+        for ( int j = startIndex; j < paddedHaplotypeLength; j++ ) {
+            deletionMatrixDouble[0][j] = initialValue;
+            for ( int i = 1; i < paddedReadLength && j > 0; i++ )
+                priorDouble[i][j] = prior(readBases[i - 1], haplotypeBases[j - 1], i);
+        }
+
+        for ( int i = 1; i < paddedReadLength; i++ ) {
+            final double[] t = transitionDouble[i];
+            final double mm = t[matchToMatch], gm = t[indelToMatch], mx = t[matchToInsertion], xx = t[insertionToInsertion], my = t[matchToDeletion], yy = t[deletionToDeletion];
+            final double[] p = priorDouble[i];
+            final double[] m = matchMatrixDouble[i], x = insertionMatrixDouble[i], y = deletionMatrixDouble[i];
+            final double[] mUp = matchMatrixDouble[i - 1], xUp = insertionMatrixDouble[i - 1], yUp = deletionMatrixDouble[i - 1];
+            for ( int j = startIndex + 1; j < paddedHaplotypeLength; j++ ) {
+                m[j] = p[j] * (mUp[j - 1] * mm + xUp[j - 1] * gm + yUp[j - 1] * gm);
+                x[j] = mUp[j] * mx + xUp[j] * xx;
+                y[j] = m[j - 1] * my + y[j - 1] * yy;
+            }
+        }
+        doubleMatricesAreCurrent = true;
+
+        final int endI = paddedReadLength - 1;
+        double result = 0.0;
+        for ( int j = 1; j < paddedHaplotypeLength; j++ )
+            result += matchMatrixDouble[endI][j] + insertionMatrixDouble[endI][j];
+        return result;
+    }
+}
@@ -65,7 +65,24 @@ public abstract class PairHMM {
         /* Debugging for vector implementation of LOGLESS_CACHING */
         DEBUG_VECTOR_LOGLESS_CACHING,
         /* Logless caching PairHMM that stores computations in 1D arrays instead of matrices, and which proceeds diagonally over the (read x haplotype) intersection matrix */
-        ARRAY_LOGLESS
+        ARRAY_LOGLESS,
+        /* Pure-Java logless PairHMM that proceeds by anti-diagonals over flat arrays so the JIT can vectorize it; used in place of VECTOR_LOGLESS_CACHING when the native library is unavailable */
+        JAVA_VECTORIZED_LOGLESS,
+        /* Logless caching PairHMM with single precision matrices, recomputing in double precision only the pairs whose likelihood underflows */
+        HYBRID_LOGLESS_CACHING;
+
+        /**
+         * Returns the implementation that should actually run when this one is requested.
+         *
+         * VECTOR_LOGLESS_CACHING needs the native AVX library; if it cannot be loaded on this machine the
+         * pure-Java JAVA_VECTORIZED_LOGLESS implementation is used rather than the scalar ones.
+         *
+         * @param nativeLibraryAvailable whether the native PairHMM library could be loaded
+         * @return never {@code null}
+         */
+        public HMM_IMPLEMENTATION resolve(final boolean nativeLibraryAvailable) {
+            return this == VECTOR_LOGLESS_CACHING && !nativeLibraryAvailable ? JAVA_VECTORIZED_LOGLESS : this;
+        }
     }
 
     /* Instruction sets for computing VectorLoglessHMM */
@@ -249,13 +266,19 @@ public abstract class PairHMM {
         }
         if(doProfiling) {
             threadLocalPairHMMComputeTimeDiff = (System.nanoTime() - startTime);
-            //synchronized(doProfiling)
-            {
-                pairHMMComputeTime += threadLocalPairHMMComputeTimeDiff;
-            }
+            addToComputeTime(threadLocalPairHMMComputeTimeDiff);
         }
     }
 
+    /**
+     * Adds to the total PairHMM compute time reported by {@link #close()}; safe to call from several threads
+     *
+     * @param nanoseconds time spent computing likelihoods
+     */
+    protected static synchronized void addToComputeTime(final long nanoseconds) {
+        pairHMMComputeTime += nanoseconds;
+    }
+
     /**
      * Compute the total probability of read arising from haplotypeBases given base substitution, insertion, and deletion
      * probabilities.
@@ -0,0 +1,448 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import htsjdk.variant.variantcontext.Allele;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.MultiThreadedErrorTracker;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects read x haplotype likelihood work from concurrent callers and runs it in large batches on a shared pool.
+ *
+ * <p>
+ * Each caller submits the likelihood matrix of an active region. The reads of all pending submissions are pooled,
+ * and once the pool holds at least {@code batchSize} read x haplotype pairs (or a caller stops waiting for others)
+ * the whole batch is sorted by read and haplotype length, cut into chunks of similar cost and computed in parallel.
+ * Sorting keeps the reads and haplotypes of a chunk close in length, so each worker's PairHMM is sized close to
+ * the work it actually does. Results are written straight into the submitted matrices.
+ * </p>
+ *
+ * <p>
+ * PairHMM instances are not thread-safe, so every worker thread gets its own from the provided factory.
+ * </p>
+ */
+public class PairHMMBatchScheduler {
+    private final static Logger logger = Logger.getLogger(PairHMMBatchScheduler.class);
+
+    /**
+     * Creates the PairHMM used by each worker thread
+     */
+    public interface PairHMMFactory {
+        public PairHMM createPairHMM();
+    }
+
+    /**
+     * Default number of read x haplotype pairs that triggers a batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /**
+     * Default time, in milliseconds, a blocking caller waits for other callers to fill a batch
+     */
+    public static final long DEFAULT_LINGER_MILLIS = 5;
+
+    /**
+     * Number of chunks per worker thread a batch is cut into, so workers finishing early can pick up more work
+     */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final int nThreads;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final ExecutorService executor;
+    private final ThreadLocal<PairHMM> pairHMMs;
+
+    private List<ReadWork> pending = new ArrayList<ReadWork>();
+    private int pendingPairs = 0;
+    private boolean shutdown = false;
+
+    private final AtomicLong nBatches = new AtomicLong();
+    private final AtomicLong nPairs = new AtomicLong();
+
+    /**
+     * Create a scheduler with the default batch size and linger time
+     *
+     * @param factory creates the PairHMM used by each worker thread
+     * @param nThreads the number of worker threads
+     */
+    public PairHMMBatchScheduler(final PairHMMFactory factory, final int nThreads) {
+        this(factory, nThreads, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS);
+    }
+
+    /**
+     * Create a scheduler
+     *
+     * @param factory creates the PairHMM used by each worker thread
+     * @param nThreads the number of worker threads
+     * @param batchSize the number of read x haplotype pairs that triggers a batch
+     * @param lingerMillis how long a blocking caller waits for other callers to fill a batch before running it anyway
+     */
+    public PairHMMBatchScheduler(final PairHMMFactory factory, final int nThreads, final int batchSize, final long lingerMillis) {
+        if ( factory == null ) throw new IllegalArgumentException("factory cannot be null");
+        if ( nThreads < 1 ) throw new IllegalArgumentException("nThreads must be >= 1, got " + nThreads);
+        if ( batchSize < 1 ) throw new IllegalArgumentException("batchSize must be >= 1, got " + batchSize);
+        if ( lingerMillis < 0 ) throw new IllegalArgumentException("lingerMillis cannot be negative, got " + lingerMillis);
+
+        this.nThreads = nThreads;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.executor = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("PairHMM-batch-thread-%d"));
+        this.pairHMMs = new ThreadLocal<PairHMM>() {
+            @Override
+            protected PairHMM initialValue() {
+                return factory.createPairHMM();
+            }
+        };
+    }
+
+    /**
+     * Handle on the likelihoods of one submission
+     */
+    public static final class Submission {
+        private final CountDownLatch dispatched = new CountDownLatch(1);
+        private final CountDownLatch remainingReads;
+        private final MultiThreadedErrorTracker errorTracker = new MultiThreadedErrorTracker();
+
+        private Submission(final int nReads) {
+            remainingReads = new CountDownLatch(nReads);
+            if ( nReads == 0 )
+                dispatched.countDown();
+        }
+
+        /**
+         * @return true if every likelihood of this submission has been computed (or failed)
+         */
+        public boolean isDone() {
+            return remainingReads.getCount() == 0;
+        }
+
+        /**
+         * Waits until every likelihood of this submission has been written to its matrix
+         *
+         * @throws RuntimeException the first error that happened while computing this submission
+         */
+        public void await() {
+            try {
+                remainingReads.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ReviewedGATKException("Interrupted while waiting for PairHMM likelihoods", e);
+            }
+            errorTracker.throwErrorIfPending();
+        }
+
+        private boolean awaitDispatch(final long millis) {
+            try {
+                return dispatched.await(millis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ReviewedGATKException("Interrupted while waiting for PairHMM batch", e);
+            }
+        }
+    }
+
+    /**
+     * A read and every haplotype of its likelihood matrix
+     */
+    private static final class ReadWork {
+        final ReadLikelihoods.Matrix<Haplotype> likelihoods;
+        final int readIndex;
+        final GATKSAMRecord read;
+        final byte[] gcp;
+        final int maxHaplotypeLength;
+        final Submission submission;
+
+        ReadWork(final ReadLikelihoods.Matrix<Haplotype> likelihoods, final int readIndex, final GATKSAMRecord read,
+                 final byte[] gcp, final int maxHaplotypeLength, final Submission submission) {
+            this.likelihoods = likelihoods;
+            this.readIndex = readIndex;
+            this.read = read;
+            this.gcp = gcp;
+            this.maxHaplotypeLength = maxHaplotypeLength;
+            this.submission = submission;
+        }
+
+        long cost() {
+            return (long) read.getReadLength() * maxHaplotypeLength * likelihoods.alleleCount();
+        }
+    }
+
+    private static final Comparator<ReadWork> BY_LENGTHS = new Comparator<ReadWork>() {
+        @Override
+        public int compare(final ReadWork a, final ReadWork b) {
+            final int byRead = Integer.compare(a.read.getReadLength(), b.read.getReadLength());
+            return byRead != 0 ? byRead : Integer.compare(a.maxHaplotypeLength, b.maxHaplotypeLength);
+        }
+    };
+
+    /**
+     * Queues the likelihoods of a read x haplotype matrix for computation, without waiting for them.
+     *
+     * The work runs once enough pairs are pending or {@link #flush()} is called; the matrix must not be read
+     * until {@link Submission#await()} returns.
+     *
+     * @param likelihoods where to store the likelihoods, position [a][r] for {@code processedReads[r]} given allele a
+     * @param processedReads the reads to compute, in the matrix read order
+     * @param gcp gap continuation penalties for each read
+     * @return never {@code null}
+     */
+    public Submission submit(final ReadLikelihoods.Matrix<Haplotype> likelihoods,
+                             final List<GATKSAMRecord> processedReads,
+                             final Map<GATKSAMRecord, byte[]> gcp) {
+        if ( likelihoods == null ) throw new IllegalArgumentException("likelihoods cannot be null");
+        if ( processedReads == null ) throw new IllegalArgumentException("processedReads cannot be null");
+        if ( gcp == null ) throw new IllegalArgumentException("gcp cannot be null");
+
+        final int alleleCount = likelihoods.alleleCount();
+        final Submission submission = new Submission(alleleCount == 0 ? 0 : processedReads.size());
+        if ( alleleCount == 0 || processedReads.isEmpty() )
+            return submission;
+
+        int maxHaplotypeLength = 0;
+        for ( final Allele allele : likelihoods.alleles() )
+            maxHaplotypeLength = Math.max(maxHaplotypeLength, allele.length());
+
+        final List<ReadWork> ready;
+        synchronized (this) {
+            if ( shutdown ) throw new IllegalStateException("PairHMMBatchScheduler has been shut down");
+            for ( int r = 0; r < processedReads.size(); r++ ) {
+                final GATKSAMRecord read = processedReads.get(r);
+                pending.add(new ReadWork(likelihoods, r, read, gcp.get(read), maxHaplotypeLength, submission));
+            }
+            pendingPairs += processedReads.size() * alleleCount;
+            ready = pendingPairs >= batchSize ? takePending() : null;
+        }
+
+        if ( ready != null )
+            dispatch(ready);
+        return submission;
+    }
+
+    /**
+     * Computes the likelihoods of a read x haplotype matrix, waiting for them.
+     *
+     * Behaves like {@link PairHMM#computeLikelihoods}, but the work is pooled with that of concurrent callers. If the
+     * batch is not full after the linger time, this caller runs it.
+     *
+     * @param likelihoods where to store the likelihoods, position [a][r] for {@code processedReads[r]} given allele a
+     * @param processedReads the reads to compute, in the matrix read order
+     * @param gcp gap continuation penalties for each read
+     */
+    public void computeLikelihoods(final ReadLikelihoods.Matrix<Haplotype> likelihoods,
+                                   final List<GATKSAMRecord> processedReads,
+                                   final Map<GATKSAMRecord, byte[]> gcp) {
+        final Submission submission = submit(likelihoods, processedReads, gcp);
+        if ( ! submission.awaitDispatch(lingerMillis) )
+            flush();
+        submission.await();
+    }
+
+    /**
+     * Runs whatever work is pending, even if it does not fill a batch
+     */
+    public void flush() {
+        final List<ReadWork> ready;
+        synchronized (this) {
+            ready = takePending();
+        }
+        if ( ! ready.isEmpty() )
+            dispatch(ready);
+    }
+
+    /**
+     * Runs pending work and stops the worker threads once it is done
+     */
+    public void shutdown() {
+        // stop taking submissions before draining, so nothing can slip into pending after our last dispatch
+        final List<ReadWork> ready;
+        synchronized (this) {
+            shutdown = true;
+            ready = takePending();
+        }
+        if ( ! ready.isEmpty() )
+            dispatch(ready);
+        executor.shutdown();
+        try {
+            while ( ! executor.awaitTermination(1, TimeUnit.MINUTES) )
+                logger.debug("Waiting for PairHMM batches to finish");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while shutting down PairHMM batches", e);
+        }
+        logger.debug(String.format("PairHMM batch scheduler ran %d batches of %d read x haplotype pairs in total", nBatches.get(), nPairs.get()));
+    }
+
+    /**
+     * @return the number of batches dispatched so far
+     */
+    public long getNumberOfBatches() {
+        return nBatches.get();
+    }
+
+    private List<ReadWork> takePending() {
+        final List<ReadWork> taken = pending;
+        pending = new ArrayList<ReadWork>();
+        nPairs.addAndGet(pendingPairs);
+        pendingPairs = 0;
+        return taken;
+    }
+
+    /**
+     * Sorts a batch by length, cuts it into chunks of similar cost and hands them to the workers
+     */
+    private void dispatch(final List<ReadWork> batch) {
+        nBatches.incrementAndGet();
+        Collections.sort(batch, BY_LENGTHS);
+
+        long totalCost = 0;
+        for ( final ReadWork work : batch )
+            totalCost += work.cost();
+        final int nChunks = Math.min(batch.size(), nThreads * CHUNKS_PER_THREAD);
+        final long costPerChunk = Math.max(1, totalCost / nChunks);
+
+        int chunkStart = 0;
+        long chunkCost = 0;
+        for ( int i = 0; i < batch.size(); i++ ) {
+            chunkCost += batch.get(i).cost();
+            if ( chunkCost >= costPerChunk || i == batch.size() - 1 ) {
+                submitChunk(batch.subList(chunkStart, i + 1));
+                chunkStart = i + 1;
+                chunkCost = 0;
+            }
+        }
+
+        for ( final ReadWork work : batch )
+            work.submission.dispatched.countDown();
+    }
+
+    /**
+     * Hands a chunk to the workers, or fails its reads if the workers are no longer taking any
+     */
+    private void submitChunk(final List<ReadWork> chunk) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    computeChunk(chunk);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // a batch taken just before shutdown() can lose the race with the executor shutting down
+            failReads(chunk, new ReviewedGATKException("PairHMMBatchScheduler was shut down before these likelihoods could be computed", e));
+        }
+    }
+
+    /**
+     * Computes the likelihoods of a chunk of reads on the calling thread
+     *
+     * Every read of the chunk is counted down exactly once, even if we fail before getting to it, so no caller
+     * waits forever on its submission.
+     */
+    private void computeChunk(final List<ReadWork> chunk) {
+        final long startTime = PairHMM.doProfiling ? System.nanoTime() : 0;
+
+        int nCounted = 0;
+        try {
+            final PairHMM hmm = pairHMMs.get();
+
+            int readMaxLength = 0;
+            int haplotypeMaxLength = 0;
+            for ( final ReadWork work : chunk ) {
+                readMaxLength = Math.max(readMaxLength, work.read.getReadLength());
+                haplotypeMaxLength = Math.max(haplotypeMaxLength, work.maxHaplotypeLength);
+            }
+            if ( ! hmm.initialized || readMaxLength > hmm.maxReadLength || haplotypeMaxLength > hmm.maxHaplotypeLength )
+                hmm.initialize(Math.max(1, readMaxLength), Math.max(1, haplotypeMaxLength));
+
+            for ( final ReadWork work : chunk ) {
+                try {
+                    computeRead(hmm, work);
+                } catch (Throwable t) {
+                    work.submission.errorTracker.notifyOfError(t);
+                } finally {
+                    nCounted++;
+                    work.submission.remainingReads.countDown();
+                }
+            }
+        } catch (Throwable t) {
+            // creating or initializing the PairHMM failed, so none of the remaining reads will be computed
+            for ( int i = nCounted; i < chunk.size(); i++ )
+                chunk.get(i).submission.errorTracker.notifyOfError(t);
+        } finally {
+            for ( int i = nCounted; i < chunk.size(); i++ )
+                chunk.get(i).submission.remainingReads.countDown();
+        }
+
+        if ( PairHMM.doProfiling )
+            PairHMM.addToComputeTime(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Reports error to the submission of each read, and counts the reads down as done
+     */
+    private static void failReads(final List<ReadWork> reads, final Throwable error) {
+        for ( final ReadWork work : reads ) {
+            work.submission.errorTracker.notifyOfError(error);
+            work.submission.remainingReads.countDown();
+        }
+    }
+
+    private static void computeRead(final PairHMM hmm, final ReadWork work) {
+        final GATKSAMRecord read = work.read;
+        final byte[] readBases = read.getReadBases();
+        final byte[] readQuals = read.getBaseQualities();
+        final byte[] readInsQuals = read.getBaseInsertionQualities();
+        final byte[] readDelQuals = read.getBaseDeletionQualities();
+
+        final List<Haplotype> alleles = work.likelihoods.alleles();
+        final int alleleCount = alleles.size();
+        for ( int a = 0; a < alleleCount; a++ ) {
+            final byte[] alleleBases = alleles.get(a).getBases();
+            final byte[] nextAlleleBases = a == alleleCount - 1 ? null : alleles.get(a + 1).getBases();
+            // like PairHMM#computeLikelihoods, always recache: the previous call on this HMM may have been for another read
+            final double lk = hmm.computeReadLikelihoodGivenHaplotypeLog10(alleleBases,
+                    readBases, readQuals, readInsQuals, readDelQuals, work.gcp, true, nextAlleleBases);
+            work.likelihoods.set(a, work.readIndex, lk);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.QualityUtils;
+
+import static org.broadinstitute.gatk.utils.pairhmm.PairHMMModel.*;
+
+/**
+ * Pure-Java logless PairHMM that sweeps the (read x haplotype) matrix one anti-diagonal at a time.
+ *
+ * <p>
+ * All cells on an anti-diagonal are independent of each other, so each diagonal is computed by a single
+ * branch-free loop over flat arrays indexed by read position: the transition probabilities are kept
+ * as one array per transition type, the haplotype is stored reversed so that the haplotype base of each
+ * cell advances with the read position, and only the last three diagonals of each state are kept.
+ * This is the layout HotSpot's superword optimization vectorizes, giving most of the benefit of the
+ * native {@link HMM_IMPLEMENTATION#VECTOR_LOGLESS_CACHING} implementation without requiring its library.
+ * </p>
+ *
+ * <p>
+ * As in the native implementation, likelihoods are first computed in single precision and recomputed in
+ * double precision only when the single precision result is too small to be trusted.
+ * </p>
+ */
+public class VectorizedLoglessPairHMM extends PairHMM {
+
+    /**
+     * Scaling constant for the double precision pass, the same used by the native implementation.
+     */
+    static final double INITIAL_CONDITION = Math.pow(2, 1020);
+    static final double INITIAL_CONDITION_LOG10 = Math.log10(INITIAL_CONDITION);
+
+    /**
+     * Scaling constant for the single precision pass.
+     */
+    static final float INITIAL_CONDITION_FLOAT = (float) Math.pow(2, 120);
+    static final double INITIAL_CONDITION_FLOAT_LOG10 = Math.log10(INITIAL_CONDITION_FLOAT);
+
+    /**
+     * Single precision results below this value are recomputed in double precision.
+     */
+    static final float MIN_ACCEPTED_FLOAT = 1e-28f;
+
+    private static final double ONE_THIRD = 1.0 / 3.0;
+
+    private final boolean useSinglePrecision;
+
+    // per read position transition probabilities, position 0 unused
+    private double[] matchToMatchProb, indelToMatchProb, matchToInsertionProb, insertionToInsertionProb, matchToDeletionProb, deletionToDeletionProb;
+    private float[] matchToMatchProbFloat, indelToMatchProbFloat, matchToInsertionProbFloat, insertionToInsertionProbFloat, matchToDeletionProbFloat, deletionToDeletionProbFloat;
+
+    // per read position prior for a matching and a mismatching haplotype base, position 0 unused
+    private double[] matchPrior, mismatchPrior;
+    private float[] matchPriorFloat, mismatchPriorFloat;
+
+    // prior of each cell in the diagonal being computed
+    private double[] diagonalPrior;
+    private float[] diagonalPriorFloat;
+
+    // the last three diagonals of each state, indexed by read position
+    private double[] match, matchPrev, matchPrev2, insertion, insertionPrev, insertionPrev2, deletion, deletionPrev, deletionPrev2;
+    private float[] matchFloat, matchPrevFloat, matchPrev2Float, insertionFloat, insertionPrevFloat, insertionPrev2Float, deletionFloat, deletionPrevFloat, deletionPrev2Float;
+
+    private final double[] transitionScratch = new double[TRANS_PROB_ARRAY_LENGTH];
+
+    private byte[] reversedHaplotypeBases;
+
+    /**
+     * Create an uninitialized PairHMM that uses single precision whenever the result allows it.
+     */
+    public VectorizedLoglessPairHMM() {
+        this(true);
+    }
+
+    /**
+     * Create an uninitialized PairHMM
+     *
+     * @param useSinglePrecision if true, compute in single precision first and fall back to double precision
+     *                           only for very small likelihoods; if false, always compute in double precision
+     */
+    public VectorizedLoglessPairHMM(final boolean useSinglePrecision) {
+        this.useSinglePrecision = useSinglePrecision;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize(final int readMaxLength, final int haplotypeMaxLength) {
+        super.initialize(readMaxLength, haplotypeMaxLength);
+
+        matchToMatchProb = new double[paddedMaxReadLength];
+        indelToMatchProb = new double[paddedMaxReadLength];
+        matchToInsertionProb = new double[paddedMaxReadLength];
+        insertionToInsertionProb = new double[paddedMaxReadLength];
+        matchToDeletionProb = new double[paddedMaxReadLength];
+        deletionToDeletionProb = new double[paddedMaxReadLength];
+        matchPrior = new double[paddedMaxReadLength];
+        mismatchPrior = new double[paddedMaxReadLength];
+        diagonalPrior = new double[paddedMaxReadLength];
+        match = new double[paddedMaxReadLength];
+        matchPrev = new double[paddedMaxReadLength];
+        matchPrev2 = new double[paddedMaxReadLength];
+        insertion = new double[paddedMaxReadLength];
+        insertionPrev = new double[paddedMaxReadLength];
+        insertionPrev2 = new double[paddedMaxReadLength];
+        deletion = new double[paddedMaxReadLength];
+        deletionPrev = new double[paddedMaxReadLength];
+        deletionPrev2 = new double[paddedMaxReadLength];
+
+        if (useSinglePrecision) {
+            matchToMatchProbFloat = new float[paddedMaxReadLength];
+            indelToMatchProbFloat = new float[paddedMaxReadLength];
+            matchToInsertionProbFloat = new float[paddedMaxReadLength];
+            insertionToInsertionProbFloat = new float[paddedMaxReadLength];
+            matchToDeletionProbFloat = new float[paddedMaxReadLength];
+            deletionToDeletionProbFloat = new float[paddedMaxReadLength];
+            matchPriorFloat = new float[paddedMaxReadLength];
+            mismatchPriorFloat = new float[paddedMaxReadLength];
+            diagonalPriorFloat = new float[paddedMaxReadLength];
+            matchFloat = new float[paddedMaxReadLength];
+            matchPrevFloat = new float[paddedMaxReadLength];
+            matchPrev2Float = new float[paddedMaxReadLength];
+            insertionFloat = new float[paddedMaxReadLength];
+            insertionPrevFloat = new float[paddedMaxReadLength];
+            insertionPrev2Float = new float[paddedMaxReadLength];
+            deletionFloat = new float[paddedMaxReadLength];
+            deletionPrevFloat = new float[paddedMaxReadLength];
+            deletionPrev2Float = new float[paddedMaxReadLength];
+        }
+
+        reversedHaplotypeBases = new byte[maxHaplotypeLength];
+    }
+
+    /**
+     * Is this HMM trying single precision before falling back to double precision?
+     * @return true if single precision is used when possible
+     */
+    public boolean isUsingSinglePrecision() {
+        return useSinglePrecision;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected double subComputeReadLikelihoodGivenHaplotypeLog10(final byte[] haplotypeBases,
+                                                                 final byte[] readBases,
+                                                                 final byte[] readQuals,
+                                                                 final byte[] insertionGOP,
+                                                                 final byte[] deletionGOP,
+                                                                 final byte[] overallGCP,
+                                                                 final int hapStartIndex,
+                                                                 final boolean recacheReadValues,
+                                                                 final int nextHapStartIndex) {
+        if (!constantsAreInitialized || recacheReadValues)
+            initializeReadValues(readQuals, insertionGOP, deletionGOP, overallGCP);
+
+        final int haplotypeLength = haplotypeBases.length;
+        for (int j = 0; j < haplotypeLength; j++)
+            reversedHaplotypeBases[haplotypeLength - 1 - j] = haplotypeBases[j];
+
+        if (useSinglePrecision) {
+            final float result = computeFloat(readBases, haplotypeLength);
+            if (result >= MIN_ACCEPTED_FLOAT)
+                return Math.log10(result) - INITIAL_CONDITION_FLOAT_LOG10;
+        }
+        return Math.log10(computeDouble(readBases, haplotypeLength)) - INITIAL_CONDITION_LOG10;
+    }
+
+    /**
+     * Caches the per read position priors and transition probabilities of the current read.
+     *
+     * @param readQuals      the base quality scores of the read
+     * @param insertionGOP   insertion quality scores of the read
+     * @param deletionGOP    deletion quality scores of the read
+     * @param overallGCP     overall gap continuation penalty
+     */
+    private void initializeReadValues(final byte[] readQuals, final byte[] insertionGOP, final byte[] deletionGOP, final byte[] overallGCP) {
+        for (int i = 1; i < paddedReadLength; i++) {
+            final byte qual = readQuals[i - 1];
+            matchPrior[i] = QualityUtils.qualToProb(qual);
+            mismatchPrior[i] = doNotUseTristateCorrection ? QualityUtils.qualToErrorProb(qual) : QualityUtils.qualToErrorProb(qual) * ONE_THIRD;
+
+            qualToTransProbs(transitionScratch, insertionGOP[i - 1], deletionGOP[i - 1], overallGCP[i - 1]);
+            matchToMatchProb[i] = transitionScratch[matchToMatch];
+            indelToMatchProb[i] = transitionScratch[indelToMatch];
+            matchToInsertionProb[i] = transitionScratch[matchToInsertion];
+            insertionToInsertionProb[i] = transitionScratch[insertionToInsertion];
+            matchToDeletionProb[i] = transitionScratch[matchToDeletion];
+            deletionToDeletionProb[i] = transitionScratch[deletionToDeletion];
+
+            if (useSinglePrecision) {
+                matchPriorFloat[i] = (float) matchPrior[i];
+                mismatchPriorFloat[i] = (float) mismatchPrior[i];
+                matchToMatchProbFloat[i] = (float) matchToMatchProb[i];
+                indelToMatchProbFloat[i] = (float) indelToMatchProb[i];
+                matchToInsertionProbFloat[i] = (float) matchToInsertionProb[i];
+                insertionToInsertionProbFloat[i] = (float) insertionToInsertionProb[i];
+                matchToDeletionProbFloat[i] = (float) matchToDeletionProb[i];
+                deletionToDeletionProbFloat[i] = (float) deletionToDeletionProb[i];
+            }
+        }
+        constantsAreInitialized = true;
+    }
+
+    /**
+     * Are a read base and a haplotype base considered a match? N matches any base.
+     */
+    private static boolean basesMatch(final byte readBase, final byte haplotypeBase) {
+        return readBase == haplotypeBase || readBase == (byte) 'N' || haplotypeBase == (byte) 'N';
+    }
+
+    /**
+     * Runs the HMM in double precision.
+     *
+     * <p>
+     * Cell (i, j) lies on diagonal d = i + j and is stored at position i of that diagonal's arrays. Position 0
+     * holds the first row (free deletions at the start of the haplotype) and position d holds column 0.
+     * </p>
+     *
+     * @return the scaled probability of the read given the haplotype
+     */
+    private double computeDouble(final byte[] readBases, final int haplotypeLength) {
+        final int readLength = paddedReadLength - 1;
+        final double initialValue = INITIAL_CONDITION / haplotypeLength;
+
+        double[] m = match, mPrev = matchPrev, mPrev2 = matchPrev2;
+        double[] x = insertion, xPrev = insertionPrev, xPrev2 = insertionPrev2;
+        double[] y = deletion, yPrev = deletionPrev, yPrev2 = deletionPrev2;
+
+        // diagonal 0 is cell (0,0); diagonal 1 is cells (0,1) and (1,0)
+        mPrev2[0] = xPrev2[0] = 0.0;
+        yPrev2[0] = initialValue;
+        mPrev[0] = xPrev[0] = 0.0;
+        yPrev[0] = initialValue;
+        mPrev[1] = xPrev[1] = yPrev[1] = 0.0;
+
+        double result = 0.0;
+        final int lastDiagonal = readLength + haplotypeLength;
+        for (int d = 2; d <= lastDiagonal; d++) {
+            final int first = Math.max(1, d - haplotypeLength);
+            final int last = Math.min(readLength, d - 1);
+            final int haplotypeOffset = haplotypeLength - d;
+
+            for (int i = first; i <= last; i++)
+                diagonalPrior[i] = basesMatch(readBases[i - 1], reversedHaplotypeBases[haplotypeOffset + i]) ? matchPrior[i] : mismatchPrior[i];
+
+            for (int i = first; i <= last; i++) {
+                m[i] = diagonalPrior[i] * (mPrev2[i - 1] * matchToMatchProb[i] + (xPrev2[i - 1] + yPrev2[i - 1]) * indelToMatchProb[i]);
+                x[i] = mPrev[i - 1] * matchToInsertionProb[i] + xPrev[i - 1] * insertionToInsertionProb[i];
+                y[i] = mPrev[i] * matchToDeletionProb[i] + yPrev[i] * deletionToDeletionProb[i];
+            }
+
+            m[0] = x[0] = 0.0;
+            y[0] = d <= haplotypeLength ? initialValue : 0.0;
+            if (d <= readLength)
+                m[d] = x[d] = y[d] = 0.0;
+
+            if (last == readLength)
+                result += m[readLength] + x[readLength];
+
+            final double[] mOldest = mPrev2; mPrev2 = mPrev; mPrev = m; m = mOldest;
+            final double[] xOldest = xPrev2; xPrev2 = xPrev; xPrev = x; x = xOldest;
+            final double[] yOldest = yPrev2; yPrev2 = yPrev; yPrev = y; y = yOldest;
+        }
+        return result;
+    }
+
+    /**
+     * Runs the HMM in single precision; same recurrences as {@link #computeDouble}.
+     *
+     * @return the scaled probability of the read given the haplotype
+     */
+    private float computeFloat(final byte[] readBases, final int haplotypeLength) {
+        final int readLength = paddedReadLength - 1;
+        final float initialValue = INITIAL_CONDITION_FLOAT / haplotypeLength;
+
+        float[] m = matchFloat, mPrev = matchPrevFloat, mPrev2 = matchPrev2Float;
+        float[] x = insertionFloat, xPrev = insertionPrevFloat, xPrev2 = insertionPrev2Float;
+        float[] y = deletionFloat, yPrev = deletionPrevFloat, yPrev2 = deletionPrev2Float;
+
+        mPrev2[0] = xPrev2[0] = 0f;
+        yPrev2[0] = initialValue;
+        mPrev[0] = xPrev[0] = 0f;
+        yPrev[0] = initialValue;
+        mPrev[1] = xPrev[1] = yPrev[1] = 0f;
+
+        float result = 0f;
+        final int lastDiagonal = readLength + haplotypeLength;
+        for (int d = 2; d <= lastDiagonal; d++) {
+            final int first = Math.max(1, d - haplotypeLength);
+            final int last = Math.min(readLength, d - 1);
+            final int haplotypeOffset = haplotypeLength - d;
+
+            for (int i = first; i <= last; i++)
+                diagonalPriorFloat[i] = basesMatch(readBases[i - 1], reversedHaplotypeBases[haplotypeOffset + i]) ? matchPriorFloat[i] : mismatchPriorFloat[i];
+
+            for (int i = first; i <= last; i++) {
+                m[i] = diagonalPriorFloat[i] * (mPrev2[i - 1] * matchToMatchProbFloat[i] + (xPrev2[i - 1] + yPrev2[i - 1]) * indelToMatchProbFloat[i]);
+                x[i] = mPrev[i - 1] * matchToInsertionProbFloat[i] + xPrev[i - 1] * insertionToInsertionProbFloat[i];
+                y[i] = mPrev[i] * matchToDeletionProbFloat[i] + yPrev[i] * deletionToDeletionProbFloat[i];
+            }
+
+            m[0] = x[0] = 0f;
+            y[0] = d <= haplotypeLength ? initialValue : 0f;
+            if (d <= readLength)
+                m[d] = x[d] = y[d] = 0f;
+
+            if (last == readLength)
+                result += m[readLength] + x[readLength];
+
+            final float[] mOldest = mPrev2; mPrev2 = mPrev; mPrev = m; m = mOldest;
+            final float[] xOldest = xPrev2; xPrev2 = xPrev; xPrev = x; x = xOldest;
+            final float[] yOldest = yPrev2; yPrev2 = yPrev; yPrev = y; y = yOldest;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pileup;
+
+import org.broadinstitute.gatk.utils.GenomeLoc;
+
+import java.util.Arrays;
+
+/**
+ * Builds a per-sample ReadBackedPileup whose elements are stored in flat, parallel arrays
+ *
+ * Elements are added sample by sample: call startSample, then add each of that sample's elements in order.
+ * The resulting pileup has the same samples, order and behavior as one built from a map of per-sample
+ * pileups, but filtering it or breaking it down by sample creates lightweight views instead of new lists.
+ *
+ * A builder can be reused once build() has been called, and it keeps its arrays when it is, so a builder
+ * reused across loci only allocates the exactly sized columns of each pileup it builds.
+ */
+public final class ArrayPileupBuilder {
+    private final static int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private PileupElement[] elements;
+    private int[] offsets;
+    private byte[] bases;
+    private byte[] quals;
+    private byte[] mappingQuals;
+    private byte[] flags;
+    private int size = 0;
+
+    private String[] sampleNames = new String[4];
+    private int[] sampleStarts = new int[5];
+    private int nSamples = 0;
+
+    public ArrayPileupBuilder() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity the expected number of elements in the pileup, must be >= 1
+     */
+    public ArrayPileupBuilder(final int initialCapacity) {
+        if ( initialCapacity < 1 ) throw new IllegalArgumentException("initialCapacity must be >= 1, got " + initialCapacity);
+        elements = new PileupElement[initialCapacity];
+        offsets = new int[initialCapacity];
+        bases = new byte[initialCapacity];
+        quals = new byte[initialCapacity];
+        mappingQuals = new byte[initialCapacity];
+        flags = new byte[initialCapacity];
+    }
+
+    /**
+     * Start adding the elements of sample
+     *
+     * If no elements were added to the previous sample, it is dropped from the pileup.
+     *
+     * @param sample the name of the sample, may be null
+     */
+    public void startSample(final String sample) {
+        if ( nSamples > 0 && sampleStarts[nSamples - 1] == size )
+            nSamples--; // the previous sample was empty
+
+        if ( nSamples == sampleNames.length ) {
+            sampleNames = Arrays.copyOf(sampleNames, nSamples * 2);
+            sampleStarts = Arrays.copyOf(sampleStarts, nSamples * 2 + 1);
+        }
+        sampleNames[nSamples] = sample;
+        sampleStarts[nSamples] = size;
+        nSamples++;
+    }
+
+    /**
+     * Add element to the current sample
+     *
+     * @param element the next element of the current sample
+     */
+    public void add(final PileupElement element) {
+        if ( element == null ) throw new IllegalArgumentException("element cannot be null");
+        if ( nSamples == 0 ) throw new IllegalStateException("startSample must be called before adding elements");
+
+        if ( size == elements.length ) {
+            final int capacity = size * 2;
+            elements = Arrays.copyOf(elements, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            bases = Arrays.copyOf(bases, capacity);
+            quals = Arrays.copyOf(quals, capacity);
+            mappingQuals = Arrays.copyOf(mappingQuals, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+
+        elements[size] = element;
+        offsets[size] = element.getOffset();
+        bases[size] = element.getBase();
+        quals[size] = element.getQual();
+        mappingQuals[size] = (byte)element.getMappingQual();
+
+        byte flag = 0;
+        if ( element.isDeletion() ) flag |= ArrayPileupElementTracker.DELETION_FLAG;
+        if ( element.getRead().getReadNegativeStrandFlag() ) flag |= ArrayPileupElementTracker.NEGATIVE_STRAND_FLAG;
+        flags[size] = flag;
+
+        size++;
+    }
+
+    /**
+     * @return true if no elements have been added since the builder was created or last built
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Create the pileup at loc from all of the elements added so far, and reset this builder
+     *
+     * @param loc the location of the pileup
+     * @return a non-null pileup
+     */
+    public ReadBackedPileupImpl build(final GenomeLoc loc) {
+        if ( nSamples > 0 && sampleStarts[nSamples - 1] == size )
+            nSamples--; // the last sample was empty
+
+        final int[] starts = Arrays.copyOf(sampleStarts, nSamples + 1);
+        starts[nSamples] = size;
+        final ArrayPileupElementTracker.Columns columns = new ArrayPileupElementTracker.Columns(
+                Arrays.copyOf(elements, size), Arrays.copyOf(offsets, size), Arrays.copyOf(bases, size),
+                Arrays.copyOf(quals, size), Arrays.copyOf(mappingQuals, size), Arrays.copyOf(flags, size),
+                Arrays.copyOf(sampleNames, nSamples), starts);
+
+        // the pileup gets exactly sized copies, so we keep our (possibly grown) arrays for the next locus.
+        // Drop the element references so we don't keep this locus' reads alive until they are overwritten
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+        nSamples = 0;
+
+        return new ReadBackedPileupImpl(loc, new ArrayPileupElementTracker<PileupElement>(columns));
+    }
+}
@@ -0,0 +1,490 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pileup;
+
+import java.util.*;
+
+/**
+ * A pileup element tracker that stores the elements of all samples at a locus in flat, parallel arrays
+ *
+ * The elements of each sample occupy a contiguous range of the shared arrays, and the properties most often used
+ * to filter and summarize pileups (offset, base, qual, mapping quality and strand/deletion flags) are stored as
+ * primitive columns next to the elements themselves.  A tracker is a view onto these shared columns: it selects a
+ * list of samples and, optionally, a bitmask of the elements passing some filters.  Filtering a tracker or selecting
+ * some of its samples therefore only allocates a new bitmask (or nothing at all), never a new list of elements.
+ *
+ * A per-sample tracker behaves like a PerSamplePileupElementTracker, including the order in which it iterates over
+ * its elements.  A tracker for a single sample obtained via getElements(sample) is not per-sample, so it behaves
+ * like the UnifiedPileupElementTracker that PerSamplePileupElementTracker holds for each sample.
+ *
+ * Trackers are immutable, and all of the trackers derived from one another share the same underlying columns.
+ */
+class ArrayPileupElementTracker<PE extends PileupElement> extends PileupElementTracker<PE> {
+    final static byte DELETION_FLAG = 1;
+    final static byte NEGATIVE_STRAND_FLAG = 1 << 1;
+
+    /**
+     * Decides if the element at index in columns passes a filter
+     */
+    interface ColumnFilter {
+        public boolean allow(final Columns columns, final int index);
+    }
+
+    /**
+     * The parallel arrays shared by all trackers for a single locus
+     */
+    final static class Columns {
+        final PileupElement[] elements;
+        final int[] offsets;
+        final byte[] bases;
+        final byte[] quals;
+        final byte[] mappingQuals;
+        final byte[] flags;
+
+        /**
+         * The names of the samples, and the start of each sample's range in the columns.
+         * sampleStarts has one more entry than sampleNames, the total number of elements.
+         */
+        final String[] sampleNames;
+        final int[] sampleStarts;
+        final Map<String, Integer> sampleIndices;
+
+        Columns(final PileupElement[] elements, final int[] offsets, final byte[] bases, final byte[] quals,
+                final byte[] mappingQuals, final byte[] flags, final String[] sampleNames, final int[] sampleStarts) {
+            this.elements = elements;
+            this.offsets = offsets;
+            this.bases = bases;
+            this.quals = quals;
+            this.mappingQuals = mappingQuals;
+            this.flags = flags;
+            this.sampleNames = sampleNames;
+            this.sampleStarts = sampleStarts;
+
+            sampleIndices = new HashMap<>(sampleNames.length * 2);
+            for ( int i = 0; i < sampleNames.length; i++ )
+                sampleIndices.put(sampleNames[i], i);
+        }
+
+        public int getMappingQual(final int index) {
+            return mappingQuals[index] & 0xFF;
+        }
+
+        public boolean hasFlag(final int index, final byte flag) {
+            return (flags[index] & flag) != 0;
+        }
+    }
+
+    final static ColumnFilter IS_DELETION = new ColumnFilter() {
+        @Override public boolean allow(final Columns columns, final int index) { return columns.hasFlag(index, DELETION_FLAG); }
+    };
+
+    final static ColumnFilter IS_NOT_DELETION = new ColumnFilter() {
+        @Override public boolean allow(final Columns columns, final int index) { return ! columns.hasFlag(index, DELETION_FLAG); }
+    };
+
+    final static ColumnFilter IS_NEGATIVE_STRAND = new ColumnFilter() {
+        @Override public boolean allow(final Columns columns, final int index) { return columns.hasFlag(index, NEGATIVE_STRAND_FLAG); }
+    };
+
+    final static ColumnFilter IS_POSITIVE_STRAND = new ColumnFilter() {
+        @Override public boolean allow(final Columns columns, final int index) { return ! columns.hasFlag(index, NEGATIVE_STRAND_FLAG); }
+    };
+
+    final static ColumnFilter IS_MAPPING_QUALITY_ZERO = new ColumnFilter() {
+        @Override public boolean allow(final Columns columns, final int index) { return columns.getMappingQual(index) == 0; }
+    };
+
+    final static ColumnFilter IS_NOT_MAPPING_QUALITY_ZERO = new ColumnFilter() {
+        @Override public boolean allow(final Columns columns, final int index) { return columns.getMappingQual(index) > 0; }
+    };
+
+    /**
+     * @return a filter allowing elements from reads with mapping quality >= minMapQ that are either deletions or have base quality >= minBaseQ
+     */
+    static ColumnFilter baseAndMappingQualityFilter(final int minBaseQ, final int minMapQ) {
+        return new ColumnFilter() {
+            @Override
+            public boolean allow(final Columns columns, final int index) {
+                return columns.getMappingQual(index) >= minMapQ && (columns.hasFlag(index, DELETION_FLAG) || columns.quals[index] >= minBaseQ);
+            }
+        };
+    }
+
+    private final Columns columns;
+
+    /**
+     * A bitmask of the elements selected by this tracker, or null if all of the elements of our samples are selected
+     */
+    private final long[] mask;
+
+    /**
+     * The indices of the samples in this tracker, in the order of iteration
+     */
+    private final int[] samples;
+
+    private final boolean perSample;
+    private final int size;
+
+    /**
+     * Lazily computed indices of our elements in iteration order
+     */
+    private volatile int[] orderedIndices = null;
+
+    /**
+     * Create a per-sample tracker over all of the elements in columns
+     *
+     * The samples are iterated in the same order as a PerSamplePileupElementTracker built by adding the
+     * samples in the order in which they appear in columns.
+     *
+     * @param columns the shared columns
+     */
+    ArrayPileupElementTracker(final Columns columns) {
+        this(columns, null, hashOrderOfSamples(columns, Arrays.asList(columns.sampleNames)), true);
+    }
+
+    private ArrayPileupElementTracker(final Columns columns, final long[] mask, final int[] samples, final boolean perSample) {
+        this.columns = columns;
+        this.mask = mask;
+        this.samples = samples;
+        this.perSample = perSample;
+
+        int n = 0;
+        for ( final int sample : samples )
+            n += countSelected(columns.sampleStarts[sample], columns.sampleStarts[sample + 1]);
+        this.size = n;
+    }
+
+    /**
+     * Order sampleNames the way a HashMap's keySet would after inserting them in order, which is the iteration
+     * order of the samples in PerSamplePileupElementTracker
+     */
+    private static int[] hashOrderOfSamples(final Columns columns, final Collection<String> sampleNames) {
+        final Map<String, Integer> hashOrder = new HashMap<>();
+        for ( final String sample : sampleNames ) {
+            final Integer index = columns.sampleIndices.get(sample);
+            if ( index != null )
+                hashOrder.put(sample, index);
+        }
+
+        final int[] samples = new int[hashOrder.size()];
+        int i = 0;
+        for ( final int index : hashOrder.values() )
+            samples[i++] = index;
+        return samples;
+    }
+
+    private boolean isSelected(final int index) {
+        return mask == null || (mask[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private int countSelected(final int start, final int end) {
+        if ( mask == null )
+            return end - start;
+
+        int n = 0;
+        for ( int i = start; i < end; i++ )
+            if ( isSelected(i) ) n++;
+        return n;
+    }
+
+    /**
+     * @return the columns shared by this tracker
+     */
+    Columns getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return true if this tracker behaves like a PerSamplePileupElementTracker, false if it's a single sample's pileup
+     */
+    public boolean isPerSample() {
+        return perSample;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a view of this tracker containing only the elements passing filter
+     *
+     * @param filter the filter to apply to each of our elements
+     * @return a new tracker with the same samples as this one
+     */
+    public ArrayPileupElementTracker<PE> filter(final ColumnFilter filter) {
+        final long[] filteredMask = new long[(columns.elements.length + 63) >>> 6];
+        for ( final int sample : samples ) {
+            for ( int i = columns.sampleStarts[sample]; i < columns.sampleStarts[sample + 1]; i++ ) {
+                if ( isSelected(i) && filter.allow(columns, i) )
+                    filteredMask[i >>> 6] |= 1L << i;
+            }
+        }
+        return new ArrayPileupElementTracker<>(columns, filteredMask, samples, perSample);
+    }
+
+    /**
+     * Get a view of this tracker containing only the elements passing filter
+     *
+     * @param filter the filter to apply to each of our elements
+     * @return a new tracker with the same samples as this one
+     */
+    public ArrayPileupElementTracker<PE> filter(final PileupElementFilter filter) {
+        return filter(new ColumnFilter() {
+            @Override
+            public boolean allow(final Columns columns, final int index) {
+                return filter.allow(columns.elements[index]);
+            }
+        });
+    }
+
+    /**
+     * @return the names of the samples in this tracker, in the order of iteration, including samples whose elements were all filtered out
+     */
+    public List<String> getSamples() {
+        final List<String> names = new ArrayList<>(samples.length);
+        for ( final int sample : samples )
+            names.add(columns.sampleNames[sample]);
+        return names;
+    }
+
+    /**
+     * Get the pileup of a single sample in this tracker
+     *
+     * @param sample the name of the sample
+     * @return a tracker for the sample that isn't per-sample, or null if sample isn't part of this tracker
+     */
+    public ArrayPileupElementTracker<PE> getElements(final String sample) {
+        final Integer index = columns.sampleIndices.get(sample);
+        if ( index == null || ! containsSample(index) )
+            return null;
+        return new ArrayPileupElementTracker<>(columns, mask, new int[]{index}, false);
+    }
+
+    /**
+     * Get the per-sample pileup of some of the samples in this tracker
+     *
+     * @param selectSampleNames the names of the samples we want
+     * @return a per-sample tracker for the requested samples, skipping those that aren't part of this tracker
+     */
+    public ArrayPileupElementTracker<PE> getElements(final Collection<String> selectSampleNames) {
+        final List<String> present = new ArrayList<>(selectSampleNames.size());
+        for ( final String sample : selectSampleNames ) {
+            final Integer index = columns.sampleIndices.get(sample);
+            if ( index != null && containsSample(index) )
+                present.add(sample);
+        }
+        return new ArrayPileupElementTracker<>(columns, mask, hashOrderOfSamples(columns, present), true);
+    }
+
+    /**
+     * @return a view of this tracker without the samples whose elements were all filtered out
+     */
+    public ArrayPileupElementTracker<PE> withoutEmptySamples() {
+        int nNonEmpty = 0;
+        final int[] nonEmpty = new int[samples.length];
+        for ( final int sample : samples ) {
+            if ( countSelected(columns.sampleStarts[sample], columns.sampleStarts[sample + 1]) > 0 )
+                nonEmpty[nNonEmpty++] = sample;
+        }
+        return nNonEmpty == samples.length ? this : new ArrayPileupElementTracker<>(columns, mask, Arrays.copyOf(nonEmpty, nNonEmpty), perSample);
+    }
+
+    private boolean containsSample(final int index) {
+        for ( final int sample : samples )
+            if ( sample == index ) return true;
+        return false;
+    }
+
+    /**
+     * Count the elements in this tracker passing filter, without creating a new tracker
+     *
+     * @param filter the filter to apply to each of our elements
+     * @return the number of elements passing filter
+     */
+    public int count(final ColumnFilter filter) {
+        int n = 0;
+        for ( final int sample : samples ) {
+            for ( int i = columns.sampleStarts[sample]; i < columns.sampleStarts[sample + 1]; i++ ) {
+                if ( isSelected(i) && filter.allow(columns, i) )
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Get the indices into the columns of our elements, in the same order as iterator()
+     *
+     * For a per-sample tracker with multiple samples this merges the samples exactly as MergingPileupElementIterator
+     * does.  The result is cached, so it must not be modified by the caller.
+     *
+     * @return an array of size() indices
+     */
+    int[] getOrderedIndices() {
+        if ( orderedIndices == null ) {
+            final int[] indices = new int[size];
+            if ( perSample && samples.length > 1 )
+                mergeSamples(indices);
+            else {
+                int n = 0;
+                for ( final int sample : samples ) {
+                    for ( int i = columns.sampleStarts[sample]; i < columns.sampleStarts[sample + 1]; i++ )
+                        if ( isSelected(i) ) indices[n++] = i;
+                }
+            }
+            orderedIndices = indices;
+        }
+        return orderedIndices;
+    }
+
+    /**
+     * A cursor over the selected elements of a single sample, used to merge samples in MergingPileupElementIterator order
+     */
+    private final class SampleCursor {
+        int position;
+        final int end;
+
+        private SampleCursor(final int start, final int end) {
+            this.end = end;
+            this.position = nextSelected(start);
+        }
+
+        private int nextSelected(int from) {
+            while ( from < end && ! isSelected(from) ) from++;
+            return from;
+        }
+
+        private boolean hasNext() { return position < end; }
+        private int peekOffset() { return columns.offsets[position]; }
+        private int next() {
+            final int current = position;
+            position = nextSelected(position + 1);
+            return current;
+        }
+    }
+
+    private void mergeSamples(final int[] indices) {
+        final PriorityQueue<SampleCursor> cursors = new PriorityQueue<>(samples.length, new Comparator<SampleCursor>() {
+            @Override
+            public int compare(final SampleCursor lhs, final SampleCursor rhs) {
+                return rhs.peekOffset() - lhs.peekOffset();
+            }
+        });
+        for ( final int sample : samples ) {
+            final SampleCursor cursor = new SampleCursor(columns.sampleStarts[sample], columns.sampleStarts[sample + 1]);
+            if ( cursor.hasNext() )
+                cursors.add(cursor);
+        }
+
+        int n = 0;
+        while ( ! cursors.isEmpty() ) {
+            final SampleCursor cursor = cursors.remove();
+            indices[n++] = cursor.next();
+            if ( cursor.hasNext() )
+                cursors.add(cursor);
+        }
+    }
+
+    @Override
+    public Iterator<PE> iterator() {
+        return new ElementIterator(getOrderedIndices());
+    }
+
+    /**
+     * Get the indices into the columns of our elements, in the same order as unorderedIterable()
+     *
+     * @return an array of size() indices, which must not be modified by the caller
+     */
+    int[] getUnorderedIndices() {
+        if ( ! perSample || samples.length < 2 )
+            return getOrderedIndices();
+
+        // walk the samples in order, which doesn't require merging
+        final int[] indices = new int[size];
+        int n = 0;
+        for ( final int sample : samples ) {
+            for ( int i = columns.sampleStarts[sample]; i < columns.sampleStarts[sample + 1]; i++ )
+                if ( isSelected(i) ) indices[n++] = i;
+        }
+        return indices;
+    }
+
+    @Override
+    public Iterable<PE> unorderedIterable() {
+        return new Iterable<PE>() {
+            @Override
+            public Iterator<PE> iterator() {
+                return new ElementIterator(getUnorderedIndices());
+            }
+        };
+    }
+
+    private final class ElementIterator implements Iterator<PE> {
+        private final int[] indices;
+        private int next = 0;
+
+        private ElementIterator(final int[] indices) {
+            this.indices = indices;
+        }
+
+        @Override public boolean hasNext() { return next < indices.length; }
+        @SuppressWarnings("unchecked")
+        @Override public PE next() {
+            if ( ! hasNext() ) throw new NoSuchElementException();
+            return (PE)columns.elements[indices[next++]];
+        }
+        @Override public void remove() { throw new UnsupportedOperationException("Cannot remove"); }
+    }
+
+    @Override
+    public ArrayPileupElementTracker<PE> copy() {
+        // the columns are never modified, so sharing them is as good as a copy
+        return new ArrayPileupElementTracker<>(columns, mask, samples, perSample);
+    }
+
+    /**
+     * Convert this tracker into the equivalent list-based tracker
+     *
+     * Used for the operations that we haven't specialized for the columns.
+     *
+     * @return a PerSamplePileupElementTracker if we are per-sample, or a UnifiedPileupElementTracker otherwise
+     */
+    @SuppressWarnings("unchecked")
+    public PileupElementTracker<PE> toListTracker() {
+        if ( ! perSample ) {
+            final UnifiedPileupElementTracker<PE> unified = new UnifiedPileupElementTracker<>();
+            for ( final int i : getOrderedIndices() )
+                unified.add((PE)columns.elements[i]);
+            return unified;
+        }
+
+        final PerSamplePileupElementTracker<PE> perSampleTracker = new PerSamplePileupElementTracker<>();
+        for ( final int sample : samples )
+            perSampleTracker.addElements(columns.sampleNames[sample], getElements(columns.sampleNames[sample]).toListTracker());
+        return perSampleTracker;
+    }
+}
@@ -65,7 +65,7 @@ class UnifiedPileupElementTracker<PE extends PileupElement> extends PileupElemen
         return result;
     }
 
-    public UnifiedPileupElementTracker() { pileup = new LinkedList<PE>(); }
+    public UnifiedPileupElementTracker() { pileup = new ArrayList<PE>(); }
     public UnifiedPileupElementTracker(List<PE> pileup) { this.pileup = pileup; }
 
     public void add(PE element) {
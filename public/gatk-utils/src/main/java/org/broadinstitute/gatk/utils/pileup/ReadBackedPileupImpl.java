@@ -181,7 +181,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public ReadBackedPileupImpl getPileupWithoutDeletions() {
         if (getNumberOfDeletions() > 0) {
-            if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+            if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+                ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+                return createNewPileup(loc, tracker.filter(ArrayPileupElementTracker.IS_NOT_DELETION));
+            } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
                 PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
                 PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -231,7 +234,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      */
     @Override
     public ReadBackedPileupImpl getOverlappingFragmentFilteredPileup(boolean discardDiscordant, boolean baseQualNotMapQual) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            return createNewPileup(loc, asListTracker()).getOverlappingFragmentFilteredPileup(discardDiscordant, baseQualNotMapQual);
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -289,7 +294,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public ReadBackedPileupImpl getPileupWithoutMappingQualityZeroReads() {
         if (getNumberOfMappingQualityZeroReads() > 0) {
-            if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+            if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+                ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+                return createNewPileup(loc, tracker.filter(ArrayPileupElementTracker.IS_NOT_MAPPING_QUALITY_ZERO));
+            } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
                 PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
                 PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -317,7 +325,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     }
 
     public ReadBackedPileupImpl getPositiveStrandPileup() {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            return createNewPileup(loc, tracker.filter(ArrayPileupElementTracker.IS_POSITIVE_STRAND));
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -346,7 +357,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      * @return A read-backed pileup consisting only of reads on the negative strand.
      */
     public ReadBackedPileupImpl getNegativeStrandPileup() {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            return createNewPileup(loc, tracker.filter(ArrayPileupElementTracker.IS_NEGATIVE_STRAND));
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -376,7 +390,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      * @return a pileup without the given filtered elements.
      */
     public ReadBackedPileupImpl getFilteredPileup(PileupElementFilter filter) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            return createNewPileup(loc, tracker.filter(filter));
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -409,7 +426,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      */
     @Override
     public ReadBackedPileupImpl getBaseAndMappingFilteredPileup(int minBaseQ, int minMapQ) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            return createNewPileup(loc, tracker.filter(ArrayPileupElementTracker.baseAndMappingQualityFilter(minBaseQ, minMapQ)));
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -478,7 +498,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      */
     @Override
     public ReadBackedPileupImpl getPileupForReadGroup(String targetReadGroupId) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            return createNewPileup(loc, asListTracker()).getPileupForReadGroup(targetReadGroupId);
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -513,7 +535,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      */
     @Override
     public ReadBackedPileupImpl getPileupForReadGroups(final HashSet<String> rgSet) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            return createNewPileup(loc, asListTracker()).getPileupForReadGroups(rgSet);
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -542,7 +566,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
     @Override
     public ReadBackedPileupImpl getPileupForLane(String laneID) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            return createNewPileup(loc, asListTracker()).getPileupForLane(laneID);
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -572,7 +598,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     }
 
     public Collection<String> getSamples() {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker && isPerSampleArrayTracker()) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            return new HashSet<String>(tracker.getSamples());
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             return new HashSet<String>(tracker.getSamples());
         } else {
@@ -606,7 +635,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
                 i++;
         }
 
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            return createNewPileup(loc, asListTracker()).getDownsampledPileup(desiredCoverage);
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
 
@@ -643,7 +674,10 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
     @Override
     public ReadBackedPileup getPileupForSamples(Collection<String> sampleNames) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker && isPerSampleArrayTracker()) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            return createNewPileup(loc, tracker.getElements(sampleNames));
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PileupElementTracker<PileupElement> filteredElements = tracker.getElements(sampleNames);
             return filteredElements != null ? createNewPileup(loc, filteredElements) : null;
@@ -667,7 +701,14 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public Map<String, ReadBackedPileup> getPileupsForSamples(Collection<String> sampleNames) {
         Map<String, ReadBackedPileup> result = new HashMap<String, ReadBackedPileup>();
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker && isPerSampleArrayTracker()) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            for (String sample : sampleNames) {
+                PileupElementTracker<PileupElement> filteredElements = tracker.getElements(sample);
+                if (filteredElements != null)
+                    result.put(sample, createNewPileup(loc, filteredElements));
+            }
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             for (String sample : sampleNames) {
                 PileupElementTracker<PileupElement> filteredElements = tracker.getElements(sample);
@@ -699,7 +740,11 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
     @Override
     public ReadBackedPileup getPileupForSample(String sampleName) {
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker && isPerSampleArrayTracker()) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            PileupElementTracker<PileupElement> filteredElements = tracker.getElements(sampleName);
+            return filteredElements != null ? createNewPileup(loc, filteredElements) : null;
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PileupElementTracker<PileupElement> filteredElements = tracker.getElements(sampleName);
             return filteredElements != null ? createNewPileup(loc, filteredElements) : null;
@@ -771,7 +816,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      */
     @Override
     public int getNumberOfDeletions() {
-        if ( nDeletions == UNINITIALIZED_CACHED_INT_VALUE ) {
+        if ( nDeletions == UNINITIALIZED_CACHED_INT_VALUE && pileupElementTracker instanceof ArrayPileupElementTracker ) {
+            nDeletions = ((ArrayPileupElementTracker<PileupElement>) pileupElementTracker).count(ArrayPileupElementTracker.IS_DELETION);
+        } else if ( nDeletions == UNINITIALIZED_CACHED_INT_VALUE ) {
             nDeletions = 0;
             for (PileupElement p : pileupElementTracker.unorderedIterable() ) {
                 if (p.isDeletion()) {
@@ -784,7 +831,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
     @Override
     public int getNumberOfMappingQualityZeroReads() {
-        if ( nMQ0Reads == UNINITIALIZED_CACHED_INT_VALUE ) {
+        if ( nMQ0Reads == UNINITIALIZED_CACHED_INT_VALUE && pileupElementTracker instanceof ArrayPileupElementTracker ) {
+            nMQ0Reads = ((ArrayPileupElementTracker<PileupElement>) pileupElementTracker).count(ArrayPileupElementTracker.IS_MAPPING_QUALITY_ZERO);
+        } else if ( nMQ0Reads == UNINITIALIZED_CACHED_INT_VALUE ) {
             nMQ0Reads = 0;
 
             for (PileupElement p : pileupElementTracker.unorderedIterable()) {
@@ -844,7 +893,18 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
         int[] counts = new int[4];
 
         // TODO -- can be optimized with .unorderedIterable()
-        if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            final ArrayPileupElementTracker.Columns columns = tracker.getColumns();
+            for (final int i : tracker.getUnorderedIndices()) {
+                // skip deletion sites
+                if (!columns.hasFlag(i, ArrayPileupElementTracker.DELETION_FLAG)) {
+                    int index = BaseUtils.simpleBaseToBaseIndex((char) columns.bases[i]);
+                    if (index != -1)
+                        counts[index]++;
+                }
+            }
+        } else if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             for (final String sample : tracker.getSamples()) {
                 int[] countsBySample = createNewPileup(loc, tracker.getElements(sample)).getBaseCounts();
@@ -924,6 +984,12 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public List<Integer> getOffsets() {
         List<Integer> offsets = new ArrayList<Integer>(getNumberOfElements());
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            for (final int i : tracker.getUnorderedIndices())
+                offsets.add(tracker.getColumns().offsets[i]);
+            return offsets;
+        }
         for (PileupElement pile : pileupElementTracker.unorderedIterable()) {
             offsets.add(pile.getOffset());
         }
@@ -939,6 +1005,12 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public byte[] getBases() {
         byte[] v = new byte[getNumberOfElements()];
         int pos = 0;
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            for (final int i : tracker.getOrderedIndices())
+                v[pos++] = tracker.getColumns().bases[i];
+            return v;
+        }
         for (PileupElement pile : pileupElementTracker) {
             v[pos++] = pile.getBase();
         }
@@ -954,6 +1026,12 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public byte[] getQuals() {
         byte[] v = new byte[getNumberOfElements()];
         int pos = 0;
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            for (final int i : tracker.getOrderedIndices())
+                v[pos++] = tracker.getColumns().quals[i];
+            return v;
+        }
         for (PileupElement pile : pileupElementTracker) {
             v[pos++] = pile.getQual();
         }
@@ -969,6 +1047,12 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public int[] getMappingQuals() {
         final int[] v = new int[getNumberOfElements()];
         int pos = 0;
+        if (pileupElementTracker instanceof ArrayPileupElementTracker) {
+            final ArrayPileupElementTracker<PileupElement> tracker = (ArrayPileupElementTracker<PileupElement>) pileupElementTracker;
+            for (final int i : tracker.getOrderedIndices())
+                v[pos++] = tracker.getColumns().getMappingQual(i);
+            return v;
+        }
         for ( final PileupElement pile : pileupElementTracker ) {
             v[pos++] = pile.getRead().getMappingQuality();
         }
@@ -1016,8 +1100,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
             }
         }
         else {
-            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
-            for (PileupElement pile : tracker)
+            for (PileupElement pile : pileupElementTracker)
                 sortedElements.add(pile);
         }
 
@@ -1028,6 +1111,21 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
         return createNewPileup(loc, sortedTracker);
     }
 
+    /**
+     * @return true if our tracker is an ArrayPileupElementTracker that behaves like a PerSamplePileupElementTracker
+     */
+    private boolean isPerSampleArrayTracker() {
+        return ((ArrayPileupElementTracker<PileupElement>) pileupElementTracker).isPerSample();
+    }
+
+    /**
+     * Convert our ArrayPileupElementTracker into the equivalent list-based tracker, for the operations that
+     * don't have a specialized implementation for the array-based tracker
+     */
+    private PileupElementTracker<PileupElement> asListTracker() {
+        return ((ArrayPileupElementTracker<PileupElement>) pileupElementTracker).toListTracker();
+    }
+
     @Override
     public FragmentCollection<PileupElement> toFragments() {
         return FragmentUtils.create(this);
@@ -38,6 +38,8 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A meter measuring progress on a calculation through a set of genomic regions that can
@@ -60,7 +62,9 @@ import java.util.List;
  * This class is -- and MUST BE -- thread-safe for use in the GATK.  Multiple independent
  * threads executing processors will be calling notifyOfProgress() simultaneously and this
  * class does (and MUST) properly sort out the timings of logs without interlacing outputs
- * because of these threads.
+ * because of these threads.  notifyOfProgress() only updates atomic variables, without
+ * taking any lock, so that the threads don't contend with each other here; printing is
+ * synchronized, but only done by the daemon thread and at the end of processing.
  *
  * Consequently, the fundamental model for when to print the logs is time based.  We basically
  * print a meter message every X seconds, minutes, hours, whatever is appropriate based on the
@@ -155,15 +159,26 @@ public class ProgressMeter {
     /** We use the SimpleTimer to time our run */
     private final SimpleTimer timer = new SimpleTimer();
 
-    private GenomeLoc maxGenomeLoc = null;
-    private Position position = new Position(PositionStatus.STARTING);
-    private long nTotalRecordsProcessed = 0;
+    /**
+     * The furthest position on the genome any thread has reported, or null if none has yet
+     */
+    private final AtomicReference<GenomeLoc> maxGenomeLoc = new AtomicReference<GenomeLoc>();
+
+    /**
+     * Where we are, apart from the position on the genome: starting, on the genome, in the unmapped reads, or done
+     */
+    private volatile PositionStatus positionStatus = PositionStatus.STARTING;
+
+    /**
+     * The largest total number of records processed any thread has reported
+     */
+    private final AtomicLong nTotalRecordsProcessed = new AtomicLong(0);
 
     /**
      * The elapsed time in nanosecond, updated by the daemon thread, so that
      * we don't pay any system call overhead to determine the the elapsed time.
      */
-    private long elapsedTimeInNanosecondUpdatedByDaemon = 0;
+    private volatile long elapsedTimeInNanosecondUpdatedByDaemon = 0;
 
     final ProgressMeterDaemon progressMeterDaemon;
 
@@ -279,27 +294,59 @@ public class ProgressMeter {
      * Utility routine that prints out process information (including timing) every N records or
      * every M seconds, for N and M set in global variables.
      *
-     * Synchronized to ensure that even with multiple threads calling notifyOfProgress we still
-     * get one clean stream of meter logs.
+     * Not synchronized, as it is called by every thread doing the processing: the furthest position
+     * and the largest number of records are kept in atomic variables, which are only written when
+     * they advance, so we still get one clean stream of meter logs.
      *
      * Note this thread doesn't actually print progress, unless must print is true, but just registers
      * the progress itself.  A separate printing daemon periodically polls the meter to print out
      * progress
      *
-     * @param loc Current location, can be null if you are at the end of the processing unit.  Must
+     * @param loc Current location, can be null if you are in the unmapped reads.  Must
      *            have size == 1 (cannot be multiple bases in size).
      * @param nTotalRecordsProcessed the total number of records we've processed
      */
-    public synchronized void notifyOfProgress(final GenomeLoc loc, final long nTotalRecordsProcessed) {
+    public void notifyOfProgress(final GenomeLoc loc, final long nTotalRecordsProcessed) {
         if ( nTotalRecordsProcessed < 0 ) throw new IllegalArgumentException("nTotalRecordsProcessed must be >= 0");
-        if ( loc.size() != 1 ) throw new IllegalArgumentException("GenomeLoc must have size == 1 but got " + loc);
+        if ( loc != null && loc.size() != 1 ) throw new IllegalArgumentException("GenomeLoc must have size == 1 but got " + loc);
 
-        // weird comparison to ensure that loc == null (in unmapped reads) is keep before maxGenomeLoc == null (on startup)
-        this.maxGenomeLoc = loc == null ? loc : (maxGenomeLoc == null ? loc : loc.max(maxGenomeLoc));
-        this.nTotalRecordsProcessed = Math.max(this.nTotalRecordsProcessed, nTotalRecordsProcessed);
+        long currentRecords = this.nTotalRecordsProcessed.get();
+        while ( nTotalRecordsProcessed > currentRecords && ! this.nTotalRecordsProcessed.compareAndSet(currentRecords, nTotalRecordsProcessed) )
+            currentRecords = this.nTotalRecordsProcessed.get();
 
-        // a pretty name for our position
-        this.position = maxGenomeLoc == null ? new Position(PositionStatus.IN_UNMAPPED_READS) : new Position(maxGenomeLoc);
+        if ( loc == null ) {
+            // the unmapped reads come after everything on the genome
+            positionStatus = PositionStatus.IN_UNMAPPED_READS;
+        } else {
+            GenomeLoc currentMax = maxGenomeLoc.get();
+            while ( (currentMax == null || loc.isPast(currentMax)) && ! maxGenomeLoc.compareAndSet(currentMax, loc) )
+                currentMax = maxGenomeLoc.get();
+            if ( positionStatus == PositionStatus.STARTING )
+                positionStatus = PositionStatus.ON_GENOME;
+        }
+    }
+
+    /**
+     * @return the largest total number of records processed reported so far
+     */
+    @Ensures("result >= 0")
+    public long getNumRecordsProcessed() {
+        return nTotalRecordsProcessed.get();
+    }
+
+    /**
+     * @return the number of bp of the regions being processed before the furthest position reported so far
+     */
+    @Ensures("result >= 0")
+    public long getBpProcessed() {
+        return getBpProcessed(positionStatus, maxGenomeLoc.get());
+    }
+
+    /**
+     * @return the name of the unit type being processed
+     */
+    public String getProcessingUnitName() {
+        return processingUnitName;
     }
 
     /**
@@ -320,44 +367,19 @@ public class ProgressMeter {
     }
 
     /**
-     * A pair of position status and the genome loc, if necessary.  Used to get a
-     * status update message as needed, without the computational cost of formatting
-     * the genome loc string every time a progress notification happens (which is almost
-     * always not printed)
+     * Get a human-readable representation of a position, formatted only when progress is
+     * printed, without the computational cost of formatting the genome loc string every
+     * time a progress notification happens (which is almost always not printed)
+     *
+     * @param status where we are
+     * @param loc the furthest position on the genome, if status is ON_GENOME
+     * @return the message for the position
      */
-    private class Position {
-        final PositionStatus type;
-        final GenomeLoc maybeLoc;
-
-        /**
-         * Create a position object of any type != ON_GENOME
-         * @param type
-         */
-        @Requires({"type != null", "type != PositionStatus.ON_GENOME"})
-        private Position(PositionStatus type) {
-            this.type = type;
-            this.maybeLoc = null;
-        }
-
-        /**
-         * Create a position object of type ON_GENOME at genomeloc loc
-         * @param loc
-         */
-        @Requires("loc != null")
-        private Position(GenomeLoc loc) {
-            this.type = PositionStatus.ON_GENOME;
-            this.maybeLoc = loc;
-        }
-
-        /**
-         * @return a human-readable representation of this position
-         */
-        private String getMessage() {
-            if ( type == PositionStatus.ON_GENOME )
-                return maxGenomeLoc.getContig() + ":" + maxGenomeLoc.getStart();
-            else
-                return type.message;
-        }
+    private static String getPositionMessage(final PositionStatus status, final GenomeLoc loc) {
+        if ( status == PositionStatus.ON_GENOME )
+            return loc.getContig() + ":" + loc.getStart();
+        else
+            return status.message;
     }
 
     /**
@@ -374,7 +396,9 @@ public class ProgressMeter {
         final boolean printLog = performanceLog != null && maxElapsedIntervalForPrinting(curTime, lastPerformanceLogPrintTime, PERFORMANCE_LOG_PRINT_FREQUENCY);
 
         if ( printProgress || printLog ) {
-            final ProgressMeterData progressData = takeProgressSnapshot(maxGenomeLoc, nTotalRecordsProcessed);
+            final PositionStatus status = positionStatus;
+            final GenomeLoc loc = maxGenomeLoc.get();
+            final ProgressMeterData progressData = takeProgressSnapshot(status, loc, nTotalRecordsProcessed.get());
 
             final AutoFormattingTime elapsed = new AutoFormattingTime(progressData.getElapsedSeconds(), 5, 1);
             final AutoFormattingTime bpRate = new AutoFormattingTime(progressData.secondsPerMillionBP());
@@ -388,7 +412,7 @@ public class ProgressMeter {
                 updateLoggerPrintFrequency(estTotalRuntime.getTimeInSeconds());
 
                 logger.info(String.format(progressFormatString,
-                        position.getMessage(), progressData.getUnitsProcessed()*1.0, elapsed, unitRate,
+                        getPositionMessage(status, loc), progressData.getUnitsProcessed()*1.0, elapsed, unitRate,
                         100*fractionGenomeTargetCompleted, estTotalRuntime, timeToCompletion));
 
             }
@@ -422,14 +446,26 @@ public class ProgressMeter {
     /**
      * Creates a new ProgressData object recording a snapshot of our progress at this instant
      *
-     * @param loc our current position.  If null, assumes we are done traversing
+     * @param status where we are
+     * @param loc our current position on the genome, if any
      * @param nTotalRecordsProcessed the total number of records we've processed
      * @return
      */
-    private ProgressMeterData takeProgressSnapshot(final GenomeLoc loc, final long nTotalRecordsProcessed) {
-        // null -> end of processing
-        final long bpProcessed = loc == null ? targetSizeInBP : regionsBeingProcessed.sizeBeforeLoc(loc);
-        return new ProgressMeterData(timer.getElapsedTime(), nTotalRecordsProcessed, bpProcessed);
+    private ProgressMeterData takeProgressSnapshot(final PositionStatus status, final GenomeLoc loc, final long nTotalRecordsProcessed) {
+        return new ProgressMeterData(timer.getElapsedTime(), nTotalRecordsProcessed, getBpProcessed(status, loc));
+    }
+
+    /**
+     * @param status where we are
+     * @param loc our current position on the genome, if any
+     * @return the number of bp of the regions being processed before loc
+     */
+    private long getBpProcessed(final PositionStatus status, final GenomeLoc loc) {
+        switch ( status ) {
+            case STARTING: return 0;
+            case ON_GENOME: return regionsBeingProcessed.sizeBeforeLoc(loc);
+            default: return targetSizeInBP; // in the unmapped reads or done, so past the whole genome
+        }
     }
 
     /**
@@ -437,8 +473,8 @@ public class ProgressMeter {
      */
     public void notifyDone(final long nTotalRecordsProcessed) {
         // print out the progress meter
-        this.nTotalRecordsProcessed = nTotalRecordsProcessed;
-        this.position = new Position(PositionStatus.DONE);
+        this.nTotalRecordsProcessed.set(nTotalRecordsProcessed);
+        this.positionStatus = PositionStatus.DONE;
         printProgress(true);
 
         logger.info(String.format("Total runtime %.2f secs, %.2f min, %.2f hours",
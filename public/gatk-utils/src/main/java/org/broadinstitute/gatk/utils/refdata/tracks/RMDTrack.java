@@ -71,6 +71,9 @@ public class RMDTrack {
     // our codec type
     private final FeatureCodec codec;
 
+    // if true, the genotypes of VCF records from our iterators may be decoded on other threads than the one reading them
+    private final boolean threadSafeGenotypeDecoding;
+
     public Class getType() {
         return type;
     }
@@ -94,6 +97,21 @@ public class RMDTrack {
      * @param codec the feature codec we use to decode this type
      */
     public RMDTrack(final Class type, final String name, final File file, final AbstractFeatureReader reader, final SAMSequenceDictionary dict, final GenomeLocParser genomeLocParser, final FeatureCodec codec) {
+        this(type, name, file, reader, dict, genomeLocParser, codec, false);
+    }
+
+    /**
+     * Create a track
+     *
+     * @param type the type of track, used for track lookup
+     * @param name the name of this specific track
+     * @param file the associated file, for reference or recreating the reader
+     * @param reader the feature reader to use as the underlying data source
+     * @param dict the sam sequence dictionary
+     * @param codec the feature codec we use to decode this type
+     * @param threadSafeGenotypeDecoding if true, the genotypes of the VCF records from our iterators can be decoded on any thread
+     */
+    public RMDTrack(final Class type, final String name, final File file, final AbstractFeatureReader reader, final SAMSequenceDictionary dict, final GenomeLocParser genomeLocParser, final FeatureCodec codec, final boolean threadSafeGenotypeDecoding) {
         this.type = type;
         this.name = name;
         this.file = file;
@@ -101,6 +119,7 @@ public class RMDTrack {
         this.dictionary = dict;
         this.genomeLocParser = genomeLocParser;
         this.codec = codec;
+        this.threadSafeGenotypeDecoding = threadSafeGenotypeDecoding;
     }
 
     /**
@@ -109,15 +128,32 @@ public class RMDTrack {
      */
     public CloseableIterator<GATKFeature> getIterator() {
         try {
-            return new FeatureToGATKFeatureIterator(genomeLocParser,reader.iterator(),this.getName());
+            final CloseableTribbleIterator<Feature> iter;
+            synchronized ( reader ) {
+                iter = reader.iterator();
+            }
+            return new FeatureToGATKFeatureIterator(genomeLocParser, iter, this.getName(), getDecodingLock());
         } catch (IOException e) {
             throw new UserException.CouldNotReadInputFile(getFile(), "Unable to read from file", e);
         }
     }
 
     public CloseableIterator<GATKFeature> query(GenomeLoc interval) throws IOException {
-        CloseableTribbleIterator<Feature> iter = reader.query(interval.getContig(),interval.getStart(),interval.getStop());
-        return new FeatureToGATKFeatureIterator(genomeLocParser, iter, this.getName());
+        final CloseableTribbleIterator<Feature> iter;
+        synchronized ( reader ) {
+            iter = reader.query(interval.getContig(),interval.getStart(),interval.getStop());
+        }
+        return new FeatureToGATKFeatureIterator(genomeLocParser, iter, this.getName(), getDecodingLock());
+    }
+
+    /**
+     * All of our iterators decode records with the codec of our reader, which reads the first record as soon as
+     * an iterator is created, so the reader itself guards the codec.
+     *
+     * @return the lock guarding the codec of our reader, or null if we don't need to guard it
+     */
+    private Object getDecodingLock() {
+        return threadSafeGenotypeDecoding ? reader : null;
     }
 
     public void close() {
@@ -96,6 +96,9 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
     // Map of file name -> new sample name used when performing on-the-fly sample renaming
     private final Map<String, String> sampleRenameMap;
 
+    // If true, the genotypes of VCF records may be decoded on other threads than the one reading the track
+    private final boolean threadSafeGenotypeDecoding;
+
     /**
      * Construct an RMDTrackerBuilder, allowing the user to define tracks to build after-the-fact.  This is generally
      * used when walkers want to directly manage the ROD system for whatever reason.  Before using this constructor,
@@ -113,12 +116,33 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
                            final ValidationExclusion.TYPE validationExclusionType,
                            final boolean disableAutoIndexCreation,
                            final Map<String, String> sampleRenameMap) {
+        this(dict, genomeLocParser, validationExclusionType, disableAutoIndexCreation, sampleRenameMap, false);
+    }
+
+    /**
+     * Construct an RMDTrackerBuilder
+     *
+     * @param dict Sequence dictionary to use.
+     * @param genomeLocParser Location parser to use.
+     * @param validationExclusionType Types of validations to exclude, for sequence dictionary verification.
+     * @param disableAutoIndexCreation Do not auto-create index files, and do not use file locking when accessing index files.
+     * @param sampleRenameMap Map of file name -> new sample name used when performing on-the-fly sample renaming
+     * @param threadSafeGenotypeDecoding If true, the tracks support decoding the genotypes of VCF records on any thread,
+     *                                   for walkers whose map calls run on several threads
+     */
+    public RMDTrackBuilder(final SAMSequenceDictionary dict,
+                           final GenomeLocParser genomeLocParser,
+                           final ValidationExclusion.TYPE validationExclusionType,
+                           final boolean disableAutoIndexCreation,
+                           final Map<String, String> sampleRenameMap,
+                           final boolean threadSafeGenotypeDecoding) {
         this.dict = dict;
         this.validationExclusionType = validationExclusionType;
         this.genomeLocParser = genomeLocParser;
         this.featureManager = new FeatureManager(ValidationExclusion.lenientVCFProcessing(validationExclusionType));
         this.disableAutoIndexCreation = disableAutoIndexCreation;
         this.sampleRenameMap = sampleRenameMap;
+        this.threadSafeGenotypeDecoding = threadSafeGenotypeDecoding;
     }
 
     /**
@@ -155,7 +179,7 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
 
         validateVariantAgainstSequenceDictionary(name, descriptor.getName(), pair.first, pair.second);
 
-        return new RMDTrack(descriptor.getCodecClass(), name, inputFile, pair.first, pair.second, genomeLocParser, createCodec(descriptor, name, inputFile));
+        return new RMDTrack(descriptor.getCodecClass(), name, inputFile, pair.first, pair.second, genomeLocParser, createCodec(descriptor, name, inputFile), threadSafeGenotypeDecoding);
     }
 
     /**
@@ -28,8 +28,18 @@ package org.broadinstitute.gatk.utils.refdata.utils;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.tribble.CloseableTribbleIterator;
 import htsjdk.tribble.Feature;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 
 /**
  * 
@@ -43,21 +53,104 @@ public class FeatureToGATKFeatureIterator implements CloseableIterator<GATKFeatu
     private final GenomeLocParser genomeLocParser;
     private final CloseableTribbleIterator<Feature> iterator;
     private final String name;
+    private final Object decodingLock;
 
     public FeatureToGATKFeatureIterator(GenomeLocParser genomeLocParser,CloseableTribbleIterator<Feature> iter, String name) {
+        this(genomeLocParser, iter, name, null);
+    }
+
+    /**
+     * Create an iterator whose VCF records can have their genotypes decoded on any thread
+     *
+     * VCF records are decoded lazily: their genotypes are only parsed when first accessed, by the codec that
+     * read the record, which isn't thread safe.  If decodingLock isn't null it must be held whenever the codec
+     * is used.  This iterator holds it while reading, and the genotypes of the VCF records it returns are
+     * parsed while holding it, so that map calls on other threads can safely access them.  They are still
+     * only parsed if accessed, so records whose genotypes are never looked at are written out unchanged.
+     *
+     * @param genomeLocParser the parser for the locations of the features
+     * @param iter the tribble iterator to wrap
+     * @param name the name of the track
+     * @param decodingLock the lock guarding the codec of iter, or null if all records are used on the thread reading them
+     */
+    public FeatureToGATKFeatureIterator(GenomeLocParser genomeLocParser, CloseableTribbleIterator<Feature> iter, String name, Object decodingLock) {
         this.genomeLocParser = genomeLocParser;
         this.name = name;
         this.iterator = iter;
+        this.decodingLock = decodingLock;
     }
 
     @Override
     public boolean hasNext() {
-        return iterator.hasNext();
+        if ( decodingLock == null )
+            return iterator.hasNext();
+
+        synchronized ( decodingLock ) {
+            return iterator.hasNext();
+        }
     }
 
     @Override
     public GATKFeature next() {
-        return new GATKFeature.TribbleGATKFeature(genomeLocParser,iterator.next(),name);
+        if ( decodingLock == null )
+            return new GATKFeature.TribbleGATKFeature(genomeLocParser,iterator.next(),name);
+
+        final Feature feature;
+        synchronized ( decodingLock ) {
+            feature = iterator.next();
+        }
+        return new GATKFeature.TribbleGATKFeature(genomeLocParser,guardGenotypeDecoding(feature, decodingLock),name);
+    }
+
+    /**
+     * If feature is a VCF record whose genotypes haven't been decoded yet, get a copy of it that decodes them while holding lock
+     *
+     * @param feature a feature read by our codec
+     * @param lock the lock guarding our codec
+     * @return feature itself, or a copy whose genotypes are decoded while holding lock
+     */
+    private static Feature guardGenotypeDecoding(final Feature feature, final Object lock) {
+        if ( ! (feature instanceof VariantContext) )
+            return feature;
+
+        final VariantContext vc = (VariantContext)feature;
+        final GenotypesContext genotypes = vc.getGenotypes();
+        if ( ! genotypes.isLazyWithData() )
+            return feature;
+
+        final LazyGenotypesContext lazyGenotypes = (LazyGenotypesContext)genotypes;
+        final LazyGenotypesContext guardedGenotypes = new LazyGenotypesContext(new LockedGenotypesParser(lazyGenotypes, lock),
+                lazyGenotypes.getUnparsedGenotypeData(), lazyGenotypes.size());
+        return new VariantContextBuilder(vc).genotypesNoValidation(guardedGenotypes).make();
+    }
+
+    /**
+     * Parses genotypes by decoding the lazy genotypes of the original record, while holding the codec's lock
+     */
+    private static class LockedGenotypesParser implements LazyGenotypesContext.LazyParser {
+        private final LazyGenotypesContext genotypes;
+        private final Object lock;
+
+        private LockedGenotypesParser(final LazyGenotypesContext genotypes, final Object lock) {
+            this.genotypes = genotypes;
+            this.lock = lock;
+        }
+
+        @Override
+        public LazyGenotypesContext.LazyData parse(final Object data) {
+            synchronized ( lock ) {
+                genotypes.decode();
+            }
+
+            final ArrayList<Genotype> parsedGenotypes = new ArrayList<Genotype>(genotypes);
+            final List<String> sampleNamesInOrder = new ArrayList<String>(parsedGenotypes.size());
+            final Map<String, Integer> sampleNameToOffset = new HashMap<String, Integer>(parsedGenotypes.size());
+            for ( final Genotype genotype : parsedGenotypes ) {
+                sampleNameToOffset.put(genotype.getSampleName(), sampleNamesInOrder.size());
+                sampleNamesInOrder.add(genotype.getSampleName());
+            }
+            return new LazyGenotypesContext.LazyData(parsedGenotypes, sampleNamesInOrder, sampleNameToOffset);
+        }
     }
 
     @Override
@@ -41,6 +41,7 @@ public class GATKReport {
     public static final String GATKREPORT_HEADER_PREFIX = "#:GATKReport.";
     public static final GATKReportVersion LATEST_REPORT_VERSION = GATKReportVersion.V1_1;
     private static final String SEPARATOR = ":";
+    private static final int READER_BUFFER_SIZE = 1 << 16;
     private GATKReportVersion version = LATEST_REPORT_VERSION;
 
     private final TreeMap<String, GATKReportTable> tables = new TreeMap<String, GATKReportTable>();
@@ -66,7 +67,18 @@ public class GATKReport {
      * @param file the file to load
      */
     public GATKReport(File file) {
-        loadReport(file);
+        loadReport(file, null);
+    }
+
+    /**
+     * Create a new GATKReport with some of the tables of a GATKReport on disk.  The other tables are skipped without
+     * being parsed.
+     *
+     * @param file       the file to load
+     * @param tableNames the names of the tables to load
+     */
+    public GATKReport(File file, Collection<String> tableNames) {
+        loadReport(file, tableNames);
     }
 
     /**
@@ -81,13 +93,14 @@ public class GATKReport {
     /**
      * Load a GATKReport file from disk
      *
-     * @param file the file to load
+     * @param file       the file to load
+     * @param tableNames the names of the tables to load, or null to load all of them
      */
-    private void loadReport(File file) {
+    private void loadReport(File file, Collection<String> tableNames) {
         BufferedReader reader;
         String reportHeader;
         try {
-            reader = new BufferedReader(new FileReader(file));
+            reader = new BufferedReader(new FileReader(file), READER_BUFFER_SIZE);
             reportHeader = reader.readLine();
         } catch (FileNotFoundException e) {
             throw new UserException.CouldNotReadInputFile(file, "it does not exist");
@@ -95,18 +108,29 @@ public class GATKReport {
             throw new UserException.CouldNotReadInputFile(file, e);
         }   
 
-
-        // Read the first line for the version and number of tables.
-        version = GATKReportVersion.fromHeader(reportHeader);
-        if (version.equals(GATKReportVersion.V0_1) ||
-                version.equals(GATKReportVersion.V0_2))
-            throw new UserException("The GATK no longer supports reading legacy GATK Reports. Please use v1.0 or newer.");
-
-        int nTables = Integer.parseInt(reportHeader.split(":")[2]);
-
-        // Read each table according ot the number of tables
-        for (int i = 0; i < nTables; i++) {
-            addTable(new GATKReportTable(reader, version));
+        try {
+            // Read the first line for the version and number of tables.
+            version = GATKReportVersion.fromHeader(reportHeader);
+            if (version.equals(GATKReportVersion.V0_1) ||
+                    version.equals(GATKReportVersion.V0_2))
+                throw new UserException("The GATK no longer supports reading legacy GATK Reports. Please use v1.0 or newer.");
+
+            int nTables = Integer.parseInt(reportHeader.split(":")[2]);
+
+            // Read each table according ot the number of tables
+            for (int i = 0; i < nTables; i++) {
+                final GATKReportTable.TableHeader header = GATKReportTable.readHeader(reader, version);
+                if ( tableNames == null || tableNames.contains(header.getName()) )
+                    addTable(new GATKReportTable(header, reader));
+                else
+                    GATKReportTable.skipTable(header, reader);
+            }
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
         }
     }
 
@@ -182,6 +206,17 @@ public class GATKReport {
             table.write(out);
     }
 
+    /**
+     * Print the header line of a report without building the report in memory.  It must be followed by exactly
+     * numTables tables, e.g. written with GATKReportTableWriter.
+     *
+     * @param out       the PrintStream to which the report will be written
+     * @param numTables the number of tables that will follow
+     */
+    public static void printHeader(PrintStream out, int numTables) {
+        out.println(GATKREPORT_HEADER_PREFIX + LATEST_REPORT_VERSION.toString() + SEPARATOR + numTables);
+    }
+
     public Collection<GATKReportTable> getTables() {
         return tables.values();
     }
@@ -26,17 +26,28 @@
 package org.broadinstitute.gatk.utils.report;
 
 import org.apache.commons.lang.math.NumberUtils;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 
+import java.text.DecimalFormatSymbols;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Formattable;
+import java.util.Locale;
 
 /**
  * column information within a GATK report table
  */
 public class GATKReportColumn {
+    /**
+     * Integers formatted with a plain %d are just their toString() unless the locale uses non-ASCII digits
+     */
+    private static final boolean ASCII_DIGITS = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getZeroDigit() == '0';
+
     final private String columnName;
     final private String format;
     final private GATKReportDataType dataType;
+    final private boolean plainStringFormat;
+    final private boolean plainIntegerFormat;
 
     private GATKReportColumnFormat columnFormat;
     private GATKReportColumnFormat.Alignment alignment = GATKReportColumnFormat.Alignment.RIGHT;  // default alignment is to the right unless values added ask for a left alignment
@@ -60,6 +71,8 @@ public class GATKReportColumn {
             this.format = format;
             this.dataType = GATKReportDataType.fromFormatString(format);
         }
+        this.plainStringFormat = this.format.equals("%s");
+        this.plainIntegerFormat = this.format.equals("%d") && ASCII_DIGITS;
     }
 
     /**
@@ -100,7 +113,7 @@ public class GATKReportColumn {
      * @param obj The object to convert to a string
      * @return The string representation of the column
      */
-    private String formatValue(final Object obj) {
+    String formatValue(final Object obj) {
         String value;
         if (obj == null) {
             value = "null";
@@ -108,12 +121,67 @@ public class GATKReportColumn {
         else if ( dataType.equals(GATKReportDataType.Unknown) && (obj instanceof Double || obj instanceof Float) ) {
             value = String.format("%.8f", obj);
         }
+        else if ( plainStringFormat && !(obj instanceof Formattable) ) {
+            value = obj.toString();
+        }
+        else if ( plainIntegerFormat && (obj instanceof Long || obj instanceof Integer || obj instanceof Short || obj instanceof Byte) ) {
+            value = obj.toString();
+        }
         else
             value = String.format(format, obj);
 
         return value;
     }
 
+    /**
+     * Converts a value into the type stored in this column, parsing Strings for typed columns.
+     *
+     * @param value the value to store, null values are stored as the String "null"
+     * @return the value to store
+     * @throws ReviewedGATKException if the value doesn't match the column type
+     */
+    Object convertValue(final Object value) {
+        // We do not accept internal null values
+        if ( value == null )
+            return "null";
+
+        final Object converted = fixType(value);
+        if ( dataType.equals(GATKReportDataType.fromObject(converted)) || dataType.equals(GATKReportDataType.Unknown) )
+            return converted;
+
+        throw new ReviewedGATKException(String.format("Tried to add an object of type: %s to a column of type: %s", GATKReportDataType.fromObject(converted).name(), dataType.name()));
+    }
+
+    private Object fixType(final Object value) {
+        // Below is some code to convert a string into its appropriate type.
+
+        // todo -- Types have to be more flexible. For example, %d should accept Integers, Shorts and Bytes.
+
+        Object newValue = null;
+        if ( value instanceof String && !dataType.equals(GATKReportDataType.String) ) {
+            // Integer case
+            if ( dataType.equals(GATKReportDataType.Integer) ) {
+                try {
+                    newValue = Long.parseLong((String) value);
+                } catch (Exception e) {
+                    /** do nothing */
+                }
+            }
+            if ( dataType.equals(GATKReportDataType.Decimal) ) {
+                try {
+                    newValue = Double.parseDouble((String) value);
+                } catch (Exception e) {
+                    /** do nothing */
+                }
+            }
+            if ( dataType.equals(GATKReportDataType.Character) && ((String) value).length() == 1 ) {
+                newValue = ((String) value).charAt(0);
+            }
+        }
+
+        return  (newValue != null) ? newValue : value;
+    }
+
     public GATKReportDataType getDataType() {
         return dataType;
     }
@@ -127,17 +195,40 @@ public class GATKReportColumn {
     }
 
     public void updateFormatting(final Object value) {
-        if (value != null) {
-            final String formatted = formatValue(value);
-            if ( formatted.length() > 0 ) {
-                updateMaxWidth(formatted);
-                updateFormat(formatted);
-            }
+        if (value != null)
+            updateFormattingFromText(formatValue(value));
+    }
+
+    /**
+     * Same as updateFormatting(), for a value that has already been formatted
+     *
+     * @param formatted the formatted value
+     */
+    void updateFormattingFromText(final String formatted) {
+        if ( formatted.length() > 0 ) {
+            updateMaxWidth(formatted.length());
+            updateFormat(formatted);
         }
     }
 
-    private void updateMaxWidth(final String formatted) {
-        maxWidth = Math.max(formatted.length(), maxWidth);
+    /**
+     * Widen this column to hold a numeric value of the given formatted width.  Numbers never change the alignment.
+     *
+     * @param width the length of the formatted value
+     */
+    void updateMaxWidth(final int width) {
+        maxWidth = Math.max(width, maxWidth);
+    }
+
+    /**
+     * Take on the width and alignment needed for the values of another column with the same name and format
+     *
+     * @param other the other column
+     */
+    void mergeFormatting(final GATKReportColumn other) {
+        updateMaxWidth(other.maxWidth);
+        if ( other.alignment == GATKReportColumnFormat.Alignment.LEFT )
+            alignment = GATKReportColumnFormat.Alignment.LEFT;
     }
 
     private void updateFormat(final String formatted) {
@@ -0,0 +1,400 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.report;
+
+import java.util.*;
+
+/**
+ * Columnar storage for the values of a single GATK report column.
+ *
+ * Values are kept in primitive arrays as long as every value in the column has the same boxed type: integral values
+ * in a long[], floating point values in a double[] and strings as int codes into a per-column dictionary.  A column
+ * that receives values of mixed types (or too many distinct strings) falls back to plain Object storage.  The boxed
+ * type is remembered, so get() always returns the same kind of object that was stored.
+ */
+final class GATKReportColumnData {
+    /**
+     * Beyond this many distinct values a string column is no longer worth dictionary encoding
+     */
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+    private static final int MIN_CAPACITY = 16;
+    private static final int NO_CODE = -1;
+
+    private enum Storage { EMPTY, LONG, DOUBLE, STRING, OBJECT }
+
+    private Storage storage = Storage.EMPTY;
+    private Class<?> boxedType;
+    private int capacityHint;
+    private int size;
+
+    private long[] longValues;
+    private double[] doubleValues;
+    private BitSet present;
+
+    private int[] codes;
+    private List<String> dictionary;
+    private Map<String, Integer> dictionaryIndex;
+    private int[] dictionaryRanks;
+
+    private Object[] objectValues;
+
+    GATKReportColumnData() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedRows the number of rows this column is expected to hold, used to size the storage
+     */
+    GATKReportColumnData(final int expectedRows) {
+        this.capacityHint = Math.max(expectedRows, MIN_CAPACITY);
+    }
+
+    /**
+     * @return the number of rows for which storage has been allocated; rows beyond this have never been set
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isSet(final int row) {
+        if ( row >= size )
+            return false;
+        switch ( storage ) {
+            case LONG:
+            case DOUBLE:
+                return present.get(row);
+            case STRING:
+                return codes[row] != NO_CODE;
+            case OBJECT:
+                return objectValues[row] != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get the value stored in the given row
+     *
+     * @param row the row index
+     * @return the value, boxed as the type that was originally stored, or null if the cell was never set
+     */
+    Object get(final int row) {
+        if ( ! isSet(row) )
+            return null;
+        switch ( storage ) {
+            case LONG:
+                return boxLong(longValues[row]);
+            case DOUBLE:
+                return boxedType == Float.class ? (Object) (float) doubleValues[row] : (Object) doubleValues[row];
+            case STRING:
+                return dictionary.get(codes[row]);
+            default:
+                return objectValues[row];
+        }
+    }
+
+    /**
+     * Store a value in the given row, switching to a more general storage if the value doesn't fit the current one
+     *
+     * @param row   the row index
+     * @param value the value, which must not be null
+     */
+    void set(final int row, final Object value) {
+        final Storage valueStorage = storageFor(value);
+        if ( storage == Storage.EMPTY )
+            initialize(valueStorage, value.getClass());
+        else if ( storage != valueStorage || ((storage == Storage.LONG || storage == Storage.DOUBLE) && boxedType != value.getClass()) )
+            convertToObjects();
+
+        ensureCapacity(row);
+        switch ( storage ) {
+            case LONG:
+                longValues[row] = ((Number) value).longValue();
+                present.set(row);
+                break;
+            case DOUBLE:
+                doubleValues[row] = ((Number) value).doubleValue();
+                present.set(row);
+                break;
+            case STRING:
+                final int code = encode((String) value);
+                if ( code != NO_CODE ) {
+                    codes[row] = code;
+                    break;
+                }
+                convertToObjects();
+                // fall through to store the value as an Object
+            default:
+                objectValues[row] = value;
+        }
+    }
+
+    /**
+     * Store a parsed long without boxing it, when the column already holds (or will hold) Long values
+     *
+     * @param row   the row index
+     * @param value the value
+     */
+    void setLong(final int row, final long value) {
+        if ( storage == Storage.EMPTY )
+            initialize(Storage.LONG, Long.class);
+        if ( storage != Storage.LONG || boxedType != Long.class ) {
+            set(row, value);
+            return;
+        }
+        ensureCapacity(row);
+        longValues[row] = value;
+        present.set(row);
+    }
+
+    /**
+     * Store a parsed double without boxing it, when the column already holds (or will hold) Double values
+     *
+     * @param row   the row index
+     * @param value the value
+     */
+    void setDouble(final int row, final double value) {
+        if ( storage == Storage.EMPTY )
+            initialize(Storage.DOUBLE, Double.class);
+        if ( storage != Storage.DOUBLE || boxedType != Double.class ) {
+            set(row, value);
+            return;
+        }
+        ensureCapacity(row);
+        doubleValues[row] = value;
+        present.set(row);
+    }
+
+    /**
+     * Compute the per-value ranks needed by compare().  Must be called before sorting and again after any new string
+     * has been added to the column.
+     */
+    void prepareForSort() {
+        if ( storage != Storage.STRING )
+            return;
+        final Integer[] order = new Integer[dictionary.size()];
+        for ( int i = 0; i < order.length; i++ )
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return dictionary.get(a).compareTo(dictionary.get(b));
+            }
+        });
+        dictionaryRanks = new int[order.length];
+        for ( int rank = 0; rank < order.length; rank++ )
+            dictionaryRanks[order[rank]] = rank;
+    }
+
+    /**
+     * Compare the values of two rows the same way the GATK has always sorted report rows: Integers and Doubles
+     * numerically, everything else by its String representation.
+     *
+     * @param row1 the first row
+     * @param row2 the second row
+     * @return a negative number, zero or a positive number as the first value is less than, equal to or greater than the second
+     */
+    int compare(final int row1, final int row2) {
+        if ( ! isSet(row1) || ! isSet(row2) )
+            return compareObjects(get(row1), get(row2));
+
+        switch ( storage ) {
+            case LONG:
+                return boxedType == Integer.class ?
+                        Long.compare(longValues[row1], longValues[row2]) :
+                        compareAsStrings(longValues[row1], longValues[row2]);
+            case DOUBLE:
+                return boxedType == Double.class ?
+                        Double.compare(doubleValues[row1], doubleValues[row2]) :
+                        Float.toString((float) doubleValues[row1]).compareTo(Float.toString((float) doubleValues[row2]));
+            case STRING:
+                return Integer.compare(dictionaryRanks[codes[row1]], dictionaryRanks[codes[row2]]);
+            default:
+                return compareObjects(objectValues[row1], objectValues[row2]);
+        }
+    }
+
+    private static int compareObjects(final Object a, final Object b) {
+        if ( a instanceof Integer && b instanceof Integer )
+            return ((Integer) a).compareTo((Integer) b);
+        if ( a instanceof Double && b instanceof Double )
+            return ((Double) a).compareTo((Double) b);
+        return String.valueOf(a).compareTo(String.valueOf(b));
+    }
+
+    /**
+     * Compare two longs by their decimal String representations without creating the Strings
+     */
+    static int compareAsStrings(final long a, final long b) {
+        if ( a == b )
+            return 0;
+        if ( a == Long.MIN_VALUE || b == Long.MIN_VALUE )
+            return Long.toString(a).compareTo(Long.toString(b));
+        if ( (a < 0) != (b < 0) )
+            return a < 0 ? -1 : 1; // '-' sorts before any digit
+        return compareDigits(Math.abs(a), Math.abs(b));
+    }
+
+    private static int compareDigits(final long a, final long b) {
+        final int aDigits = numDigits(a);
+        final int bDigits = numDigits(b);
+        if ( aDigits == bDigits )
+            return Long.compare(a, b);
+        if ( aDigits < bDigits ) {
+            final int cmp = Long.compare(a, b / pow10(bDigits - aDigits));
+            return cmp != 0 ? cmp : -1; // a is a prefix of b, so it sorts first
+        } else {
+            final int cmp = Long.compare(a / pow10(aDigits - bDigits), b);
+            return cmp != 0 ? cmp : 1;
+        }
+    }
+
+    private static int numDigits(long value) {
+        int digits = 1;
+        while ( value >= 10 ) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static long pow10(final int exponent) {
+        long result = 1;
+        for ( int i = 0; i < exponent; i++ )
+            result *= 10;
+        return result;
+    }
+
+    private Object boxLong(final long value) {
+        if ( boxedType == Integer.class )
+            return (int) value;
+        if ( boxedType == Short.class )
+            return (short) value;
+        if ( boxedType == Byte.class )
+            return (byte) value;
+        return value;
+    }
+
+    private static Storage storageFor(final Object value) {
+        if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte )
+            return Storage.LONG;
+        if ( value instanceof Double || value instanceof Float )
+            return Storage.DOUBLE;
+        if ( value instanceof String )
+            return Storage.STRING;
+        return Storage.OBJECT;
+    }
+
+    private void initialize(final Storage newStorage, final Class<?> newBoxedType) {
+        storage = newStorage;
+        boxedType = newBoxedType;
+        switch ( storage ) {
+            case LONG:
+                longValues = new long[capacityHint];
+                present = new BitSet(capacityHint);
+                break;
+            case DOUBLE:
+                doubleValues = new double[capacityHint];
+                present = new BitSet(capacityHint);
+                break;
+            case STRING:
+                codes = new int[capacityHint];
+                Arrays.fill(codes, NO_CODE);
+                dictionary = new ArrayList<String>();
+                dictionaryIndex = new HashMap<String, Integer>();
+                break;
+            default:
+                objectValues = new Object[capacityHint];
+        }
+    }
+
+    /**
+     * Make sure that storage exists for the given row
+     */
+    private void ensureCapacity(final int row) {
+        if ( row >= size )
+            size = row + 1;
+
+        final int capacity = currentCapacity();
+        if ( row < capacity )
+            return;
+
+        final int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) row + 1, 2L * capacity));
+        switch ( storage ) {
+            case LONG:
+                longValues = Arrays.copyOf(longValues, newCapacity);
+                break;
+            case DOUBLE:
+                doubleValues = Arrays.copyOf(doubleValues, newCapacity);
+                break;
+            case STRING:
+                codes = Arrays.copyOf(codes, newCapacity);
+                Arrays.fill(codes, capacity, newCapacity, NO_CODE);
+                break;
+            default:
+                objectValues = Arrays.copyOf(objectValues, newCapacity);
+        }
+    }
+
+    private int currentCapacity() {
+        switch ( storage ) {
+            case LONG: return longValues.length;
+            case DOUBLE: return doubleValues.length;
+            case STRING: return codes.length;
+            default: return objectValues.length;
+        }
+    }
+
+    private int encode(final String value) {
+        final Integer code = dictionaryIndex.get(value);
+        if ( code != null )
+            return code;
+        if ( dictionary.size() >= MAX_DICTIONARY_SIZE )
+            return NO_CODE;
+        dictionaryIndex.put(value, dictionary.size());
+        dictionary.add(value);
+        return dictionary.size() - 1;
+    }
+
+    private void convertToObjects() {
+        if ( storage == Storage.OBJECT )
+            return;
+        final Object[] values = new Object[Math.max(currentCapacity(), capacityHint)];
+        for ( int row = 0; row < size; row++ )
+            values[row] = get(row);
+
+        storage = Storage.OBJECT;
+        boxedType = null;
+        longValues = null;
+        doubleValues = null;
+        present = null;
+        codes = null;
+        dictionary = null;
+        dictionaryIndex = null;
+        dictionaryRanks = null;
+        objectValues = values;
+    }
+}
@@ -60,4 +60,41 @@ public class GATKReportColumnFormat {
                 throw new UnsupportedOperationException("Unknown alignment: " + alignment);
         }
     }
+
+    /**
+     * Append a column name padded the same way as getNameFormat()
+     *
+     * @param builder the builder to append to
+     * @param name    the column name
+     */
+    void appendName(final StringBuilder builder, final String name) {
+        builder.append(name);
+        pad(builder, name.length());
+    }
+
+    /**
+     * Append a formatted value padded the same way as getValueFormat()
+     *
+     * @param builder the builder to append to
+     * @param value   the formatted value
+     */
+    void appendValue(final StringBuilder builder, final String value) {
+        switch (alignment) {
+            case LEFT:
+                builder.append(value);
+                pad(builder, value.length());
+                break;
+            case RIGHT:
+                pad(builder, value.length());
+                builder.append(value);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown alignment: " + alignment);
+        }
+    }
+
+    private void pad(final StringBuilder builder, final int length) {
+        for ( int i = length; i < width; i++ )
+            builder.append(' ');
+    }
 }
@@ -49,9 +49,15 @@ public class GATKReportTable {
 
     private final TableSortingWay sortingWay;
 
-    private List<Object[]> underlyingData;
     private final List<GATKReportColumn> columnInfo;
+    private final List<GATKReportColumnData> columnData;
     private final Map<Object, Integer> columnNameToIndex;
+    private int numRows = 0;
+
+    // Row IDs: the Integers 0..numIdentityRowIDs-1 implicitly map to the row with the same index, so that tables
+    // indexed by row number (including every table read from a file) don't need a map entry per row.  All other IDs
+    // are kept in rowIdToIndex, which never contains an Integer key below numIdentityRowIDs.
+    private int numIdentityRowIDs = 0;
     private final HashMap<Object, Integer> rowIdToIndex;
 
     private static final String COULD_NOT_READ_HEADER = "Could not read the header of this file -- ";
@@ -60,7 +66,6 @@ public class GATKReportTable {
     private static final String COULD_NOT_READ_EMPTY_LINE = "Could not read the last empty line of this table -- ";
     private static final String OLD_GATK_TABLE_VERSION = "We no longer support older versions of the GATK Tables";
 
-    private static final int INITITAL_ARRAY_SIZE = 10000;
     private static final String NUMBER_CONVERSION_EXCEPTION = "String is a number but is not a long or a double: ";
 
     protected enum TableDataHeaderFields {
@@ -96,84 +101,201 @@ public class GATKReportTable {
      * @param version       the GATK report version
      */
     public GATKReportTable(BufferedReader reader, GATKReportVersion version) {
+        this(readHeader(reader, version), reader);
+    }
 
-        switch ( version ) {
-            case V1_1:
-                // read in the header lines
-                final String[] tableData, tableNameData;
-                try {
-                    tableData = reader.readLine().split(SEPARATOR);
-                    tableNameData = reader.readLine().split(SEPARATOR);
-                } catch (IOException e) {
-                    throw new ReviewedGATKException(COULD_NOT_READ_HEADER + e.getMessage());
-                }
+    /**
+     * Construct a new GATK report table from the reader, after its header has already been read
+     *
+     * @param header        the header of the table
+     * @param reader        the reader, positioned at the column names
+     */
+    GATKReportTable(final TableHeader header, final BufferedReader reader) {
+        final String[] tableData = header.tableData;
+        final String[] tableNameData = header.tableNameData;
 
-                // parse the header fields
-                tableName = tableNameData[TableNameHeaderFields.NAME.index()];
-                tableDescription = (tableNameData.length <= TableNameHeaderFields.DESCRIPTION.index()) ? "" : tableNameData[TableNameHeaderFields.DESCRIPTION.index()];                                           // table may have no description! (and that's okay)
-
-                // when reading from a file, we do not re-sort the rows
-                sortingWay = TableSortingWay.DO_NOT_SORT;
-
-                // initialize the data
-                final int nColumns = Integer.parseInt(tableData[TableDataHeaderFields.COLS.index()]);
-                final int nRows = Integer.parseInt(tableData[TableDataHeaderFields.ROWS.index()]);
-                underlyingData = new ArrayList<Object[]>(nRows);
-                columnInfo = new ArrayList<GATKReportColumn>(nColumns);
-                columnNameToIndex = new HashMap<Object, Integer>(nColumns);
-
-                // when reading from a file, the row ID mapping is just the index
-                rowIdToIndex = new HashMap<Object, Integer>();
-                for ( int i = 0; i < nRows; i++ )
-                    rowIdToIndex.put(i, i);
-
-                // read the column names
-                final String columnLine;
-                try {
-                    columnLine = reader.readLine();
-                } catch (IOException e) {
-                    throw new ReviewedGATKException(COULD_NOT_READ_COLUMN_NAMES);
-                }
+        // parse the header fields
+        tableName = header.getName();
+        tableDescription = (tableNameData.length <= TableNameHeaderFields.DESCRIPTION.index()) ? "" : tableNameData[TableNameHeaderFields.DESCRIPTION.index()];                                           // table may have no description! (and that's okay)
 
-                final List<Integer> columnStarts = TextFormattingUtils.getWordStarts(columnLine);
-                final String[] columnNames = TextFormattingUtils.splitFixedWidth(columnLine, columnStarts);
+        // when reading from a file, we do not re-sort the rows
+        sortingWay = TableSortingWay.DO_NOT_SORT;
 
-                // Put in columns using the format string from the header
-                for ( int i = 0; i < nColumns; i++ ) {
-                    final String format = tableData[TableDataHeaderFields.FORMAT_START.index() + i];
-                    addColumn(columnNames[i], format);
-                }
+        // initialize the data
+        final int nColumns = header.getNumColumns();
+        final int nRows = header.getNumRows();
+        columnInfo = new ArrayList<GATKReportColumn>(nColumns);
+        columnData = new ArrayList<GATKReportColumnData>(nColumns);
+        columnNameToIndex = new HashMap<Object, Integer>(nColumns);
 
-                // fill in the table
-                try {
-                    for ( int i = 0; i < nRows; i++ ) {
-                        // read a data line
-                        final String dataLine = reader.readLine();
-                        final List<String> lineSplits = Arrays.asList(TextFormattingUtils.splitFixedWidth(dataLine, columnStarts));
+        // when reading from a file, the row ID mapping is just the index
+        rowIdToIndex = new HashMap<Object, Integer>();
+        numIdentityRowIDs = nRows;
+        numRows = nRows;
+
+        // read the column names
+        final String columnLine;
+        try {
+            columnLine = reader.readLine();
+        } catch (IOException e) {
+            throw new ReviewedGATKException(COULD_NOT_READ_COLUMN_NAMES);
+        }
 
-                        underlyingData.add(new Object[nColumns]);
-                        for ( int columnIndex = 0; columnIndex < nColumns; columnIndex++ ) {
+        final List<Integer> columnStarts = TextFormattingUtils.getWordStarts(columnLine);
+        final String[] columnNames = TextFormattingUtils.splitFixedWidth(columnLine, columnStarts);
 
-                            final GATKReportDataType type = columnInfo.get(columnIndex).getDataType();
-                            final String columnName = columnNames[columnIndex];
-                            set(i, columnName, type.Parse(lineSplits.get(columnIndex)));
+        // Put in columns using the format string from the header
+        for ( int i = 0; i < nColumns; i++ ) {
+            final String format = tableData[TableDataHeaderFields.FORMAT_START.index() + i];
+            addColumn(columnNames[i], format, nRows);
+        }
 
-                        }
-                    }
-                } catch (IOException e) {
-                    throw new ReviewedGATKException(COULD_NOT_READ_DATA_LINE + e.getMessage());
-                }
+        // fill in the table
+        final int[] starts = new int[columnStarts.size()];
+        for ( int i = 0; i < starts.length; i++ )
+            starts[i] = columnStarts.get(i);
+        try {
+            for ( int i = 0; i < nRows; i++ ) {
+                // read a data line
+                final String dataLine = reader.readLine();
+                if ( dataLine == null )
+                    throw new ReviewedGATKException(COULD_NOT_READ_DATA_LINE + "unexpected end of file in table " + tableName);
+                parseDataLine(i, dataLine, starts);
+            }
+        } catch (IOException e) {
+            throw new ReviewedGATKException(COULD_NOT_READ_DATA_LINE + e.getMessage());
+        }
 
-                try {
-                    reader.readLine();
-                } catch (IOException e) {
-                    throw new ReviewedGATKException(COULD_NOT_READ_EMPTY_LINE + e.getMessage());
-                }
-            break;
+        try {
+            reader.readLine();
+        } catch (IOException e) {
+            throw new ReviewedGATKException(COULD_NOT_READ_EMPTY_LINE + e.getMessage());
+        }
+    }
 
-            default:
-                throw new ReviewedGATKException(OLD_GATK_TABLE_VERSION);
+    /**
+     * The two header lines of a table in a GATK report file
+     */
+    static final class TableHeader {
+        private final String[] tableData;
+        private final String[] tableNameData;
+
+        private TableHeader(final String[] tableData, final String[] tableNameData) {
+            this.tableData = tableData;
+            this.tableNameData = tableNameData;
+        }
+
+        String getName() {
+            return tableNameData[TableNameHeaderFields.NAME.index()];
+        }
+
+        int getNumColumns() {
+            return Integer.parseInt(tableData[TableDataHeaderFields.COLS.index()]);
+        }
+
+        int getNumRows() {
+            return Integer.parseInt(tableData[TableDataHeaderFields.ROWS.index()]);
+        }
+    }
+
+    /**
+     * Read the header lines of the next table in a GATK report
+     *
+     * @param reader        the reader
+     * @param version       the GATK report version
+     * @return the header of the table
+     */
+    static TableHeader readHeader(final BufferedReader reader, final GATKReportVersion version) {
+        if ( version != GATKReportVersion.V1_1 )
+            throw new ReviewedGATKException(OLD_GATK_TABLE_VERSION);
+
+        try {
+            return new TableHeader(reader.readLine().split(SEPARATOR), reader.readLine().split(SEPARATOR));
+        } catch (IOException e) {
+            throw new ReviewedGATKException(COULD_NOT_READ_HEADER + e.getMessage());
+        }
+    }
+
+    /**
+     * Skip over the body of a table whose header has already been read
+     *
+     * @param header        the header of the table
+     * @param reader        the reader, positioned at the column names
+     */
+    static void skipTable(final TableHeader header, final BufferedReader reader) {
+        // the column names, every data line and the trailing empty line
+        final int nLines = header.getNumRows() + 2;
+        try {
+            for ( int i = 0; i < nLines; i++ ) {
+                if ( reader.readLine() == null )
+                    throw new ReviewedGATKException(COULD_NOT_READ_DATA_LINE + "unexpected end of file in table " + header.getName());
+            }
+        } catch (IOException e) {
+            throw new ReviewedGATKException(COULD_NOT_READ_DATA_LINE + e.getMessage());
+        }
+    }
+
+    /**
+     * Parse one fixed width line of data straight into the column storage.  Integer and decimal cells are parsed
+     * without creating any objects; the width of each column is taken from the text itself, which is exactly the
+     * formatted value that was written out.
+     *
+     * @param rowIndex      the row index
+     * @param line          the line of data
+     * @param columnStarts  the starting position of every column but the first
+     */
+    private void parseDataLine(final int rowIndex, final String line, final int[] columnStarts) {
+        final int lineLength = line.length();
+        for ( int columnIndex = 0; columnIndex < columnInfo.size(); columnIndex++ ) {
+            int start = columnIndex == 0 ? 0 : Math.min(columnStarts[columnIndex - 1], lineLength);
+            int end = columnIndex < columnStarts.length ? Math.min(columnStarts[columnIndex], lineLength) : lineLength;
+            while ( start < end && line.charAt(start) <= ' ' )
+                start++;
+            while ( end > start && line.charAt(end - 1) <= ' ' )
+                end--;
+
+            final GATKReportColumn column = columnInfo.get(columnIndex);
+            final GATKReportColumnData data = columnData.get(columnIndex);
+            switch ( column.getDataType() ) {
+                case Integer:
+                    data.setLong(rowIndex, parseLong(line, start, end));
+                    column.updateMaxWidth(end - start);
+                    break;
+                case Decimal:
+                    final String decimal = line.substring(start, end);
+                    data.setDouble(rowIndex, Double.parseDouble(decimal));
+                    column.updateFormattingFromText(decimal);
+                    break;
+                case String:
+                case Unknown:
+                    final String text = line.substring(start, end);
+                    data.set(rowIndex, text);
+                    column.updateFormattingFromText(text);
+                    break;
+                default:
+                    set(rowIndex, columnIndex, column.getDataType().Parse(line.substring(start, end)));
+            }
+        }
+    }
+
+    /**
+     * Parse a decimal long from a range of a String, without creating a substring for the common cases
+     */
+    private static long parseLong(final String text, final int start, final int end) {
+        final boolean negative = start < end && text.charAt(start) == '-';
+        final int firstDigit = negative ? start + 1 : start;
+        // 18 digits can never overflow a long; anything else goes through the JDK
+        if ( firstDigit == end || end - firstDigit > 18 )
+            return Long.parseLong(text.substring(start, end));
+
+        long value = 0;
+        for ( int i = firstDigit; i < end; i++ ) {
+            final int digit = text.charAt(i) - '0';
+            if ( digit < 0 || digit > 9 )
+                return Long.parseLong(text.substring(start, end));
+            value = value * 10 + digit;
         }
+        return negative ? -value : value;
     }
 
     /**
@@ -208,8 +330,8 @@ public class GATKReportTable {
         this.tableDescription = tableDescription;
         this.sortingWay = sortingWay;
 
-        underlyingData = new ArrayList<Object[]>(INITITAL_ARRAY_SIZE);
         columnInfo = new ArrayList<GATKReportColumn>(numColumns);
+        columnData = new ArrayList<GATKReportColumnData>(numColumns);
         columnNameToIndex = new HashMap<Object, Integer>(numColumns);
         rowIdToIndex = new HashMap<Object, Integer>();
     }
@@ -232,7 +354,7 @@ public class GATKReportTable {
         * @param name the name of the table or column
         * @return true if the name is valid, false if otherwise
         */
-    private boolean isValidName(String name) {
+    static boolean isValidName(String name) {
         Pattern p = Pattern.compile(INVALID_TABLE_NAME_REGEX);
         Matcher m = p.matcher(name);
 
@@ -245,7 +367,7 @@ public class GATKReportTable {
      * @param description the name of the table or column
      * @return true if the name is valid, false if otherwise
      */
-    private boolean isValidDescription(String description) {
+    static boolean isValidDescription(String description) {
         Pattern p = Pattern.compile("\\r|\\n");
         Matcher m = p.matcher(description);
 
@@ -268,7 +390,7 @@ public class GATKReportTable {
      * @param populateFirstColumn   should we automatically populate the first column with the row's ID?
      */
     public void addRowID(final String ID, final boolean populateFirstColumn) {
-        addRowIDMapping(ID, underlyingData.size(), populateFirstColumn);
+        addRowIDMapping(ID, numRows, populateFirstColumn);
     }
 
     /**
@@ -290,7 +412,7 @@ public class GATKReportTable {
      */
     public void addRowIDMapping(final Object ID, final int index, final boolean populateFirstColumn) {
         expandTo(index, false);
-        rowIdToIndex.put(ID, index);
+        putRowID(ID, index);
 
         if ( populateFirstColumn )
             set(index, 0, ID);
@@ -302,9 +424,54 @@ public class GATKReportTable {
      * @param ID   the row ID
      */
     public void removeRowIDMapping(final Object ID) {
+        if ( isIdentityRowID(ID) )
+            materializeIdentityRowIDs();
         rowIdToIndex.remove(ID);
     }
 
+    private boolean isIdentityRowID(final Object ID) {
+        return ID instanceof Integer && (Integer) ID >= 0 && (Integer) ID < numIdentityRowIDs;
+    }
+
+    /**
+     * @param ID   the row ID
+     * @return the index of the row with the given ID, or null if there is no such row
+     */
+    private Integer getRowIndex(final Object ID) {
+        return isIdentityRowID(ID) ? (Integer) ID : rowIdToIndex.get(ID);
+    }
+
+    private void putRowID(final Object ID, final int index) {
+        if ( ID instanceof Integer ) {
+            final int key = (Integer) ID;
+            if ( key == index && key == numIdentityRowIDs ) {
+                // extend the implicit mapping, replacing any explicit one
+                rowIdToIndex.remove(ID);
+                numIdentityRowIDs++;
+                return;
+            }
+            if ( isIdentityRowID(ID) ) {
+                if ( key == index )
+                    return;
+                materializeIdentityRowIDs();
+            }
+        }
+        rowIdToIndex.put(ID, index);
+    }
+
+    /**
+     * Turn the implicit index -> index row IDs into explicit map entries
+     */
+    private void materializeIdentityRowIDs() {
+        for ( int i = 0; i < numIdentityRowIDs; i++ )
+            rowIdToIndex.put(i, i);
+        numIdentityRowIDs = 0;
+    }
+
+    private int getNumRowIDs() {
+        return numIdentityRowIDs + rowIdToIndex.size();
+    }
+
     /**
      * Add a column to the report
      *
@@ -321,8 +488,13 @@ public class GATKReportTable {
      * @param format       the format string used to display data
      */
     public void addColumn(String columnName, String format) {
+        addColumn(columnName, format, numRows);
+    }
+
+    private void addColumn(final String columnName, final String format, final int expectedRows) {
         columnNameToIndex.put(columnName, columnInfo.size());
         columnInfo.add(new GATKReportColumn(columnName, format));
+        columnData.add(new GATKReportColumnData(expectedRows));
     }
 
     /**
@@ -343,15 +515,10 @@ public class GATKReportTable {
      * @param updateRowIdMap  should we update the row ID map?
      */
     private void expandTo(final int rowIndex, final boolean updateRowIdMap) {
-        int currentSize = underlyingData.size();
-        if ( rowIndex >= currentSize ) {
-            final int numNewRows = rowIndex - currentSize + 1;
-            for ( int i = 0; i < numNewRows; i++ ) {
-                if ( updateRowIdMap )
-                    rowIdToIndex.put(currentSize, currentSize);
-                underlyingData.add(new Object[getNumColumns()]);
-                currentSize++;
-            }
+        while ( numRows <= rowIndex ) {
+            if ( updateRowIdMap )
+                putRowID(numRows, numRows);
+            numRows++;
         }
     }
 
@@ -364,11 +531,13 @@ public class GATKReportTable {
      * @param value        the value to set
      */
     public void set(final Object rowID, final String columnName, final Object value) {
-        if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            expandTo(underlyingData.size(), false);
+        Integer rowIndex = getRowIndex(rowID);
+        if ( rowIndex == null ) {
+            rowIndex = numRows;
+            putRowID(rowID, rowIndex);
+            expandTo(rowIndex, false);
         }
-        set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), value);
+        set(rowIndex, columnNameToIndex.get(columnName), value);
     }
 
     /**
@@ -382,20 +551,11 @@ public class GATKReportTable {
     public void set(final int rowIndex, final int colIndex, Object value) {
         expandTo(rowIndex, true);
         verifyEntry(rowIndex, colIndex);
-        GATKReportColumn column = columnInfo.get(colIndex);
-
-        // We do not accept internal null values
-        if (value == null)
-            value = "null";
-        else
-            value = fixType(value, column);
+        final GATKReportColumn column = columnInfo.get(colIndex);
 
-        if ( column.getDataType().equals(GATKReportDataType.fromObject(value)) || column.getDataType().equals(GATKReportDataType.Unknown) ) {
-            underlyingData.get(rowIndex)[colIndex] = value;
-            column.updateFormatting(value);
-        } else {
-            throw new ReviewedGATKException(String.format("Tried to add an object of type: %s to a column of type: %s", GATKReportDataType.fromObject(value).name(), column.getDataType().name()));
-        }
+        value = column.convertValue(value);
+        columnData.get(colIndex).set(rowIndex, value);
+        column.updateFormatting(value);
     }
 
     /**
@@ -404,7 +564,7 @@ public class GATKReportTable {
      * @param rowID        the row ID
      */
     public boolean containsRowID(final Object rowID) {
-        return rowIdToIndex.containsKey(rowID);
+        return getRowIndex(rowID) != null;
     }
 
     /**
@@ -412,7 +572,45 @@ public class GATKReportTable {
      *
      */
     public Collection<Object> getRowIDs() {
-        return rowIdToIndex.keySet();
+        if ( numIdentityRowIDs == 0 )
+            return rowIdToIndex.keySet();
+
+        return new AbstractCollection<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                final Iterator<Object> explicitIDs = rowIdToIndex.keySet().iterator();
+                return new Iterator<Object>() {
+                    private int nextIdentityID = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return nextIdentityID < numIdentityRowIDs || explicitIDs.hasNext();
+                    }
+
+                    @Override
+                    public Object next() {
+                        if ( nextIdentityID < numIdentityRowIDs )
+                            return nextIdentityID++;
+                        return explicitIDs.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("Use removeRowIDMapping() to remove row IDs");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return getNumRowIDs();
+            }
+
+            @Override
+            public boolean contains(final Object rowID) {
+                return containsRowID(rowID);
+            }
+        };
     }
 
     /**
@@ -424,18 +622,20 @@ public class GATKReportTable {
     */
     public void increment(final Object rowID, final String columnName) {
         int prevValue;
-        if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            underlyingData.add(new Object[getNumColumns()]);
+        Integer rowIndex = getRowIndex(rowID);
+        if ( rowIndex == null ) {
+            rowIndex = numRows;
+            putRowID(rowID, rowIndex);
+            expandTo(rowIndex, false);
             prevValue = 0;
         } else {
-            Object obj = get(rowID, columnName);
+            Object obj = get(rowIndex.intValue(), columnName);
             if ( !(obj instanceof Integer) )
                 throw new ReviewedGATKException("Attempting to increment a value in a cell that is not an integer");
             prevValue = (Integer)obj;
         }
 
-        set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), prevValue + 1);
+        set(rowIndex, columnNameToIndex.get(columnName), prevValue + 1);
     }
 
     /**
@@ -449,13 +649,11 @@ public class GATKReportTable {
         if ( columnValues == null || columnValues.length == 0 || columnValues.length > getNumColumns() )
             return -1;
 
-        for ( int rowIndex = 0; rowIndex < underlyingData.size(); rowIndex++ ) {
-
-            final Object[] row = underlyingData.get(rowIndex);
+        for ( int rowIndex = 0; rowIndex < numRows; rowIndex++ ) {
 
             boolean matches = true;
             for ( int colIndex = 0; colIndex < columnValues.length; colIndex++ ) {
-                if ( !columnValues[colIndex].equals(row[colIndex]) ) {
+                if ( !columnValues[colIndex].equals(columnData.get(colIndex).get(rowIndex)) ) {
                     matches = false;
                     break;
                 }
@@ -468,36 +666,6 @@ public class GATKReportTable {
         return -1;
     }
 
-    private Object fixType(final Object value, final GATKReportColumn column) {
-        // Below is some code to convert a string into its appropriate type.
-
-        // todo -- Types have to be more flexible. For example, %d should accept Integers, Shorts and Bytes.
-
-        Object newValue = null;
-        if ( value instanceof String && !column.getDataType().equals(GATKReportDataType.String) ) {
-            // Integer case
-            if ( column.getDataType().equals(GATKReportDataType.Integer) ) {
-                try {
-                    newValue = Long.parseLong((String) value);
-                } catch (Exception e) {
-                    /** do nothing */
-                }
-            }
-            if ( column.getDataType().equals(GATKReportDataType.Decimal) ) {
-                try {
-                    newValue = Double.parseDouble((String) value);
-                } catch (Exception e) {
-                    /** do nothing */
-                }
-            }
-            if ( column.getDataType().equals(GATKReportDataType.Character) && ((String) value).length() == 1 ) {
-                newValue = ((String) value).charAt(0);
-            }
-        }
-
-        return  (newValue != null) ? newValue : value;
-    }
-
     /**
      * Get a value from the given position in the table
      *
@@ -506,7 +674,7 @@ public class GATKReportTable {
      * @return the value stored at the specified position in the table
      */
     public Object get(final Object rowID, final String columnName) {
-        return get(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName));
+        return get(getRowIndex(rowID), columnNameToIndex.get(columnName));
     }
 
     /**
@@ -529,7 +697,7 @@ public class GATKReportTable {
      */
     public Object get(int rowIndex, int columnIndex) {
         verifyEntry(rowIndex, columnIndex);
-        return underlyingData.get(rowIndex)[columnIndex];
+        return columnData.get(columnIndex).get(rowIndex);
     }
 
     /**
@@ -546,107 +714,71 @@ public class GATKReportTable {
           * key   colA  colB
           * row1  xxxx  xxxxx
          */
-
-         // write the table definition
-         out.printf(GATKTABLE_HEADER_PREFIX + ":%d:%d", getNumColumns(), getNumRows());
-
-         // write the formats for all the columns
-         for ( final GATKReportColumn column : columnInfo )
-             out.print(SEPARATOR + column.getFormat());
-         out.println(ENDLINE);
-
-         // write the table name & description
-         out.printf(GATKTABLE_HEADER_PREFIX + ":%s:%s\n", tableName, tableDescription);
-
-         // write the column names
-         boolean needsPadding = false;
-         for ( final GATKReportColumn column : columnInfo ) {
-             if ( needsPadding )
-                 out.printf("  ");
-             needsPadding = true;
-
-             out.printf(column.getColumnFormat().getNameFormat(), column.getColumnName());
-         }
-         out.println();
+         writeHeader(out, tableName, tableDescription, columnInfo, getNumRows());
 
          // write the table body
+         final int[] rowOrder;
          switch (sortingWay) {
-             case SORT_BY_COLUMN:
-                 Collections.sort(underlyingData, new Comparator<Object[]>() {
-                     //INVARIANT the two arrays are of the same length and corresponding elements are of the same type
-                     @Override
-                     public int compare(Object[] objectArr1, Object[] objectArr2) {
-                         final int EQUAL = 0;
-
-                         int result = EQUAL;
-
-                         int l = objectArr1.length;
-                         for (int x = 0; x < l; x++) {
-                             if (objectArr1[x] instanceof Integer) {
-                                 result = ((Integer)objectArr1[x]).compareTo((Integer)objectArr2[x]);
-                             } else if (objectArr1[x] instanceof Double) {
-                                 result = ((Double)objectArr1[x]).compareTo((Double)objectArr2[x]);
-                             } else { // default uses String comparison
-                                 result = objectArr1[x].toString().compareTo(objectArr2[x].toString());
-                             }
-                             if( result  != EQUAL) {
-                                 return result;
-                             }
-                         }
-                         return result;
-                     }
-                 });
-                 for ( final Object[] row : underlyingData )
-                     writeRow(out, row);
-                 break;
              case SORT_BY_ROW:
                  // make sure that there are exactly the correct number of ID mappings
-                 if ( rowIdToIndex.size() != underlyingData.size() )
+                 if ( getNumRowIDs() != numRows )
                      throw new ReviewedGATKException("There isn't a 1-to-1 mapping from row ID to index; this can happen when rows are not created consistently");
 
-                 final TreeMap<Object, Integer> sortedMap;
-                 try {
-                     sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
-                 } catch (ClassCastException e) {
+                 rowOrder = getRowsSortedByID();
+                 if ( rowOrder == null )
                      throw new ReviewedGATKException("Unable to sort the rows based on the row IDs because the ID Objects are of different types");
-                 }
-                 for ( final Map.Entry<Object, Integer> rowKey : sortedMap.entrySet() )
-                     writeRow(out, underlyingData.get(rowKey.getValue()));
                  break;
-             case DO_NOT_SORT:
-                 for ( final Object[] row : underlyingData )
-                     writeRow(out, row);
+             default:
+                 rowOrder = getOrderedRows();
+         }
+
+         final StringBuilder line = new StringBuilder();
+         for ( final int row : rowOrder ) {
+             line.setLength(0);
+             for ( int i = 0; i < columnInfo.size(); i++ ) {
+                 if ( i > 0 )
+                     line.append("  ");
+                 final GATKReportColumn column = columnInfo.get(i);
+                 column.getColumnFormat().appendValue(line, column.formatValue(columnData.get(i).get(row)));
+             }
+             out.println(line.toString());
          }
          out.println();
      }
 
-    private void writeRow(final PrintStream out, final Object[] row) {
-        boolean needsPadding = false;
-        for ( int i = 0; i < row.length; i++ ) {
-            if ( needsPadding )
-                out.printf("  ");
-            needsPadding = true;
-
-            final Object obj = row[i];
-            final String value;
-
-            final GATKReportColumn info = columnInfo.get(i);
-
-            if ( obj == null )
-                value = "null";
-            else if ( info.getDataType().equals(GATKReportDataType.Unknown) && (obj instanceof Double || obj instanceof Float) )
-                value = String.format("%.8f", obj);
-            else
-                value = String.format(info.getFormat(), obj);
-
-            out.printf(info.getColumnFormat().getValueFormat(), value);
+    /**
+     * Write the header lines and the column names of a table
+     *
+     * @param out              the PrintStream to which the table should be written
+     * @param tableName        the name of the table
+     * @param tableDescription the description of the table
+     * @param columns          the columns of the table, with their final widths
+     * @param numRows          the number of rows that will follow
+     */
+    static void writeHeader(final PrintStream out, final String tableName, final String tableDescription, final List<GATKReportColumn> columns, final int numRows) {
+        // write the table definition
+        out.printf(GATKTABLE_HEADER_PREFIX + ":%d:%d", columns.size(), numRows);
+
+        // write the formats for all the columns
+        for ( final GATKReportColumn column : columns )
+            out.print(SEPARATOR + column.getFormat());
+        out.println(ENDLINE);
+
+        // write the table name & description
+        out.printf(GATKTABLE_HEADER_PREFIX + ":%s:%s\n", tableName, tableDescription);
+
+        // write the column names
+        final StringBuilder line = new StringBuilder();
+        for ( int i = 0; i < columns.size(); i++ ) {
+            if ( i > 0 )
+                line.append("  ");
+            columns.get(i).getColumnFormat().appendName(line, columns.get(i).getColumnName());
         }
-
-        out.println();
+        out.println(line.toString());
     }
 
     public int getNumRows() {
-        return underlyingData.size();
+        return numRows;
     }
 
     public int getNumColumns() {
@@ -675,12 +807,24 @@ public class GATKReportTable {
             throw new ReviewedGATKException("Error trying to concatenate tables with different formats");
 
         // add the data
-        underlyingData.addAll(table.underlyingData);
-
-        // update the row index map
         final int currentNumRows = getNumRows();
+        for ( int i = 0; i < columnInfo.size(); i++ ) {
+            final GATKReportColumnData otherData = table.columnData.get(i);
+            final GATKReportColumnData myData = columnData.get(i);
+            for ( int row = 0; row < otherData.size(); row++ ) {
+                final Object value = otherData.get(row);
+                if ( value != null )
+                    myData.set(currentNumRows + row, value);
+            }
+            columnInfo.get(i).mergeFormatting(table.columnInfo.get(i));
+        }
+        numRows += table.numRows;
+
+        // update the row index map; rows that were indexed by row number stay indexed by row number
+        for ( int row = 0; row < table.numIdentityRowIDs; row++ )
+            putRowID(currentNumRows + row, currentNumRows + row);
         for ( Map.Entry<Object, Integer> entry : table.rowIdToIndex.entrySet() )
-            rowIdToIndex.put(entry.getKey(), entry.getValue() + currentNumRows);
+            putRowID(entry.getKey(), entry.getValue() + currentNumRows);
     }
 
     /**
@@ -714,17 +858,17 @@ public class GATKReportTable {
      */
     public boolean equals(final GATKReportTable table) {
         if ( !isSameFormat(table) ||
-                underlyingData.size() != table.underlyingData.size() )
+                numRows != table.numRows )
             return false;
 
-        final List<Object[]> myOrderedRows = getOrderedRows();
-        final List<Object[]> otherOrderedRows = table.getOrderedRows();
+        final int[] myOrderedRows = getOrderedRows();
+        final int[] otherOrderedRows = table.getOrderedRows();
 
-        for ( int i = 0; i < underlyingData.size(); i++ ) {
-            final Object[] myData = myOrderedRows.get(i);
-            final Object[] otherData = otherOrderedRows.get(i);
-            for ( int j = 0; j < myData.length; j++ ) {
-                if ( !myData[j].toString().equals(otherData[j].toString()) )       // need to deal with different typing (e.g. Long vs. Integer)
+        for ( int i = 0; i < numRows; i++ ) {
+            for ( int j = 0; j < columnInfo.size(); j++ ) {
+                final Object myValue = columnData.get(j).get(myOrderedRows[i]);
+                final Object otherValue = table.columnData.get(j).get(otherOrderedRows[i]);
+                if ( !String.valueOf(myValue).equals(String.valueOf(otherValue)) )       // need to deal with different typing (e.g. Long vs. Integer)
                     return false;
             }
         }
@@ -732,48 +876,90 @@ public class GATKReportTable {
         return true;
     }
 
-    private List<Object[]> getOrderedRows() {
-
+    /**
+     * Get the indices of the rows in the order in which they should be written.  The stored rows themselves are
+     * never reordered.
+     *
+     * @return the row indices, in output order
+     */
+    private int[] getOrderedRows() {
         switch (sortingWay) {
             case SORT_BY_COLUMN:
-                Collections.sort(underlyingData, new Comparator<Object[]>() {
-                    //INVARIANT the two arrays are of the same length and corresponding elements are of the same type
-                    @Override
-                    public int compare(Object[] objectArr1, Object[] objectArr2) {
-                        final int EQUAL = 0;
-                        int result = EQUAL;
-                        int l = objectArr1.length;
-                            for (int x = 0; x < l; x++) {
-                                if (objectArr1[x] instanceof Integer) {
-                                    result = ((Integer)objectArr1[x]).compareTo((Integer)objectArr2[x]);
-                                } else if (objectArr1[x] instanceof Double) {
-                                    result = ((Double)objectArr1[x]).compareTo((Double)objectArr2[x]);
-                                } else  { // default uses String comparison
-                                    result = objectArr1[x].toString().compareTo(objectArr2[x].toString());
-                                }
-                                if( result != EQUAL) {
-                                    return result;
-                                }
-                            }
-                            return result;
-                    }
-                });
-                return underlyingData;
+                for ( final GATKReportColumnData data : columnData )
+                    data.prepareForSort();
+                final int[] rows = identityOrder();
+                mergeSort(rows, new int[rows.length], 0, rows.length);
+                return rows;
             case SORT_BY_ROW:
-                final TreeMap<Object, Integer> sortedMap;
-                try {
-                    sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
-                } catch (ClassCastException e) {
-                    return underlyingData;
-                }
+                final int[] sortedRows = getRowsSortedByID();
+                return (sortedRows == null || sortedRows.length != numRows) ? identityOrder() : sortedRows;
+            default:
+                return identityOrder();
+        }
+    }
 
-                final List<Object[]> orderedData = new ArrayList<Object[]>(underlyingData.size());
-                for ( final int rowKey : sortedMap.values() )
-                    orderedData.add(underlyingData.get(rowKey));
+    private int[] identityOrder() {
+        final int[] rows = new int[numRows];
+        for ( int i = 0; i < numRows; i++ )
+            rows[i] = i;
+        return rows;
+    }
 
-                return orderedData;
-            default:
-                return underlyingData;
+    /**
+     * @return the indices of the rows ordered by their row IDs, or null if the IDs cannot be compared with each other
+     */
+    private int[] getRowsSortedByID() {
+        if ( rowIdToIndex.isEmpty() ) {
+            final int[] rows = new int[numIdentityRowIDs];
+            for ( int i = 0; i < numIdentityRowIDs; i++ )
+                rows[i] = i;
+            return rows;
+        }
+
+        final TreeMap<Object, Integer> sortedMap;
+        try {
+            sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
+            for ( int i = 0; i < numIdentityRowIDs; i++ )
+                sortedMap.put(i, i);
+        } catch (ClassCastException e) {
+            return null;
+        }
+
+        final int[] rows = new int[sortedMap.size()];
+        int i = 0;
+        for ( final int rowIndex : sortedMap.values() )
+            rows[i++] = rowIndex;
+        return rows;
+    }
+
+    /**
+     * Stable sort of row indices by the values in each column, from first to last
+     */
+    private void mergeSort(final int[] rows, final int[] scratch, final int from, final int to) {
+        if ( to - from < 2 )
+            return;
+        final int mid = (from + to) >>> 1;
+        mergeSort(rows, scratch, from, mid);
+        mergeSort(rows, scratch, mid, to);
+        if ( compareRows(rows[mid - 1], rows[mid]) <= 0 )
+            return;
+
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from, right = mid, out = from;
+        while ( left < mid && right < to )
+            rows[out++] = compareRows(scratch[right], scratch[left]) < 0 ? scratch[right++] : scratch[left++];
+        while ( left < mid )
+            rows[out++] = scratch[left++];
+        while ( right < to )
+            rows[out++] = scratch[right++];
+    }
+
+    private int compareRows(final int row1, final int row2) {
+        for ( final GATKReportColumnData data : columnData ) {
+            final int result = data.compare(row1, row2);
+            if ( result != 0 )
+                return result;
         }
+        return 0;
     }
 }
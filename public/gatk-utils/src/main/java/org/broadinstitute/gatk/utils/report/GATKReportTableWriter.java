@@ -0,0 +1,208 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.report;
+
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only writer for a single GATK report table that never holds the rows in memory.
+ * <p/>
+ * A GATKReport table is fixed width, so its row count and the width of every column must be known before the first
+ * row is written.  Rows are therefore formatted as they are added and spooled to a temporary file; write() then emits
+ * the table header followed by the padded rows.  Only the column widths are kept in memory, which makes this suitable
+ * for tables with millions of rows.  Rows are written in the order in which they were added.
+ * <p/>
+ * Example:
+ * <pre>
+ *     GATKReport.printHeader(out, 1);
+ *     final GATKReportTableWriter writer = new GATKReportTableWriter("Counts", "Counts per context");
+ *     writer.addColumn("Context", "%s");
+ *     writer.addColumn("Count", "%d");
+ *     writer.addRow("AC", 10L);
+ *     writer.write(out);
+ * </pre>
+ * The output is read back with new GATKReport(File) like any other report.
+ */
+public class GATKReportTableWriter {
+    private static final int SPOOL_BUFFER_SIZE = 1 << 16;
+
+    private final String tableName;
+    private final String tableDescription;
+    private final List<GATKReportColumn> columnInfo = new ArrayList<GATKReportColumn>();
+
+    private File spoolFile = null;
+    private DataOutputStream spool = null;
+    private int numRows = 0;
+    private boolean written = false;
+
+    /**
+     * Construct a new writer for a table with the specified name and description
+     *
+     * @param tableName        the name of the table
+     * @param tableDescription the description of the table
+     */
+    public GATKReportTableWriter(final String tableName, final String tableDescription) {
+        if ( !GATKReportTable.isValidName(tableName) ) {
+            throw new ReviewedGATKException("Attempted to set a GATKReportTable name of '" + tableName + "'.  GATKReportTable names must be purely alphanumeric - no spaces or special characters are allowed.");
+        }
+
+        if ( !GATKReportTable.isValidDescription(tableDescription) ) {
+            throw new ReviewedGATKException("Attempted to set a GATKReportTable description of '" + tableDescription + "'.  GATKReportTable descriptions must not contain newlines.");
+        }
+
+        this.tableName = tableName;
+        this.tableDescription = tableDescription;
+    }
+
+    /**
+     * Add an untyped column to the table
+     *
+     * @param columnName   the name of the column
+     */
+    public void addColumn(final String columnName) {
+        addColumn(columnName, "");
+    }
+
+    /**
+     * Add a column to the table and the format string used to display the data.  All columns must be added before
+     * the first row.
+     *
+     * @param columnName   the name of the column
+     * @param format       the format string used to display data
+     */
+    public void addColumn(final String columnName, final String format) {
+        if ( numRows > 0 || written )
+            throw new ReviewedGATKException("Columns must be added to table '" + tableName + "' before any rows");
+        columnInfo.add(new GATKReportColumn(columnName, format));
+    }
+
+    /**
+     * Append a row to the table.  Values are checked and converted exactly as by GATKReportTable.set().
+     *
+     * @param values the value for each column, in column order
+     */
+    public void addRow(final Object... values) {
+        if ( written )
+            throw new ReviewedGATKException("Table '" + tableName + "' has already been written");
+        if ( values.length != columnInfo.size() )
+            throw new ReviewedGATKException("The number of values in addRow (" + values.length + ") must match the number of columns in the table (" + columnInfo.size() + ")");
+
+        try {
+            if ( spool == null ) {
+                spoolFile = File.createTempFile("GATKReportTable", ".spool");
+                spoolFile.deleteOnExit();
+                spool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile), SPOOL_BUFFER_SIZE));
+            }
+
+            for ( int i = 0; i < values.length; i++ ) {
+                final GATKReportColumn column = columnInfo.get(i);
+                final String formatted = column.formatValue(column.convertValue(values[i]));
+                column.updateFormattingFromText(formatted);
+
+                final byte[] bytes = formatted.getBytes(StandardCharsets.UTF_8);
+                spool.writeInt(bytes.length);
+                spool.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new UserException.CouldNotCreateOutputFile(spoolFile, "could not spool the rows of report table " + tableName, e);
+        }
+        numRows++;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Write the table to the PrintStream, in the same format as a table printed by GATKReport.print().  The spooled
+     * rows are discarded afterwards, so a table can only be written once.
+     *
+     * @param out the PrintStream to which the table should be written
+     */
+    public void write(final PrintStream out) {
+        if ( written )
+            throw new ReviewedGATKException("Table '" + tableName + "' has already been written");
+        written = true;
+
+        GATKReportTable.writeHeader(out, tableName, tableDescription, columnInfo, numRows);
+        if ( numRows > 0 ) {
+            try {
+                spool.close();
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile), SPOOL_BUFFER_SIZE));
+                try {
+                    final StringBuilder line = new StringBuilder();
+                    byte[] bytes = new byte[64];
+                    for ( int row = 0; row < numRows; row++ ) {
+                        line.setLength(0);
+                        for ( int i = 0; i < columnInfo.size(); i++ ) {
+                            if ( i > 0 )
+                                line.append("  ");
+                            final int length = in.readInt();
+                            if ( length > bytes.length )
+                                bytes = new byte[length];
+                            in.readFully(bytes, 0, length);
+                            columnInfo.get(i).getColumnFormat().appendValue(line, new String(bytes, 0, length, StandardCharsets.UTF_8));
+                        }
+                        out.println(line.toString());
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ReviewedGATKException("Could not read back the spooled rows of report table " + tableName, e);
+            } finally {
+                close();
+            }
+        }
+        out.println();
+    }
+
+    /**
+     * Discard any spooled rows without writing them
+     */
+    public void close() {
+        try {
+            if ( spool != null )
+                spool.close();
+        } catch (IOException e) {
+            // nothing to do, the spool is being thrown away
+        }
+        spool = null;
+        if ( spoolFile != null && !spoolFile.delete() )
+            spoolFile.deleteOnExit();
+        spoolFile = null;
+    }
+}
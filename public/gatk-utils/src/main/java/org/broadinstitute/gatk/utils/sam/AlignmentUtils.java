@@ -36,6 +36,7 @@ import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.haplotype.Haplotype;
 import org.broadinstitute.gatk.utils.pileup.PileupElement;
 import org.broadinstitute.gatk.utils.recalibration.EventType;
+import org.broadinstitute.gatk.utils.smithwaterman.CompactSWPairwiseAlignment;
 import org.broadinstitute.gatk.utils.smithwaterman.SWPairwiseAlignment;
 
 import java.util.*;
@@ -92,7 +93,7 @@ public final class AlignmentUtils {
         if ( referenceStart < 1 ) throw new IllegalArgumentException("reference start much be >= 1 but got " + referenceStart);
 
         // compute the smith-waterman alignment of read -> haplotype
-        final SWPairwiseAlignment swPairwiseAlignment = new SWPairwiseAlignment(haplotype.getBases(), originalRead.getReadBases(), CigarUtils.NEW_SW_PARAMETERS);
+        final SWPairwiseAlignment swPairwiseAlignment = new CompactSWPairwiseAlignment(haplotype.getBases(), originalRead.getReadBases(), CigarUtils.NEW_SW_PARAMETERS);
         if ( swPairwiseAlignment.getAlignmentStart2wrt1() == -1 )
             // sw can fail (reasons not clear) so if it happens just don't realign the read
             return originalRead;
@@ -31,8 +31,8 @@ import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.TextCigarCodec;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.smithwaterman.CompactSWPairwiseAlignment;
 import org.broadinstitute.gatk.utils.smithwaterman.Parameters;
-import org.broadinstitute.gatk.utils.smithwaterman.SWPairwiseAlignment;
 import org.broadinstitute.gatk.utils.smithwaterman.SmithWaterman;
 
 import java.util.Arrays;
@@ -191,7 +191,7 @@ public class CigarUtils {
 
         final String paddedRef = SW_PAD + new String(refSeq) + SW_PAD;
         final String paddedPath = SW_PAD + new String(altSeq) + SW_PAD;
-        final SmithWaterman alignment = new SWPairwiseAlignment( paddedRef.getBytes(), paddedPath.getBytes(), NEW_SW_PARAMETERS);
+        final SmithWaterman alignment = new CompactSWPairwiseAlignment( paddedRef.getBytes(), paddedPath.getBytes(), NEW_SW_PARAMETERS);
 
         if ( isSWFailure(alignment) ) {
             return null;
@@ -383,6 +383,19 @@ public class GATKSAMRecord extends SAMRecord implements Cloneable {
         return null;
     }
 
+    /**
+     * Gets all of the temporary attributes of this read.
+     *
+     * Temporary attributes provide a way to label or attach arbitrary data to
+     * individual GATKSAMRecords. These attributes exist in memory only,
+     * and are never written to disk.
+     *
+     * @return the temporary attributes themselves, not a copy, or null if none have ever been set
+     */
+    public Map<Object, Object> getTemporaryAttributes() {
+        return temporaryAttributes;
+    }
+
     /**
      * Checks whether if the read has any bases.
      *
@@ -970,4 +970,40 @@ public class ReadUtils {
         }
         return maxReadLength;
     }
+
+    /**
+     * Approximate number of bytes used by a read object and its fixed-size fields, not counting any arrays or strings
+     */
+    private static final int READ_OBJECT_OVERHEAD_BYTES = 400;
+
+    /**
+     * Approximate number of bytes used by each array or string held by a read, not counting its contents
+     */
+    private static final int ARRAY_OVERHEAD_BYTES = 16;
+
+    /**
+     * Approximate number of bytes used by each element of a read's cigar
+     */
+    private static final int CIGAR_ELEMENT_BYTES = 32;
+
+    /**
+     * Estimate the number of bytes of heap memory used by read
+     *
+     * This is a cheap estimate meant for bounding memory usage, not an exact accounting: it counts the bases, quals,
+     * read name and cigar of the read plus a fixed overhead for the object itself and its tags.
+     *
+     * @param read the read, cannot be null
+     * @return an estimate of the heap bytes held by read, > 0
+     */
+    @Ensures({"result > 0"})
+    public static long estimateHeapSize(final SAMRecord read) {
+        if ( read == null ) throw new IllegalArgumentException("read cannot be null");
+
+        final int readLength = read.getReadLength();
+        final String readName = read.getReadName();
+        return READ_OBJECT_OVERHEAD_BYTES
+                + 2 * (ARRAY_OVERHEAD_BYTES + readLength)                                  // bases and quals
+                + ARRAY_OVERHEAD_BYTES + 2 * (readName == null ? 0 : readName.length())     // read name chars
+                + (long)CIGAR_ELEMENT_BYTES * read.getCigarLength();
+    }
 }
@@ -0,0 +1,305 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.smithwaterman;
+
+import java.util.Arrays;
+
+/**
+ * Pairwise discrete smith-waterman alignment that computes exactly the same alignments as SWPairwiseAlignment
+ * with a fraction of the memory traffic
+ *
+ * Instead of two full n x m int matrices, only two rows of scores are kept, along with the last column of scores
+ * and a back track matrix packed into a flat short[] (or int[] for sequences longer than Short.MAX_VALUE).  The
+ * match / mismatch scores of every alternate base against each reference base are precomputed once (a query
+ * profile), which removes the base comparison from the inner loop.
+ *
+ * The calculation can also be restricted to a band of diagonals around an expected alignment offset, which makes it
+ * linear rather than quadratic in the length of the reference.  Cells outside of the band are never visited, so
+ * the banded alignment is the same as the full one only if the full one stays within the band.
+ *
+ * ************************************************************************
+ * ****                    IMPORTANT NOTE:                             ****
+ * ****  This class assumes that all bytes come from UPPERCASED chars! ****
+ * ************************************************************************
+ */
+public final class CompactSWPairwiseAlignment extends SWPairwiseAlignment {
+    /**
+     * Score of the cells outside of the band, low enough to never be part of an alignment but far enough from
+     * Integer.MIN_VALUE to not overflow when penalties are added to it
+     */
+    private static final int OUTSIDE_BAND = Integer.MIN_VALUE / 2;
+
+    private final int expectedOffset;
+    private final int bandWidth;
+
+    /**
+     * Create a new SW pairwise aligner, and align seq2 to seq1 over the full Smith-Waterman matrix
+     *
+     * @param seq1 the first sequence we want to align
+     * @param seq2 the second sequence we want to align
+     * @param parameters the SW parameters to use
+     */
+    public CompactSWPairwiseAlignment(final byte[] seq1, final byte[] seq2, final Parameters parameters) {
+        this(seq1, seq2, parameters, OVERHANG_STRATEGY.SOFTCLIP);
+    }
+
+    /**
+     * Create a new SW pairwise aligner, and align seq2 to seq1 over the full Smith-Waterman matrix
+     *
+     * @param seq1 the first sequence we want to align
+     * @param seq2 the second sequence we want to align
+     * @param parameters the SW parameters to use
+     * @param strategy   the overhang strategy to use
+     */
+    public CompactSWPairwiseAlignment(final byte[] seq1, final byte[] seq2, final SWParameterSet parameters, final OVERHANG_STRATEGY strategy) {
+        this(seq1, seq2, parameters.parameters, strategy);
+    }
+
+    /**
+     * Create a new SW pairwise aligner, and align seq2 to seq1 over the full Smith-Waterman matrix
+     *
+     * @param seq1 the first sequence we want to align
+     * @param seq2 the second sequence we want to align
+     * @param parameters the SW parameters to use
+     * @param strategy   the overhang strategy to use
+     */
+    public CompactSWPairwiseAlignment(final byte[] seq1, final byte[] seq2, final Parameters parameters, final OVERHANG_STRATEGY strategy) {
+        super(parameters);
+        overhang_strategy = strategy;
+        expectedOffset = 0;
+        bandWidth = -1;
+        align(seq1, seq2);
+    }
+
+    /**
+     * Create a new SW pairwise aligner, and align seq2 to seq1 within a band of diagonals
+     *
+     * Only the alignments that place each base of seq2 within bandWidth bases of its position according to
+     * expectedOffset are considered.
+     *
+     * @param seq1           the first sequence we want to align
+     * @param seq2           the second sequence we want to align
+     * @param parameters     the SW parameters to use
+     * @param strategy       the overhang strategy to use
+     * @param expectedOffset the expected start of seq2 in seq1, as would be returned by getAlignmentStart2wrt1()
+     * @param bandWidth      how far (in bases) the alignment may stray from the expected offset; must be >= 0
+     */
+    public CompactSWPairwiseAlignment(final byte[] seq1, final byte[] seq2, final Parameters parameters, final OVERHANG_STRATEGY strategy,
+                                      final int expectedOffset, final int bandWidth) {
+        super(parameters);
+        if ( bandWidth < 0 ) throw new IllegalArgumentException("bandWidth must be >= 0 but got " + bandWidth);
+        overhang_strategy = strategy;
+        this.expectedOffset = expectedOffset;
+        this.bandWidth = bandWidth;
+        align(seq1, seq2);
+    }
+
+    /**
+     * The cells (i, j) computed for row i of the matrix are those with firstColumn(i) <= j <= lastColumn(i)
+     */
+    private int firstColumn(final int row) {
+        return bandWidth < 0 ? 1 : (int) Math.max(1L, (long) row - expectedOffset - bandWidth);
+    }
+
+    private int lastColumn(final int row, final int ncol) {
+        return bandWidth < 0 ? ncol - 1 : (int) Math.min(ncol - 1L, (long) row - expectedOffset + bandWidth);
+    }
+
+    @Override
+    protected void align(final byte[] reference, final byte[] alternate) {
+        if ( reference == null || reference.length == 0 || alternate == null || alternate.length == 0 )
+            throw new IllegalArgumentException("Non-null, non-empty sequences are required for the Smith-Waterman calculation");
+
+        final int nrow = reference.length + 1;
+        final int ncol = alternate.length + 1;
+
+        if ( bandWidth >= 0 ) {
+            // the alignment has to end in the last column (or, with the INDEL strategy, in the corner)
+            final int lastRowOfBand = (int) Math.min(nrow - 1L, (long) ncol - 1 + expectedOffset + bandWidth);
+            final int firstRowOfBand = (int) Math.max(1L, (long) ncol - 1 + expectedOffset - bandWidth);
+            if ( firstRowOfBand > lastRowOfBand || (overhang_strategy == OVERHANG_STRATEGY.INDEL && lastRowOfBand != nrow - 1) )
+                throw new IllegalArgumentException("The band of width " + bandWidth + " around offset " + expectedOffset + " does not reach the end of the alignment of a "
+                        + alternate.length + " base sequence to a " + reference.length + " base sequence");
+        }
+
+        // the offset of each row in the flat back track matrix
+        final int[] rowStarts = new int[nrow + 1];
+        for ( int i = 1; i < nrow; i++ )
+            rowStarts[i + 1] = rowStarts[i] + Math.max(0, lastColumn(i, ncol) - firstColumn(i) + 1);
+        final int size = rowStarts[nrow];
+        final boolean useShorts = Math.max(nrow, ncol) <= Short.MAX_VALUE;
+        final short[] shortBackTrack = useShorts ? new short[size] : null;
+        final int[] intBackTrack = useShorts ? null : new int[size];
+
+        final int[] lastColumn = new int[nrow];
+        final int[] bottomRow = calculateMatrix(reference, alternate, rowStarts, shortBackTrack, intBackTrack, lastColumn);
+
+        alignmentResult = calculateCigar(lastColumn, bottomRow, new BackTrack() {
+            @Override
+            public int get(final int refIndex, final int altIndex) {
+                final int first = firstColumn(refIndex);
+                if ( altIndex < first || altIndex > lastColumn(refIndex, ncol) )
+                    return 0;
+                final int index = rowStarts[refIndex] + altIndex - first;
+                return useShorts ? shortBackTrack[index] : intBackTrack[index];
+            }
+        }, overhang_strategy);
+    }
+
+    /**
+     * Calculates the Smith-Waterman matrix, keeping only what is needed to compute the CIGAR
+     *
+     * This is the same calculation as SWPairwiseAlignment.calculateMatrix(), with the same tie breaking rules.
+     *
+     * @param reference      ref sequence
+     * @param alternate      alt sequence
+     * @param rowStarts      the offset of each row in the back track matrix
+     * @param shortBackTrack the back track matrix to populate, or null if intBackTrack should be used instead
+     * @param intBackTrack   the back track matrix to populate, or null if shortBackTrack should be used instead
+     * @param lastColumn     populated with the scores of the last column of the matrix
+     * @return the scores of the bottom row of the matrix
+     */
+    private int[] calculateMatrix(final byte[] reference, final byte[] alternate, final int[] rowStarts,
+                                  final short[] shortBackTrack, final int[] intBackTrack, final int[] lastColumn) {
+        final int nrow = reference.length + 1;
+        final int ncol = alternate.length + 1;
+        final int w_open = parameters.w_open;
+        final int w_extend = parameters.w_extend;
+        final int MATRIX_MIN_CUTOFF = cutoff ? 0 : (int) -1e8;
+        final boolean indelOverhangs = overhang_strategy == OVERHANG_STRATEGY.INDEL || overhang_strategy == OVERHANG_STRATEGY.LEADING_INDEL;
+
+        final int[][] profiles = new int[256][];
+
+        final int[] best_gap_v = new int[ncol + 1];
+        Arrays.fill(best_gap_v, Integer.MIN_VALUE / 2);
+        final int[] gap_size_v = new int[ncol + 1];
+
+        // row 0 is entirely on the edge of the matrix, so is never outside of the band
+        int[] lastRow = new int[ncol];
+        int[] curRow = new int[ncol];
+        if ( indelOverhangs ) {
+            int currentValue = w_open;
+            lastRow[1] = currentValue;
+            for ( int j = 2; j < ncol; j++ ) {
+                currentValue += w_extend;
+                lastRow[j] = currentValue;
+            }
+        }
+        if ( bandWidth >= 0 )
+            Arrays.fill(curRow, OUTSIDE_BAND);
+        lastColumn[0] = lastRow[ncol - 1];
+
+        int columnZero = 0;
+        for ( int i = 1; i < nrow; i++ ) {
+            final int first = firstColumn(i);
+            final int last = lastColumn(i, ncol);
+
+            // the first column is on the edge of the matrix too
+            if ( indelOverhangs )
+                columnZero = i == 1 ? w_open : columnZero + w_extend;
+            curRow[0] = columnZero;
+            if ( bandWidth >= 0 ) {
+                if ( first - 1 >= 1 && first - 1 < ncol ) curRow[first - 1] = OUTSIDE_BAND;
+                if ( last + 1 >= 1 && last + 1 < ncol ) curRow[last + 1] = OUTSIDE_BAND;
+            }
+
+            final int a_base = reference[i - 1] & 0xFF;
+            int[] profile = profiles[a_base];
+            if ( profile == null ) {
+                profile = new int[ncol];
+                for ( int j = 1; j < ncol; j++ )
+                    profile[j] = alternate[j - 1] == reference[i - 1] ? parameters.w_match : parameters.w_mismatch;
+                profiles[a_base] = profile;
+            }
+
+            int best_gap_h = Integer.MIN_VALUE / 2;
+            int gap_size_h = 0;
+            int index = rowStarts[i] - first;
+            for ( int j = first; j <= last; j++ ) {
+                final int step_diag = lastRow[j - 1] + profile[j];
+
+                // see SWPairwiseAlignment.calculateMatrix() for the details of the optimized gap calculations
+                int prev_gap = lastRow[j] + w_open;
+                best_gap_v[j] += w_extend;
+                if ( prev_gap > best_gap_v[j] ) {
+                    best_gap_v[j] = prev_gap;
+                    gap_size_v[j] = 1;
+                } else {
+                    gap_size_v[j]++;
+                }
+                final int step_down = best_gap_v[j];
+
+                prev_gap = curRow[j - 1] + w_open;
+                best_gap_h += w_extend;
+                if ( prev_gap > best_gap_h ) {
+                    best_gap_h = prev_gap;
+                    gap_size_h = 1;
+                } else {
+                    gap_size_h++;
+                }
+                final int step_right = best_gap_h;
+
+                //priority here will be step diagonal, step right, step down
+                final int score;
+                final int btr;
+                if ( step_diag >= step_down && step_diag >= step_right ) {
+                    score = step_diag;
+                    btr = 0;
+                } else if ( step_right >= step_down ) {
+                    score = step_right;
+                    btr = -gap_size_h; // negative = horizontal
+                } else {
+                    score = step_down;
+                    btr = gap_size_v[j]; // positive = vertical
+                }
+                curRow[j] = Math.max(MATRIX_MIN_CUTOFF, score);
+                if ( shortBackTrack != null )
+                    shortBackTrack[index + j] = (short) btr;
+                else
+                    intBackTrack[index + j] = btr;
+            }
+
+            lastColumn[i] = last == ncol - 1 && first <= last ? curRow[ncol - 1] : OUTSIDE_BAND;
+
+            final int[] tmp = lastRow;
+            lastRow = curRow;
+            curRow = tmp;
+        }
+
+        if ( bandWidth < 0 )
+            return lastRow;
+
+        // the bottom row may hold stale values outside of the band
+        final int[] bottomRow = new int[ncol];
+        Arrays.fill(bottomRow, OUTSIDE_BAND);
+        final int first = firstColumn(nrow - 1);
+        final int last = lastColumn(nrow - 1, ncol);
+        bottomRow[0] = lastRow[0];
+        if ( first <= last )
+            System.arraycopy(lastRow, first, bottomRow, first, last - first + 1);
+        return bottomRow;
+    }
+}
@@ -352,11 +352,44 @@ public class SWPairwiseAlignment implements SmithWaterman {
      * @return non-null SWPairwiseAlignmentResult object
      */
     protected SWPairwiseAlignmentResult calculateCigar(final int[][] sw, final int[][] btrack, final OVERHANG_STRATEGY overhang_strategy) {
+        final int[] lastColumn = new int[sw.length];
+        for ( int i = 0; i < sw.length; i++ )
+            lastColumn[i] = sw[i][sw[i].length - 1];
+
+        return calculateCigar(lastColumn, sw[sw.length - 1], new BackTrack() {
+            @Override
+            public int get(final int refIndex, final int altIndex) {
+                return btrack[refIndex][altIndex];
+            }
+        }, overhang_strategy);
+    }
+
+    /**
+     * Read access to the back track matrix, so that implementations are free to store it as they see fit.
+     *
+     * A value of 0 means a step along the diagonal, a positive value k a deletion of length k (a step up)
+     * and a negative value -k an insertion of length k (a step left).
+     */
+    protected interface BackTrack {
+        int get(final int refIndex, final int altIndex);
+    }
+
+    /**
+     * Calculates the CIGAR for the alignment from the last column and bottom row of the Smith-Waterman matrix,
+     * which is where the alignment may end, and the back track matrix
+     *
+     * @param lastColumn           the scores of the rightmost column of the Smith-Waterman matrix (i.e. for the last base of the alternate)
+     * @param bottomRow            the scores of the bottom row of the Smith-Waterman matrix (i.e. for the last base of the reference)
+     * @param btrack               the back track matrix to use
+     * @param overhang_strategy    the strategy to use for dealing with overhangs
+     * @return non-null SWPairwiseAlignmentResult object
+     */
+    protected SWPairwiseAlignmentResult calculateCigar(final int[] lastColumn, final int[] bottomRow, final BackTrack btrack, final OVERHANG_STRATEGY overhang_strategy) {
         // p holds the position we start backtracking from; we will be assembling a cigar in the backwards order
         int p1 = 0, p2 = 0;
 
-        int refLength = sw.length-1;
-        int altLength = sw[0].length-1;
+        int refLength = lastColumn.length-1;
+        int altLength = bottomRow.length-1;
 
         int maxscore = Integer.MIN_VALUE; // sw scores are allowed to be negative
         int segment_length = 0; // length of the segment (continuous matches, insertions or deletions)
@@ -372,8 +405,8 @@ public class SWPairwiseAlignment implements SmithWaterman {
             //excluding high scoring local alignments
             p2=altLength;
 
-            for(int i=1;i<sw.length;i++)  {
-               final int curScore = sw[i][altLength];
+            for(int i=1;i<lastColumn.length;i++)  {
+               final int curScore = lastColumn[i];
                if (curScore >= maxscore ) {
                     p1 = i;
                     maxscore = curScore;
@@ -381,7 +414,6 @@ public class SWPairwiseAlignment implements SmithWaterman {
             }
             // now look for a larger score on the bottom-most row
             if ( overhang_strategy != OVERHANG_STRATEGY.LEADING_INDEL ) {
-                final int[] bottomRow=sw[refLength];
                 for ( int j = 1 ; j < bottomRow.length; j++) {
                     int curScore=bottomRow[j];
                     // data_offset is the offset of [n][j]
@@ -406,7 +438,7 @@ public class SWPairwiseAlignment implements SmithWaterman {
 
         State state = State.MATCH;
         do {
-            int btr = btrack[p1][p2];
+            int btr = btrack.get(p1, p2);
             State new_state;
             int step_length = 1;
             if ( btr > 0 ) {
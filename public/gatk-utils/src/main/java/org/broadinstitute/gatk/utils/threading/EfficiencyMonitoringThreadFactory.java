@@ -107,8 +107,6 @@ public class EfficiencyMonitoringThreadFactory extends ThreadEfficiencyMonitor i
     })
     @Override
     public synchronized void threadIsDone(final Thread thread) {
-        nThreadsAnalyzed++;
-
         if ( DEBUG ) logger.warn("  Countdown " + countDownLatch.getCount() + " in thread " + Thread.currentThread().getName());
 
         super.threadIsDone(thread);
@@ -37,6 +37,8 @@ import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.util.EnumMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Uses an MXBean to monitor thread efficiency
@@ -46,20 +48,23 @@ import java.util.concurrent.TimeUnit;
  *
  * Provides simple print() for displaying efficiency information to a logger
  *
+ * The times are kept in striped counters rather than under a lock, so that the many threads
+ * of a highly parallel run can update them without contending with each other.
+ *
  * User: depristo
  * Date: 8/22/12
  * Time: 10:48 AM
  */
-@Invariant({"nThreadsAnalyzed >= 0"})
+@Invariant({"nThreadsAnalyzed.get() >= 0"})
 public class ThreadEfficiencyMonitor {
     protected static final boolean DEBUG = false;
     protected static Logger logger = Logger.getLogger(EfficiencyMonitoringThreadFactory.class);
-    final EnumMap<State, Long> times = new EnumMap<State, Long>(State.class);
+    final EnumMap<State, LongAdder> times = new EnumMap<State, LongAdder>(State.class);
 
     /**
      * The number of threads we've included in our efficiency monitoring
      */
-    int nThreadsAnalyzed = 0;
+    final AtomicInteger nThreadsAnalyzed = new AtomicInteger(0);
 
     /**
      * The bean used to get the thread info about blocked and waiting times
@@ -83,7 +88,7 @@ public class ThreadEfficiencyMonitor {
 
         // initialize times to 0
         for ( final State state : State.values() )
-            times.put(state, 0l);
+            times.put(state, new LongAdder());
     }
 
     private static long nanoToMilli(final long timeInNano) {
@@ -97,8 +102,8 @@ public class ThreadEfficiencyMonitor {
      * @return the time in milliseconds
      */
     @Ensures({"result >= 0"})
-    public synchronized long getStateTime(final State state) {
-        return times.get(state);
+    public long getStateTime(final State state) {
+        return times.get(state).sum();
     }
 
     /**
@@ -107,10 +112,10 @@ public class ThreadEfficiencyMonitor {
      * @return the time in milliseconds
      */
     @Ensures({"result >= 0"})
-    public synchronized long getTotalTime() {
+    public long getTotalTime() {
         long total = 0;
-        for ( final long time : times.values() )
-            total += time;
+        for ( final LongAdder time : times.values() )
+            total += time.sum();
         return total;
     }
 
@@ -120,16 +125,16 @@ public class ThreadEfficiencyMonitor {
      * @return the percentage (0.0-100.0) of time spent in state over all state times of all threads
      */
     @Ensures({"result >= 0.0", "result <= 100.0"})
-    public synchronized double getStatePercent(final State state) {
+    public double getStatePercent(final State state) {
         return (100.0 * getStateTime(state)) / Math.max(getTotalTime(), 1);
     }
 
     public int getnThreadsAnalyzed() {
-        return nThreadsAnalyzed;
+        return nThreadsAnalyzed.get();
     }
 
     @Override
-    public synchronized String toString() {
+    public String toString() {
         final StringBuilder b = new StringBuilder();
 
         b.append("total ").append(getTotalTime()).append(" ");
@@ -146,7 +151,7 @@ public class ThreadEfficiencyMonitor {
      *
      * @param logger
      */
-    public synchronized void printUsageInformation(final Logger logger) {
+    public void printUsageInformation(final Logger logger) {
         printUsageInformation(logger, Priority.INFO);
     }
 
@@ -156,7 +161,7 @@ public class ThreadEfficiencyMonitor {
      *
      * @param logger
      */
-    public synchronized void printUsageInformation(final Logger logger, final Priority priority) {
+    public void printUsageInformation(final Logger logger, final Priority priority) {
         logger.debug("Number of threads monitored: " + getnThreadsAnalyzed());
         logger.debug("Total runtime " + new AutoFormattingTime(TimeUnit.MILLISECONDS.toNanos(getTotalTime())));
         for ( final State state : State.values() ) {
@@ -179,8 +184,8 @@ public class ThreadEfficiencyMonitor {
     @Ensures({
             "getTotalTime() >= old(getTotalTime())"
     })
-    public synchronized void threadIsDone(final Thread thread) {
-        nThreadsAnalyzed++;
+    public void threadIsDone(final Thread thread) {
+        nThreadsAnalyzed.incrementAndGet();
 
         if ( DEBUG ) logger.warn("UpdateThreadInfo called");
 
@@ -208,9 +213,8 @@ public class ThreadEfficiencyMonitor {
      * @param by
      */
     @Requires({"state != null", "by >= 0"})
-    @Ensures("getTotalTime() == old(getTotalTime()) + by")
-    private synchronized void incTimes(final State state, final long by) {
-        times.put(state, times.get(state) + by);
+    private void incTimes(final State state, final long by) {
+        times.get(state).add(by);
     }
 
     public enum State {
@@ -0,0 +1,404 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.variant.jexl;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.apache.commons.jexl2.JexlArithmetic;
+
+/**
+ * A node of a compiled variant match expression
+ *
+ * Nodes evaluate with exactly the semantics that the JEXL interpreter gives the same expression against htsjdk's
+ * VariantJEXLContext / GenotypeJEXLContext: every operator goes through the engine's own JexlArithmetic, and the
+ * specialized evaluators only take shortcuts where JexlArithmetic is known to produce the same answer.  Whenever
+ * evaluation runs into something that JEXL would handle in an unusual way (an undefined variable, a failed
+ * conversion, ...) the node throws FALLBACK or lets the exception escape, and the whole expression is then
+ * re-evaluated by JEXL instead.
+ */
+abstract class ExpressionNode {
+    /**
+     * Thrown when the compiled expression can't be sure of giving the same answer as JEXL for this record
+     */
+    static final class FallbackToJexl extends RuntimeException {
+        private FallbackToJexl() {
+            super("Expression must be evaluated by JEXL", null, false, false);
+        }
+    }
+
+    static final FallbackToJexl FALLBACK = new FallbackToJexl();
+
+    /**
+     * Evaluate this node
+     *
+     * @param vc the variant context
+     * @param g  the genotype, or null when evaluating against the site only
+     * @return the value, boxed as the JEXL interpreter would box it
+     */
+    abstract Object evaluate(final VariantContext vc, final Genotype g);
+
+    /**
+     * Evaluate this node as a condition, as the JEXL interpreter does for the operands of &&, || and !
+     */
+    boolean test(final JexlArithmetic arithmetic, final VariantContext vc, final Genotype g) {
+        return arithmetic.toBoolean(evaluate(vc, g));
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Values
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    static final class Constant extends ExpressionNode {
+        final Object value;
+
+        Constant(final Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(final VariantContext vc, final Genotype g) {
+            return value;
+        }
+    }
+
+    static final class Variable extends ExpressionNode {
+        private final VariableBinding binding;
+        private final boolean genotype;
+
+        /**
+         * @param binding  how to look up the value of the variable
+         * @param genotype true if the expression is evaluated against genotypes, false if against sites
+         */
+        Variable(final VariableBinding binding, final boolean genotype) {
+            this.binding = binding;
+            this.genotype = genotype;
+        }
+
+        @Override
+        Object evaluate(final VariantContext vc, final Genotype g) {
+            final Object value = genotype ? binding.get(vc, g) : binding.get(vc);
+            if ( value == null )
+                throw FALLBACK; // an undefined variable, which JEXL reports in its own way
+            return value;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Logical operators
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    abstract static class BooleanNode extends ExpressionNode {
+        final JexlArithmetic arithmetic;
+
+        BooleanNode(final JexlArithmetic arithmetic) {
+            this.arithmetic = arithmetic;
+        }
+
+        abstract boolean test(final VariantContext vc, final Genotype g);
+
+        @Override
+        final Object evaluate(final VariantContext vc, final Genotype g) {
+            return test(vc, g) ? Boolean.TRUE : Boolean.FALSE;
+        }
+
+        @Override
+        final boolean test(final JexlArithmetic arithmetic, final VariantContext vc, final Genotype g) {
+            return test(vc, g);
+        }
+    }
+
+    static final class And extends BooleanNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        And(final JexlArithmetic arithmetic, final ExpressionNode left, final ExpressionNode right) {
+            super(arithmetic);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(final VariantContext vc, final Genotype g) {
+            return left.test(arithmetic, vc, g) && right.test(arithmetic, vc, g);
+        }
+    }
+
+    static final class Or extends BooleanNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Or(final JexlArithmetic arithmetic, final ExpressionNode left, final ExpressionNode right) {
+            super(arithmetic);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(final VariantContext vc, final Genotype g) {
+            return left.test(arithmetic, vc, g) || right.test(arithmetic, vc, g);
+        }
+    }
+
+    static final class Not extends BooleanNode {
+        private final ExpressionNode operand;
+
+        Not(final JexlArithmetic arithmetic, final ExpressionNode operand) {
+            super(arithmetic);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(final VariantContext vc, final Genotype g) {
+            return ! operand.test(arithmetic, vc, g);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Comparisons
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    enum ComparisonOperator {
+        EQ, NE, LT, LE, GT, GE;
+
+        /**
+         * @return the operator to use when the operands are swapped
+         */
+        ComparisonOperator swap() {
+            switch ( this ) {
+                case LT: return GT;
+                case LE: return GE;
+                case GT: return LT;
+                case GE: return LE;
+                default: return this;
+            }
+        }
+
+        /**
+         * @param comparison the result of comparing the left operand to the right one
+         * @return the result of the operator
+         */
+        boolean accept(final int comparison) {
+            switch ( this ) {
+                case EQ: return comparison == 0;
+                case NE: return comparison != 0;
+                case LT: return comparison < 0;
+                case LE: return comparison <= 0;
+                case GT: return comparison > 0;
+                default: return comparison >= 0;
+            }
+        }
+
+        boolean apply(final JexlArithmetic arithmetic, final Object left, final Object right) {
+            switch ( this ) {
+                case EQ: return arithmetic.equals(left, right);
+                case NE: return ! arithmetic.equals(left, right);
+                case LT: return arithmetic.lessThan(left, right);
+                case LE: return arithmetic.lessThanOrEqual(left, right);
+                case GT: return arithmetic.greaterThan(left, right);
+                default: return arithmetic.greaterThanOrEqual(left, right);
+            }
+        }
+    }
+
+    /**
+     * Any comparison, evaluated by the JexlArithmetic
+     */
+    static final class Comparison extends BooleanNode {
+        private final ComparisonOperator operator;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Comparison(final JexlArithmetic arithmetic, final ComparisonOperator operator, final ExpressionNode left, final ExpressionNode right) {
+            super(arithmetic);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(final VariantContext vc, final Genotype g) {
+            final Object leftValue = left.evaluate(vc, g);
+            final Object rightValue = right.evaluate(vc, g);
+            return operator.apply(arithmetic, leftValue, rightValue);
+        }
+    }
+
+    /**
+     * A comparison of a variable against a number literal, which is by far the most common kind of filter
+     *
+     * Values that are Integers, Longs, Doubles or Strings are compared using primitive arithmetic, following the same
+     * rules as JexlArithmetic.compare(): if either side is a Float or Double both sides are converted to doubles,
+     * otherwise both are converted to longs.  Other values are handed to the JexlArithmetic.
+     */
+    static final class NumberComparison extends BooleanNode {
+        private final ComparisonOperator operator;
+        private final ComparisonOperator valueOperator;
+        private final Variable variable;
+        private final Object literal;
+        private final boolean literalOnLeft;
+        private final boolean literalIsFloatingPoint;
+        private final double literalAsDouble;
+        private final long literalAsLong;
+
+        /**
+         * @param operator      the operator
+         * @param variable      the variable
+         * @param literal       the literal, which must be an Integer, Long, Float or Double
+         * @param literalOnLeft true if the literal is the left hand operand of the operator
+         */
+        NumberComparison(final JexlArithmetic arithmetic, final ComparisonOperator operator, final Variable variable,
+                         final Number literal, final boolean literalOnLeft) {
+            super(arithmetic);
+            if ( ! (literal instanceof Integer || literal instanceof Long || literal instanceof Float || literal instanceof Double) )
+                throw new IllegalArgumentException("Unsupported literal type " + literal.getClass());
+            this.operator = operator;
+            this.valueOperator = literalOnLeft ? operator.swap() : operator;
+            this.variable = variable;
+            this.literal = literal;
+            this.literalOnLeft = literalOnLeft;
+            this.literalIsFloatingPoint = literal instanceof Float || literal instanceof Double;
+            this.literalAsDouble = arithmetic.toDouble(literal);
+            this.literalAsLong = literal.longValue();
+        }
+
+        @Override
+        boolean test(final VariantContext vc, final Genotype g) {
+            final Object value = variable.evaluate(vc, g);
+
+            if ( value instanceof Double )
+                return compareDoubles((Double) value, value);
+            if ( value instanceof Integer || value instanceof Long ) {
+                return literalIsFloatingPoint ?
+                        compareDoubles(((Number) value).doubleValue(), value) :
+                        valueOperator.accept(Long.compare(((Number) value).longValue(), literalAsLong));
+            }
+            if ( value instanceof String ) {
+                final String string = (String) value;
+                if ( literalIsFloatingPoint ) {
+                    final String trimmed = string.trim();
+                    return trimmed.isEmpty() ? applyArithmetic(value) : compareDoubles(Double.parseDouble(trimmed), value);
+                }
+                return valueOperator.accept(Long.compare(string.isEmpty() ? 0 : Long.parseLong(string), literalAsLong));
+            }
+            return applyArithmetic(value);
+        }
+
+        private boolean compareDoubles(final double value, final Object boxedValue) {
+            if ( Double.isNaN(value) )
+                return applyArithmetic(boxedValue);
+            return valueOperator.accept(value < literalAsDouble ? -1 : (value > literalAsDouble ? 1 : 0));
+        }
+
+        private boolean applyArithmetic(final Object value) {
+            return literalOnLeft ? operator.apply(arithmetic, literal, value) : operator.apply(arithmetic, value, literal);
+        }
+    }
+
+    /**
+     * An equality test of a variable against a String literal, such as TYPE == "SNP" or GT == "0/1"
+     */
+    static final class StringEquality extends BooleanNode {
+        private final boolean equal;
+        private final Variable variable;
+        private final String literal;
+        private final boolean literalOnLeft;
+
+        StringEquality(final JexlArithmetic arithmetic, final boolean equal, final Variable variable, final String literal, final boolean literalOnLeft) {
+            super(arithmetic);
+            this.equal = equal;
+            this.variable = variable;
+            this.literal = literal;
+            this.literalOnLeft = literalOnLeft;
+        }
+
+        @Override
+        boolean test(final VariantContext vc, final Genotype g) {
+            final Object value = variable.evaluate(vc, g);
+            final boolean isEqual;
+            if ( value instanceof String )
+                isEqual = literal.equals(value);
+            else
+                isEqual = literalOnLeft ? arithmetic.equals(literal, value) : arithmetic.equals(value, literal);
+            return isEqual == equal;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Arithmetic
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    enum ArithmeticOperator { ADD, SUBTRACT, MULTIPLY, DIVIDE, MOD }
+
+    static final class Arithmetic extends ExpressionNode {
+        private final JexlArithmetic arithmetic;
+        private final ArithmeticOperator operator;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Arithmetic(final JexlArithmetic arithmetic, final ArithmeticOperator operator, final ExpressionNode left, final ExpressionNode right) {
+            this.arithmetic = arithmetic;
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final VariantContext vc, final Genotype g) {
+            final Object leftValue = left.evaluate(vc, g);
+            final Object rightValue = right.evaluate(vc, g);
+            switch ( operator ) {
+                case ADD: return arithmetic.add(leftValue, rightValue);
+                case SUBTRACT: return arithmetic.subtract(leftValue, rightValue);
+                case MULTIPLY: return arithmetic.multiply(leftValue, rightValue);
+                case DIVIDE: return arithmetic.divide(leftValue, rightValue);
+                default: return arithmetic.mod(leftValue, rightValue);
+            }
+        }
+    }
+
+    static final class Negate extends ExpressionNode {
+        private final JexlArithmetic arithmetic;
+        private final ExpressionNode operand;
+
+        Negate(final JexlArithmetic arithmetic, final ExpressionNode operand) {
+            this.arithmetic = arithmetic;
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate(final VariantContext vc, final Genotype g) {
+            return arithmetic.negate(operand.evaluate(vc, g));
+        }
+    }
+}
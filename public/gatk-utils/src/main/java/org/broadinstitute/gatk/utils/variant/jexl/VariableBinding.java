@@ -0,0 +1,230 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.variant.jexl;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * How a variable name in a match expression is bound to a value of a VariantContext or Genotype
+ *
+ * The bindings reproduce the lookups of htsjdk's VariantJEXLContext (for site expressions) and GenotypeJEXLContext
+ * (for genotype expressions), resolving the built-in names once when the expression is compiled rather than on
+ * every record.  When a VCF header is available, names it declares as INFO (or FORMAT) fields are looked up
+ * directly as attributes.  A binding returns null for an undefined variable, which tells the caller to let JEXL deal
+ * with the record.
+ */
+abstract class VariableBinding {
+    abstract Object get(final VariantContext vc);
+
+    abstract Object get(final VariantContext vc, final Genotype g);
+
+    /**
+     * Get the binding for a variable in expressions evaluated against a site
+     *
+     * @param name   the variable name
+     * @param header the VCF header, or null if not available
+     * @return a non-null binding
+     */
+    static VariableBinding forSite(final String name, final VCFHeader header) {
+        final VariableBinding builtIn = siteBuiltIn(name);
+        if ( builtIn != null )
+            return builtIn;
+        if ( header != null && header.getInfoHeaderLine(name) != null )
+            return new InfoAttribute(name);
+        return new SiteLookup(name);
+    }
+
+    /**
+     * Get the binding for a variable in expressions evaluated against a genotype
+     *
+     * @param name   the variable name
+     * @param header the VCF header, or null if not available
+     * @return a non-null binding
+     */
+    static VariableBinding forGenotype(final String name, final VCFHeader header) {
+        final VariableBinding builtIn = genotypeBuiltIn(name);
+        if ( builtIn != null )
+            return builtIn;
+        if ( header != null && header.getFormatHeaderLine(name) != null )
+            return new FormatAttribute(name);
+        return new GenotypeLookup(name, forSite(name, header));
+    }
+
+    /**
+     * A binding that only depends on the site
+     */
+    private abstract static class SiteBinding extends VariableBinding {
+        @Override
+        Object get(final VariantContext vc, final Genotype g) {
+            return get(vc);
+        }
+    }
+
+    /**
+     * A binding that only depends on the genotype
+     */
+    private abstract static class GenotypeBinding extends VariableBinding {
+        abstract Object get(final Genotype g);
+
+        @Override
+        Object get(final VariantContext vc) {
+            throw new IllegalStateException("Genotype variables can't be evaluated without a genotype");
+        }
+
+        @Override
+        Object get(final VariantContext vc, final Genotype g) {
+            return get(g);
+        }
+    }
+
+    private static String flag(final boolean value) {
+        return value ? "1" : "0";
+    }
+
+    /**
+     * @return the binding of one of the names that VariantJEXLContext defines itself, or null if name isn't one of them
+     */
+    private static VariableBinding siteBuiltIn(final String name) {
+        switch ( name ) {
+            case "vc": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc; } };
+            case "CHROM": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getChr(); } };
+            case "POS": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getStart(); } };
+            case "TYPE": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getType().toString(); } };
+            case "QUAL": return new SiteBinding() { @Override Object get(final VariantContext vc) { return -10.0 * vc.getLog10PError(); } };
+            case "ALLELES": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getAlleles(); } };
+            case "N_ALLELES": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getNAlleles(); } };
+            case "FILTER": return new SiteBinding() { @Override Object get(final VariantContext vc) { return flag(vc.isFiltered()); } };
+            case "homRefCount": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getHomRefCount(); } };
+            case "hetCount": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getHetCount(); } };
+            case "homVarCount": return new SiteBinding() { @Override Object get(final VariantContext vc) { return vc.getHomVarCount(); } };
+            default: return null;
+        }
+    }
+
+    /**
+     * @return the binding of one of the names that GenotypeJEXLContext defines itself, or null if name isn't one of them
+     */
+    private static VariableBinding genotypeBuiltIn(final String name) {
+        switch ( name ) {
+            case "g": return new GenotypeBinding() { @Override Object get(final Genotype g) { return g; } };
+            case "GT": return new GenotypeBinding() { @Override Object get(final Genotype g) { return g.getGenotypeString(); } };
+            case "isHom": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isHom()); } };
+            case "isHomRef": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isHomRef()); } };
+            case "isHet": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isHet()); } };
+            case "isHomVar": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isHomVar()); } };
+            case "isCalled": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isCalled()); } };
+            case "isNoCall": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isNoCall()); } };
+            case "isMixed": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isMixed()); } };
+            case "isAvailable": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(g.isAvailable()); } };
+            case "isPassFT": return new GenotypeBinding() { @Override Object get(final Genotype g) { return flag(! g.isFiltered()); } };
+            case "FT": return new GenotypeBinding() { @Override Object get(final Genotype g) { return g.isFiltered() ? g.getFilters() : "PASS"; } };
+            case "GQ": return new GenotypeBinding() { @Override Object get(final Genotype g) { return g.getGQ(); } };
+            default: return null;
+        }
+    }
+
+    /**
+     * A field declared in the INFO section of the header
+     */
+    private static final class InfoAttribute extends SiteBinding {
+        private final String name;
+
+        private InfoAttribute(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object get(final VariantContext vc) {
+            return vc.hasAttribute(name) ? vc.getAttribute(name) : null;
+        }
+    }
+
+    /**
+     * A field declared in the FORMAT section of the header
+     */
+    private static final class FormatAttribute extends GenotypeBinding {
+        private final String name;
+
+        private FormatAttribute(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object get(final Genotype g) {
+            return g.hasAnyAttribute(name) ? g.getAnyAttribute(name) : null;
+        }
+    }
+
+    /**
+     * Any other name at the site level: an INFO attribute, or the name of a filter applied to the site
+     */
+    private static final class SiteLookup extends SiteBinding {
+        private final String name;
+
+        private SiteLookup(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object get(final VariantContext vc) {
+            if ( vc.hasAttribute(name) )
+                return vc.getAttribute(name);
+            return vc.getFilters().contains(name) ? "1" : null;
+        }
+    }
+
+    /**
+     * Any other name at the genotype level: a genotype attribute, part of the genotype filters, or else a site level value
+     */
+    private static final class GenotypeLookup extends VariableBinding {
+        private final String name;
+        private final VariableBinding site;
+
+        private GenotypeLookup(final String name, final VariableBinding site) {
+            this.name = name;
+            this.site = site;
+        }
+
+        @Override
+        Object get(final VariantContext vc) {
+            return site.get(vc);
+        }
+
+        @Override
+        Object get(final VariantContext vc, final Genotype g) {
+            if ( g.hasAnyAttribute(name) )
+                return g.getAnyAttribute(name);
+            // an unfiltered genotype has null filters, so JEXL fails here; FALLBACK lets it do so in its own way
+            if ( g.getFilters() == null )
+                return null;
+            if ( g.getFilters().contains(name) )
+                return "1";
+            return site.get(vc);
+        }
+    }
+}
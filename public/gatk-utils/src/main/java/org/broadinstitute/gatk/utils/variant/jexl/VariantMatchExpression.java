@@ -0,0 +1,167 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.variant.jexl;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextUtils;
+import htsjdk.variant.vcf.VCFHeader;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JEXL variant match expression that can be evaluated either by the JEXL interpreter or by compiled evaluators
+ *
+ * Interpreting JEXL dominates the runtime of VariantFiltration and SelectVariants on VCFs with many samples,
+ * because every expression is re-interpreted (with a new JEXL context) for every record and every genotype.  When
+ * compiled, an expression is parsed once into a tree of specialized evaluators: built-in variables like QUAL or GQ
+ * are bound to their getters up front, header-declared INFO and FORMAT fields become direct attribute lookups,
+ * comparisons against number literals are done in primitive arithmetic, and && / || short-circuit without boxing.
+ *
+ * The compiled evaluators give exactly the results JEXL does.  Expressions using JEXL features that we don't
+ * compile (method calls such as vc.isSNP(), regular expressions, ...) are always interpreted, and a record for which
+ * the compiled evaluation meets anything out of the ordinary (an undefined variable, a value that can't be
+ * converted to a number, ...) is handed to JEXL so that it is reported or treated in the same way as before.
+ */
+public final class VariantMatchExpression {
+    private final static Logger logger = Logger.getLogger(VariantMatchExpression.class);
+
+    public final String name;
+    private final VariantContextUtils.JexlVCMatchExp jexl;
+
+    // the compiled expressions for sites and for genotypes, or null if the expression must be interpreted
+    private final ExpressionNode siteRoot;
+    private final ExpressionNode genotypeRoot;
+
+    private VariantMatchExpression(final VariantContextUtils.JexlVCMatchExp jexl, final ExpressionNode siteRoot, final ExpressionNode genotypeRoot) {
+        this.name = jexl.name;
+        this.jexl = jexl;
+        this.siteRoot = siteRoot;
+        this.genotypeRoot = genotypeRoot;
+    }
+
+    /**
+     * Create the match expressions for a list of JEXL expressions
+     *
+     * @param jexls   the JEXL expressions, as created by VariantContextUtils.initializeMatchExps()
+     * @param header  the header of the VCF the expressions will be evaluated against, used to bind variables to
+     *                INFO and FORMAT fields; may be null
+     * @param compile if true, compile the expressions that can be compiled; if false, all expressions are interpreted
+     * @return a list of match expressions, in the same order as jexls
+     */
+    public static List<VariantMatchExpression> create(final List<VariantContextUtils.JexlVCMatchExp> jexls, final VCFHeader header, final boolean compile) {
+        if ( jexls == null ) throw new IllegalArgumentException("jexls cannot be null");
+
+        final List<VariantMatchExpression> expressions = new ArrayList<VariantMatchExpression>(jexls.size());
+        for ( final VariantContextUtils.JexlVCMatchExp jexl : jexls )
+            expressions.add(compile ? compile(jexl, header) : new VariantMatchExpression(jexl, null, null));
+        return expressions;
+    }
+
+    private static VariantMatchExpression compile(final VariantContextUtils.JexlVCMatchExp jexl, final VCFHeader header) {
+        final JexlEngine engine = VariantContextUtils.engine.get();
+        final String expression = jexl.exp.getExpression();
+        try {
+            return new VariantMatchExpression(jexl,
+                    VariantMatchExpressionParser.parse(engine, header, false, expression),
+                    VariantMatchExpressionParser.parse(engine, header, true, expression));
+        } catch ( VariantMatchExpressionParser.UnsupportedExpressionException e ) {
+            logger.info(e.getMessage() + "; it will be interpreted by JEXL");
+            return new VariantMatchExpression(jexl, null, null);
+        }
+    }
+
+    /**
+     * @return the underlying JEXL expression
+     */
+    public VariantContextUtils.JexlVCMatchExp getJexlExpression() {
+        return jexl;
+    }
+
+    /**
+     * @return true if this expression is evaluated by compiled evaluators, false if it is interpreted by JEXL
+     */
+    public boolean isCompiled() {
+        return siteRoot != null;
+    }
+
+    /**
+     * Evaluate this expression against a site, with the same result as VariantContextUtils.match(vc, exp)
+     *
+     * @param vc the variant context
+     * @return true if the expression matches
+     */
+    public boolean match(final VariantContext vc) {
+        if ( siteRoot != null ) {
+            final Boolean result = evaluate(siteRoot, vc, null);
+            if ( result != null )
+                return result;
+        }
+        return VariantContextUtils.match(vc, jexl);
+    }
+
+    /**
+     * Evaluate this expression against a genotype, with the same result as VariantContextUtils.match(vc, g, exp)
+     *
+     * @param vc the variant context
+     * @param g  the genotype
+     * @return true if the expression matches
+     */
+    public boolean match(final VariantContext vc, final Genotype g) {
+        if ( genotypeRoot != null ) {
+            final Boolean result = evaluate(genotypeRoot, vc, g);
+            if ( result != null )
+                return result;
+        }
+        return VariantContextUtils.match(vc, g, jexl);
+    }
+
+    /**
+     * Evaluate a compiled expression
+     *
+     * @return the result of the expression, or null if it must be evaluated by JEXL instead
+     */
+    private static Boolean evaluate(final ExpressionNode root, final VariantContext vc, final Genotype g) {
+        try {
+            final Object value = root.evaluate(vc, g);
+            // JEXLMap treats a null result as no match, and fails on anything that isn't a Boolean
+            if ( value == null )
+                return Boolean.FALSE;
+            return value instanceof Boolean ? (Boolean) value : null;
+        } catch ( RuntimeException e ) {
+            // ExpressionNode.FALLBACK, or a failure that JEXL has its own way of reporting
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + jexl.exp.getExpression();
+    }
+}
@@ -0,0 +1,369 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.variant.jexl;
+
+import htsjdk.variant.vcf.VCFHeader;
+import org.apache.commons.jexl2.JexlArithmetic;
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses the subset of JEXL used by variant match expressions into a tree of ExpressionNodes
+ *
+ * The supported subset is: variables, number, string and boolean literals, parentheses, the logical operators
+ * (||, &&, ! and their word forms), the comparison operators (==, !=, <, <=, >, >= and their word forms) and the
+ * arithmetic operators (+, -, *, / and %).  The grammar follows JEXL's own, so that operators bind the same way.
+ * Anything else, such as method calls (vc.isSNP()), regular expression matches or the ternary operator, is
+ * rejected with an UnsupportedExpressionException.
+ *
+ * Literals are evaluated by the JEXL engine itself, so they get exactly the values (and boxed types) that they
+ * have when JEXL interprets the expression.
+ */
+final class VariantMatchExpressionParser {
+    /**
+     * Thrown when an expression uses JEXL syntax that we can't compile
+     */
+    static final class UnsupportedExpressionException extends Exception {
+        UnsupportedExpressionException(final String message) {
+            super(message);
+        }
+    }
+
+    private static final Set<String> RESERVED_WORDS = new HashSet<String>(Arrays.asList(
+            "or", "and", "not", "eq", "ne", "lt", "le", "gt", "ge", "div", "mod", "null", "true", "false",
+            "empty", "size", "new", "var", "if", "else", "for", "foreach", "while", "in", "return", "function"));
+
+    private enum TokenType { IDENTIFIER, NUMBER, STRING, OPERATOR, END }
+
+    private static final class Token {
+        final TokenType type;
+        final String text;
+
+        private Token(final TokenType type, final String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        boolean is(final String... operators) {
+            if ( type != TokenType.OPERATOR && type != TokenType.IDENTIFIER )
+                return false;
+            for ( final String operator : operators )
+                if ( text.equals(operator) )
+                    return true;
+            return false;
+        }
+    }
+
+    private final JexlEngine engine;
+    private final JexlArithmetic arithmetic;
+    private final VCFHeader header;
+    private final boolean genotype;
+    private final String expression;
+    private final List<Token> tokens;
+    private int position = 0;
+
+    /**
+     * @param engine     the JEXL engine that would otherwise evaluate the expression
+     * @param header     the VCF header of the records the expression will be evaluated against, or null if not available
+     * @param genotype   true if the expression will be evaluated against genotypes, false if against sites
+     * @param expression the expression
+     */
+    private VariantMatchExpressionParser(final JexlEngine engine, final VCFHeader header, final boolean genotype, final String expression)
+            throws UnsupportedExpressionException {
+        this.engine = engine;
+        this.arithmetic = engine.getArithmetic();
+        this.header = header;
+        this.genotype = genotype;
+        this.expression = expression;
+        this.tokens = tokenize(expression);
+    }
+
+    /**
+     * Parse an expression
+     *
+     * @param engine     the JEXL engine that would otherwise evaluate the expression
+     * @param header     the VCF header of the records the expression will be evaluated against, or null if not available
+     * @param genotype   true if the expression will be evaluated against genotypes, false if against sites
+     * @param expression the expression
+     * @return the root of the parsed expression
+     * @throws UnsupportedExpressionException if the expression uses syntax we don't support
+     */
+    static ExpressionNode parse(final JexlEngine engine, final VCFHeader header, final boolean genotype, final String expression)
+            throws UnsupportedExpressionException {
+        final VariantMatchExpressionParser parser = new VariantMatchExpressionParser(engine, header, genotype, expression);
+        final ExpressionNode root = parser.parseOr();
+        if ( parser.peek().type != TokenType.END )
+            throw parser.unsupported("unexpected '" + parser.peek().text + "'");
+        return root;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Tokenizer
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    private List<Token> tokenize(final String expression) throws UnsupportedExpressionException {
+        final List<Token> tokens = new ArrayList<Token>();
+        int i = 0;
+        while ( i < expression.length() ) {
+            final char c = expression.charAt(i);
+            final char next = i + 1 < expression.length() ? expression.charAt(i + 1) : 0;
+
+            if ( Character.isWhitespace(c) ) {
+                i++;
+            } else if ( isIdentifierStart(c) ) {
+                final int start = i;
+                while ( i < expression.length() && isIdentifierPart(expression.charAt(i)) )
+                    i++;
+                tokens.add(new Token(TokenType.IDENTIFIER, expression.substring(start, i)));
+            } else if ( isDigit(c) ) {
+                final int start = i;
+                i = skipDigits(expression, i);
+                if ( i + 1 < expression.length() && expression.charAt(i) == '.' && isDigit(expression.charAt(i + 1)) )
+                    i = skipDigits(expression, i + 1);
+                if ( i < expression.length() && (expression.charAt(i) == 'e' || expression.charAt(i) == 'E') ) {
+                    int exponent = i + 1;
+                    if ( exponent < expression.length() && (expression.charAt(exponent) == '+' || expression.charAt(exponent) == '-') )
+                        exponent++;
+                    if ( exponent < expression.length() && isDigit(expression.charAt(exponent)) )
+                        i = skipDigits(expression, exponent);
+                }
+                if ( i < expression.length() && "lLhHdDfFbB".indexOf(expression.charAt(i)) >= 0 )
+                    i++;
+                if ( i < expression.length() && (isIdentifierPart(expression.charAt(i)) || expression.charAt(i) == '.') )
+                    throw unsupported("unsupported number format at position " + start);
+                tokens.add(new Token(TokenType.NUMBER, expression.substring(start, i)));
+            } else if ( c == '"' || c == '\'' ) {
+                final int start = i++;
+                while ( i < expression.length() && expression.charAt(i) != c ) {
+                    if ( expression.charAt(i) == '\n' || expression.charAt(i) == '\r' )
+                        throw unsupported("line break in string literal");
+                    i += expression.charAt(i) == '\\' ? 2 : 1;
+                }
+                if ( i >= expression.length() )
+                    throw unsupported("unterminated string literal");
+                tokens.add(new Token(TokenType.STRING, expression.substring(start, ++i)));
+            } else if ( (c == '|' && next == '|') || (c == '&' && next == '&') || (c == '=' && next == '=') ||
+                        (c == '!' && next == '=') || (c == '<' && next == '=') || (c == '>' && next == '=') ) {
+                tokens.add(new Token(TokenType.OPERATOR, expression.substring(i, i + 2)));
+                i += 2;
+            } else if ( (c == '!' && next != '~') || (c == '/' && next != '/' && next != '*') || "<>+-*%()".indexOf(c) >= 0 ) {
+                tokens.add(new Token(TokenType.OPERATOR, String.valueOf(c)));
+                i++;
+            } else {
+                throw unsupported("unsupported character '" + c + "' at position " + i);
+            }
+        }
+        tokens.add(new Token(TokenType.END, "end of expression"));
+        return tokens;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(final char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    private static int skipDigits(final String expression, int i) {
+        while ( i < expression.length() && isDigit(expression.charAt(i)) )
+            i++;
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Parser
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    private Token peek() {
+        return tokens.get(position);
+    }
+
+    private Token next() {
+        return tokens.get(position++);
+    }
+
+    private UnsupportedExpressionException unsupported(final String reason) {
+        return new UnsupportedExpressionException("Expression \"" + expression + "\" can't be compiled: " + reason);
+    }
+
+    private ExpressionNode parseOr() throws UnsupportedExpressionException {
+        ExpressionNode left = parseAnd();
+        while ( peek().is("||", "or") ) {
+            next();
+            left = new ExpressionNode.Or(arithmetic, left, parseAnd());
+        }
+        return left;
+    }
+
+    private ExpressionNode parseAnd() throws UnsupportedExpressionException {
+        ExpressionNode left = parseEquality();
+        while ( peek().is("&&", "and") ) {
+            next();
+            left = new ExpressionNode.And(arithmetic, left, parseEquality());
+        }
+        return left;
+    }
+
+    // like JEXL, comparisons don't chain: a < b < c is not an expression
+
+    private ExpressionNode parseEquality() throws UnsupportedExpressionException {
+        final ExpressionNode left = parseRelational();
+        if ( peek().is("==", "eq") ) {
+            next();
+            return comparison(ExpressionNode.ComparisonOperator.EQ, left, parseRelational());
+        } else if ( peek().is("!=", "ne") ) {
+            next();
+            return comparison(ExpressionNode.ComparisonOperator.NE, left, parseRelational());
+        }
+        return left;
+    }
+
+    private ExpressionNode parseRelational() throws UnsupportedExpressionException {
+        final ExpressionNode left = parseAdditive();
+        final ExpressionNode.ComparisonOperator operator;
+        if ( peek().is("<", "lt") )
+            operator = ExpressionNode.ComparisonOperator.LT;
+        else if ( peek().is("<=", "le") )
+            operator = ExpressionNode.ComparisonOperator.LE;
+        else if ( peek().is(">", "gt") )
+            operator = ExpressionNode.ComparisonOperator.GT;
+        else if ( peek().is(">=", "ge") )
+            operator = ExpressionNode.ComparisonOperator.GE;
+        else
+            return left;
+        next();
+        return comparison(operator, left, parseAdditive());
+    }
+
+    private ExpressionNode parseAdditive() throws UnsupportedExpressionException {
+        ExpressionNode left = parseMultiplicative();
+        while ( peek().is("+", "-") ) {
+            final ExpressionNode.ArithmeticOperator operator = next().text.equals("+") ?
+                    ExpressionNode.ArithmeticOperator.ADD : ExpressionNode.ArithmeticOperator.SUBTRACT;
+            left = new ExpressionNode.Arithmetic(arithmetic, operator, left, parseMultiplicative());
+        }
+        return left;
+    }
+
+    private ExpressionNode parseMultiplicative() throws UnsupportedExpressionException {
+        ExpressionNode left = parseUnary();
+        while ( peek().is("*", "/", "div", "%", "mod") ) {
+            final String text = next().text;
+            final ExpressionNode.ArithmeticOperator operator = text.equals("*") ? ExpressionNode.ArithmeticOperator.MULTIPLY :
+                    (text.equals("/") || text.equals("div") ? ExpressionNode.ArithmeticOperator.DIVIDE : ExpressionNode.ArithmeticOperator.MOD);
+            left = new ExpressionNode.Arithmetic(arithmetic, operator, left, parseUnary());
+        }
+        return left;
+    }
+
+    private ExpressionNode parseUnary() throws UnsupportedExpressionException {
+        if ( peek().is("!", "not") ) {
+            next();
+            return new ExpressionNode.Not(arithmetic, parseUnary());
+        }
+        if ( peek().is("-") ) {
+            next();
+            // JEXL keeps the literal's type when negating a number literal, so let it evaluate those
+            if ( peek().type == TokenType.NUMBER )
+                return new ExpressionNode.Constant(evaluateLiteral("-" + next().text));
+            return new ExpressionNode.Negate(arithmetic, parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private ExpressionNode parsePrimary() throws UnsupportedExpressionException {
+        final Token token = next();
+        switch ( token.type ) {
+            case NUMBER:
+            case STRING:
+                return new ExpressionNode.Constant(evaluateLiteral(token.text));
+            case IDENTIFIER:
+                if ( token.text.equals("true") )
+                    return new ExpressionNode.Constant(Boolean.TRUE);
+                if ( token.text.equals("false") )
+                    return new ExpressionNode.Constant(Boolean.FALSE);
+                if ( token.text.equals("null") )
+                    return new ExpressionNode.Constant(null);
+                if ( RESERVED_WORDS.contains(token.text) )
+                    throw unsupported("unsupported keyword '" + token.text + "'");
+                return new ExpressionNode.Variable(
+                        genotype ? VariableBinding.forGenotype(token.text, header) : VariableBinding.forSite(token.text, header), genotype);
+            default:
+                if ( token.is("(") ) {
+                    final ExpressionNode inner = parseOr();
+                    if ( ! next().is(")") )
+                        throw unsupported("expected ')'");
+                    return inner;
+                }
+                throw unsupported("unexpected '" + token.text + "'");
+        }
+    }
+
+    /**
+     * Choose the evaluator for a comparison, depending on what is being compared
+     */
+    private ExpressionNode comparison(final ExpressionNode.ComparisonOperator operator, final ExpressionNode left, final ExpressionNode right) {
+        final boolean literalOnLeft = left instanceof ExpressionNode.Constant && right instanceof ExpressionNode.Variable;
+        final ExpressionNode variable = literalOnLeft ? right : left;
+        final ExpressionNode literal = literalOnLeft ? left : right;
+
+        if ( variable instanceof ExpressionNode.Variable && literal instanceof ExpressionNode.Constant ) {
+            final Object value = ((ExpressionNode.Constant) literal).value;
+            if ( value instanceof Integer || value instanceof Long || value instanceof Float || value instanceof Double )
+                return new ExpressionNode.NumberComparison(arithmetic, operator, (ExpressionNode.Variable) variable, (Number) value, literalOnLeft);
+            if ( value instanceof String && (operator == ExpressionNode.ComparisonOperator.EQ || operator == ExpressionNode.ComparisonOperator.NE) )
+                return new ExpressionNode.StringEquality(arithmetic, operator == ExpressionNode.ComparisonOperator.EQ, (ExpressionNode.Variable) variable, (String) value, literalOnLeft);
+        }
+        return new ExpressionNode.Comparison(arithmetic, operator, left, right);
+    }
+
+    private Object evaluateLiteral(final String text) throws UnsupportedExpressionException {
+        final Object value;
+        try {
+            value = engine.createExpression(text).evaluate(new MapContext());
+        } catch ( Exception e ) {
+            throw unsupported("JEXL can't evaluate the literal " + text);
+        }
+        if ( ! (value instanceof Number || value instanceof String) )
+            throw unsupported("unexpected value for the literal " + text);
+        return value;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caliper microbenchmark of the cached vs. memory mapped modes of CachingIndexedFastaSequenceFile
+ *
+ * Each thread walks its own part of the genome, mimicking -nct threads working on different active regions.
+ */
+public class CachingIndexedFastaSequenceFileBenchmark extends SimpleBenchmark {
+    private static final int QUERIES_PER_THREAD = 10000;
+
+    @Param({"CACHED", "MEMORY_MAPPED"})
+    CachingIndexedFastaSequenceFile.AccessMode accessMode; // set automatically by framework
+
+    @Param({"1", "8"})
+    int nThreads; // set automatically by framework
+
+    @Param({"100", "1000"})
+    int querySize; // set automatically by framework
+
+    private CachingIndexedFastaSequenceFile seq;
+    private ExecutorService executor;
+    private final List<SAMSequenceRecord> contigs = new ArrayList<SAMSequenceRecord>();
+
+    @Override protected void setUp() throws Exception {
+        seq = new CachingIndexedFastaSequenceFile(new File(BaseTest.b37KGReference), CachingIndexedFastaSequenceFile.DEFAULT_CACHE_SIZE, false, false, accessMode, true);
+        for ( final SAMSequenceRecord contig : seq.getSequenceDictionary().getSequences() )
+            if ( contig.getSequenceLength() > 10 * CachingIndexedFastaSequenceFile.DEFAULT_CACHE_SIZE )
+                contigs.add(contig);
+        executor = Executors.newFixedThreadPool(nThreads);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void timeWalkingThreads(int rep) throws Exception {
+        for ( int i = 0; i < rep; i++ ) {
+            final List<Callable<Long>> walkers = new ArrayList<Callable<Long>>(nThreads);
+            for ( int t = 0; t < nThreads; t++ ) {
+                final Random random = new Random(t);
+                walkers.add(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        // walk forward through a random contig, jumping somewhere else every so often
+                        long nBases = 0;
+                        SAMSequenceRecord contig = null;
+                        long start = 0;
+                        for ( int q = 0; q < QUERIES_PER_THREAD; q++ ) {
+                            if ( contig == null || q % 100 == 0 || start + querySize > contig.getSequenceLength() ) {
+                                contig = contigs.get(random.nextInt(contigs.size()));
+                                start = 1 + random.nextInt(contig.getSequenceLength() - 2 * querySize);
+                            }
+                            nBases += seq.getSubsequenceAt(contig.getSequenceName(), start, start + querySize - 1).length();
+                            start += querySize / 2;
+                        }
+                        return nBases;
+                    }
+                });
+            }
+            executor.invokeAll(walkers);
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(CachingIndexedFastaSequenceFileBenchmark.class, args);
+    }
+}
@@ -31,6 +31,7 @@ package org.broadinstitute.gatk.utils.fasta;
 
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.SAMException;
 import htsjdk.samtools.SAMSequenceRecord;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Priority;
@@ -47,8 +48,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Basic unit test for CachingIndexedFastaSequenceFile
@@ -261,4 +264,91 @@ public class CachingIndexedFastaSequenceFileUnitTest extends BaseTest {
             fetchBaseString(fasta, contig.getSequenceName(), -1, -1);
         }
     }
+
+    @DataProvider(name = "MemoryMappedFastaTest")
+    public Object[][] createMemoryMappedFastaTest() {
+        List<Object[]> params = new ArrayList<Object[]>();
+        for ( final File fasta : Arrays.asList(simpleFasta, new File(exampleFASTA)) )
+            for ( final int querySize : QUERY_SIZES )
+                for ( final int nt : Arrays.asList(1, 4) )
+                    params.add(new Object[]{fasta, querySize, nt});
+        return params.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "MemoryMappedFastaTest", enabled = true && ! DEBUG, timeOut = 60000)
+    public void testMemoryMappedMatchesUncached(final File fasta, final int querySize, final int nt) throws FileNotFoundException, InterruptedException {
+        final CachingIndexedFastaSequenceFile mapped = new CachingIndexedFastaSequenceFile(fasta, CachingIndexedFastaSequenceFile.DEFAULT_CACHE_SIZE, true, true,
+                CachingIndexedFastaSequenceFile.AccessMode.MEMORY_MAPPED, nt > 1);
+        Assert.assertEquals(mapped.getAccessMode(), CachingIndexedFastaSequenceFile.AccessMode.MEMORY_MAPPED);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nt);
+        final Collection<Callable<Long>> tasks = new ArrayList<Callable<Long>>(nt);
+        for ( int i = 0; i < nt; i++ )
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    final IndexedFastaSequenceFile uncached = new IndexedFastaSequenceFile(fasta);
+                    long nBases = 0;
+                    for ( final SAMSequenceRecord contig : uncached.getSequenceDictionary().getSequences() ) {
+                        for ( int start = 0; start + querySize <= contig.getSequenceLength(); start += 7 ) {
+                            final ReferenceSequence mappedVal = mapped.getSubsequenceAt(contig.getSequenceName(), start, start + querySize);
+                            final ReferenceSequence uncachedVal = uncached.getSubsequenceAt(contig.getSequenceName(), start, start + querySize);
+
+                            Assert.assertEquals(mappedVal.getName(), uncachedVal.getName());
+                            Assert.assertEquals(mappedVal.getContigIndex(), uncachedVal.getContigIndex());
+                            Assert.assertEquals(mappedVal.getBases(), uncachedVal.getBases());
+                            nBases += mappedVal.length();
+                        }
+                    }
+                    return nBases;
+                }
+            });
+
+        long totalBases = 0;
+        for ( final Future<Long> result : executor.invokeAll(tasks) ) {
+            try {
+                totalBases += result.get();
+            } catch ( ExecutionException e ) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        executor.shutdownNow();
+
+        // there is no cache to hit or miss
+        Assert.assertEquals(mapped.getCacheMisses(), 0);
+        Assert.assertEquals(mapped.getCacheHits(), 0);
+        Assert.assertTrue(mapped.getUncachedQueries() > 0);
+        Assert.assertEquals(mapped.getBytesCopied(), totalBases);
+    }
+
+    @Test(enabled = true)
+    public void testMemoryMappedCasesAndIupac() throws FileNotFoundException {
+        final IndexedFastaSequenceFile original = new IndexedFastaSequenceFile(new File(exampleFASTA));
+        final CachingIndexedFastaSequenceFile cached = new CachingIndexedFastaSequenceFile(new File(exampleFASTA));
+        final CachingIndexedFastaSequenceFile mapped = CachingIndexedFastaSequenceFile.checkAndCreate(new File(exampleFASTA),
+                CachingIndexedFastaSequenceFile.AccessMode.MEMORY_MAPPED, false);
+        Assert.assertTrue(mapped.isUppercasingBases());
+
+        int nMixedCase = 0;
+        for ( final SAMSequenceRecord contig : original.getSequenceDictionary().getSequences() ) {
+            final int step = 100;
+            for ( int lastPos = step; lastPos < contig.getSequenceLength(); lastPos += step ) {
+                final String orig = fetchBaseString(original, contig.getSequenceName(), lastPos - step, lastPos);
+                final String mappedBases = fetchBaseString(mapped, contig.getSequenceName(), lastPos - step, lastPos);
+                Assert.assertEquals(mappedBases, fetchBaseString(cached, contig.getSequenceName(), lastPos - step, lastPos));
+                Assert.assertEquals(mappedBases, mappedBases.toUpperCase());
+                if ( ! orig.equals(orig.toUpperCase()) ) nMixedCase++;
+            }
+        }
+
+        Assert.assertTrue(nMixedCase > 0, "No mixed cases sequences found in file.  Unexpected test state");
+    }
+
+    @Test(enabled = true, expectedExceptions = {SAMException.class})
+    public void testMemoryMappedQueryPastEndOfContig() throws FileNotFoundException {
+        final CachingIndexedFastaSequenceFile mapped = CachingIndexedFastaSequenceFile.checkAndCreate(new File(exampleFASTA),
+                CachingIndexedFastaSequenceFile.AccessMode.MEMORY_MAPPED, false);
+        final SAMSequenceRecord contig = mapped.getSequenceDictionary().getSequence(0);
+        mapped.getSubsequenceAt(contig.getSequenceName(), 1, contig.getSequenceLength() + 1);
+    }
 }
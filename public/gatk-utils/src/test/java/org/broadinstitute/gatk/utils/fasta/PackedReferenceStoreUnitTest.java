@@ -0,0 +1,175 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.fasta;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import org.apache.commons.io.FileUtils;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.BaseUtils;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that the packed reference gives back exactly the bases of the FASTA, upper cased and with IUPAC bases as Ns
+ */
+public class PackedReferenceStoreUnitTest extends BaseTest {
+    private static final List<Integer> CONTIG_LENGTHS = Arrays.asList(1, 3, 4, 5, 61, 1001, 5000);
+    private static final String BASES = "ACGTACGTACGTacgtNnRYKMSWnN";
+    private static final int LINE_LENGTH = 60;
+
+    private File tempDir;
+    private File fasta;
+
+    @BeforeClass
+    public void writeFasta() throws IOException {
+        tempDir = IOUtils.tempDir("PackedReferenceStoreUnitTest", "");
+        fasta = new File(tempDir, "packed.fasta");
+
+        // a FASTA with odd length contigs, lower case bases, IUPAC bases and runs of Ns, along with its .fai and .dict
+        final Random random = new Random(42);
+        final StringBuilder fastaText = new StringBuilder(), faiText = new StringBuilder(), dictText = new StringBuilder("@HD\tVN:1.0\n");
+        for ( int i = 0; i < CONTIG_LENGTHS.size(); i++ ) {
+            final String name = "contig" + i;
+            final int length = CONTIG_LENGTHS.get(i);
+            fastaText.append('>').append(name).append('\n');
+            faiText.append(String.format("%s\t%d\t%d\t%d\t%d%n", name, length, fastaText.length(), LINE_LENGTH, LINE_LENGTH + 1));
+            dictText.append(String.format("@SQ\tSN:%s\tLN:%d%n", name, length));
+            for ( int pos = 0; pos < length; pos++ ) {
+                // every so often put in a long run of Ns spanning several packed bytes
+                fastaText.append(pos % 1000 >= 500 && pos % 1000 < 530 ? 'N' : BASES.charAt(random.nextInt(BASES.length())));
+                if ( (pos + 1) % LINE_LENGTH == 0 || pos == length - 1 ) fastaText.append('\n');
+            }
+        }
+
+        FileUtils.writeStringToFile(fasta, fastaText.toString());
+        FileUtils.writeStringToFile(new File(fasta.getAbsolutePath() + ".fai"), faiText.toString());
+        FileUtils.writeStringToFile(new File(tempDir, "packed.dict"), dictText.toString());
+    }
+
+    @AfterClass
+    public void deleteFasta() {
+        FileUtils.deleteQuietly(tempDir);
+    }
+
+    private byte[] getExpectedBases(final IndexedFastaSequenceFile uncached, final String contig, final long start, final long stop) {
+        final byte[] bases = uncached.getSubsequenceAt(contig, start, stop).getBases();
+        for ( int i = 0; i < bases.length; i++ )
+            bases[i] = (byte)Character.toUpperCase(bases[i]);
+        return BaseUtils.convertIUPACtoN(bases, false, false);
+    }
+
+    @DataProvider(name = "QuerySizes")
+    public Object[][] createQuerySizes() {
+        final List<Object[]> params = new ArrayList<Object[]>();
+        for ( final int querySize : Arrays.asList(1, 2, 5, 17, 100) )
+            params.add(new Object[]{querySize});
+        return params.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "QuerySizes")
+    public void testPackedMatchesUncached(final int querySize) throws FileNotFoundException {
+        final CachingIndexedFastaSequenceFile packed = CachingIndexedFastaSequenceFile.checkAndCreate(fasta, CachingIndexedFastaSequenceFile.AccessMode.PACKED, false);
+        final PackedReferenceStore store = packed.getPackedStore();
+        Assert.assertNotNull(store);
+        Assert.assertEquals(store.getNumContigs(), CONTIG_LENGTHS.size());
+        Assert.assertTrue(PackedReferenceStore.getPackedFile(fasta).exists());
+
+        final IndexedFastaSequenceFile uncached = new IndexedFastaSequenceFile(fasta);
+        for ( final SAMSequenceRecord contig : uncached.getSequenceDictionary().getSequences() ) {
+            final int contigIndex = store.getContigIndex(contig.getSequenceName());
+            Assert.assertEquals(contigIndex, contig.getSequenceIndex());
+            Assert.assertEquals(store.getContigLength(contigIndex), contig.getSequenceLength());
+
+            for ( int start = 1; start + querySize - 1 <= contig.getSequenceLength(); start++ ) {
+                final int stop = start + querySize - 1;
+                final byte[] expected = getExpectedBases(uncached, contig.getSequenceName(), start, stop);
+                Assert.assertEquals(new String(packed.getSubsequenceAt(contig.getSequenceName(), start, stop).getBases()), new String(expected),
+                        String.format("Bases differ at %s:%d-%d", contig.getSequenceName(), start, stop));
+                Assert.assertEquals(store.getBase(contigIndex, start), expected[0]);
+            }
+        }
+    }
+
+    @Test
+    public void testCopyBasesAtOffset() {
+        final CachingIndexedFastaSequenceFile packed = CachingIndexedFastaSequenceFile.checkAndCreate(fasta, CachingIndexedFastaSequenceFile.AccessMode.PACKED, false);
+        final PackedReferenceStore store = packed.getPackedStore();
+        final int contigIndex = store.getNumContigs() - 1;
+
+        final byte[] dest = new byte[20];
+        Arrays.fill(dest, (byte)'x');
+        // the run of Ns starts at 501
+        store.copyBases(contigIndex, 496, 505, dest, 5);
+        Assert.assertEquals(new String(dest), "xxxxx" + new String(store.getBases(contigIndex, 496, 505)) + "xxxxx");
+        Assert.assertEquals(new String(dest, 10, 5), "NNNNN");
+    }
+
+    @Test(expectedExceptions = {SAMException.class})
+    public void testQueryPastEndOfContig() {
+        final CachingIndexedFastaSequenceFile packed = CachingIndexedFastaSequenceFile.checkAndCreate(fasta, CachingIndexedFastaSequenceFile.AccessMode.PACKED, false);
+        final SAMSequenceRecord contig = packed.getSequenceDictionary().getSequence(0);
+        packed.getSubsequenceAt(contig.getSequenceName(), 1, contig.getSequenceLength() + 1);
+    }
+
+    @Test
+    public void testNonIUPACBaseIsRejected() throws IOException {
+        final File badFasta = new File(tempDir, "bad.fasta");
+        FileUtils.writeStringToFile(badFasta, ">bad\nACGTN!ACGT\n");
+        FileUtils.writeStringToFile(new File(badFasta.getAbsolutePath() + ".fai"), "bad\t10\t5\t10\t11\n");
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("bad", 10)));
+        final File packedFile = PackedReferenceStore.getPackedFile(badFasta);
+
+        try {
+            PackedReferenceStore.build(badFasta, dictionary, packedFile);
+            Assert.fail("Packing a reference with a non-IUPAC base should fail");
+        } catch ( UserException.BadInput e ) {
+            // expected, just as for CachingIndexedFastaSequenceFile
+        }
+        Assert.assertFalse(packedFile.exists());
+    }
+
+    @Test(expectedExceptions = {IllegalArgumentException.class})
+    public void testPackedCannotPreserveCase() throws FileNotFoundException {
+        new CachingIndexedFastaSequenceFile(fasta, CachingIndexedFastaSequenceFile.DEFAULT_CACHE_SIZE, true, false,
+                CachingIndexedFastaSequenceFile.AccessMode.PACKED, false);
+    }
+}
@@ -105,8 +105,13 @@ public class NanoSchedulerUnitTest extends BaseTest {
     private static class NanoSchedulerBasicTest extends TestDataProvider {
         final int bufferSize, nThreads, start, end, expectedResult;
         final boolean addDelays;
+        final NanoScheduler.Engine engine;
 
         public NanoSchedulerBasicTest(final int bufferSize, final int nThreads, final int start, final int end, final boolean addDelays) {
+            this(bufferSize, nThreads, start, end, addDelays, NanoScheduler.Engine.MASTER_THREAD);
+        }
+
+        public NanoSchedulerBasicTest(final int bufferSize, final int nThreads, final int start, final int end, final boolean addDelays, final NanoScheduler.Engine engine) {
             super(NanoSchedulerBasicTest.class);
             this.bufferSize = bufferSize;
             this.nThreads = nThreads;
@@ -114,8 +119,9 @@ public class NanoSchedulerUnitTest extends BaseTest {
             this.end = end;
             this.expectedResult = sum2x(start, end);
             this.addDelays = addDelays;
-            setName(String.format("%s nt=%d buf=%d start=%d end=%d sum=%d delays=%b",
-                    getClass().getSimpleName(), nThreads, bufferSize, start, end, expectedResult, addDelays));
+            this.engine = engine;
+            setName(String.format("%s nt=%d buf=%d start=%d end=%d sum=%d delays=%b engine=%s",
+                    getClass().getSimpleName(), nThreads, bufferSize, start, end, expectedResult, addDelays, engine));
         }
 
         public Iterator<Integer> makeReader() {
@@ -137,9 +143,9 @@ public class NanoSchedulerUnitTest extends BaseTest {
         public NanoScheduler<Integer, Integer, Integer> makeScheduler() {
             final NanoScheduler <Integer, Integer, Integer> nano;
             if ( bufferSize == -1 )
-                nano = new NanoScheduler<Integer, Integer, Integer>(nThreads);
+                nano = new NanoScheduler<Integer, Integer, Integer>(nThreads, engine);
             else
-                nano = new NanoScheduler<Integer, Integer, Integer>(bufferSize, nThreads);
+                nano = new NanoScheduler<Integer, Integer, Integer>(bufferSize, nThreads, engine);
 
             nano.setDebug(debug);
             return nano;
@@ -172,8 +178,10 @@ public class NanoSchedulerUnitTest extends BaseTest {
                 for ( final int start : Arrays.asList(0) ) {
                     for ( final int end : Arrays.asList(0, 1, 2, 11, 100, 10000, 100000) ) {
                         for ( final boolean addDelays : Arrays.asList(true, false) ) {
-                            if ( end < 1000 )
-                                new NanoSchedulerBasicTest(bufferSize, nt, start, end, addDelays);
+                            for ( final NanoScheduler.Engine engine : NanoScheduler.Engine.values() ) {
+                                if ( end < 1000 )
+                                    new NanoSchedulerBasicTest(bufferSize, nt, start, end, addDelays, engine);
+                            }
                         }
                     }
                 }
@@ -249,6 +257,71 @@ public class NanoSchedulerUnitTest extends BaseTest {
         nanoScheduler.execute(exampleTest.makeReader(), exampleTest.makeMap(), exampleTest.initReduce(), exampleTest.makeReduce());
     }
 
+    @Test(enabled = true && ! DEBUG, timeOut = NANO_SCHEDULE_MAX_RUNTIME)
+    public void testWorkStealingMemoryBudget() throws InterruptedException {
+        final NanoSchedulerBasicTest test = new NanoSchedulerBasicTest(100, 4, 0, 1000, true, NanoScheduler.Engine.WORK_STEALING);
+        final NanoScheduler<Integer, Integer, Integer> nanoScheduler = test.makeScheduler();
+        Assert.assertEquals(nanoScheduler.getEngine(), NanoScheduler.Engine.WORK_STEALING);
+
+        // every 100th input is larger than the whole budget, which must slow us down but not deadlock
+        nanoScheduler.setMemoryBudget(1000);
+        nanoScheduler.setSizeFunction(new NSSizeFunction<Integer>() {
+            @Override public long estimateSize(Integer input) { return input % 100 == 0 ? 10000 : 100; }
+        });
+
+        final Integer sum = nanoScheduler.execute(test.makeReader(), test.makeMap(), test.initReduce(), test.makeReduce());
+        Assert.assertEquals((int)sum, test.expectedResult, "NanoScheduler sum not the same as calculated directly");
+        nanoScheduler.shutdown();
+    }
+
+    @DataProvider(name = "MapErrorTest")
+    public Object[][] createMapErrorTest() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final NanoScheduler.Engine engine : NanoScheduler.Engine.values() )
+            tests.add(new Object[]{engine});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "MapErrorTest", timeOut = EXCEPTION_THROWING_TEST_TIMEOUT)
+    public void testMapErrorReleasesPendingMaps(final NanoScheduler.Engine engine) throws InterruptedException {
+        final long pendingMapsBefore = NanoScheduler.getNumPendingMaps();
+        final NanoScheduler<Integer, Integer, Integer> nanoScheduler = new NanoScheduler<Integer, Integer, Integer>(1, 2, engine);
+        final NSMapFunction<Integer, Integer> failingMap = new NSMapFunction<Integer, Integer>() {
+            @Override public Integer apply(Integer input) { throw new ReviewedGATKException("map failed on " + input); }
+        };
+
+        try {
+            nanoScheduler.execute(exampleTest.makeReader(), failingMap, exampleTest.initReduce(), exampleTest.makeReduce());
+            Assert.fail("Expected the map error to be thrown");
+        } catch ( ReviewedGATKException e ) {
+            // expected
+        }
+
+        // other map threads may still be unwinding from their own errors, so wait for them rather than sampling once
+        while ( NanoScheduler.getNumPendingMaps() != pendingMapsBefore )
+            Thread.sleep(10);
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "MapErrorTest", timeOut = EXCEPTION_THROWING_TEST_TIMEOUT)
+    public void testReduceErrorReleasesPendingReduces(final NanoScheduler.Engine engine) throws InterruptedException {
+        final long pendingReducesBefore = NanoScheduler.getNumPendingReduces();
+        final NanoScheduler<Integer, Integer, Integer> nanoScheduler = new NanoScheduler<Integer, Integer, Integer>(100, 2, engine);
+        final NSReduceFunction<Integer, Integer> failingReduce = new NSReduceFunction<Integer, Integer>() {
+            @Override public Integer apply(Integer one, Integer sum) { throw new ReviewedGATKException("reduce failed on " + one); }
+        };
+
+        try {
+            nanoScheduler.execute(exampleTest.makeReader(), exampleTest.makeMap(), exampleTest.initReduce(), failingReduce);
+            Assert.fail("Expected the reduce error to be thrown");
+        } catch ( ReviewedGATKException e ) {
+            // expected
+        }
+
+        // map threads may still be publishing results when the error is thrown, so wait for them rather than sampling once
+        while ( NanoScheduler.getNumPendingReduces() != pendingReducesBefore )
+            Thread.sleep(10);
+    }
+
     @DataProvider(name = "NanoSchedulerInputExceptionTest")
     public Object[][] createNanoSchedulerInputExceptionTest() {
         List<Object[]> tests = new ArrayList<Object[]>();
@@ -257,10 +330,12 @@ public class NanoSchedulerUnitTest extends BaseTest {
         for ( final int bufSize : Arrays.asList(100) ) {
             for ( final int nThreads : Arrays.asList(8) ) {
                 for ( final boolean addDelays : Arrays.asList(true, false) ) {
-                    final NanoSchedulerBasicTest test = new NanoSchedulerBasicTest(bufSize, nThreads, 1, 1000000, false);
-                    final int maxN = addDelays ? 1000 : 10000;
-                    for ( int nElementsBeforeError = 0; nElementsBeforeError < maxN; nElementsBeforeError += Math.max(nElementsBeforeError / 10, 1) ) {
-                        tests.add(new Object[]{nElementsBeforeError, test, addDelays});
+                    for ( final NanoScheduler.Engine engine : NanoScheduler.Engine.values() ) {
+                        final NanoSchedulerBasicTest test = new NanoSchedulerBasicTest(bufSize, nThreads, 1, 1000000, false, engine);
+                        final int maxN = addDelays ? 1000 : 10000;
+                        for ( int nElementsBeforeError = 0; nElementsBeforeError < maxN; nElementsBeforeError += Math.max(nElementsBeforeError / 10, 1) ) {
+                            tests.add(new Object[]{nElementsBeforeError, test, addDelays});
+                        }
                     }
                 }
             }
@@ -0,0 +1,141 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class HybridLoglessPairHMMUnitTest extends BaseTest {
+    private final static byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    private static byte[] randomBases(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = BASES[random.nextInt(BASES.length)];
+        return bases;
+    }
+
+    private static byte[] constant(final int length, final int value) {
+        final byte[] array = new byte[length];
+        Arrays.fill(array, (byte)value);
+        return array;
+    }
+
+    private static double compute(final PairHMM hmm, final byte[] haplotype, final byte[] read, final int baseQual, final boolean recache) {
+        return hmm.computeReadLikelihoodGivenHaplotypeLog10(haplotype, read, constant(read.length, baseQual),
+                constant(read.length, 45), constant(read.length, 45), constant(read.length, 10), recache, null);
+    }
+
+    @DataProvider(name = "ReadAndHaplotypes")
+    public Object[][] makeReadAndHaplotypes() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        final Random random = new Random(17);
+        for ( final int readLength : Arrays.asList(1, 10, 76, 150) ) {
+            for ( final int extraHaplotypeLength : Arrays.asList(0, 5, 100) ) {
+                for ( final int mismatchEvery : Arrays.asList(0, 10, 2) ) {
+                    final byte[] haplotype = randomBases(random, readLength + extraHaplotypeLength);
+                    final int start = extraHaplotypeLength == 0 ? 0 : random.nextInt(extraHaplotypeLength);
+                    final byte[] read = Arrays.copyOfRange(haplotype, start, start + readLength);
+                    for ( int i = 0; mismatchEvery > 0 && i < read.length; i += mismatchEvery )
+                        read[i] = read[i] == 'T' ? (byte)'G' : (byte)'T';
+                    tests.add(new Object[]{haplotype, read});
+                }
+            }
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "ReadAndHaplotypes")
+    public void testMatchesExactLog10PairHMM(final byte[] haplotype, final byte[] read) {
+        final Log10PairHMM exact = new Log10PairHMM(true);
+        exact.initialize(read.length, haplotype.length);
+        final HybridLoglessPairHMM hybrid = new HybridLoglessPairHMM();
+        hybrid.initialize(read.length, haplotype.length);
+
+        final double expected = compute(exact, haplotype, read, 30, true);
+        final double actual = compute(hybrid, haplotype, read, 30, true);
+        // double precision results are as good as the exact ones, single precision ones within 1e-3
+        Assert.assertEquals(actual, expected, hybrid.getNumberOfDoublePrecisionPairs() > 0 ? 1e-6 : 1e-3);
+        Assert.assertEquals(hybrid.getNumberOfPairs(), 1);
+    }
+
+    @Test
+    public void testOnlyUnderflowingPairsUseDoublePrecision() {
+        final Random random = new Random(5);
+        final byte[] haplotype = randomBases(random, 300);
+        final byte[] goodRead = Arrays.copyOfRange(haplotype, 100, 200);
+        final byte[] badRead = goodRead.clone();
+        for ( int i = 0; i < badRead.length; i++ )
+            badRead[i] = badRead[i] == 'A' ? (byte)'C' : (byte)'A';
+
+        final HybridLoglessPairHMM hybrid = new HybridLoglessPairHMM();
+        final Log10PairHMM exact = new Log10PairHMM(true);
+        hybrid.initialize(100, 300);
+        exact.initialize(100, 300);
+
+        Assert.assertEquals(compute(hybrid, haplotype, goodRead, 30, true), compute(exact, haplotype, goodRead, 30, true), 1e-3);
+        Assert.assertEquals(hybrid.getNumberOfDoublePrecisionPairs(), 0);
+        Assert.assertEquals(compute(hybrid, haplotype, badRead, 40, true), compute(exact, haplotype, badRead, 40, true), 1e-6);
+        Assert.assertEquals(hybrid.getNumberOfDoublePrecisionPairs(), 1);
+        Assert.assertEquals(hybrid.getNumberOfPairs(), 2);
+    }
+
+    @Test
+    public void testCachingMatchesFreshComputation() {
+        final Random random = new Random(23);
+        final byte[] reference = randomBases(random, 200);
+        final List<byte[]> haplotypes = new ArrayList<byte[]>();
+        haplotypes.add(reference);
+        for ( final int position : Arrays.asList(150, 60, 199, 0) ) {
+            final byte[] alt = reference.clone();
+            alt[position] = alt[position] == 'A' ? (byte)'C' : (byte)'A';
+            haplotypes.add(alt);
+        }
+
+        for ( final byte[] read : Arrays.asList(Arrays.copyOfRange(reference, 50, 150), randomBases(random, 100)) ) {
+            final HybridLoglessPairHMM cached = new HybridLoglessPairHMM();
+            cached.initialize(read.length, reference.length);
+            final byte[] quals = constant(read.length, 30);
+            final byte[] gcp = constant(read.length, 10);
+            for ( int h = 0; h < haplotypes.size(); h++ ) {
+                final byte[] next = h == haplotypes.size() - 1 ? null : haplotypes.get(h + 1);
+                final double actual = cached.computeReadLikelihoodGivenHaplotypeLog10(haplotypes.get(h), read, quals, quals, quals, gcp, h == 0, next);
+
+                final HybridLoglessPairHMM fresh = new HybridLoglessPairHMM();
+                fresh.initialize(read.length, reference.length);
+                final double expected = fresh.computeReadLikelihoodGivenHaplotypeLog10(haplotypes.get(h), read, quals, quals, quals, gcp, true, null);
+                Assert.assertEquals(actual, expected, 1e-9, "haplotype " + h);
+            }
+        }
+    }
+}
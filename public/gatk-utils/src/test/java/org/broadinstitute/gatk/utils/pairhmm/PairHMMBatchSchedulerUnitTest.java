@@ -0,0 +1,248 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.genotyper.IndexedAlleleList;
+import org.broadinstitute.gatk.utils.genotyper.IndexedSampleList;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PairHMMBatchSchedulerUnitTest extends BaseTest {
+    private final static String SAMPLE = "sample";
+    private final static byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    private static final PairHMMBatchScheduler.PairHMMFactory FACTORY = new PairHMMBatchScheduler.PairHMMFactory() {
+        @Override
+        public PairHMM createPairHMM() {
+            return new VectorizedLoglessPairHMM(false);
+        }
+    };
+
+    /**
+     * An active region: haplotypes, reads and the likelihoods to fill
+     */
+    private static class Region {
+        final ReadLikelihoods<Haplotype> likelihoods;
+        final List<GATKSAMRecord> reads;
+        final Map<GATKSAMRecord, byte[]> gcp = new HashMap<GATKSAMRecord, byte[]>();
+
+        Region(final Random random, final int nHaplotypes, final int nReads) {
+            final List<Haplotype> haplotypes = new ArrayList<Haplotype>();
+            final byte[] reference = randomBases(random, 50 + random.nextInt(150));
+            haplotypes.add(new Haplotype(reference, true));
+            for ( int h = 1; h < nHaplotypes; h++ ) {
+                final byte[] alt = reference.clone();
+                alt[random.nextInt(alt.length)] = 'N';
+                alt[h % alt.length] = alt[h % alt.length] == 'A' ? (byte)'C' : (byte)'A';
+                haplotypes.add(new Haplotype(alt, false));
+            }
+
+            reads = new ArrayList<GATKSAMRecord>();
+            for ( int r = 0; r < nReads; r++ ) {
+                final int length = 10 + random.nextInt(Math.min(reference.length, 100) - 10);
+                final int start = random.nextInt(reference.length - length + 1);
+                final byte[] bases = Arrays.copyOfRange(reference, start, start + length);
+                final byte[] quals = new byte[length];
+                Arrays.fill(quals, (byte)(20 + random.nextInt(20)));
+                final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(bases, quals, length + "M");
+                read.setReadName("read" + r);
+                final byte[] readGCP = new byte[length];
+                Arrays.fill(readGCP, (byte)10);
+                gcp.put(read, readGCP);
+                reads.add(read);
+            }
+
+            likelihoods = new ReadLikelihoods<Haplotype>(new IndexedSampleList(SAMPLE), new IndexedAlleleList<Haplotype>(haplotypes),
+                    Collections.singletonMap(SAMPLE, reads));
+        }
+
+        ReadLikelihoods.Matrix<Haplotype> matrix() {
+            return likelihoods.sampleMatrix(0);
+        }
+    }
+
+    private static byte[] randomBases(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = BASES[random.nextInt(BASES.length)];
+        return bases;
+    }
+
+    private static List<Region> makeRegions(final int nRegions) {
+        final Random random = new Random(13);
+        final List<Region> regions = new ArrayList<Region>();
+        for ( int i = 0; i < nRegions; i++ )
+            regions.add(new Region(random, 1 + random.nextInt(4), random.nextInt(30)));
+        return regions;
+    }
+
+    private static void assertSameAsSerial(final Region region) {
+        final ReadLikelihoods<Haplotype> expected = new ReadLikelihoods<Haplotype>(new IndexedSampleList(SAMPLE),
+                new IndexedAlleleList<Haplotype>(region.matrix().alleles()), Collections.singletonMap(SAMPLE, region.reads));
+        FACTORY.createPairHMM().computeLikelihoods(expected.sampleMatrix(0), region.reads, region.gcp);
+
+        final ReadLikelihoods.Matrix<Haplotype> actual = region.matrix();
+        for ( int a = 0; a < actual.alleleCount(); a++ )
+            for ( int r = 0; r < region.reads.size(); r++ )
+                Assert.assertEquals(actual.get(a, r), expected.sampleMatrix(0).get(a, r), "likelihood differs for allele " + a + " read " + r);
+    }
+
+    @DataProvider(name = "SchedulerParameters")
+    public Object[][] makeSchedulerParameters() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int nThreads : Arrays.asList(1, 3) )
+            for ( final int batchSize : Arrays.asList(1, 200, 100000) )
+                for ( final int nCallers : Arrays.asList(1, 4) )
+                    tests.add(new Object[]{nThreads, batchSize, nCallers});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "SchedulerParameters")
+    public void testConcurrentCallersMatchSerial(final int nThreads, final int batchSize, final int nCallers) throws Exception {
+        final PairHMMBatchScheduler scheduler = new PairHMMBatchScheduler(FACTORY, nThreads, batchSize, 2);
+        final List<Region> regions = makeRegions(20);
+
+        final ExecutorService callers = Executors.newFixedThreadPool(nCallers);
+        final List<Future<?>> results = new ArrayList<Future<?>>();
+        for ( final Region region : regions ) {
+            results.add(callers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler.computeLikelihoods(region.matrix(), region.reads, region.gcp);
+                }
+            }));
+        }
+        for ( final Future<?> result : results )
+            result.get();
+        callers.shutdown();
+        scheduler.shutdown();
+
+        for ( final Region region : regions )
+            assertSameAsSerial(region);
+    }
+
+    @Test
+    public void testSubmitWaitsForBatchOrFlush() {
+        final PairHMMBatchScheduler scheduler = new PairHMMBatchScheduler(FACTORY, 2, 100000, 0);
+        final List<Region> regions = makeRegions(5);
+        final List<PairHMMBatchScheduler.Submission> submissions = new ArrayList<PairHMMBatchScheduler.Submission>();
+        for ( final Region region : regions )
+            submissions.add(scheduler.submit(region.matrix(), region.reads, region.gcp));
+
+        Assert.assertEquals(scheduler.getNumberOfBatches(), 0);
+        scheduler.flush();
+        Assert.assertEquals(scheduler.getNumberOfBatches(), 1);
+        for ( final PairHMMBatchScheduler.Submission submission : submissions ) {
+            submission.await();
+            Assert.assertTrue(submission.isDone());
+        }
+        scheduler.shutdown();
+
+        for ( final Region region : regions )
+            assertSameAsSerial(region);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testErrorsAreReportedToTheCaller() {
+        final PairHMMBatchScheduler scheduler = new PairHMMBatchScheduler(FACTORY, 1, 1, 0);
+        final Region region = makeRegions(1).get(0);
+        final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(new byte[]{'A', 'C'}, new byte[]{30, 30}, "2M");
+        // a gap continuation penalty array of the wrong length makes the PairHMM fail
+        region.gcp.put(read, new byte[]{10});
+        final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>(region.reads);
+        reads.add(read);
+        final ReadLikelihoods<Haplotype> likelihoods = new ReadLikelihoods<Haplotype>(new IndexedSampleList(SAMPLE),
+                new IndexedAlleleList<Haplotype>(region.matrix().alleles()), Collections.singletonMap(SAMPLE, reads));
+        try {
+            scheduler.computeLikelihoods(likelihoods.sampleMatrix(0), reads, region.gcp);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testFailureToCreatePairHMMIsReportedToEveryCaller() {
+        final PairHMMBatchScheduler scheduler = new PairHMMBatchScheduler(new PairHMMBatchScheduler.PairHMMFactory() {
+            @Override
+            public PairHMM createPairHMM() {
+                throw new IllegalStateException("no PairHMM for you");
+            }
+        }, 2, 100000, 0);
+
+        final List<PairHMMBatchScheduler.Submission> submissions = new ArrayList<PairHMMBatchScheduler.Submission>();
+        for ( final Region region : makeRegions(5) )
+            if ( ! region.reads.isEmpty() )
+                submissions.add(scheduler.submit(region.matrix(), region.reads, region.gcp));
+        Assert.assertFalse(submissions.isEmpty());
+        scheduler.flush();
+
+        // every submission must finish, with the error, rather than wait forever
+        for ( final PairHMMBatchScheduler.Submission submission : submissions ) {
+            try {
+                submission.await();
+                Assert.fail("Expected the PairHMM factory error");
+            } catch (IllegalStateException e) {
+                Assert.assertEquals(e.getMessage(), "no PairHMM for you");
+            }
+            Assert.assertTrue(submission.isDone());
+        }
+        scheduler.shutdown();
+    }
+
+    @Test(timeOut = 60000)
+    public void testShutdownRunsPendingWork() {
+        final PairHMMBatchScheduler scheduler = new PairHMMBatchScheduler(FACTORY, 2, 100000, 0);
+        final List<Region> regions = makeRegions(5);
+        final List<PairHMMBatchScheduler.Submission> submissions = new ArrayList<PairHMMBatchScheduler.Submission>();
+        for ( final Region region : regions )
+            submissions.add(scheduler.submit(region.matrix(), region.reads, region.gcp));
+
+        scheduler.shutdown();
+        for ( final PairHMMBatchScheduler.Submission submission : submissions )
+            Assert.assertTrue(submission.isDone());
+        for ( final Region region : regions )
+            assertSameAsSerial(region);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSubmitAfterShutdown() {
+        final PairHMMBatchScheduler scheduler = new PairHMMBatchScheduler(FACTORY, 1);
+        scheduler.shutdown();
+        final Region region = makeRegions(2).get(1);
+        scheduler.submit(region.matrix(), region.reads, region.gcp);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class VectorizedLoglessPairHMMUnitTest extends BaseTest {
+    private final static byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    @DataProvider(name = "ReadAndHaplotypes")
+    public Object[][] makeReadAndHaplotypes() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        final Random random = new Random(42);
+
+        for ( final int readLength : Arrays.asList(1, 2, 5, 20, 101) ) {
+            for ( final int extraHaplotypeLength : Arrays.asList(0, 1, 10, 60) ) {
+                for ( final int baseQual : Arrays.asList(10, 30, 45) ) {
+                    final byte[] haplotype = randomBases(random, readLength + extraHaplotypeLength);
+                    final int start = extraHaplotypeLength == 0 ? 0 : random.nextInt(extraHaplotypeLength);
+                    final byte[] read = Arrays.copyOfRange(haplotype, start, start + readLength);
+
+                    // exact copy, a copy with substitutions and N bases, and a read that does not come from the haplotype
+                    tests.add(new Object[]{haplotype, read, baseQual});
+                    final byte[] mutated = read.clone();
+                    for ( int i = 0; i < mutated.length; i += 7 )
+                        mutated[i] = mutated[i] == 'A' ? (byte)'C' : (byte)'A';
+                    if ( mutated.length > 3 )
+                        mutated[3] = 'N';
+                    tests.add(new Object[]{haplotype, mutated, baseQual});
+                    tests.add(new Object[]{haplotype, randomBases(random, readLength), baseQual});
+                }
+            }
+        }
+
+        // reads with an insertion and a deletion relative to the haplotype
+        final byte[] haplotype = randomBases(random, 120);
+        final byte[] withInsertion = new byte[81];
+        System.arraycopy(haplotype, 20, withInsertion, 0, 40);
+        withInsertion[40] = 'G';
+        System.arraycopy(haplotype, 60, withInsertion, 41, 40);
+        tests.add(new Object[]{haplotype, withInsertion, 30});
+        final byte[] withDeletion = new byte[80];
+        System.arraycopy(haplotype, 20, withDeletion, 0, 40);
+        System.arraycopy(haplotype, 63, withDeletion, 40, 40);
+        tests.add(new Object[]{haplotype, withDeletion, 30});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    private static byte[] randomBases(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = BASES[random.nextInt(BASES.length)];
+        return bases;
+    }
+
+    private static double computeLikelihood(final PairHMM hmm, final byte[] haplotype, final byte[] read, final int baseQual) {
+        final byte[] quals = new byte[read.length];
+        Arrays.fill(quals, (byte)baseQual);
+        final byte[] insQuals = new byte[read.length];
+        Arrays.fill(insQuals, (byte)45);
+        final byte[] delQuals = new byte[read.length];
+        Arrays.fill(delQuals, (byte)45);
+        final byte[] gcp = new byte[read.length];
+        Arrays.fill(gcp, (byte)10);
+        hmm.initialize(read.length, haplotype.length);
+        return hmm.computeReadLikelihoodGivenHaplotypeLog10(haplotype, read, quals, insQuals, delQuals, gcp, true, null);
+    }
+
+    @Test(dataProvider = "ReadAndHaplotypes")
+    public void testMatchesExactLog10PairHMM(final byte[] haplotype, final byte[] read, final int baseQual) {
+        final double expected = computeLikelihood(new Log10PairHMM(true), haplotype, read, baseQual);
+        final double actualDouble = computeLikelihood(new VectorizedLoglessPairHMM(false), haplotype, read, baseQual);
+        final double actualFloat = computeLikelihood(new VectorizedLoglessPairHMM(true), haplotype, read, baseQual);
+
+        Assert.assertEquals(actualDouble, expected, 1e-6, "double precision likelihood differs from the exact one");
+        Assert.assertEquals(actualFloat, expected, 1e-3, "single precision likelihood differs from the exact one");
+    }
+
+    @Test
+    public void testFallsBackToDoublePrecisionForSmallLikelihoods() {
+        final Random random = new Random(7);
+        final byte[] haplotype = randomBases(random, 300);
+        final byte[] read = haplotype.clone();
+        for ( int i = 0; i < read.length; i++ )
+            read[i] = read[i] == 'A' ? (byte)'C' : (byte)'A';
+
+        final double expected = computeLikelihood(new Log10PairHMM(true), haplotype, read, 40);
+        Assert.assertTrue(expected < -100, "test read should be far below single precision range but got " + expected);
+        Assert.assertEquals(computeLikelihood(new VectorizedLoglessPairHMM(true), haplotype, read, 40), expected, 1e-6);
+    }
+
+    @Test
+    public void testReusesInitializedHMM() {
+        final Random random = new Random(11);
+        final VectorizedLoglessPairHMM hmm = new VectorizedLoglessPairHMM();
+        final Log10PairHMM exact = new Log10PairHMM(true);
+        hmm.initialize(150, 300);
+        exact.initialize(150, 300);
+        for ( final int length : Arrays.asList(150, 30, 100, 1) ) {
+            final byte[] haplotype = randomBases(random, 2 * length);
+            final byte[] read = Arrays.copyOfRange(haplotype, length / 2, length / 2 + length);
+            final byte[] quals = new byte[length];
+            Arrays.fill(quals, (byte)30);
+            final byte[] gcp = new byte[length];
+            Arrays.fill(gcp, (byte)10);
+            final double expected = exact.computeReadLikelihoodGivenHaplotypeLog10(haplotype, read, quals, quals, quals, gcp, true, null);
+            final double actual = hmm.computeReadLikelihoodGivenHaplotypeLog10(haplotype, read, quals, quals, quals, gcp, true, null);
+            Assert.assertEquals(actual, expected, 1e-3);
+        }
+    }
+
+    @Test
+    public void testResolveImplementation() {
+        Assert.assertEquals(PairHMM.HMM_IMPLEMENTATION.VECTOR_LOGLESS_CACHING.resolve(true), PairHMM.HMM_IMPLEMENTATION.VECTOR_LOGLESS_CACHING);
+        Assert.assertEquals(PairHMM.HMM_IMPLEMENTATION.VECTOR_LOGLESS_CACHING.resolve(false), PairHMM.HMM_IMPLEMENTATION.JAVA_VECTORIZED_LOGLESS);
+        Assert.assertEquals(PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING.resolve(false), PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING);
+    }
+}
@@ -325,4 +325,109 @@ public class ReadBackedPileupUnitTest {
 
         Assert.assertEquals(pileup.getMappingQuals()[0], 200);
     }
-}
\ No newline at end of file
+
+    @DataProvider(name = "ArrayPileupTest")
+    public Object[][] makeArrayPileupTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+        for ( final int nSamples : Arrays.asList(1, 2, 5, 20) )
+            for ( final int maxReadsPerSample : Arrays.asList(0, 1, 10, 100) )
+                tests.add(new Object[]{nSamples, maxReadsPerSample});
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Pileups built by ArrayPileupBuilder must behave exactly like the equivalent pileup built from a map of per-sample pileups
+     */
+    @Test(dataProvider = "ArrayPileupTest")
+    public void testArrayPileupMatchesPerSamplePileup(final int nSamples, final int maxReadsPerSample) {
+        final Random random = new Random(nSamples * 1000 + maxReadsPerSample);
+        final CigarElement match = new CigarElement(10, htsjdk.samtools.CigarOperator.M);
+        final CigarElement deletion = new CigarElement(10, htsjdk.samtools.CigarOperator.D);
+
+        final ArrayPileupBuilder builder = new ArrayPileupBuilder(1);
+        final Map<String, ReadBackedPileupImpl> pileupsBySample = new HashMap<String, ReadBackedPileupImpl>();
+        final List<String> samples = new ArrayList<String>();
+        for ( int sampleI = 0; sampleI < nSamples; sampleI++ ) {
+            final String sample = "sample" + sampleI;
+            samples.add(sample);
+            builder.startSample(sample);
+
+            final List<PileupElement> elements = new ArrayList<PileupElement>();
+            final int nReads = maxReadsPerSample == 0 ? 0 : random.nextInt(maxReadsPerSample) + 1;
+            for ( int readI = 0; readI < nReads; readI++ ) {
+                final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, sample + "_read" + readI, 0, 1, 10);
+                read.setReadBases(Utils.dupBytes((byte) "ACGTN".charAt(random.nextInt(5)), 10));
+                read.setBaseQualities(Utils.dupBytes((byte) random.nextInt(40), 10));
+                read.setMappingQuality(random.nextInt(5) == 0 ? 0 : random.nextInt(256));
+                read.setReadNegativeStrandFlag(random.nextBoolean());
+                final PileupElement element = new PileupElement(read, random.nextInt(10), random.nextInt(5) == 0 ? deletion : match, 0, 0);
+                elements.add(element);
+                builder.add(element);
+            }
+
+            if ( ! elements.isEmpty() )
+                pileupsBySample.put(sample, new ReadBackedPileupImpl(loc, elements));
+        }
+
+        final ReadBackedPileup arrayPileup = builder.build(loc);
+        final ReadBackedPileup expected = new ReadBackedPileupImpl(loc, pileupsBySample);
+
+        assertPileupsAreEquivalent(arrayPileup, expected);
+        assertPileupsAreEquivalent(arrayPileup.getPileupWithoutDeletions(), expected.getPileupWithoutDeletions());
+        assertPileupsAreEquivalent(arrayPileup.getPileupWithoutMappingQualityZeroReads(), expected.getPileupWithoutMappingQualityZeroReads());
+        assertPileupsAreEquivalent(arrayPileup.getPositiveStrandPileup(), expected.getPositiveStrandPileup());
+        assertPileupsAreEquivalent(arrayPileup.getNegativeStrandPileup(), expected.getNegativeStrandPileup());
+        assertPileupsAreEquivalent(arrayPileup.getBaseAndMappingFilteredPileup(20, 30), expected.getBaseAndMappingFilteredPileup(20, 30));
+        assertPileupsAreEquivalent(arrayPileup.getBaseAndMappingFilteredPileup(20, 30).getNegativeStrandPileup(),
+                expected.getBaseAndMappingFilteredPileup(20, 30).getNegativeStrandPileup());
+        assertPileupsAreEquivalent(arrayPileup.getStartSortedPileup(), expected.getStartSortedPileup());
+
+        final List<String> someSamples = samples.subList(0, (nSamples + 1) / 2);
+        if ( pileupsBySample.keySet().containsAll(someSamples) )
+            assertPileupsAreEquivalent(arrayPileup.getPileupForSamples(someSamples), expected.getPileupForSamples(someSamples));
+        for ( final String sample : samples ) {
+            final ReadBackedPileup expectedForSample = expected.getPileupForSample(sample);
+            if ( expectedForSample == null )
+                Assert.assertNull(arrayPileup.getPileupForSample(sample));
+            else
+                assertPileupsAreEquivalent(arrayPileup.getPileupForSample(sample), expectedForSample);
+        }
+    }
+
+    @Test
+    public void testArrayPileupBuilderReuseDoesNotChangeBuiltPileups() {
+        final ArrayPileupBuilder builder = new ArrayPileupBuilder(1);
+        final List<GATKSAMRecord> firstReads = new ArrayList<GATKSAMRecord>();
+        builder.startSample("sample");
+        for ( int i = 0; i < 10; i++ ) {
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "first" + i, 0, 1, 10);
+            firstReads.add(read);
+            builder.add(new PileupElement(read, i, new CigarElement(10, htsjdk.samtools.CigarOperator.M), 0, 0));
+        }
+        final ReadBackedPileup first = builder.build(loc);
+        Assert.assertTrue(builder.isEmpty());
+
+        builder.startSample("sample");
+        final GATKSAMRecord secondRead = ArtificialSAMUtils.createArtificialRead(header, "second", 0, 1, 10);
+        builder.add(new PileupElement(secondRead, 0, new CigarElement(10, htsjdk.samtools.CigarOperator.M), 0, 0));
+        final ReadBackedPileup second = builder.build(loc);
+
+        Assert.assertEquals(first.getReads(), firstReads);
+        Assert.assertEquals(first.getNumberOfElements(), 10);
+        Assert.assertEquals(second.getReads(), Collections.singletonList(secondRead));
+        Assert.assertEquals(second.getNumberOfElements(), 1);
+    }
+
+    private void assertPileupsAreEquivalent(final ReadBackedPileup actual, final ReadBackedPileup expected) {
+        Assert.assertEquals(actual.getNumberOfElements(), expected.getNumberOfElements());
+        Assert.assertEquals(actual.getNumberOfDeletions(), expected.getNumberOfDeletions());
+        Assert.assertEquals(actual.getNumberOfMappingQualityZeroReads(), expected.getNumberOfMappingQualityZeroReads());
+        Assert.assertEquals(actual.getSamples(), expected.getSamples());
+        Assert.assertEquals(actual.getReads(), expected.getReads());
+        Assert.assertEquals(actual.getOffsets(), expected.getOffsets());
+        Assert.assertEquals(actual.getBases(), expected.getBases());
+        Assert.assertEquals(actual.getQuals(), expected.getQuals());
+        Assert.assertEquals(actual.getMappingQuals(), expected.getMappingQuals());
+        Assert.assertEquals(actual.getBaseCounts(), expected.getBaseCounts());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.progressmeter;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UnitTests for the ProgressMeter
+ */
+public class ProgressMeterUnitTest extends BaseTest {
+    private GenomeLocParser genomeLocParser;
+    private String contig;
+
+    @BeforeClass
+    public void init() {
+        genomeLocParser = new GenomeLocParser(ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000).getSequenceDictionary());
+        contig = genomeLocParser.getContigs().getSequence(0).getSequenceName();
+    }
+
+    private ProgressMeter makeMeter() {
+        return new ProgressMeter(null, "test", new GenomeLocSortedSet(genomeLocParser, genomeLocParser.createGenomeLoc(contig, 1, 1000000)));
+    }
+
+    @Test
+    public void testProgress() {
+        final ProgressMeter meter = makeMeter();
+        Assert.assertEquals(meter.getNumRecordsProcessed(), 0);
+        Assert.assertEquals(meter.getBpProcessed(), 0, "No progress should have been made before the first notification");
+
+        meter.notifyOfProgress(genomeLocParser.createGenomeLoc(contig, 1001), 10);
+        meter.notifyOfProgress(genomeLocParser.createGenomeLoc(contig, 501), 5);
+        Assert.assertEquals(meter.getNumRecordsProcessed(), 10, "Progress should never go backwards");
+        Assert.assertEquals(meter.getBpProcessed(), 1000, "Progress should never go backwards");
+
+        meter.notifyOfProgress(null, 20);
+        Assert.assertEquals(meter.getNumRecordsProcessed(), 20);
+        Assert.assertEquals(meter.getBpProcessed(), 1000000, "The unmapped reads come after the whole genome");
+    }
+
+    @Test(timeOut = 60 * 1000)
+    public void testConcurrentProgress() throws InterruptedException {
+        final ProgressMeter meter = makeMeter();
+        final int nThreads = 8;
+        final int nNotifications = 10000;
+
+        final List<Thread> threads = new ArrayList<Thread>(nThreads);
+        for ( int i = 0; i < nThreads; i++ ) {
+            final int thread = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // each thread makes progress over its own loci, interleaved with the others
+                    for ( int j = 0; j < nNotifications; j++ ) {
+                        final GenomeLoc loc = genomeLocParser.createGenomeLoc(contig, j * nThreads + thread + 1);
+                        meter.notifyOfProgress(loc, j * nThreads + thread + 1);
+                    }
+                }
+            }));
+        }
+        for ( final Thread thread : threads )
+            thread.start();
+        for ( final Thread thread : threads )
+            thread.join();
+
+        Assert.assertEquals(meter.getNumRecordsProcessed(), nThreads * nNotifications, "Expected the largest number of records reported");
+        Assert.assertEquals(meter.getBpProcessed(), nThreads * nNotifications - 1, "Expected the furthest position reported");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMultiBaseLocIsRejected() {
+        makeMeter().notifyOfProgress(genomeLocParser.createGenomeLoc(contig, 1, 2), 1);
+    }
+}
@@ -26,7 +26,9 @@
 package org.broadinstitute.gatk.utils.refdata.utils;
 
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.Feature;
+import htsjdk.variant.variantcontext.VariantContext;
 import org.broadinstitute.gatk.utils.BaseTest;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
@@ -37,6 +39,12 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class FeatureToGATKFeatureIteratorUnitTest extends BaseTest {
     @Test
@@ -58,4 +66,43 @@ public class FeatureToGATKFeatureIteratorUnitTest extends BaseTest {
         Assert.assertTrue(tribbleIterator.isClosed(), "Tribble iterator is open but should be now closed.");
         reader.close();
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDecodingGenotypesOnOtherThreads() throws Exception {
+        final String vcf = publicTestDir + "forMultiThreadedVariantWalkers.vcf";
+        final GenomeLocParser parser = new GenomeLocParser(new CachingIndexedFastaSequenceFile(new File(exampleFASTA)));
+
+        // the genotypes of every record, decoded on the thread reading them
+        final List<String> expectedGenotypes = new ArrayList<String>();
+        final AbstractFeatureReader plainReader = AbstractFeatureReader.getFeatureReader(vcf, new VCFCodec(), false);
+        final FeatureToGATKFeatureIterator plainIterator = new FeatureToGATKFeatureIterator(parser, plainReader.iterator(), "plain");
+        while ( plainIterator.hasNext() )
+            expectedGenotypes.add(((VariantContext)plainIterator.next().getUnderlyingObject()).getGenotypes().toString());
+        plainIterator.close();
+        plainReader.close();
+
+        // decode the genotypes on other threads while we keep reading with the same codec
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<String>> decodedGenotypes = new ArrayList<Future<String>>();
+        final AbstractFeatureReader reader = AbstractFeatureReader.getFeatureReader(vcf, new VCFCodec(), false);
+        final FeatureToGATKFeatureIterator iterator = new FeatureToGATKFeatureIterator(parser, reader.iterator(), "test", reader);
+        while ( iterator.hasNext() ) {
+            final VariantContext vc = (VariantContext)iterator.next().getUnderlyingObject();
+            Assert.assertTrue(vc.getGenotypes().isLazyWithData(), "Genotypes should only be decoded when they are accessed");
+            decodedGenotypes.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return vc.getGenotypes().toString();
+                }
+            }));
+        }
+        iterator.close();
+
+        Assert.assertEquals(decodedGenotypes.size(), expectedGenotypes.size());
+        for ( int i = 0; i < decodedGenotypes.size(); i++ )
+            Assert.assertEquals(decodedGenotypes.get(i).get(), expectedGenotypes.get(i), "Genotypes of record " + i + " differ");
+        executor.shutdown();
+        reader.close();
+    }
 }
@@ -34,9 +34,13 @@ import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.io.FileInputStream;
 import java.io.DataInputStream;
@@ -286,4 +290,173 @@ public class GATKReportUnitTest extends BaseTest {
             System.err.format("IOException: %s%n", x);
         }
     }
+
+    @Test
+    public void testTypedColumnsKeepValueTypes() {
+        final GATKReportTable table = new GATKReportTable("Typed", "typed columns", 4, GATKReportTable.TableSortingWay.DO_NOT_SORT);
+        table.addColumn("ints", "%d");
+        table.addColumn("doubles", "%.2f");
+        table.addColumn("strings", "%s");
+        table.addColumn("mixed");
+
+        table.set(0, 0, 5);
+        table.set(0, 1, 0.5);
+        table.set(0, 2, "a");
+        table.set(0, 3, 1L);
+        table.set(1, 0, 7);
+        table.set(1, 2, null);
+        table.set(1, 3, "text");
+        table.set(2, 0, "12");
+        table.set(2, 2, "a");
+        table.set(2, 3, 'c');
+
+        Assert.assertEquals(table.get(0, 0), 5);
+        Assert.assertEquals(table.get(1, 0), 7);
+        Assert.assertEquals(table.get(2, 0), 12L);
+        Assert.assertEquals(table.get(0, 1), 0.5);
+        Assert.assertNull(table.get(1, 1));
+        Assert.assertEquals(table.get(0, 2), "a");
+        Assert.assertEquals(table.get(1, 2), "null");
+        Assert.assertEquals(table.get(2, 2), "a");
+        Assert.assertEquals(table.get(0, 3), 1L);
+        Assert.assertEquals(table.get(1, 3), "text");
+        Assert.assertEquals(table.get(2, 3), 'c');
+        Assert.assertEquals(table.findRowByData(12L, 0.5), -1);
+        Assert.assertEquals(table.findRowByData(7), 1);
+    }
+
+    @Test
+    public void testRowIDs() {
+        final GATKReportTable table = new GATKReportTable("RowIDs", "row ids", 1);
+        table.addColumn("count", "%d");
+        for ( int i = 0; i < 5; i++ )
+            table.set(i, "count", i * 10);
+        table.addRowIDMapping("named", 5);
+        table.set("named", "count", 50);
+        table.increment("named", "count");
+
+        Assert.assertEquals(table.getNumRows(), 6);
+        Assert.assertEquals(table.getRowIDs().size(), 6);
+        Assert.assertTrue(table.getRowIDs().containsAll(Arrays.<Object>asList(0, 1, 2, 3, 4, "named")));
+        Assert.assertEquals(table.get(3, "count"), 30);
+        Assert.assertEquals(table.get("named", "count"), 51);
+
+        table.removeRowIDMapping(2);
+        Assert.assertFalse(table.containsRowID(2));
+        Assert.assertTrue(table.containsRowID(3));
+        Assert.assertEquals(table.get(3, "count"), 30);
+        Assert.assertEquals(table.getRowIDs().size(), 5);
+    }
+
+    @Test
+    public void testLegacySortOrder() {
+        // Longs have always been sorted by their String representation, Integers numerically
+        final GATKReportTable table = new GATKReportTable("Sorted", "sorted", 2, GATKReportTable.TableSortingWay.SORT_BY_COLUMN);
+        table.addColumn("name", "%s");
+        table.addColumn("count", "%d");
+        final long[] counts = {9L, 10L, -3L, 100L, 1L, -20L};
+        for ( int i = 0; i < counts.length; i++ ) {
+            table.set(i, 0, "same");
+            table.set(i, 1, counts[i]);
+        }
+
+        final List<String> expected = new ArrayList<String>();
+        for ( final long count : counts )
+            expected.add(Long.toString(count));
+        Collections.sort(expected);
+
+        final String[] lines = writeTable(table).split("\\n");
+        final List<String> written = new ArrayList<String>();
+        for ( int i = 3; i < 3 + counts.length; i++ )
+            written.add(lines[i].trim().split("\\s+")[1]);
+        Assert.assertEquals(written, expected);
+    }
+
+    @Test
+    public void testCompareLongsAsStrings() {
+        final Random random = new Random(42L);
+        final long[] special = {0L, 1L, -1L, 9L, 10L, 99L, 100L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        final List<Long> values = new ArrayList<Long>();
+        for ( final long value : special )
+            values.add(value);
+        for ( int i = 0; i < 200; i++ )
+            values.add(random.nextLong() >> random.nextInt(64));
+
+        for ( final long a : values ) {
+            for ( final long b : values ) {
+                Assert.assertEquals(Integer.signum(GATKReportColumnData.compareAsStrings(a, b)),
+                        Integer.signum(Long.toString(a).compareTo(Long.toString(b))), a + " vs " + b);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingWriterMatchesTable() throws IOException {
+        final GATKReport report = new GATKReport();
+        report.addTable("Streamed", "A table written row by row", 4);
+        final GATKReportTable table = report.getTable("Streamed");
+        final GATKReportTableWriter writer = new GATKReportTableWriter("Streamed", "A table written row by row");
+        for ( final String[] column : new String[][]{ {"context", "%s"}, {"cycle", "%d"}, {"errors", "%.4f"}, {"other", ""} } ) {
+            table.addColumn(column[0], column[1]);
+            writer.addColumn(column[0], column[1]);
+        }
+
+        final Random random = new Random(7L);
+        for ( int i = 0; i < 500; i++ ) {
+            final Object[] row = { "ACGT".substring(random.nextInt(4)), random.nextInt(1000) - 500, random.nextDouble() * 100, (i % 7 == 0) ? null : "value" + i };
+            for ( int j = 0; j < row.length; j++ )
+                table.set(i, j, row[j]);
+            writer.addRow(row);
+        }
+        Assert.assertEquals(writer.getNumRows(), 500);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        report.print(new PrintStream(expected));
+
+        final File file = createTempFile("GATKReportTableWriter-UnitTest", ".tbl");
+        final PrintStream out = new PrintStream(file);
+        GATKReport.printHeader(out, 1);
+        writer.write(out);
+        out.close();
+
+        final GATKReport streamed = new GATKReport(file);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        streamed.print(new PrintStream(actual));
+        Assert.assertEquals(actual.toString(), expected.toString());
+    }
+
+    @Test
+    public void testLoadSelectedTables() throws IOException {
+        final GATKReport report = new GATKReport();
+        for ( final String name : Arrays.asList("First", "Second", "Third") ) {
+            report.addTable(name, "table " + name, 2);
+            final GATKReportTable table = report.getTable(name);
+            table.addColumn("key", "%s");
+            table.addColumn("value", "%d");
+            for ( int i = 0; i < 10; i++ ) {
+                table.set(i, 0, name + i);
+                table.set(i, 1, (long) i);
+            }
+        }
+
+        final File file = createTempFile("GATKReportSelectedTables-UnitTest", ".tbl");
+        final PrintStream out = new PrintStream(file);
+        report.print(out);
+        out.close();
+
+        final GATKReport selected = new GATKReport(file, Collections.singleton("Second"));
+        Assert.assertEquals(selected.getTables().size(), 1);
+        Assert.assertTrue(selected.getTable("Second").equals(report.getTable("Second")));
+        Assert.assertEquals(selected.getTable("Second").get(9, "key"), "Second9");
+        Assert.assertEquals(selected.getTable("Second").get(9, "value"), 9L);
+        Assert.assertTrue(new GATKReport(file).equals(report));
+    }
+
+    private String writeTable(final GATKReportTable table) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(bytes);
+        table.write(out);
+        out.close();
+        return bytes.toString();
+    }
 }
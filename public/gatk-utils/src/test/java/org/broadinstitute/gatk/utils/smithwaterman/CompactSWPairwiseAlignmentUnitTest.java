@@ -0,0 +1,152 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.smithwaterman;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.Utils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CompactSWPairwiseAlignmentUnitTest extends BaseTest {
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * Makes an alternate sequence out of a piece of the reference with some SNPs, insertions and deletions
+     */
+    private static byte[] mutate(final byte[] reference, final int start, final int length, final int nEvents, final Random random) {
+        final StringBuilder alt = new StringBuilder();
+        for ( int i = start; i < Math.min(start + length, reference.length); i++ )
+            alt.append((char) reference[i]);
+        for ( int event = 0; event < nEvents && alt.length() > 10; event++ ) {
+            final int position = random.nextInt(alt.length() - 1);
+            switch ( random.nextInt(3) ) {
+                case 0: alt.setCharAt(position, (char) BASES[random.nextInt(4)]); break;
+                case 1: alt.insert(position, Utils.dupString((char) BASES[random.nextInt(4)], 1 + random.nextInt(5))); break;
+                default: alt.delete(position, Math.min(alt.length() - 1, position + 1 + random.nextInt(5)));
+            }
+        }
+        return alt.toString().getBytes();
+    }
+
+    private static byte[] randomBases(final int length, final Random random) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = BASES[random.nextInt(4)];
+        return bases;
+    }
+
+    @DataProvider(name = "AlignmentData")
+    public Object[][] makeAlignmentData() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        final Random random = new Random(42);
+
+        // some hand-made cases, including sequences of a single base
+        tests.add(new Object[]{"ACGTACGT".getBytes(), "ACGTACGT".getBytes()});
+        tests.add(new Object[]{"A".getBytes(), "A".getBytes()});
+        tests.add(new Object[]{"A".getBytes(), "C".getBytes()});
+        tests.add(new Object[]{"ACGT".getBytes(), "T".getBytes()});
+        tests.add(new Object[]{"T".getBytes(), "ACGT".getBytes()});
+        tests.add(new Object[]{"AAAAAAAAAAXAAAAAAAAAA".getBytes(), "AAAAAAAAAAYAAAAAAAAAA".getBytes()});
+        tests.add(new Object[]{"AAAAACCCCCGGGGGTTTTT".getBytes(), "AAAAAGGGGGTTTTT".getBytes()});
+
+        for ( int i = 0; i < 100; i++ ) {
+            final byte[] reference = randomBases(1 + random.nextInt(300), random);
+            final int start = random.nextInt(reference.length);
+            tests.add(new Object[]{reference, mutate(reference, start, 1 + random.nextInt(150), random.nextInt(6), random)});
+            tests.add(new Object[]{reference, randomBases(1 + random.nextInt(100), random)});
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "AlignmentData")
+    public void testSameAlignmentAsSWPairwiseAlignment(final byte[] reference, final byte[] alternate) {
+        for ( final SWParameterSet parameters : SWParameterSet.values() ) {
+            for ( final SWPairwiseAlignment.OVERHANG_STRATEGY strategy : SWPairwiseAlignment.OVERHANG_STRATEGY.values() ) {
+                final SmithWaterman expected = new SWPairwiseAlignment(reference, alternate, parameters, strategy);
+                final SmithWaterman actual = new CompactSWPairwiseAlignment(reference, alternate, parameters, strategy);
+                final String context = parameters + " " + strategy + " " + new String(reference) + " vs " + new String(alternate);
+                Assert.assertEquals(actual.getCigar(), expected.getCigar(), context);
+                Assert.assertEquals(actual.getAlignmentStart2wrt1(), expected.getAlignmentStart2wrt1(), context);
+            }
+        }
+    }
+
+    @Test(dataProvider = "AlignmentData")
+    public void testBandedAlignmentWithinBand(final byte[] reference, final byte[] alternate) {
+        // a band that covers the whole matrix gives the same answer as the full calculation
+        final int bandWidth = reference.length + alternate.length;
+        for ( final SWPairwiseAlignment.OVERHANG_STRATEGY strategy : SWPairwiseAlignment.OVERHANG_STRATEGY.values() ) {
+            final SmithWaterman expected = new SWPairwiseAlignment(reference, alternate, SWParameterSet.STANDARD_NGS, strategy);
+            final SmithWaterman actual = new CompactSWPairwiseAlignment(reference, alternate, SWParameterSet.STANDARD_NGS.parameters, strategy, 0, bandWidth);
+            Assert.assertEquals(actual.getCigar(), expected.getCigar(), strategy.toString());
+            Assert.assertEquals(actual.getAlignmentStart2wrt1(), expected.getAlignmentStart2wrt1(), strategy.toString());
+        }
+    }
+
+    @Test
+    public void testNarrowBand() {
+        final Random random = new Random(13);
+        for ( int i = 0; i < 100; i++ ) {
+            final byte[] reference = randomBases(1000, random);
+            final int start = 100 + random.nextInt(700);
+            final byte[] alternate = mutate(reference, start, 100, 3, random);
+
+            // all of the events together move the alignment by at most 15 bases
+            final SmithWaterman expected = new SWPairwiseAlignment(reference, alternate, SWParameterSet.STANDARD_NGS, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP);
+            final SmithWaterman actual = new CompactSWPairwiseAlignment(reference, alternate, SWParameterSet.STANDARD_NGS.parameters, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP, start, 20);
+            Assert.assertEquals(actual.getCigar(), expected.getCigar());
+            Assert.assertEquals(actual.getAlignmentStart2wrt1(), expected.getAlignmentStart2wrt1());
+        }
+    }
+
+    @Test
+    public void testLongSequences() {
+        // too long for the back track matrix to be stored in shorts
+        final Random random = new Random(7);
+        final byte[] reference = randomBases(Short.MAX_VALUE + 100, random);
+        final byte[] alternate = mutate(reference, 30000, 50, 2, random);
+        final SmithWaterman expected = new SWPairwiseAlignment(reference, alternate, SWParameterSet.STANDARD_NGS, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP);
+        final SmithWaterman actual = new CompactSWPairwiseAlignment(reference, alternate, SWParameterSet.STANDARD_NGS, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP);
+        Assert.assertEquals(actual.getCigar(), expected.getCigar());
+        Assert.assertEquals(actual.getAlignmentStart2wrt1(), expected.getAlignmentStart2wrt1());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBandMustReachTheEnd() {
+        new CompactSWPairwiseAlignment("ACGTACGTACGTACGTACGT".getBytes(), "ACGT".getBytes(), SWParameterSet.STANDARD_NGS.parameters, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP, 100, 5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeBandWidth() {
+        new CompactSWPairwiseAlignment("ACGT".getBytes(), "ACGT".getBytes(), SWParameterSet.STANDARD_NGS.parameters, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP, 0, -1);
+    }
+}
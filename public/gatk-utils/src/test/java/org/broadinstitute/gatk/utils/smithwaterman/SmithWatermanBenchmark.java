@@ -34,7 +34,7 @@ import org.broadinstitute.gatk.utils.Utils;
  */
 public class SmithWatermanBenchmark extends SimpleBenchmark {
 
-    @Param({"Original"})
+    @Param({"Original", "Compact", "Banded"})
     String version; // set automatically by framework
 
     @Param({"10", "50", "100", "500"})
@@ -43,6 +43,8 @@ public class SmithWatermanBenchmark extends SimpleBenchmark {
     @Param({"10", "50", "100", "500"})
     int sizeOfEndRegions; // set automatically by framework
 
+    private static final int BAND_WIDTH = 10;
+
     String refString;
     String hapString;
 
@@ -76,7 +78,12 @@ public class SmithWatermanBenchmark extends SimpleBenchmark {
             final SmithWaterman sw;
             if ( version.equals("Greedy") )
                 throw new IllegalArgumentException("Unsupported implementation");
-            sw = new SWPairwiseAlignment(refString.getBytes(), hapString.getBytes());
+            else if ( version.equals("Compact") )
+                sw = new CompactSWPairwiseAlignment(refString.getBytes(), hapString.getBytes(), SWParameterSet.ORIGINAL_DEFAULT, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP);
+            else if ( version.equals("Banded") )
+                sw = new CompactSWPairwiseAlignment(refString.getBytes(), hapString.getBytes(), SWParameterSet.ORIGINAL_DEFAULT.parameters, SWPairwiseAlignment.OVERHANG_STRATEGY.SOFTCLIP, 0, BAND_WIDTH);
+            else
+                sw = new SWPairwiseAlignment(refString.getBytes(), hapString.getBytes());
             sw.getCigar();
         }
     }
@@ -0,0 +1,106 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.variant.jexl;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.vcf.*;
+
+import java.util.*;
+
+/**
+ * Caliper microbenchmark of evaluating VariantFiltration-style match expressions, interpreted vs. compiled
+ */
+public class VariantMatchExpressionBenchmark extends SimpleBenchmark {
+    @Param({"Interpreted", "Compiled"})
+    String version; // set automatically by framework
+
+    @Param({"100"})
+    int nVariants; // set automatically by framework
+
+    @Param({"1000"})
+    int nSamples; // set automatically by framework
+
+    private static final String SITE_FILTER = "QD < 2.0 || FS > 60.0 || MQ < 40.0";
+    private static final String GENOTYPE_FILTER = "GQ < 20 || DP < 10";
+
+    private List<VariantContext> variants;
+    private VariantMatchExpression siteExpression;
+    private VariantMatchExpression genotypeExpression;
+
+    @Override protected void setUp() {
+        final Set<VCFHeaderLine> headerLines = new HashSet<VCFHeaderLine>();
+        for ( final String key : Arrays.asList("QD", "FS", "MQ") )
+            headerLines.add(new VCFInfoHeaderLine(key, 1, VCFHeaderLineType.Float, key));
+        headerLines.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.GENOTYPE_KEY));
+        headerLines.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.GENOTYPE_QUALITY_KEY));
+        headerLines.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.DEPTH_KEY));
+        final VCFHeader header = new VCFHeader(headerLines);
+
+        final boolean compile = version.equals("Compiled");
+        siteExpression = VariantMatchExpression.create(VariantContextUtils.initializeMatchExps(
+                Collections.singletonList("site"), Collections.singletonList(SITE_FILTER)), header, compile).get(0);
+        genotypeExpression = VariantMatchExpression.create(VariantContextUtils.initializeMatchExps(
+                Collections.singletonList("genotype"), Collections.singletonList(GENOTYPE_FILTER)), header, compile).get(0);
+
+        final Random random = new Random(42);
+        final Allele ref = Allele.create("A", true);
+        final Allele alt = Allele.create("C");
+        variants = new ArrayList<VariantContext>(nVariants);
+        for ( int i = 0; i < nVariants; i++ ) {
+            final List<Genotype> genotypes = new ArrayList<Genotype>(nSamples);
+            for ( int s = 0; s < nSamples; s++ )
+                genotypes.add(new GenotypeBuilder("sample" + s, Arrays.asList(ref, random.nextBoolean() ? alt : ref))
+                        .GQ(random.nextInt(99)).DP(random.nextInt(40)).make());
+            variants.add(new VariantContextBuilder("benchmark", "1", i + 1, i + 1, Arrays.asList(ref, alt))
+                    .attribute("QD", String.valueOf(random.nextDouble() * 30))
+                    .attribute("FS", String.valueOf(random.nextDouble() * 80))
+                    .attribute("MQ", String.valueOf(30 + random.nextDouble() * 30))
+                    .genotypes(genotypes).make());
+        }
+    }
+
+    public void timeSiteFilter(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            for ( final VariantContext vc : variants )
+                siteExpression.match(vc);
+        }
+    }
+
+    public void timeGenotypeFilter(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            for ( final VariantContext vc : variants ) {
+                for ( final Genotype g : vc.getGenotypes() )
+                    genotypeExpression.match(vc, g);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(VariantMatchExpressionBenchmark.class, args);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+* Copyright 2012-2016 Broad Institute, Inc.
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.variant.jexl;
+
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextUtils;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.StringReader;
+import java.util.*;
+
+public class VariantMatchExpressionUnitTest extends BaseTest {
+    private static final String HEADER =
+            "##fileformat=VCFv4.1\n" +
+            "##FILTER=<ID=LowQual,Description=\"Low quality\">\n" +
+            "##INFO=<ID=QD,Number=1,Type=Float,Description=\"QD\">\n" +
+            "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"DP\">\n" +
+            "##INFO=<ID=MQ,Number=1,Type=Float,Description=\"MQ\">\n" +
+            "##INFO=<ID=FS,Number=1,Type=Float,Description=\"FS\">\n" +
+            "##INFO=<ID=ReadPosRankSum,Number=1,Type=Float,Description=\"ReadPosRankSum\">\n" +
+            "##INFO=<ID=AC,Number=A,Type=Integer,Description=\"AC\">\n" +
+            "##INFO=<ID=AF,Number=A,Type=Float,Description=\"AF\">\n" +
+            "##INFO=<ID=DB,Number=0,Type=Flag,Description=\"DB\">\n" +
+            "##INFO=<ID=STR,Number=1,Type=String,Description=\"STR\">\n" +
+            "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"GT\">\n" +
+            "##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"AD\">\n" +
+            "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"DP\">\n" +
+            "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"GQ\">\n" +
+            "##FORMAT=<ID=FT,Number=1,Type=String,Description=\"FT\">\n" +
+            "##FORMAT=<ID=XX,Number=1,Type=Float,Description=\"XX\">\n" +
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\tS4\n";
+
+    // UNDECLARED is deliberately missing from the header
+    private static final String[] INFO_FIELDS = {"QD", "DP", "MQ", "FS", "ReadPosRankSum", "AC", "AF", "STR", "UNDECLARED"};
+
+    private static final String[] SITE_EXPRESSIONS = {
+            "QD < 2.0", "QD < 2", "2.0 > QD", "QD <= 2.5f", "QD == 3", "QD != 3.0", "DP > 10", "10 <= DP", "DP == 15", "DP != 15",
+            "DP >= 10 && QD < 5.0", "MQ < 40.0 || FS > 60.0", "QD lt 2.0 or FS gt 60.0", "QD < 2.0 and not (DP > 20)",
+            "!(QD < 2.0)", "QUAL < 30.0", "QUAL > 30", "POS > 500", "TYPE == \"SNP\"", "\"INDEL\" == TYPE",
+            "TYPE != 'SNP'", "CHROM == '1'", "FILTER == 1", "FILTER == '1'", "N_ALLELES > 2", "homVarCount > 0",
+            "hetCount + homVarCount >= 2", "DB", "DB == 1", "DB && QD < 2.0", "LowQual", "LowQual == 1",
+            "ReadPosRankSum < -2.0", "-ReadPosRankSum > 2", "ReadPosRankSum < -2", "AC == 1", "AF > 0.5",
+            "STR == 'abc'", "STR < 5", "STR < 5.0", "UNDECLARED > 2", "UNDECLARED == 'x'", "MISSING < 2",
+            "QD < 2.0 || MISSING < 2", "MISSING < 2 || QD < 2.0", "QD * 2 < 5", "DP / 2 > 5", "DP % 2 == 0",
+            "DP - 5 > 5", "(QD + 1) * 2 >= 7.5", "true", "false", "QD < 2.0 == true", "DP > 10L", "QD > 1.5e1",
+            "QD < 2.0 && vc.isSNP()", "STR =~ 'a.*'", "QD > 2 ? true : false"
+    };
+
+    private static final String[] GENOTYPE_EXPRESSIONS = {
+            "GQ < 20", "GQ < 20.0", "DP < 10", "GQ < 20 || DP < 5", "isHet == 1", "isHomVar == '1'", "isHomRef == 1 && GQ > 10",
+            "GT == 'A/C'", "FT == 'PASS'", "isPassFT == 1", "XX > 0.5", "XX > 1", "AD > 5", "QD < 2.0",
+            "MISSING < 1", "isCalled == 1", "!(GQ >= 20)", "g", "GQ * DP > 200", "lowGQ == 1"
+    };
+
+    private VCFHeader header;
+    private List<VariantContext> variants;
+
+    @BeforeClass
+    public void makeVariants() {
+        final Random random = new Random(42);
+        final StringBuilder vcf = new StringBuilder(HEADER);
+        for ( int i = 0; i < 300; i++ ) {
+            final boolean multiallelic = random.nextInt(5) == 0;
+            final String alt = multiallelic ? "C,G" : (random.nextInt(6) == 0 ? "AT" : "C");
+            final int nAlleles = multiallelic ? 3 : 2;
+            vcf.append("1\t").append(i * 10 + 1).append("\t.\tA\t").append(alt).append('\t');
+            vcf.append(random.nextInt(8) == 0 ? "." : String.format("%.2f", random.nextDouble() * 100)).append('\t');
+            vcf.append(random.nextInt(4) == 0 ? "LowQual" : (random.nextBoolean() ? "PASS" : ".")).append('\t');
+
+            final List<String> info = new ArrayList<String>();
+            for ( final String field : INFO_FIELDS ) {
+                if ( random.nextInt(6) == 0 )
+                    continue;
+                info.add(field + "=" + randomValue(field, multiallelic, random));
+            }
+            if ( random.nextBoolean() )
+                info.add("DB");
+            vcf.append(info.isEmpty() ? "." : join(";", info));
+
+            vcf.append("\tGT:AD:DP:GQ:FT:XX");
+            for ( int sample = 0; sample < 4; sample++ ) {
+                final String gt = random.nextInt(10) == 0 ? "./." : random.nextInt(nAlleles) + "/" + random.nextInt(nAlleles);
+                final String ft = random.nextInt(3) == 0 ? "lowGQ" : (random.nextBoolean() ? "PASS" : ".");
+                vcf.append('\t').append(gt).append(':').append(random.nextInt(20)).append(',').append(random.nextInt(20))
+                        .append(':').append(random.nextInt(5) == 0 ? "." : String.valueOf(random.nextInt(40)))
+                        .append(':').append(random.nextInt(5) == 0 ? "." : String.valueOf(random.nextInt(99)))
+                        .append(':').append(ft).append(':').append(random.nextInt(4) == 0 ? "." : String.format("%.3f", random.nextDouble()));
+            }
+            vcf.append('\n');
+        }
+
+        final VCFCodec codec = new VCFCodec();
+        final LineIteratorImpl lines = new LineIteratorImpl(new SynchronousLineReader(new StringReader(vcf.toString())));
+        header = (VCFHeader) codec.readActualHeader(lines);
+        variants = new ArrayList<VariantContext>();
+        while ( lines.hasNext() )
+            variants.add(codec.decode(lines.next()));
+    }
+
+    private static String randomValue(final String field, final boolean multiallelic, final Random random) {
+        switch ( random.nextInt(12) ) {
+            case 0: return ".";
+            case 1: return "abc";
+            case 2: return multiallelic ? "1,2" : "0.5";
+            default:
+                if ( field.equals("DP") || field.equals("AC") )
+                    return String.valueOf(random.nextInt(30));
+                return String.format("%.2f", random.nextGaussian() * 5);
+        }
+    }
+
+    private static String join(final String separator, final List<String> values) {
+        final StringBuilder sb = new StringBuilder();
+        for ( final String value : values )
+            sb.append(sb.length() == 0 ? "" : separator).append(value);
+        return sb.toString();
+    }
+
+    /**
+     * @return the result of the evaluation, or the class of the exception it threw
+     */
+    private interface Evaluation {
+        Object evaluate();
+    }
+
+    private static Object outcome(final Evaluation evaluation) {
+        try {
+            return evaluation.evaluate();
+        } catch ( Exception e ) {
+            return e.getClass();
+        }
+    }
+
+    @DataProvider(name = "SiteExpressions")
+    public Object[][] makeSiteExpressions() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final String expression : SITE_EXPRESSIONS )
+            tests.add(new Object[]{expression});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @DataProvider(name = "GenotypeExpressions")
+    public Object[][] makeGenotypeExpressions() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final String expression : GENOTYPE_EXPRESSIONS )
+            tests.add(new Object[]{expression});
+        return tests.toArray(new Object[][]{});
+    }
+
+    private List<VariantMatchExpression> compile(final String expression, final VCFHeader header) {
+        return VariantMatchExpression.create(
+                VariantContextUtils.initializeMatchExps(Collections.singletonList("test"), Collections.singletonList(expression)), header, true);
+    }
+
+    @Test(dataProvider = "SiteExpressions")
+    public void testSiteExpression(final String expression) {
+        for ( final VCFHeader withHeader : Arrays.asList(header, null) ) {
+            final VariantMatchExpression compiled = compile(expression, withHeader).get(0);
+            for ( final VariantContext vc : variants ) {
+                final Object expected = outcome(new Evaluation() {
+                    public Object evaluate() { return VariantContextUtils.match(vc, compiled.getJexlExpression()); }
+                });
+                final Object actual = outcome(new Evaluation() {
+                    public Object evaluate() { return compiled.match(vc); }
+                });
+                Assert.assertEquals(actual, expected, expression + " at " + vc);
+            }
+        }
+    }
+
+    @Test(dataProvider = "GenotypeExpressions")
+    public void testGenotypeExpression(final String expression) {
+        for ( final VCFHeader withHeader : Arrays.asList(header, null) ) {
+            final VariantMatchExpression compiled = compile(expression, withHeader).get(0);
+            for ( final VariantContext vc : variants ) {
+                for ( final Genotype g : vc.getGenotypes() ) {
+                    final Object expected = outcome(new Evaluation() {
+                        public Object evaluate() { return VariantContextUtils.match(vc, g, compiled.getJexlExpression()); }
+                    });
+                    final Object actual = outcome(new Evaluation() {
+                        public Object evaluate() { return compiled.match(vc, g); }
+                    });
+                    Assert.assertEquals(actual, expected, expression + " for " + g + " at " + vc);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSilentEngine() {
+        // VariantFiltration silences the JEXL engine, which changes how JEXL treats errors
+        final boolean wasSilent = VariantContextUtils.engine.get().isSilent();
+        VariantContextUtils.engine.get().setSilent(true);
+        try {
+            for ( final String expression : Arrays.asList("QD < 2", "STR < 5", "MISSING < 2 || QD < 2.0", "AF > 0.5") )
+                testSiteExpression(expression);
+            for ( final String expression : Arrays.asList("XX > 1", "QD < 2.0", "AD > 5") )
+                testGenotypeExpression(expression);
+        } finally {
+            VariantContextUtils.engine.get().setSilent(wasSilent);
+        }
+    }
+
+    @DataProvider(name = "Compilable")
+    public Object[][] makeCompilable() {
+        return new Object[][]{
+                {"QD < 2.0", true},
+                {"QD < 2.0 || FS > 60.0 && MQ < 40.0", true},
+                {"not (TYPE eq 'SNP') and DP ge 10", true},
+                {"-ReadPosRankSum > 2", true},
+                {"DB", true},
+                {"vc.isSNP()", false},
+                {"QD < 2.0 && vc.getGenotype('NA12878').isHet()", false},
+                {"STR =~ 'a.*'", false},
+                {"QD > 2 ? true : false", false},
+                {"set == 'Intersection'", true},
+                {"dbSNP.rs == 1", false},
+                {"size(ALLELES) > 2", false},
+        };
+    }
+
+    @Test(dataProvider = "Compilable")
+    public void testIsCompiled(final String expression, final boolean compilable) {
+        Assert.assertEquals(compile(expression, header).get(0).isCompiled(), compilable);
+    }
+
+    @Test
+    public void testInterpretedOnRequest() {
+        final List<VariantMatchExpression> expressions = VariantMatchExpression.create(
+                VariantContextUtils.initializeMatchExps(Arrays.asList("a", "b"), Arrays.asList("QD < 2.0", "DP > 10")), header, false);
+        Assert.assertEquals(expressions.size(), 2);
+        Assert.assertEquals(expressions.get(0).name, "a");
+        Assert.assertEquals(expressions.get(1).name, "b");
+        Assert.assertFalse(expressions.get(0).isCompiled());
+        Assert.assertFalse(expressions.get(1).isCompiled());
+    }
+}